@@ -0,0 +1,97 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.api.ads.adwords.keywordoptimizer.benchmarks;
+
+import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.KeywordOptimizerUtil;
+import com.google.api.ads.adwords.keywordoptimizer.TrafficEstimate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Creates randomized, but reproducible input data for the benchmarks.
+ */
+final class BenchmarkEstimates {
+  private static final long SEED = 42L;
+
+  private static final String[] VARIABLES = {
+    "mean.clicksPerDay",
+    "max.impressionsPerDay",
+    "min.averageCpc",
+    "mean.clickThroughRate",
+    "max.averagePosition",
+    "mean.totalCost"
+  };
+
+  private BenchmarkEstimates() {}
+
+  /**
+   * Creates traffic estimates with all statistics set.
+   *
+   * @param count the number of estimates
+   * @param bidCount the number of estimates in the bid landscape of each estimate
+   * @return the estimates
+   */
+  static List<TrafficEstimate> createEstimates(int count, int bidCount) {
+    Random random = new Random(SEED);
+    List<TrafficEstimate> estimates = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      List<TrafficEstimate> bidLandscape = new ArrayList<>(bidCount);
+      for (int j = 0; j < bidCount; j++) {
+        bidLandscape.add(createEstimate(random));
+      }
+      estimates.add(
+          new TrafficEstimate(createStats(random, 1), createStats(random, 2), bidLandscape));
+    }
+    return estimates;
+  }
+
+  /**
+   * Creates a formula of the given depth, i.e. with the given number of nested parentheses. Each
+   * level adds a multiplication, an addition and a variable.
+   *
+   * @param depth the depth of the formula
+   * @return the formula
+   */
+  static String createFormula(int depth) {
+    String formula = VARIABLES[0];
+    for (int i = 1; i <= depth; i++) {
+      formula = "(" + formula + ")*" + VARIABLES[i % VARIABLES.length] + "+" + i + ".5";
+    }
+    return formula;
+  }
+
+  private static TrafficEstimate createEstimate(Random random) {
+    return new TrafficEstimate(createStats(random, 1), createStats(random, 2));
+  }
+
+  private static StatsEstimate createStats(Random random, double factor) {
+    double impressions = random.nextDouble() * 1000 * factor;
+    double clickThroughRate = random.nextDouble() * 0.1;
+    double clicks = impressions * clickThroughRate;
+    long averageCpc = 100000L + random.nextInt(2000000);
+
+    StatsEstimate stats = new StatsEstimate();
+    stats.setImpressionsPerDay((float) impressions);
+    stats.setClickThroughRate(clickThroughRate);
+    stats.setClicksPerDay((float) clicks);
+    stats.setAveragePosition(1 + random.nextDouble() * 4);
+    stats.setAverageCpc(KeywordOptimizerUtil.createMoney(averageCpc));
+    stats.setTotalCost(KeywordOptimizerUtil.createMoney((long) (clicks * averageCpc)));
+    return stats;
+  }
+}
@@ -0,0 +1,57 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.api.ads.adwords.keywordoptimizer.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks, reporting throughput (ops/sec) as well as allocation rates (by means of the
+ * {@link GCProfiler}). Unless specified otherwise, the results are also written to
+ * {@value #DEFAULT_RESULT_FILE}, which can be kept as a baseline for later comparisons. All
+ * standard JMH command line options are supported.
+ */
+public class BenchmarkRunner {
+  private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+  /**
+   * Main method.
+   *
+   * @param args JMH command line arguments
+   * @throws CommandLineOptionException in case of invalid command line arguments
+   * @throws RunnerException in case of an error running the benchmarks
+   */
+  public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+    CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+    ChainedOptionsBuilder options =
+        new OptionsBuilder().parent(commandLineOptions).addProfiler(GCProfiler.class);
+    if (commandLineOptions.getIncludes().isEmpty()) {
+      options.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+    }
+    if (!commandLineOptions.getResult().hasValue()) {
+      options.resultFormat(ResultFormatType.JSON).result(DEFAULT_RESULT_FILE);
+    }
+
+    new Runner(options.build()).run();
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.api.ads.adwords.keywordoptimizer.benchmarks;
+
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns;
+import com.google.api.ads.adwords.keywordoptimizer.TrafficEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.formula.ASTExpression;
+import com.google.api.ads.adwords.keywordoptimizer.formula.CompiledFormula;
+import com.google.api.ads.adwords.keywordoptimizer.formula.FormulaCompiler;
+import com.google.api.ads.adwords.keywordoptimizer.formula.FormulaContext;
+import com.google.api.ads.adwords.keywordoptimizer.formula.FormulaException;
+import com.google.api.ads.adwords.keywordoptimizer.formula.FormulaScoreCalculator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for parsing, compiling and evaluating score formulas of increasing depth (see
+ * {@link BenchmarkEstimates#createFormula}). Single estimates are evaluated round robin from a
+ * fixed set of randomized estimates.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormulaBenchmark {
+  // Has to be a power of two.
+  private static final int POPULATION_SIZE = 1024;
+
+  @Param({"0", "1", "4", "16"})
+  public int depth;
+
+  private String formula;
+  private ASTExpression expression;
+  private FormulaScoreCalculator calculator;
+  private List<TrafficEstimate> population;
+  private TrafficEstimate[] estimates;
+  private int index;
+
+  /**
+   * Creates the formula and the estimates.
+   */
+  @Setup
+  public void setUp() throws FormulaException {
+    formula = BenchmarkEstimates.createFormula(depth);
+    expression = FormulaScoreCalculator.parseExpression(formula);
+    calculator = new FormulaScoreCalculator(formula);
+    population = BenchmarkEstimates.createEstimates(POPULATION_SIZE, 0);
+    estimates = population.toArray(new TrafficEstimate[POPULATION_SIZE]);
+  }
+
+  /**
+   * Parses the formula into a syntax tree.
+   */
+  @Benchmark
+  public ASTExpression parse() throws FormulaException {
+    return FormulaScoreCalculator.parseExpression(formula);
+  }
+
+  /**
+   * Parses, optimizes and compiles the formula.
+   */
+  @Benchmark
+  public CompiledFormula compile() throws FormulaException {
+    return FormulaCompiler.compile(formula);
+  }
+
+  /**
+   * Evaluates the syntax tree for a single estimate, including the {@link FormulaContext} it
+   * needs.
+   */
+  @Benchmark
+  public double evaluateTree() throws FormulaException {
+    return expression.calculateScore(new FormulaContext(nextEstimate()));
+  }
+
+  /**
+   * Evaluates the compiled formula for a single estimate.
+   */
+  @Benchmark
+  public double evaluateCompiled() throws FormulaException {
+    return calculator.calculate(nextEstimate());
+  }
+
+  /**
+   * Evaluates the compiled formula for the whole population, including the extraction of the
+   * columns.
+   */
+  @Benchmark
+  public double[] evaluatePopulation() throws FormulaException {
+    return calculator.calculateAll(new EstimateColumns(population));
+  }
+
+  private TrafficEstimate nextEstimate() {
+    index = (index + 1) & (POPULATION_SIZE - 1);
+    return estimates[index];
+  }
+}
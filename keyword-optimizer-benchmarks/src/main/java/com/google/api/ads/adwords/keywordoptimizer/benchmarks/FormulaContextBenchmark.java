@@ -0,0 +1,70 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.api.ads.adwords.keywordoptimizer.benchmarks;
+
+import com.google.api.ads.adwords.keywordoptimizer.TrafficEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.formula.FormulaContext;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for constructing a {@link FormulaContext}, with and without bid landscapes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormulaContextBenchmark {
+  // Has to be a power of two.
+  private static final int POPULATION_SIZE = 1024;
+
+  @Param({"0", "3"})
+  public int bidCount;
+
+  private TrafficEstimate[] estimates;
+  private int index;
+
+  /**
+   * Creates the estimates.
+   */
+  @Setup
+  public void setUp() {
+    estimates =
+        BenchmarkEstimates.createEstimates(POPULATION_SIZE, bidCount)
+            .toArray(new TrafficEstimate[POPULATION_SIZE]);
+  }
+
+  /**
+   * Creates the context for a single estimate.
+   */
+  @Benchmark
+  public FormulaContext createContext() {
+    index = (index + 1) & (POPULATION_SIZE - 1);
+    return new FormulaContext(estimates[index]);
+  }
+}
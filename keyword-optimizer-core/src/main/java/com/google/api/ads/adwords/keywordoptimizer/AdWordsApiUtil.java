@@ -42,6 +42,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import javax.annotation.concurrent.NotThreadSafe;
 import org.slf4j.Logger;
@@ -271,4 +273,26 @@ public class AdWordsApiUtil {
     return services.get(session, interfaceClass);
   }
 
+  /**
+   * Creates several instances of a specific service that can be used by different threads in
+   * parallel. Service objects themselves are not threadsafe, so each thread should use its own one.
+   * They share an immutable copy of the session, so the session must not be changed while they
+   * are in use.
+   *
+   * @param interfaceClass the interface of the service
+   * @param count the number of service objects
+   * @return the newly created services
+   * @throws ValidationException in case the session cannot be copied
+   */
+  public <Type> List<Type> getServices(Class<Type> interfaceClass, int count)
+      throws ValidationException {
+    AdWordsSession immutableSession = session.newBuilder().buildImmutable();
+
+    List<Type> result = new ArrayList<Type>();
+    for (int i = 0; i < count; i++) {
+      result.add(services.get(immutableSession, interfaceClass));
+    }
+    return result;
+  }
+
 }
@@ -0,0 +1,202 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Helpers for bridging between the synchronous and asynchronous variants of the optimization
+ * components (see {@link AsyncTrafficEstimator}, {@link AsyncAlternativesFinder}, {@link
+ * AsyncEvaluator} and {@link AsyncSeedGenerator}).
+ */
+final class AsyncAdapters {
+  /**
+   * Executor for running blocking calls, with daemon threads created on demand.
+   */
+  static final ExecutorService BLOCKING_EXECUTOR =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("keyword-optimizer-%d").build());
+
+  private AsyncAdapters() {}
+
+  /**
+   * A call that may throw a {@link KeywordOptimizerException}.
+   */
+  interface Call<T> {
+    T call() throws KeywordOptimizerException;
+  }
+
+  /**
+   * Runs the given call on the given executor, the returned future completes exceptionally with
+   * the {@link KeywordOptimizerException} thrown by the call. Other exceptions are wrapped (see
+   * {@link #toKeywordOptimizerException}), while {@link Error}s are passed on as is, so waiting
+   * callers never hang.
+   */
+  static <T> CompletableFuture<T> supply(Call<T> call, Executor executor) {
+    CompletableFuture<T> result = new CompletableFuture<T>();
+    try {
+      executor.execute(
+          () -> {
+            try {
+              result.complete(call.call());
+            } catch (Throwable e) {
+              result.completeExceptionally(e instanceof Error ? e : toKeywordOptimizerException(e));
+            }
+          });
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  /**
+   * Waits for the given future and returns its result. A {@link KeywordOptimizerException} the
+   * future completed with is rethrown, so this should only be used for futures with a single
+   * consumer.
+   *
+   * @throws KeywordOptimizerException in case the future failed or waiting was interrupted
+   */
+  static <T> T await(CompletableFuture<T> future) throws KeywordOptimizerException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new KeywordOptimizerException("Interrupted while waiting for the AdWords API", e);
+    } catch (ExecutionException e) {
+      throw toKeywordOptimizerException(e.getCause());
+    }
+  }
+
+  /**
+   * Returns the {@link KeywordOptimizerException} behind the given failure of a future, wrapping
+   * other exceptions.
+   */
+  static KeywordOptimizerException toKeywordOptimizerException(Throwable failure) {
+    Throwable cause = failure;
+    while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+        && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    if (cause instanceof KeywordOptimizerException) {
+      return (KeywordOptimizerException) cause;
+    }
+    return new KeywordOptimizerException("Unexpected error: " + cause.getMessage(), cause);
+  }
+
+  /**
+   * Runs a synchronous {@link TrafficEstimator} on an executor.
+   */
+  static final class TrafficEstimatorAdapter implements AsyncTrafficEstimator {
+    private final TrafficEstimator estimator;
+    private final Executor executor;
+
+    TrafficEstimatorAdapter(TrafficEstimator estimator, Executor executor) {
+      this.estimator = estimator;
+      this.executor = executor;
+    }
+
+    @Override
+    public KeywordCollection estimate(KeywordCollection keywords)
+        throws KeywordOptimizerException {
+      return estimator.estimate(keywords);
+    }
+
+    @Override
+    public CompletableFuture<KeywordCollection> estimateAsync(KeywordCollection keywords) {
+      return supply(() -> estimator.estimate(keywords), executor);
+    }
+  }
+
+  /**
+   * Runs a synchronous {@link AlternativesFinder} on an executor.
+   */
+  static final class AlternativesFinderAdapter implements AsyncAlternativesFinder {
+    private final AlternativesFinder alternativesFinder;
+    private final Executor executor;
+
+    AlternativesFinderAdapter(AlternativesFinder alternativesFinder, Executor executor) {
+      this.alternativesFinder = alternativesFinder;
+      this.executor = executor;
+    }
+
+    @Override
+    public KeywordCollection derive(KeywordCollection keywords) throws KeywordOptimizerException {
+      return alternativesFinder.derive(keywords);
+    }
+
+    @Override
+    public CompletableFuture<KeywordCollection> deriveAsync(KeywordCollection keywords) {
+      return supply(() -> alternativesFinder.derive(keywords), executor);
+    }
+  }
+
+  /**
+   * Runs a synchronous {@link Evaluator} on an executor.
+   */
+  static final class EvaluatorAdapter implements AsyncEvaluator {
+    private final Evaluator evaluator;
+    private final Executor executor;
+
+    EvaluatorAdapter(Evaluator evaluator, Executor executor) {
+      this.evaluator = evaluator;
+      this.executor = executor;
+    }
+
+    @Override
+    public KeywordCollection evaluate(KeywordCollection keywords)
+        throws KeywordOptimizerException {
+      return evaluator.evaluate(keywords);
+    }
+
+    @Override
+    public CompletableFuture<KeywordCollection> evaluateAsync(KeywordCollection keywords) {
+      return supply(() -> evaluator.evaluate(keywords), executor);
+    }
+  }
+
+  /**
+   * Runs a synchronous {@link SeedGenerator} on an executor.
+   */
+  static final class SeedGeneratorAdapter implements AsyncSeedGenerator {
+    private final SeedGenerator seedGenerator;
+    private final Executor executor;
+
+    SeedGeneratorAdapter(SeedGenerator seedGenerator, Executor executor) {
+      this.seedGenerator = seedGenerator;
+      this.executor = executor;
+    }
+
+    @Override
+    public KeywordCollection generate() throws KeywordOptimizerException {
+      return seedGenerator.generate();
+    }
+
+    @Override
+    public CompletableFuture<KeywordCollection> generateAsync() {
+      return supply(seedGenerator::generate, executor);
+    }
+
+    @Override
+    public CampaignConfiguration getCampaignConfiguration() {
+      return seedGenerator.getCampaignConfiguration();
+    }
+  }
+}
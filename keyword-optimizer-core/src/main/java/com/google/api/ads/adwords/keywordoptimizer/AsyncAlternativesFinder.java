@@ -0,0 +1,72 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * An {@link AlternativesFinder} that can derive alternatives asynchronously, so that the calling
+ * thread can do other work (or issue other requests) while waiting for the AdWords API.
+ */
+public interface AsyncAlternativesFinder extends AlternativesFinder {
+  /**
+   * Asynchronously derives a list of new keywords from an existing collection (see {@link
+   * #derive}). In case of an error, the returned future completes exceptionally with a {@link
+   * KeywordOptimizerException}.
+   *
+   * @param keywords sample {@link KeywordCollection}
+   * @return a future for the alternatives / derived {@link KeywordCollection}
+   */
+  CompletableFuture<KeywordCollection> deriveAsync(KeywordCollection keywords);
+
+  /**
+   * Asynchronously derives a list of new keywords from an existing collection, passing on partial
+   * results as soon as they are available (for example, each page of results of the AdWords API).
+   * Every alternative is passed on exactly once, and all partial results together make up the
+   * complete result. The consumer may be called from another thread, but not concurrently.
+   *
+   * <p>The default implementation passes on the complete result at once.
+   *
+   * @param keywords sample {@link KeywordCollection}
+   * @param partialResultConsumer consumer of the partial results
+   * @return a future for the alternatives / derived {@link KeywordCollection}, completed after
+   *     all partial results have been passed on
+   */
+  default CompletableFuture<KeywordCollection> deriveAsync(
+      KeywordCollection keywords, Consumer<KeywordCollection> partialResultConsumer) {
+    return deriveAsync(keywords)
+        .thenApply(
+            alternatives -> {
+              partialResultConsumer.accept(alternatives);
+              return alternatives;
+            });
+  }
+
+  /**
+   * Returns an {@link AsyncAlternativesFinder} for the given alternatives finder. If it does not
+   * support asynchronous requests itself, it is called on the given executor.
+   *
+   * @param alternativesFinder the alternatives finder to be adapted
+   * @param executor the executor used for calling a synchronous alternatives finder
+   */
+  static AsyncAlternativesFinder adapt(AlternativesFinder alternativesFinder, Executor executor) {
+    if (alternativesFinder instanceof AsyncAlternativesFinder) {
+      return (AsyncAlternativesFinder) alternativesFinder;
+    }
+    return new AsyncAdapters.AlternativesFinderAdapter(alternativesFinder, executor);
+  }
+}
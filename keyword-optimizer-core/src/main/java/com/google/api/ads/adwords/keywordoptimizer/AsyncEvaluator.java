@@ -0,0 +1,47 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link Evaluator} that can evaluate keywords asynchronously, so that the calling thread can do
+ * other work (or issue other requests) while waiting for the AdWords API.
+ */
+public interface AsyncEvaluator extends Evaluator {
+  /**
+   * Asynchronously evaluates the given keywords (see {@link #evaluate}). In case of an error, the
+   * returned future completes exceptionally with a {@link KeywordOptimizerException}.
+   *
+   * @param keywords the {@link KeywordCollection} to be evaluated
+   * @return a future for a copy of the given keyword infos, with scores set
+   */
+  CompletableFuture<KeywordCollection> evaluateAsync(KeywordCollection keywords);
+
+  /**
+   * Returns an {@link AsyncEvaluator} for the given evaluator. If it does not support asynchronous
+   * requests itself, it is called on the given executor.
+   *
+   * @param evaluator the evaluator to be adapted
+   * @param executor the executor used for calling a synchronous evaluator
+   */
+  static AsyncEvaluator adapt(Evaluator evaluator, Executor executor) {
+    if (evaluator instanceof AsyncEvaluator) {
+      return (AsyncEvaluator) evaluator;
+    }
+    return new AsyncAdapters.EvaluatorAdapter(evaluator, executor);
+  }
+}
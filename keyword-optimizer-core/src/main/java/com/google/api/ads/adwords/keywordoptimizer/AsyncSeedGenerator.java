@@ -0,0 +1,46 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link SeedGenerator} that can generate the seed keywords asynchronously, so that the calling
+ * thread can do other work (or issue other requests) while waiting for the AdWords API.
+ */
+public interface AsyncSeedGenerator extends SeedGenerator {
+  /**
+   * Asynchronously generates a list of seed keywords (see {@link #generate}). In case of an error,
+   * the returned future completes exceptionally with a {@link KeywordOptimizerException}.
+   *
+   * @return a future for the generated {@link KeywordCollection}
+   */
+  CompletableFuture<KeywordCollection> generateAsync();
+
+  /**
+   * Returns an {@link AsyncSeedGenerator} for the given seed generator. If it does not support
+   * asynchronous requests itself, it is called on the given executor.
+   *
+   * @param seedGenerator the seed generator to be adapted
+   * @param executor the executor used for calling a synchronous seed generator
+   */
+  static AsyncSeedGenerator adapt(SeedGenerator seedGenerator, Executor executor) {
+    if (seedGenerator instanceof AsyncSeedGenerator) {
+      return (AsyncSeedGenerator) seedGenerator;
+    }
+    return new AsyncAdapters.SeedGeneratorAdapter(seedGenerator, executor);
+  }
+}
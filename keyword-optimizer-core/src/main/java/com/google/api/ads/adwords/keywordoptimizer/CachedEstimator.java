@@ -14,9 +14,22 @@
 
 package com.google.api.ads.adwords.keywordoptimizer;
 
-import com.google.api.ads.adwords.axis.v201809.cm.Keyword;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,52 +37,449 @@ import org.slf4j.LoggerFactory;
  * This {@link TrafficEstimator} uses an internal cache for storing {@link TrafficEstimate}s that
  * have been received already. It's basically a decorator around another {@link TrafficEstimator} in
  * order to increase efficiency.
+ *
+ * <p>This class is thread-safe, so a single instance can be shared by several optimizations
+ * running in parallel. If concurrent calls ask for the same keyword that is not cached yet, only
+ * one of them retrieves it from the nested {@link TrafficEstimator}, while the others wait for
+ * that lookup to finish (and are counted as coalesced). Estimates can also be retrieved
+ * asynchronously, in which case the nested {@link TrafficEstimator} is called asynchronously as
+ * well (on a separate thread if it only supports synchronous calls).
+ *
+ * <p>Estimates are cached per {@link CampaignConfiguration} (see {@link
+ * CampaignConfiguration#getFingerprint}), so optimizations for different campaign settings can
+ * share an instance without mixing up their estimates, while configurations with the same settings
+ * reuse each other's estimates.
+ *
+ * <p>By default the cache grows without limit. Use {@link #builder} to bound it by number of
+ * entries or (approximate) memory and to let entries expire after some time. A bounded cache evicts
+ * the least recently used entries, but once it is full, a retrieved estimate only replaces one of
+ * them if its keyword was asked for more often than the one evicted last (see {@link
+ * TinyLfuAdmission}). This keeps keywords asked for only once from flushing out popular ones.
  */
-public class CachedEstimator implements TrafficEstimator {
+public class CachedEstimator implements AsyncTrafficEstimator {
   private static final Logger logger = LoggerFactory.getLogger(CachedEstimator.class);
 
-  // Map storing keyword information by keyword.
-  private final Map<Keyword, KeywordInfo> cache;
+  // Approximate heap size of a cached estimate (without the keyword text) in bytes.
+  private static final int ENTRY_WEIGHT = 600;
+
+  // Map storing retrieved traffic estimates by keyword and campaign settings.
+  private final Cache<EstimateCacheKey, TrafficEstimate> entries;
+  private final ConcurrentMap<EstimateCacheKey, TrafficEstimate> cache;
+
+  // Lookups still being retrieved, kept apart from the cache so they are never evicted.
+  private final ConcurrentMap<EstimateCacheKey, CompletableFuture<TrafficEstimate>> pending;
   private final TrafficEstimator estimator;
+  private final AsyncTrafficEstimator asyncEstimator;
+
+  // Admission filter of a bounded cache, null if the cache grows without limit.
+  @Nullable private final TinyLfuAdmission<EstimateCacheKey> admission;
+
+  private final LongAdder hitCount;
+  private final LongAdder missCount;
+  private final LongAdder coalescedCount;
 
   /**
    * Creates a new {@link CachedEstimator} around an existing {@link TrafficEstimator}.
-   * 
+   *
    * @param estimator the nested {@link TrafficEstimator}, which will be used
    *                  whenever no entry is found in the cache
    */
   public CachedEstimator(TrafficEstimator estimator) {
+    this(estimator, CacheBuilder.newBuilder(), null);
+  }
+
+  /**
+   * Creates a new {@link CachedEstimator} with the given cache settings.
+   *
+   * @param estimator the nested {@link TrafficEstimator}
+   * @param cacheBuilder the settings for the cache
+   * @param admission the admission filter of a bounded cache, or {@code null} to cache all
+   *     estimates
+   */
+  private CachedEstimator(
+      TrafficEstimator estimator,
+      CacheBuilder<Object, Object> cacheBuilder,
+      @Nullable TinyLfuAdmission<EstimateCacheKey> admission) {
     this.estimator = estimator;
-    cache = new HashMap<>();
+    asyncEstimator = AsyncTrafficEstimator.adapt(estimator, AsyncAdapters.BLOCKING_EXECUTOR);
+    this.admission = admission;
+    if (admission != null) {
+      entries =
+          cacheBuilder
+              .recordStats()
+              .<EstimateCacheKey, TrafficEstimate>removalListener(admission::onRemoval)
+              .build();
+    } else {
+      entries = cacheBuilder.recordStats().build();
+    }
+    cache = entries.asMap();
+    pending = new ConcurrentHashMap<>();
+    hitCount = new LongAdder();
+    missCount = new LongAdder();
+    coalescedCount = new LongAdder();
   }
 
   @Override
   public KeywordCollection estimate(KeywordCollection keywords) throws KeywordOptimizerException {
-    KeywordCollection cachedEstimates = new KeywordCollection(keywords.getCampaignConfiguration());
-    KeywordCollection retrieveKeywords = new KeywordCollection(keywords.getCampaignConfiguration());
-
-    // Check if there are any keywords already in the cache.
-    for (KeywordInfo givenInfo : keywords) {
-      KeywordInfo cachedInfo = cache.get(givenInfo.getKeyword());
-
-      // Check if there is a cached entry related to that key which is equal to the keyword.
-      if (cachedInfo != null) {
-        cachedEstimates.add(cachedInfo);
-      } else {
-        retrieveKeywords.add(givenInfo);
+    Request request = new Request(keywords);
+
+    // Actually retrieve stats for all keywords that are not cached.
+    // Any failure, including errors, has to release the lookups waiting calls depend on.
+    if (request.retrieveKeywords.size() > 0) {
+      try {
+        request.complete(estimator.estimate(request.retrieveKeywords));
+      } catch (Throwable e) {
+        request.fail(e);
+        throw e;
       }
     }
 
+    // Wait for the lookups of other calls.
+    for (Entry<KeywordInfo, CompletableFuture<TrafficEstimate>> lookup : request.otherLookups) {
+      addEstimate(request.estimates, lookup.getKey(), await(lookup.getValue()));
+    }
+
+    return request.finish();
+  }
+
+  @Override
+  public CompletableFuture<KeywordCollection> estimateAsync(KeywordCollection keywords) {
+    final Request request = new Request(keywords);
+
     // Actually retrieve stats for all keywords that are not cached.
-    KeywordCollection estimates = estimator.estimate(retrieveKeywords);
-    for (KeywordInfo estimate : estimates) {
-      cache.put(estimate.getKeyword(), estimate);
-      estimates.add(estimate);
+    CompletableFuture<Void> retrieval = CompletableFuture.completedFuture(null);
+    if (request.retrieveKeywords.size() > 0) {
+      retrieval =
+          asyncEstimator
+              .estimateAsync(request.retrieveKeywords)
+              .handle(
+                  (retrieved, error) -> {
+                    if (error != null) {
+                      KeywordOptimizerException e =
+                          AsyncAdapters.toKeywordOptimizerException(error);
+                      request.fail(e);
+                      throw new CompletionException(e);
+                    }
+                    try {
+                      request.complete(retrieved);
+                    } catch (Throwable e) {
+                      request.fail(e);
+                      throw e;
+                    }
+                    return null;
+                  });
+    }
+
+    // Then wait for the lookups of other calls.
+    final CompletableFuture<?>[] otherLookups =
+        new CompletableFuture<?>[request.otherLookups.size()];
+    for (int i = 0; i < otherLookups.length; i++) {
+      otherLookups[i] = request.otherLookups.get(i).getValue();
     }
+    return retrieval.thenCompose(
+        ignored ->
+            CompletableFuture.allOf(otherLookups)
+                .handle(
+                    (ignoredToo, error) -> {
+                      if (error != null) {
+                        throw new CompletionException(
+                            new KeywordOptimizerException(
+                                "Problem while retrieving traffic estimates",
+                                AsyncAdapters.toKeywordOptimizerException(error)));
+                      }
+                      for (Entry<KeywordInfo, CompletableFuture<TrafficEstimate>> lookup :
+                          request.otherLookups) {
+                        addEstimate(request.estimates, lookup.getKey(), lookup.getValue().join());
+                      }
+                      return request.finish();
+                    }));
+  }
+
+  /**
+   * Waits for a lookup started by another call to finish.
+   *
+   * @param lookup the pending lookup
+   * @return the estimate or <code>null</code> if none could be retrieved
+   * @throws KeywordOptimizerException in case the lookup failed or waiting was interrupted
+   */
+  private static TrafficEstimate await(CompletableFuture<TrafficEstimate> lookup)
+      throws KeywordOptimizerException {
+    try {
+      return lookup.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new KeywordOptimizerException("Interrupted while waiting for traffic estimates", e);
+    } catch (ExecutionException e) {
+      throw new KeywordOptimizerException(
+          "Problem while retrieving traffic estimates", e.getCause());
+    }
+  }
 
-    logger.info("Estimated " + keywords.size() + " keywords (" + cachedEstimates.size()
-        + " cached, " + retrieveKeywords.size() + " retrieved)");
+  /**
+   * Adds a copy of the given {@link KeywordInfo} with the given estimate to a collection.
+   */
+  private static void addEstimate(
+      KeywordCollection estimates, KeywordInfo givenInfo, TrafficEstimate estimate) {
+    if (estimate != null) {
+      estimates.add(
+          new KeywordInfo(givenInfo.getKeywordId(), givenInfo.getIdeaEstimate(), estimate, null));
+    }
+  }
+
+  /**
+   * Returns the number of entries currently in the cache.
+   */
+  public long getSize() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the number of entries currently in the cache for the given campaign settings.
+   *
+   * @param campaignConfiguration the campaign settings
+   */
+  public long getSize(CampaignConfiguration campaignConfiguration) {
+    long configuration = campaignConfiguration.getFingerprint();
+    return cache.keySet().stream().filter(key -> key.getConfiguration() == configuration).count();
+  }
+
+  /**
+   * Removes all cached estimates for the given campaign settings, for example once an optimization
+   * for a campaign is finished. Estimates still being retrieved are not affected.
+   *
+   * @param campaignConfiguration the campaign settings
+   */
+  public void invalidate(CampaignConfiguration campaignConfiguration) {
+    long configuration = campaignConfiguration.getFingerprint();
+    cache.keySet().removeIf(key -> key.getConfiguration() == configuration);
+  }
+
+  /**
+   * Returns the number of entries that have been evicted due to the size limit or expiry.
+   */
+  public long getEvictionCount() {
+    return entries.stats().evictionCount();
+  }
+
+  /**
+   * Returns the ratio of keywords answered without retrieving them (cached or coalesced), or 1 if
+   * no keywords have been estimated yet.
+   */
+  public double getHitRate() {
+    long hits = getHitCount() + getCoalescedCount();
+    long total = hits + getMissCount();
+    return total == 0 ? 1.0 : (double) hits / total;
+  }
 
-    return estimates;
+  /**
+   * Returns the number of keywords that were answered from the cache.
+   */
+  public long getHitCount() {
+    return hitCount.sum();
+  }
+
+  /**
+   * Returns the number of keywords that had to be retrieved from the nested estimator.
+   */
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  /**
+   * Returns the number of keywords that waited for a lookup started by a concurrent call.
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.sum();
+  }
+
+  /**
+   * State of a single call estimating a {@link KeywordCollection}.
+   */
+  private final class Request {
+    private final KeywordCollection keywords;
+    private final KeywordCollection estimates;
+    private final KeywordCollection retrieveKeywords;
+
+    // Lookups this call is responsible for and lookups started by other calls.
+    private final Map<EstimateCacheKey, CompletableFuture<TrafficEstimate>> ownLookups;
+    private final List<Entry<KeywordInfo, CompletableFuture<TrafficEstimate>>> otherLookups;
+    private int cached;
+
+    /**
+     * Looks up all given keywords in the cache. Cached estimates are added to the result right
+     * away, lookups are started for all keywords that are neither cached nor being retrieved.
+     */
+    private Request(KeywordCollection keywords) {
+      CampaignConfiguration campaignConfiguration = keywords.getCampaignConfiguration();
+      this.keywords = keywords;
+      estimates = new KeywordCollection(campaignConfiguration);
+      retrieveKeywords = new KeywordCollection(campaignConfiguration);
+      ownLookups = new HashMap<>();
+      otherLookups = new ArrayList<>();
+
+      long configuration = campaignConfiguration.getFingerprint();
+      for (KeywordInfo givenInfo : keywords) {
+        EstimateCacheKey key = new EstimateCacheKey(configuration, givenInfo.getKeywordId());
+        if (admission != null) {
+          admission.record(key);
+        }
+        TrafficEstimate cachedEstimate = cache.get(key);
+        if (cachedEstimate != null) {
+          addEstimate(estimates, givenInfo, cachedEstimate);
+          cached++;
+          continue;
+        }
+
+        CompletableFuture<TrafficEstimate> lookup = new CompletableFuture<>();
+        CompletableFuture<TrafficEstimate> existing = pending.putIfAbsent(key, lookup);
+        if (existing != null) {
+          otherLookups.add(new SimpleImmutableEntry<>(givenInfo, existing));
+          continue;
+        }
+
+        // A lookup may have finished since checking the cache, so check again.
+        cachedEstimate = cache.get(key);
+        if (cachedEstimate != null) {
+          pending.remove(key, lookup);
+          lookup.complete(cachedEstimate);
+          addEstimate(estimates, givenInfo, cachedEstimate);
+          cached++;
+        } else {
+          // No entry so far, so this call has to retrieve it.
+          retrieveKeywords.add(givenInfo);
+          ownLookups.put(key, lookup);
+        }
+      }
+
+      hitCount.add(cached);
+      missCount.add(retrieveKeywords.size());
+      coalescedCount.add(otherLookups.size());
+    }
+
+    /**
+     * Completes the lookups of this call with the estimates retrieved from the nested estimator.
+     * Each admitted estimate is cached before its lookup is removed, so concurrent calls either
+     * wait for the lookup or find the estimate in the cache.
+     */
+    private void complete(KeywordCollection retrieved) {
+      CampaignConfiguration campaignConfiguration = keywords.getCampaignConfiguration();
+      for (KeywordInfo estimate : retrieved) {
+        EstimateCacheKey key = new EstimateCacheKey(campaignConfiguration, estimate.getKeywordId());
+        CompletableFuture<TrafficEstimate> lookup = ownLookups.remove(key);
+        if (lookup != null) {
+          if (estimate.getTrafficEstimate() != null
+              && (admission == null || admission.admit(key))) {
+            cache.put(key, estimate.getTrafficEstimate());
+          }
+          pending.remove(key, lookup);
+          lookup.complete(estimate.getTrafficEstimate());
+        }
+        estimates.add(estimate);
+      }
+
+      // Keywords the nested estimator did not return anything for are not cached.
+      ownLookups.forEach(
+          (key, lookup) -> {
+            pending.remove(key, lookup);
+            lookup.complete(null);
+          });
+    }
+
+    /**
+     * Fails the lookups of this call. This releases all waiting calls, the next call asking for
+     * these keywords tries again.
+     */
+    private void fail(Throwable error) {
+      ownLookups.forEach(
+          (key, lookup) -> {
+            pending.remove(key, lookup);
+            lookup.completeExceptionally(error);
+          });
+    }
+
+    /**
+     * Returns the estimates once all lookups are finished.
+     */
+    private KeywordCollection finish() {
+      logger.info("Estimated " + keywords.size() + " keywords (" + cached + " cached, "
+          + otherLookups.size() + " coalesced, " + retrieveKeywords.size() + " retrieved)");
+      return estimates;
+    }
+  }
+
+  /**
+   * Creates a new builder for a {@link CachedEstimator} around an existing {@link
+   * TrafficEstimator}.
+   *
+   * @param estimator the nested {@link TrafficEstimator}, which will be used whenever no entry is
+   *                  found in the cache
+   */
+  public static CachedEstimatorBuilder builder(TrafficEstimator estimator) {
+    return new CachedEstimatorBuilder(estimator);
+  }
+
+  /**
+   * Builder for {@link CachedEstimator}.
+   */
+  public static class CachedEstimatorBuilder {
+    private final TrafficEstimator estimator;
+    private final CacheBuilder<Object, Object> cacheBuilder;
+    private long maximumEntries;
+
+    /**
+     * Builder for {@link CachedEstimator}.
+     */
+    private CachedEstimatorBuilder(TrafficEstimator estimator) {
+      this.estimator = estimator;
+      cacheBuilder = CacheBuilder.newBuilder();
+    }
+
+    /**
+     * Limits the number of cached keywords. Cannot be combined with {@link #withMaximumWeight}.
+     *
+     * @param maximumSize the maximum number of cached keywords
+     */
+    public CachedEstimatorBuilder withMaximumSize(long maximumSize) {
+      cacheBuilder.maximumSize(maximumSize);
+      maximumEntries = maximumSize;
+      return this;
+    }
+
+    /**
+     * Limits the approximate memory used by cached keywords. Cannot be combined with {@link
+     * #withMaximumSize}.
+     *
+     * @param maximumBytes the maximum number of bytes used by cached keywords
+     */
+    public CachedEstimatorBuilder withMaximumWeight(long maximumBytes) {
+      cacheBuilder
+          .maximumWeight(maximumBytes)
+          .weigher(
+              (EstimateCacheKey key, TrafficEstimate estimate) ->
+                  ENTRY_WEIGHT + 2 * key.getText().length());
+      maximumEntries = maximumBytes / ENTRY_WEIGHT;
+      return this;
+    }
+
+    /**
+     * Lets cached keywords expire a given time after they have been retrieved.
+     *
+     * @param duration the time after which cached keywords expire
+     * @param unit the unit of the duration
+     */
+    public CachedEstimatorBuilder withExpireAfterWrite(long duration, TimeUnit unit) {
+      cacheBuilder.expireAfterWrite(duration, unit);
+      return this;
+    }
+
+    /**
+     * Create the {@link CachedEstimator} object.
+     */
+    public CachedEstimator build() {
+      return new CachedEstimator(
+          estimator,
+          cacheBuilder,
+          maximumEntries > 0 ? new TinyLfuAdmission<EstimateCacheKey>(maximumEntries) : null);
+    }
   }
 }
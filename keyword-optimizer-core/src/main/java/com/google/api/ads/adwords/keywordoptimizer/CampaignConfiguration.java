@@ -19,8 +19,12 @@ import com.google.api.ads.adwords.axis.v201809.cm.Language;
 import com.google.api.ads.adwords.axis.v201809.cm.Location;
 import com.google.api.ads.adwords.axis.v201809.cm.Money;
 import com.google.api.ads.adwords.axis.v201809.o.TrafficEstimatorService;
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -29,8 +33,13 @@ import java.util.List;
  * estimates. This class contains the settings that make up this context.
  */
 public class CampaignConfiguration {
+  private static final Joiner COMMA_JOINER = Joiner.on(",");
+
   private final ImmutableList<Criterion> additionalCriteria;
   private final Money maxCpc;
+  private final ImmutableList<Money> bidGrid;
+  private final String canonicalString;
+  private final long fingerprint;
 
   /**
    * Creates a new configuration using the given maximum CPC and a list of additional criteria. This
@@ -40,10 +49,16 @@ public class CampaignConfiguration {
    * @param maxCpc the maximum cpc (cost per click) as a {@link Money} object
    * @param additionalCriteria additional criteria (location, language, ...) used to refine the
    * traffic estimates / evaluations
+   * @param bidGrid additional maximum CPCs to obtain traffic estimates for
    */
-  private CampaignConfiguration(Money maxCpc, List<Criterion> additionalCriteria) {
+  private CampaignConfiguration(
+      Money maxCpc, List<Criterion> additionalCriteria, List<Money> bidGrid) {
     this.additionalCriteria = ImmutableList.copyOf(additionalCriteria);
     this.maxCpc = maxCpc;
+    this.bidGrid = ImmutableList.copyOf(bidGrid);
+    this.canonicalString = createCanonicalString(maxCpc, this.additionalCriteria, this.bidGrid);
+    this.fingerprint =
+        Hashing.murmur3_128().hashString(canonicalString, StandardCharsets.UTF_8).asLong();
   }
 
   /**
@@ -61,6 +76,58 @@ public class CampaignConfiguration {
     return maxCpc;
   }
 
+  /**
+   * Returns the additional maximum CPCs (as {@link Money} objects) traffic estimates are obtained
+   * for, in order to get a bid landscape for each keyword (see {@link
+   * TrafficEstimate#getBidLandscape}). The list is empty if no bid landscape is requested.
+   */
+  public ImmutableList<Money> getBidGrid() {
+    return bidGrid;
+  }
+
+  /**
+   * Returns a fingerprint of the maximum CPC, additional criteria and bid grid. Configurations
+   * with the same settings (independent of the order of the criteria) have the same fingerprint, so
+   * it can be used to share traffic estimates between them. The fingerprint is stable across runs.
+   * It is a hash of the {@link #getCanonicalString canonical string}, so different settings may
+   * share a fingerprint in rare cases.
+   */
+  public long getFingerprint() {
+    return fingerprint;
+  }
+
+  /**
+   * Returns a string describing the maximum CPC, additional criteria (sorted, identified by type
+   * and id) and bid grid. Configurations have the same string if and only if they have the same
+   * settings, independent of the order of the criteria.
+   */
+  String getCanonicalString() {
+    return canonicalString;
+  }
+
+  /**
+   * Creates the canonical string of the given settings (see {@link #getCanonicalString}).
+   */
+  private static String createCanonicalString(
+      Money maxCpc, List<Criterion> additionalCriteria, List<Money> bidGrid) {
+    List<String> criteria = new ArrayList<String>();
+    for (Criterion criterion : additionalCriteria) {
+      criteria.add(criterion.getClass().getSimpleName() + ":" + criterion.getId());
+    }
+    Collections.sort(criteria);
+
+    List<Long> bids = new ArrayList<Long>();
+    for (Money bid : bidGrid) {
+      bids.add(bid.getMicroAmount());
+    }
+
+    StringBuilder canonicalString = new StringBuilder();
+    canonicalString.append("maxCpc=").append(maxCpc != null ? maxCpc.getMicroAmount() : null);
+    COMMA_JOINER.appendTo(canonicalString.append(";criteria="), criteria);
+    COMMA_JOINER.appendTo(canonicalString.append(";bidGrid="), bids);
+    return canonicalString.toString();
+  }
+
   /**
    * Creates a new builder for {@link CampaignConfiguration}.
    */
@@ -73,6 +140,7 @@ public class CampaignConfiguration {
    */
   public static class CampaignConfigurationBuilder {
     private final List<Criterion> additionalCriteria;
+    private final List<Money> bidGrid;
     private Money maxCpc;
 
     /**
@@ -80,6 +148,7 @@ public class CampaignConfiguration {
      */
     private CampaignConfigurationBuilder() {
       additionalCriteria = new ArrayList<Criterion>();
+      bidGrid = new ArrayList<Money>();
       maxCpc = null;
     }
 
@@ -87,11 +156,15 @@ public class CampaignConfiguration {
      * Adds an additional {@link Criterion} to refine the traffic estimates / evaluations (see
      * <a href="https://goo.gl/x1wpFS">list of AdWords API criteria</a>). For example, a
      * {@link Location} limits the estimated statistics to a specific geographic area. These
-     * criteria are used when querying the {@link TrafficEstimatorService}.
+     * criteria are used when querying the {@link TrafficEstimatorService}. Criteria are identified
+     * by their type and id, so the id has to be set.
      *
      * @param criterion an additional criterion
      */
     public CampaignConfigurationBuilder withCriterion(Criterion criterion) {
+      if (criterion == null || criterion.getId() == null) {
+        throw new IllegalArgumentException("Additional criteria must have an id");
+      }
       additionalCriteria.add(criterion);
       return this;
     }
@@ -131,11 +204,25 @@ public class CampaignConfiguration {
       return this;
     }
 
+    /**
+     * Adds an additional maximum cpc to the bid grid. Traffic estimates are obtained for the
+     * maximum cpc and for each bid in the grid, which results in a bid landscape for each keyword.
+     *
+     * @param bid the additional maximum cpc (cost per click) as a {@link Money} object
+     */
+    public CampaignConfigurationBuilder withBidGridCpc(Money bid) {
+      if (bid == null || bid.getMicroAmount() == null) {
+        throw new IllegalArgumentException("Bid grid entries must have an amount");
+      }
+      bidGrid.add(bid);
+      return this;
+    }
+
     /**
      * Create the {@link CampaignConfiguration} object.
      */
     public CampaignConfiguration build() {
-      return new CampaignConfiguration(maxCpc, additionalCriteria);
+      return new CampaignConfiguration(maxCpc, additionalCriteria, bidGrid);
     }
   }
 }
@@ -14,17 +14,25 @@
 
 package com.google.api.ads.adwords.keywordoptimizer;
 
+import com.google.common.collect.ImmutableSet;
+
 /**
  * Simple implementation of a {@link ScoreCalculator}, returning mean clicks as score.
  */
 public class ClicksScoreCalculator implements ScoreCalculator {
   @Override
   public double calculate(TrafficEstimate estimate) {
-    if (estimate == null || estimate.getMean() == null) {
+    if (estimate == null || !estimate.hasStatistics(EstimateColumns.Statistics.MEAN)) {
       throw new IllegalArgumentException(
           "Neither the given estimate nor its mean value can be null");
     }
 
-    return estimate.getMean().getClicksPerDay();
+    return estimate.getValue(
+        EstimateColumns.Statistics.MEAN, EstimateColumns.Metric.CLICKS_PER_DAY);
+  }
+
+  @Override
+  public ImmutableSet<String> getRequiredVariables() {
+    return ImmutableSet.of("mean.clicksPerDay");
   }
 }
@@ -85,21 +85,9 @@ public class DefaultRoundStrategy implements RoundStrategy {
         currentPopulation.getBest(maxPopulationSize - maxNumberOfAlternatives);
     logger.info("- Trimmed population to " + nextPopulation.size());
 
-    // 2. Replicate best ones.
+    // 2. - 4. Replicate best ones, rate them and add them to the list.
     KeywordCollection bestKeywords = nextPopulation.getBest(maxNumberOfAlternatives);
-    KeywordCollection alternativeKeywords = alternativesFinder.derive(bestKeywords);
-    logger.info("- Found " + alternativeKeywords.size() + " keywords based on "
-        + maxNumberOfAlternatives + " current best");
-
-    // 3. Rate best ones.
-    KeywordCollection evaluatedAlternatives = evaluator.evaluate(alternativeKeywords);
-
-    // 4. Add the best ones to the list.
-    for (KeywordInfo evaluation : evaluatedAlternatives) {
-      if (!nextPopulation.contains(evaluation.getKeyword())) {
-        nextPopulation.add(evaluation);
-      }
-    }
+    addAlternatives(nextPopulation, bestKeywords, alternativesFinder, evaluator);
     logger.info("- Merged population, new size is " + nextPopulation.size());
 
     // 5. Trim population back to max size.
@@ -112,6 +100,48 @@ public class DefaultRoundStrategy implements RoundStrategy {
     return nextPopulation;
   }
 
+  /**
+   * Derives alternatives from the given best keywords, evaluates them and adds the ones that are
+   * not contained yet to the next population.
+   *
+   * @param nextPopulation the next round's keyword population (so far)
+   * @param bestKeywords the best keywords to derive alternatives from
+   * @param alternativesFinder for providing keyword alternatives for the best keywords
+   * @param evaluator for evaluating the alternatives
+   * @throws KeywordOptimizerException in case of an error while deriving or evaluating keywords
+   */
+  protected void addAlternatives(
+      KeywordCollection nextPopulation,
+      KeywordCollection bestKeywords,
+      AlternativesFinder alternativesFinder,
+      Evaluator evaluator)
+      throws KeywordOptimizerException {
+    // 2. Replicate best ones.
+    KeywordCollection alternativeKeywords = alternativesFinder.derive(bestKeywords);
+    logger.info("- Found " + alternativeKeywords.size() + " keywords based on "
+        + bestKeywords.size() + " current best");
+
+    // 3. Rate best ones.
+    KeywordCollection evaluatedAlternatives = evaluator.evaluate(alternativeKeywords);
+
+    // 4. Add the best ones to the list.
+    merge(nextPopulation, evaluatedAlternatives);
+  }
+
+  /**
+   * Adds all evaluated keywords that are not contained yet to the given population.
+   *
+   * @param population the keyword population
+   * @param evaluations the evaluated keywords to be added
+   */
+  protected static void merge(KeywordCollection population, KeywordCollection evaluations) {
+    for (int i = 0; i < evaluations.size(); i++) {
+      if (!population.contains(evaluations, i)) {
+        population.add(evaluations, i);
+      }
+    }
+  }
+
   @Override
   public boolean isFinished(KeywordCollection currentPopulation) {
     if (maxNumberOfSteps != null && currentStep >= maxNumberOfSteps) {
@@ -0,0 +1,94 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
+
+/**
+ * Key of a cached traffic estimate, consisting of the keyword text, match type and the fingerprint
+ * of the {@link CampaignConfiguration} it was estimated for. Estimates are only valid for the
+ * campaign settings they were made under, so the configuration fingerprint acts as a namespace.
+ */
+final class EstimateCacheKey {
+  private final long configuration;
+  private final KeywordId keyword;
+  private final int hashCode;
+
+  /**
+   * Creates a new key.
+   *
+   * @param configuration the fingerprint of the {@link CampaignConfiguration}
+   * @param keyword the identity of the keyword
+   */
+  EstimateCacheKey(long configuration, KeywordId keyword) {
+    this.configuration = configuration;
+    this.keyword = keyword;
+    this.hashCode = 31 * Long.hashCode(configuration) + keyword.hashCode();
+  }
+
+  /**
+   * Creates a new key for the given keyword estimated under the given campaign settings.
+   */
+  EstimateCacheKey(CampaignConfiguration campaignConfiguration, KeywordId keyword) {
+    this(campaignConfiguration.getFingerprint(), keyword);
+  }
+
+  /**
+   * Returns the fingerprint of the {@link CampaignConfiguration}.
+   */
+  long getConfiguration() {
+    return configuration;
+  }
+
+  /**
+   * Returns the identity of the keyword.
+   */
+  KeywordId getKeyword() {
+    return keyword;
+  }
+
+  /**
+   * Returns the keyword text.
+   */
+  String getText() {
+    return keyword.getText();
+  }
+
+  /**
+   * Returns the keyword match type.
+   */
+  KeywordMatchType getMatchType() {
+    return keyword.getMatchType();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof EstimateCacheKey)) {
+      return false;
+    }
+    EstimateCacheKey other = (EstimateCacheKey) obj;
+    return configuration == other.configuration && keyword.equals(other.keyword);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public String toString() {
+    return getText() + " (" + getMatchType() + ", " + Long.toHexString(configuration) + ")";
+  }
+}
@@ -0,0 +1,385 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import com.google.api.ads.adwords.axis.v201809.cm.Money;
+import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import javax.annotation.Nullable;
+
+/**
+ * Column-oriented view on a list of {@link TrafficEstimate}s: each metric of the minimum, mean and
+ * maximum statistics (and of the bid landscape) is available as a primitive array, holding one
+ * value per estimate (NaN if not set). If given, the metrics of the {@link IdeaEstimate}s of the
+ * same keywords are available as well. This allows {@link ScoreCalculator}s to score many estimates
+ * at once in tight loops (see {@link ScoreCalculator#calculateAll(EstimateColumns)}).
+ *
+ * <p>Columns are extracted from the estimates when they are first requested.
+ */
+public final class EstimateColumns {
+  /**
+   * The estimated statistics (minimum, mean or maximum) of a {@link TrafficEstimate}.
+   */
+  public enum Statistics {
+    MIN("min", TrafficEstimate::getMin),
+    MEAN("mean", TrafficEstimate::getMean),
+    MAX("max", TrafficEstimate::getMax);
+
+    private final String name;
+    private final Function<TrafficEstimate, StatsEstimate> getter;
+
+    Statistics(String name, Function<TrafficEstimate, StatsEstimate> getter) {
+      this.name = name;
+      this.getter = getter;
+    }
+
+    /**
+     * Returns the name of the statistics, as used in score formulas.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns these statistics of the given estimate.
+     */
+    public StatsEstimate getStats(TrafficEstimate estimate) {
+      return getter.apply(estimate);
+    }
+
+    /**
+     * Returns the value of the given metric of these statistics of the given estimate. Unlike
+     * {@code metric.getValue(getStats(estimate))}, this does not create the statistics (see
+     * {@link TrafficEstimate#getValue}).
+     */
+    public double getValue(TrafficEstimate estimate, Metric metric) {
+      return estimate.getValue(this, metric);
+    }
+
+    /**
+     * Returns the statistics with the given name, or {@code null} if there are none.
+     */
+    @Nullable
+    public static Statistics forName(String name) {
+      for (Statistics statistics : values()) {
+        if (statistics.name.equals(name)) {
+          return statistics;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * The metrics of a {@link StatsEstimate}, converted to numbers (NaN if not set, money in units of
+   * the account currency).
+   */
+  public enum Metric {
+    AVERAGE_CPC("averageCpc", stats -> toDoubleOrNaN(stats.getAverageCpc())),
+    AVERAGE_POSITION("averagePosition", stats -> toDoubleOrNaN(stats.getAveragePosition())),
+    CLICK_THROUGH_RATE("clickThroughRate", stats -> toDoubleOrNaN(stats.getClickThroughRate())),
+    CLICKS_PER_DAY("clicksPerDay", stats -> toDoubleOrNaN(stats.getClicksPerDay())),
+    IMPRESSIONS_PER_DAY("impressionsPerDay", stats -> toDoubleOrNaN(stats.getImpressionsPerDay())),
+    TOTAL_COST("totalCost", stats -> toDoubleOrNaN(stats.getTotalCost()));
+
+    private final String name;
+    private final ToDoubleFunction<StatsEstimate> getter;
+
+    Metric(String name, ToDoubleFunction<StatsEstimate> getter) {
+      this.name = name;
+      this.getter = getter;
+    }
+
+    /**
+     * Returns the name of the metric, as used in score formulas.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the value of this metric in the given statistics.
+     */
+    public double getValue(StatsEstimate stats) {
+      return getter.applyAsDouble(stats);
+    }
+
+    /**
+     * Returns the metric with the given name, or {@code null} if there is none.
+     */
+    @Nullable
+    public static Metric forName(String name) {
+      for (Metric metric : values()) {
+        if (metric.name.equals(name)) {
+          return metric;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * The metrics of an {@link IdeaEstimate}, converted to numbers (NaN if not known, money in units
+   * of the account currency).
+   */
+  public enum IdeaMetric {
+    AVERAGE_CPC("averageCpc"),
+    COMPETITION("competition"),
+    MONTHLY_SEARCHES("monthlySearches"),
+    SEARCH_VOLUME("searchVolume");
+
+    private final String name;
+
+    IdeaMetric(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Returns the name of the metric, as used in score formulas (followed by the month for
+     * {@link #MONTHLY_SEARCHES}).
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns whether this metric has a value per month.
+     */
+    public boolean isMonthly() {
+      return this == MONTHLY_SEARCHES;
+    }
+
+    /**
+     * Returns the value of this metric in the given estimate.
+     *
+     * @param estimate the estimate
+     * @param month for monthly metrics, the month (starting at 1 for the most recent one)
+     */
+    public double getValue(IdeaEstimate estimate, int month) {
+      switch (this) {
+        case AVERAGE_CPC:
+          return toDoubleOrNaN(estimate.getAverageCpc());
+        case COMPETITION:
+          return estimate.getCompetition();
+        case MONTHLY_SEARCHES:
+          return toDoubleOrNaN(estimate.getMonthlySearches(month));
+        case SEARCH_VOLUME:
+          return estimate.getSearchVolume();
+        default:
+          throw new AssertionError("Unknown metric " + this);
+      }
+    }
+
+    /**
+     * Returns the metric with the given name, or {@code null} if there is none.
+     */
+    @Nullable
+    public static IdeaMetric forName(String name) {
+      for (IdeaMetric metric : values()) {
+        if (metric.name.equals(name)) {
+          return metric;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static final int COLUMNS_PER_BID = Statistics.values().length * Metric.values().length;
+
+  private final ImmutableList<TrafficEstimate> estimates;
+  private final int bidCount;
+
+  // The idea estimates of the keywords (single ones may be null), or null if not known.
+  @Nullable private final List<IdeaEstimate> ideaEstimates;
+
+  // Columns extracted so far, indexed by bid, statistics and metric.
+  private final AtomicReferenceArray<double[]> columns;
+
+  // Idea columns extracted so far, indexed by month and metric.
+  private final ConcurrentMap<Integer, double[]> ideaColumns = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a column-oriented view on the given estimates.
+   *
+   * @param estimates the estimates (none of them {@code null})
+   */
+  public EstimateColumns(List<TrafficEstimate> estimates) {
+    this(estimates, null);
+  }
+
+  /**
+   * Creates a column-oriented view on the given estimates, including the {@link IdeaEstimate}s of
+   * the same keywords.
+   *
+   * @param estimates the estimates (none of them {@code null})
+   * @param ideaEstimates the idea estimates of the keywords, in the same order (single ones may be
+   *     {@code null}), or {@code null} if not known
+   */
+  public EstimateColumns(
+      List<TrafficEstimate> estimates, @Nullable List<IdeaEstimate> ideaEstimates) {
+    if (ideaEstimates != null && ideaEstimates.size() != estimates.size()) {
+      throw new IllegalArgumentException("The given idea estimates do not match the estimates");
+    }
+    this.ideaEstimates =
+        ideaEstimates == null ? null : Collections.unmodifiableList(new ArrayList<>(ideaEstimates));
+
+    int bidCount = Integer.MAX_VALUE;
+    for (TrafficEstimate estimate : estimates) {
+      if (estimate == null) {
+        throw new IllegalArgumentException("The given estimates cannot be null");
+      }
+      bidCount = Math.min(bidCount, estimate.getBidLandscape().size());
+    }
+    this.estimates = ImmutableList.copyOf(estimates);
+    this.bidCount = this.estimates.isEmpty() ? 0 : bidCount;
+
+    columns = new AtomicReferenceArray<>((this.bidCount + 1) * COLUMNS_PER_BID);
+  }
+
+  /**
+   * Returns the number of estimates, i.e. the length of each column.
+   */
+  public int size() {
+    return estimates.size();
+  }
+
+  /**
+   * Returns the estimate at the given index.
+   */
+  public TrafficEstimate getEstimate(int index) {
+    return estimates.get(index);
+  }
+
+  /**
+   * Returns the number of bids of the bid landscape available for all estimates.
+   */
+  public int getBidCount() {
+    return bidCount;
+  }
+
+  /**
+   * Returns whether the {@link IdeaEstimate}s of the keywords are known.
+   */
+  public boolean hasIdeaEstimates() {
+    return ideaEstimates != null;
+  }
+
+  /**
+   * Returns the {@link IdeaEstimate} of the keyword at the given index, or {@code null} if it is
+   * not known.
+   */
+  @Nullable
+  public IdeaEstimate getIdeaEstimate(int index) {
+    return ideaEstimates == null ? null : ideaEstimates.get(index);
+  }
+
+  /**
+   * Returns a metric of the {@link IdeaEstimate}s of all keywords (NaN for keywords without one).
+   * The returned array must not be modified.
+   *
+   * @param metric the metric
+   * @param month for monthly metrics, the month (starting at 1 for the most recent one), otherwise
+   *     ignored
+   * @throws IllegalStateException in case the idea estimates are not known
+   */
+  public double[] getIdeaColumn(IdeaMetric metric, int month) {
+    if (ideaEstimates == null) {
+      throw new IllegalStateException("The idea estimates are not known");
+    }
+
+    int index = (metric.isMonthly() ? month : 0) * IdeaMetric.values().length + metric.ordinal();
+    return ideaColumns.computeIfAbsent(
+        index,
+        ignored -> {
+          double[] column = new double[ideaEstimates.size()];
+          for (int i = 0; i < column.length; i++) {
+            IdeaEstimate ideaEstimate = ideaEstimates.get(i);
+            column[i] = ideaEstimate == null ? Double.NaN : metric.getValue(ideaEstimate, month);
+          }
+          return column;
+        });
+  }
+
+  /**
+   * Returns a metric of the given statistics for all estimates. The returned array must not be
+   * modified.
+   *
+   * @param statistics the statistics (minimum, mean or maximum)
+   * @param metric the metric
+   */
+  public double[] getColumn(Statistics statistics, Metric metric) {
+    return getColumn(0, statistics, metric);
+  }
+
+  /**
+   * Returns a metric of the given statistics for the given bid of the bid landscape of all
+   * estimates. The returned array must not be modified.
+   *
+   * @param bid the bid of the bid landscape (starting at 1), or 0 for the estimate itself
+   * @param statistics the statistics (minimum, mean or maximum)
+   * @param metric the metric
+   */
+  public double[] getColumn(int bid, Statistics statistics, Metric metric) {
+    if (bid < 0 || bid > bidCount) {
+      throw new IndexOutOfBoundsException(
+          "Bid " + bid + " is not available, the bid landscape has " + bidCount + " bids");
+    }
+
+    int index = (bid * Statistics.values().length + statistics.ordinal()) * Metric.values().length
+        + metric.ordinal();
+    double[] column = columns.get(index);
+    if (column == null) {
+      // Extracting a column twice in case of a race does no harm.
+      column = new double[estimates.size()];
+      for (int i = 0; i < column.length; i++) {
+        TrafficEstimate estimate = estimates.get(i);
+        if (bid > 0) {
+          estimate = estimate.getBidLandscape().get(bid - 1);
+        }
+        column[i] = statistics.getValue(estimate, metric);
+      }
+      columns.set(index, column);
+    }
+    return column;
+  }
+
+  /**
+   * Converts a given {@link Money} object to a number (or NaN if null).
+   */
+  private static double toDoubleOrNaN(Money value) {
+    if (value == null || value.getMicroAmount() == null) {
+      return Double.NaN;
+    }
+    return value.getMicroAmount().doubleValue() / 1000000;
+  }
+
+  /**
+   * Converts a given {@link Number} object to a number (or NaN if null).
+   */
+  private static double toDoubleOrNaN(Number value) {
+    if (value == null) {
+      return Double.NaN;
+    }
+    return value.doubleValue();
+  }
+}
@@ -14,13 +14,32 @@
 
 package com.google.api.ads.adwords.keywordoptimizer;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import javax.annotation.Nullable;
+
 /**
  * Evaluates {@link KeywordCollection} by first obtaining an {@link TrafficEstimate} for each
  * keyword and then rating them using a {@link ScoreCalculator}.
+ *
+ * <p>Keywords can also be evaluated asynchronously, in which case the estimates are retrieved
+ * asynchronously as well (on a separate thread if the {@link TrafficEstimator} only supports
+ * synchronous calls).
+ *
+ * <p>If a {@link ForkJoinPool} for scoring is given, the scores of large collections are
+ * calculated by its threads in parallel, in chunks of consecutive keywords. The evaluated keywords
+ * are always added to the result in the order of the estimates.
  */
-public class EstimatorBasedEvaluator implements Evaluator {
+public class EstimatorBasedEvaluator implements AsyncEvaluator {
+  // Minimum number of keywords scored by a single task of the scoring pool.
+  private static final int MIN_CHUNK_SIZE = 256;
+
   private final TrafficEstimator estimator;
+  private final AsyncTrafficEstimator asyncEstimator;
   private final ScoreCalculator scoreCalculator;
+  @Nullable private final ForkJoinPool scoringPool;
 
   /**
    * Creates a new {@link EstimatorBasedEvaluator} that uses the given arguments for calculating the
@@ -30,28 +49,146 @@ public class EstimatorBasedEvaluator implements Evaluator {
    * @param scoreCalculator A {@link ScoreCalculator} to derive a score from these estimates
    */
   public EstimatorBasedEvaluator(TrafficEstimator estimator, ScoreCalculator scoreCalculator) {
+    this(estimator, scoreCalculator, null);
+  }
+
+  /**
+   * Creates a new {@link EstimatorBasedEvaluator} that calculates the scores of large collections
+   * in parallel.
+   *
+   * @param estimator An {@link TrafficEstimator} to retrieve traffic estimates from
+   * @param scoreCalculator A thread-safe {@link ScoreCalculator} to derive a score from these
+   *     estimates
+   * @param scoringPool the pool for calculating scores in parallel, or {@code null} for
+   *     calculating them on the calling thread
+   */
+  public EstimatorBasedEvaluator(
+      TrafficEstimator estimator,
+      ScoreCalculator scoreCalculator,
+      @Nullable ForkJoinPool scoringPool) {
     this.estimator = estimator;
+    this.asyncEstimator =
+        AsyncTrafficEstimator.adapt(estimator, AsyncAdapters.BLOCKING_EXECUTOR);
     this.scoreCalculator = scoreCalculator;
+    this.scoringPool = scoringPool;
   }
 
   @Override
   public KeywordCollection evaluate(KeywordCollection keywords) throws KeywordOptimizerException {
-    KeywordCollection evaluations = new KeywordCollection(keywords.getCampaignConfiguration());
-
     KeywordCollection estimates = estimator.estimate(keywords);
+    if (isScoredInParallel(estimates)) {
+      return AsyncAdapters.await(scoreInParallel(estimates));
+    }
+    return score(estimates);
+  }
 
+  @Override
+  public CompletableFuture<KeywordCollection> evaluateAsync(KeywordCollection keywords) {
+    // Scores are calculated by the thread completing the estimates, or by the scoring pool.
+    return asyncEstimator
+        .estimateAsync(keywords)
+        .thenCompose(
+            estimates ->
+                isScoredInParallel(estimates)
+                    ? scoreInParallel(estimates)
+                    : AsyncAdapters.supply(() -> score(estimates), Runnable::run));
+  }
+
+  /**
+   * Returns whether the scores of the given estimates are calculated by the scoring pool.
+   */
+  private boolean isScoredInParallel(KeywordCollection estimates) {
+    return scoringPool != null && estimates.size() >= 2 * MIN_CHUNK_SIZE;
+  }
+
+  /**
+   * Calculates the scores for the given estimates.
+   *
+   * @param estimates the keywords with {@link TrafficEstimate}s set
+   * @return a copy of the given keyword infos, with scores set
+   * @throws KeywordOptimizerException in case of an error calculating the scores
+   */
+  private KeywordCollection score(KeywordCollection estimates) throws KeywordOptimizerException {
+    List<KeywordInfo> keywords = new ArrayList<>(estimates.size());
     for (KeywordInfo estimate : estimates) {
-      double score = scoreCalculator.calculate(estimate.getTrafficEstimate());
-
-      KeywordInfo evaluation =
-          new KeywordInfo(
-              estimate.getKeyword(),
-              estimate.getIdeaEstimate(),
-              estimate.getTrafficEstimate(),
-              score);
-      evaluations.add(evaluation);
+      keywords.add(estimate);
     }
 
-    return evaluations;
+    KeywordInfo[] evaluations = new KeywordInfo[keywords.size()];
+    score(keywords, evaluations, 0, keywords.size());
+    return toCollection(estimates, evaluations);
+  }
+
+  /**
+   * Calculates the scores for the given estimates in parallel, splitting them into chunks of
+   * consecutive keywords for the tasks of the scoring pool.
+   *
+   * @param estimates the keywords with {@link TrafficEstimate}s set
+   * @return a future for a copy of the given keyword infos, with scores set
+   */
+  private CompletableFuture<KeywordCollection> scoreInParallel(KeywordCollection estimates) {
+    final List<KeywordInfo> keywords = new ArrayList<>(estimates.size());
+    for (KeywordInfo estimate : estimates) {
+      keywords.add(estimate);
+    }
+
+    // About four chunks per thread, to balance the load.
+    int chunkSize =
+        Math.max(MIN_CHUNK_SIZE, keywords.size() / (4 * scoringPool.getParallelism()) + 1);
+    final KeywordInfo[] evaluations = new KeywordInfo[keywords.size()];
+    List<CompletableFuture<Void>> chunks = new ArrayList<>();
+    for (int start = 0; start < keywords.size(); start += chunkSize) {
+      final int from = start;
+      final int to = Math.min(keywords.size(), start + chunkSize);
+      chunks.add(
+          AsyncAdapters.supply(
+              () -> {
+                score(keywords, evaluations, from, to);
+                return null;
+              },
+              scoringPool));
+    }
+
+    return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0]))
+        .thenApply(done -> toCollection(estimates, evaluations));
+  }
+
+  /**
+   * Calculates the scores for a range of the given estimates.
+   *
+   * @param estimates the keywords with {@link TrafficEstimate}s set
+   * @param evaluations the array for storing the keywords with scores set, at the same indexes
+   * @param from the index of the first keyword to be scored
+   * @param to the index after the last keyword to be scored
+   * @throws KeywordOptimizerException in case of an error calculating the scores
+   */
+  private void score(List<KeywordInfo> estimates, KeywordInfo[] evaluations, int from, int to)
+      throws KeywordOptimizerException {
+    List<TrafficEstimate> trafficEstimates = new ArrayList<>(to - from);
+    List<IdeaEstimate> ideaEstimates = new ArrayList<>(to - from);
+    for (KeywordInfo estimate : estimates.subList(from, to)) {
+      trafficEstimates.add(estimate.getTrafficEstimate());
+      ideaEstimates.add(estimate.getIdeaEstimate());
+    }
+
+    // Score all keywords of the range at once.
+    double[] scores =
+        scoreCalculator.calculateAll(new EstimateColumns(trafficEstimates, ideaEstimates));
+
+    for (int i = 0; i < scores.length; i++) {
+      evaluations[from + i] = estimates.get(from + i).withScore(scores[i]);
+    }
+  }
+
+  /**
+   * Collects the given evaluations, in their order.
+   */
+  private static KeywordCollection toCollection(
+      KeywordCollection estimates, KeywordInfo[] evaluations) {
+    KeywordCollection result = new KeywordCollection(estimates.getCampaignConfiguration());
+    for (KeywordInfo evaluation : evaluations) {
+      result.add(evaluation);
+    }
+    return result;
   }
 }
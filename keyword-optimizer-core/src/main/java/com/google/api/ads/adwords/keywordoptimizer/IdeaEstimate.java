@@ -18,6 +18,8 @@ import com.google.api.ads.adwords.axis.v201809.cm.Money;
 import com.google.api.ads.adwords.axis.v201809.o.MonthlySearchVolume;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaService;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import javax.annotation.Nullable;
 
 /**
  * Represents estimated statistics for a keyword on Google Search as provided by the {@link
@@ -25,6 +27,13 @@ import com.google.common.collect.ImmutableList;
  */
 public class IdeaEstimate {
 
+  // Orders monthly search volumes by month, most recent first (unknown months last).
+  private static final Ordering<MonthlySearchVolume> MOST_RECENT_FIRST =
+      Ordering.<Integer>natural()
+          .nullsFirst()
+          .onResultOf(IdeaEstimate::getMonthIndex)
+          .reverse();
+
   // Instance representing an empty or unknown estimate.
   public static final IdeaEstimate EMPTY_ESTIMATE =
       new IdeaEstimate(0, 0, KeywordOptimizerUtil.createMoney(0), new MonthlySearchVolume[0]);
@@ -33,6 +42,7 @@ public class IdeaEstimate {
   private final long searchVolume;
   private final Money averageCpc;
   private final ImmutableList<MonthlySearchVolume> targetedMonthlySearches;
+  private final ImmutableList<MonthlySearchVolume> mostRecentMonthlySearches;
 
   /**
    * Returns the COMPETITION attribute from the {@link TargetingIdeaService}.
@@ -62,6 +72,21 @@ public class IdeaEstimate {
     return targetedMonthlySearches;
   }
 
+  /**
+   * Returns the number of searches in the given month of the TARGETED_MONTHLY_SEARCHES attribute,
+   * counting back from the most recent month.
+   *
+   * @param month the month, starting at 1 for the most recent one
+   * @return the number of searches, or {@code null} if it is not known
+   */
+  @Nullable
+  public Long getMonthlySearches(int month) {
+    if (month < 1 || month > mostRecentMonthlySearches.size()) {
+      return null;
+    }
+    return mostRecentMonthlySearches.get(month - 1).getCount();
+  }
+
   /**
    * Create a new estimate based on the given arguments.
    *
@@ -83,5 +108,18 @@ public class IdeaEstimate {
         targetedMonthlySearches == null
             ? ImmutableList.<MonthlySearchVolume>of()
             : ImmutableList.copyOf(targetedMonthlySearches);
+    mostRecentMonthlySearches = MOST_RECENT_FIRST.immutableSortedCopy(this.targetedMonthlySearches);
+  }
+
+  /**
+   * Returns a number identifying the month of the given search volume, increasing over time (or
+   * {@code null} if the month is not known).
+   */
+  @Nullable
+  private static Integer getMonthIndex(MonthlySearchVolume searchVolume) {
+    if (searchVolume.getYear() == null || searchVolume.getMonth() == null) {
+      return null;
+    }
+    return searchVolume.getYear() * 12 + searchVolume.getMonth();
   }
 }
@@ -12,31 +12,113 @@
 // See the License for the specific language governing permissions and
 // limitations under the License.
 
+
 package com.google.api.ads.adwords.keywordoptimizer;
 
 import com.google.api.ads.adwords.axis.v201809.cm.Keyword;
 import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.Metric;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.Statistics;
 import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.UnmodifiableIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import javax.annotation.Nullable;
 import org.apache.commons.lang.SystemUtils;
 
 /**
  * Represents a set of keywords with information about their quality ({@link KeywordInfo}) as well
  * as related information in order to evaluate this quality information (
- * {@link CampaignConfiguration}). This collections is implemented as a map with {@link Keyword}s
- * as keys and {@link KeywordInfo}'s as values to eliminate duplicates.
+ * {@link CampaignConfiguration}). Keywords are identified by their text and match type to
+ * eliminate duplicates, adding a {@link KeywordInfo} for a contained keyword replaces it.
+ *
+ * <p>To keep large populations cheap, this collection is stored in columns instead of a map of
+ * entries, with one row per keyword (in the order the keywords were first added): the keyword
+ * texts are dictionary-encoded (each distinct text is stored once, rows refer to it by number),
+ * match types are stored as bytes, traffic estimates as packed primitive values (see
+ * {@link TrafficEstimate#copyPackedValues}) and scores as primitive values. Keywords are looked up
+ * in an open-addressing table of row numbers. The {@link KeywordInfo}s returned are views created
+ * from the columns when they are read, so they are equal to, but not the same as the ones added.
+ *
+ * <p>The rows are sorted by score (best first, see {@link ScoreComparator}) when this is first
+ * needed after a change, so retrieving the best keywords ({@link #getBest(int)}) or iterating them
+ * by score only reads the top of the sorted rows. Adding keywords in order of their score (as
+ * {@link #getBest(int)} does) keeps the rows sorted. Keywords without a score are sorted last,
+ * keywords with the same score in the order they were first added. Iterating the collection
+ * returns the keywords in the same order.
+ *
+ * <p>Score statistics (average, variance, minimum and maximum) are maintained as keywords are added
+ * or replaced, so reading them does not require a pass over the collection.
+ *
+ * <p>This class is not thread-safe. Since even reading methods may sort the rows or search the
+ * minimum and maximum scores, instances shared by several threads must be synchronized externally.
+ * Iterators fail with a {@link ConcurrentModificationException} if the collection is modified
+ * while they are in use.
  */
 public class KeywordCollection implements Iterable<KeywordInfo> {
   private static final Joiner JOINER = Joiner.on(SystemUtils.LINE_SEPARATOR);
+  private static final int INITIAL_CAPACITY = 8;
+
+  // Up to this size, rows are sorted by insertion sort.
+  private static final int INSERTION_SORT_SIZE = 16;
+
   private final CampaignConfiguration campaignConfiguration;
-  private final Map<Keyword, KeywordInfo> keywords;
+
+  // The distinct keyword texts, numbered in the order they were first added. They are always taken
+  // from KeywordIds (or other collections), so they are interned already.
+  private final List<String> texts;
+  private final Map<String, Integer> textIdsByText;
+
+  // The columns, indexed by row. Rows without a traffic estimate are not set in estimated, rows
+  // without a score are not set in scored.
+  private int[] textIds;
+  private byte[] matchTypeOrdinals;
+  private IdeaEstimate[] ideaEstimates;
+  private final BitSet estimated;
+  private double[] trafficValues;
+  private byte[] givenStatistics;
+  private final List<ImmutableList<TrafficEstimate>> bidLandscapes;
+  private double[] scores;
+  private final BitSet scored;
+  private int size;
+
+  // Open-addressing table of row numbers + 1 (0 for empty slots), at most half full.
+  private int[] slots;
+
+  // The rows sorted by score, only valid if all rows are sorted.
+  private int[] sortedRows;
+  private int sortedCount;
+
+  // Bit mask of the contained match types (by ordinal, see KeywordId).
+  private int matchTypes;
+
+  // Number of modifications, for detecting them while iterating.
+  private int modificationCount;
+
+  // Running score statistics of the scored rows (Welford's algorithm).
+  private int scoreCount;
+  private double scoreSum;
+  private double scoreMean;
+  private double scoreSquaredDeviations;
+
+  // Rows with the minimum and maximum scores, searched again if one of them is replaced.
+  private int minScoreRow;
+  private int maxScoreRow;
+  private boolean minMaxScoreRowsStale;
 
   /**
    * Creates a new {@link KeywordCollection} using the given settings.
@@ -44,8 +126,25 @@ public class KeywordCollection implements Iterable<KeywordInfo> {
    * @param campaignConfiguration additional campaign-level settings for keyword evaluation
    */
   public KeywordCollection(CampaignConfiguration campaignConfiguration) {
+    this(campaignConfiguration, INITIAL_CAPACITY);
+  }
+
+  private KeywordCollection(CampaignConfiguration campaignConfiguration, int capacity) {
     this.campaignConfiguration = campaignConfiguration;
-    keywords = new HashMap<>();
+    capacity = Math.max(capacity, INITIAL_CAPACITY);
+    texts = new ArrayList<>(capacity);
+    textIdsByText = new HashMap<>();
+    textIds = new int[capacity];
+    matchTypeOrdinals = new byte[capacity];
+    ideaEstimates = new IdeaEstimate[capacity];
+    estimated = new BitSet(capacity);
+    trafficValues = new double[capacity * TrafficEstimate.PACKED_SIZE];
+    givenStatistics = new byte[capacity];
+    bidLandscapes = new ArrayList<>(capacity);
+    scores = new double[capacity];
+    scored = new BitSet(capacity);
+    slots = new int[getSlotCount(capacity)];
+    sortedRows = new int[capacity];
   }
 
   /**
@@ -54,7 +153,23 @@ public class KeywordCollection implements Iterable<KeywordInfo> {
    * @param info the keyword information to be added
    */
   public void add(KeywordInfo info) {
-    keywords.put(info.getKeyword(), info);
+    KeywordId keyword = info.getKeywordId();
+    int row = getOrAppendRow(keyword.getText(), keyword.getMatchTypeOrdinal());
+
+    ideaEstimates[row] = info.getIdeaEstimate();
+    TrafficEstimate trafficEstimate = info.getTrafficEstimate();
+    if (trafficEstimate != null) {
+      estimated.set(row);
+      trafficEstimate.copyPackedValues(trafficValues, row * TrafficEstimate.PACKED_SIZE);
+      givenStatistics[row] = trafficEstimate.getGivenStatistics();
+      bidLandscapes.set(row, trafficEstimate.getBidLandscape());
+    } else {
+      clearTrafficEstimate(row);
+    }
+    Double score = info.getScore();
+    setScore(row, score != null, score == null ? Double.NaN : score);
+
+    keepSorted(row);
   }
 
   /**
@@ -63,8 +178,9 @@ public class KeywordCollection implements Iterable<KeywordInfo> {
    * @param infos the {@link KeywordInfo}s to be added
    */
   public void addAll(Collection<KeywordInfo> infos) {
+    ensureCapacity(size + infos.size());
     for (KeywordInfo info : infos) {
-      keywords.put(info.getKeyword(), info);
+      add(info);
     }
   }
 
@@ -72,7 +188,7 @@ public class KeywordCollection implements Iterable<KeywordInfo> {
    * Returns the size of this collection.
    */
   public int size() {
-    return keywords.size();
+    return size;
   }
 
   /**
@@ -81,14 +197,21 @@ public class KeywordCollection implements Iterable<KeywordInfo> {
    * @param keyword they {@link Keyword} to be checked
    */
   public boolean contains(Keyword keyword) {
-    return keywords.containsKey(keyword);
+    int matchTypeOrdinal = KeywordId.getMatchTypeOrdinal(keyword.getMatchType());
+    return slots[getSlot(keyword.getText(), matchTypeOrdinal)] != 0;
   }
 
   /**
    * Returns the set of contained {@link Keyword}s.
    */
   public Set<Keyword> getKeywords() {
-    return keywords.keySet();
+    ImmutableSet.Builder<Keyword> keywords = ImmutableSet.builder();
+    for (int row = 0; row < size; row++) {
+      keywords.add(
+          KeywordOptimizerUtil.createKeyword(
+              texts.get(textIds[row]), KeywordId.getMatchType(matchTypeOrdinals[row])));
+    }
+    return keywords.build();
   }
 
   /**
@@ -102,12 +225,7 @@ public class KeywordCollection implements Iterable<KeywordInfo> {
    * Returns the distinct texts of all containing {@link Keyword}s.
    */
   public Set<String> getContainingKeywordTexts() {
-    Set<String> keywordTexts = new HashSet<>();
-
-    for (Keyword keyword : keywords.keySet()) {
-      keywordTexts.add(keyword.getText());
-    }
-    return keywordTexts;
+    return new HashSet<>(texts);
   }
 
   /**
@@ -116,8 +234,10 @@ public class KeywordCollection implements Iterable<KeywordInfo> {
   public Set<KeywordMatchType> getContainingMatchTypes() {
     Set<KeywordMatchType> matchTypes = new HashSet<>();
 
-    for (Keyword keyword : keywords.keySet()) {
-      matchTypes.add(keyword.getMatchType());
+    for (int ordinal = 0; this.matchTypes >>> ordinal != 0; ordinal++) {
+      if ((this.matchTypes & (1 << ordinal)) != 0) {
+        matchTypes.add(KeywordId.getMatchType(ordinal));
+      }
     }
 
     return matchTypes;
@@ -127,14 +247,18 @@ public class KeywordCollection implements Iterable<KeywordInfo> {
    * Returns a list of all contained {@link KeywordInfo}s sorted by score (best first).
    */
   public List<KeywordInfo> getListSortedByScore() {
-    return Ordering.from(new ScoreComparator()).reverse().sortedCopy(keywords.values());
+    return ImmutableList.copyOf(this);
   }
 
   /**
    * Returns a list of all contained {@link KeywordInfo}s sorted by keywords (alphabetic order).
    */
   public List<KeywordInfo> getListSortedByKeyword() {
-    return Ordering.from(new KeywordComparator()).sortedCopy(keywords.values());
+    List<KeywordInfo> infos = new ArrayList<>(size);
+    for (int row = 0; row < size; row++) {
+      infos.add(getInfo(row));
+    }
+    return Ordering.from(new KeywordComparator()).sortedCopy(infos);
   }
 
   /**
@@ -143,10 +267,15 @@ public class KeywordCollection implements Iterable<KeywordInfo> {
    * @param count the number of {@link KeywordInfo}s to return (=x)
    */
   public KeywordCollection getBest(int count) {
-    List<KeywordInfo> bestKeywordList =
-        Ordering.from(new ScoreComparator()).greatestOf(keywords.values(), count);
-    KeywordCollection bestKeywords = new KeywordCollection(campaignConfiguration);
-    bestKeywords.addAll(bestKeywordList);
+    Preconditions.checkArgument(count >= 0, "The count cannot be negative");
+    int bestCount = Math.min(count, size);
+    int[] rows = getSortedRows();
+
+    // Copy the rows column by column, without creating KeywordInfos.
+    KeywordCollection bestKeywords = new KeywordCollection(campaignConfiguration, bestCount);
+    for (int i = 0; i < bestCount; i++) {
+      bestKeywords.addRow(this, rows[i]);
+    }
     return bestKeywords;
   }
 
@@ -157,22 +286,490 @@ public class KeywordCollection implements Iterable<KeywordInfo> {
    * @return the average score of the {@link KeywordInfo}s.
    */
   public double getAverageScore() {
-    double sum = 0;
-    for (KeywordInfo keywordInfo : keywords.values()) {
-      if (keywordInfo.hasScore()) {
-        sum += keywordInfo.getScore();
-      }
+    return size == 0 ? 0.0 : scoreSum / size;
+  }
+
+  /**
+   * Returns the number of {@link KeywordInfo}s contained that have a score.
+   */
+  public int getScoredCount() {
+    return scoreCount;
+  }
+
+  /**
+   * Returns the (population) variance of the scores of the {@link KeywordInfo}s contained. Entries
+   * without a score are skipped in the calculation.
+   *
+   * @return the variance of the scores, or 0 if there are no scored {@link KeywordInfo}s
+   */
+  public double getScoreVariance() {
+    return scoreCount == 0 ? 0.0 : Math.max(0.0, scoreSquaredDeviations / scoreCount);
+  }
+
+  /**
+   * Returns the highest score of the {@link KeywordInfo}s contained, or {@code null} if there
+   * are no scored {@link KeywordInfo}s.
+   */
+  @Nullable
+  public Double getMaxScore() {
+    if (scoreCount == 0) {
+      return null;
     }
-    return keywords.isEmpty() ? 0.0 : sum / keywords.size();
+    updateMinMaxScoreRows();
+    return scores[maxScoreRow];
   }
 
+  /**
+   * Returns the lowest score of the {@link KeywordInfo}s contained, or {@code null} if there
+   * are no scored {@link KeywordInfo}s.
+   */
+  @Nullable
+  public Double getMinScore() {
+    if (scoreCount == 0) {
+      return null;
+    }
+    updateMinMaxScoreRows();
+    return scores[minScoreRow];
+  }
+
+  /**
+   * Returns an iterator over the contained {@link KeywordInfo}s sorted by score (best first).
+   */
   @Override
   public Iterator<KeywordInfo> iterator() {
-    return keywords.values().iterator();
+    final int[] rows = getSortedRows();
+    final int count = size;
+    final int expectedModificationCount = modificationCount;
+    return new UnmodifiableIterator<KeywordInfo>() {
+      private int next;
+
+      @Override
+      public boolean hasNext() {
+        return next < count;
+      }
+
+      @Override
+      public KeywordInfo next() {
+        if (modificationCount != expectedModificationCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return getInfo(rows[next++]);
+      }
+    };
+  }
+
+  /**
+   * Returns the text of the keyword at the given position in iteration order (best first). This
+   * and the following accessors read the columns directly, without creating {@link KeywordInfo}s.
+   *
+   * @param index the position of the keyword, between 0 and {@link #size()} (exclusive)
+   */
+  String getText(int index) {
+    return texts.get(textIds[getSortedRow(index)]);
+  }
+
+  /**
+   * Returns the match type of the keyword at the given position in iteration order.
+   */
+  KeywordMatchType getMatchType(int index) {
+    return KeywordId.getMatchType(matchTypeOrdinals[getSortedRow(index)]);
+  }
+
+  /**
+   * Returns whether the keyword at the given position in iteration order has a score.
+   */
+  boolean hasScore(int index) {
+    return scored.get(getSortedRow(index));
+  }
+
+  /**
+   * Returns the score of the keyword at the given position in iteration order, or NaN if it has
+   * no score.
+   */
+  double getScore(int index) {
+    return scores[getSortedRow(index)];
+  }
+
+  /**
+   * Returns the value of the given metric of the given statistics of the keyword at the given
+   * position in iteration order, exactly as {@link TrafficEstimate#getValue}.
+   *
+   * @return the value (money in units of the account currency), or NaN if it is not known or the
+   *     keyword has no traffic estimate
+   */
+  double getValue(int index, Statistics statistics, Metric metric) {
+    int row = getSortedRow(index);
+    if (!estimated.get(row)) {
+      return Double.NaN;
+    }
+    return TrafficEstimate.getValue(
+        trafficValues, row * TrafficEstimate.PACKED_SIZE, statistics, metric);
+  }
+
+  /**
+   * Returns whether the keyword at the given position in iteration order of another collection is
+   * contained in this collection.
+   */
+  boolean contains(KeywordCollection other, int index) {
+    int row = other.getSortedRow(index);
+    return slots[getSlot(other.texts.get(other.textIds[row]), other.matchTypeOrdinals[row])] != 0;
+  }
+
+  /**
+   * Adds the keyword at the given position in iteration order of another collection to this
+   * collection, copying its columns.
+   */
+  void add(KeywordCollection other, int index) {
+    addRow(other, other.getSortedRow(index));
   }
 
   @Override
   public String toString() {
-    return JOINER.join(keywords.values()) + SystemUtils.LINE_SEPARATOR;
+    return JOINER.join(this) + SystemUtils.LINE_SEPARATOR;
+  }
+
+  /**
+   * Creates a {@link KeywordInfo} from the columns of the given row.
+   */
+  private KeywordInfo getInfo(int row) {
+    TrafficEstimate trafficEstimate = null;
+    if (estimated.get(row)) {
+      trafficEstimate =
+          new TrafficEstimate(
+              trafficValues,
+              row * TrafficEstimate.PACKED_SIZE,
+              givenStatistics[row],
+              bidLandscapes.get(row));
+    }
+    return new KeywordInfo(
+        KeywordId.ofInterned(texts.get(textIds[row]), matchTypeOrdinals[row]),
+        ideaEstimates[row],
+        trafficEstimate,
+        scored.get(row) ? scores[row] : null);
+  }
+
+  /**
+   * Adds the given row of another collection, copying its columns.
+   */
+  private void addRow(KeywordCollection source, int sourceRow) {
+    int row =
+        getOrAppendRow(
+            source.texts.get(source.textIds[sourceRow]), source.matchTypeOrdinals[sourceRow]);
+
+    ideaEstimates[row] = source.ideaEstimates[sourceRow];
+    if (source.estimated.get(sourceRow)) {
+      estimated.set(row);
+      System.arraycopy(
+          source.trafficValues,
+          sourceRow * TrafficEstimate.PACKED_SIZE,
+          trafficValues,
+          row * TrafficEstimate.PACKED_SIZE,
+          TrafficEstimate.PACKED_SIZE);
+      givenStatistics[row] = source.givenStatistics[sourceRow];
+      bidLandscapes.set(row, source.bidLandscapes.get(sourceRow));
+    } else {
+      clearTrafficEstimate(row);
+    }
+    setScore(row, source.scored.get(sourceRow), source.scores[sourceRow]);
+
+    keepSorted(row);
+  }
+
+  /**
+   * Returns the row of the given keyword, appending a new row if it is not contained yet. The
+   * estimates and score of the row need to be set afterwards (see {@link #keepSorted}).
+   */
+  private int getOrAppendRow(String text, int matchTypeOrdinal) {
+    modificationCount++;
+    int row = slots[getSlot(text, matchTypeOrdinal)] - 1;
+    if (row >= 0) {
+      // The row is replaced in place.
+      if (row == minScoreRow || row == maxScoreRow) {
+        minMaxScoreRowsStale = true;
+      }
+      removeScore(row);
+      sortedCount = 0;
+      return row;
+    }
+
+    ensureCapacity(size + 1);
+    row = size++;
+    textIds[row] = getTextId(text);
+    matchTypeOrdinals[row] = (byte) matchTypeOrdinal;
+    bidLandscapes.add(ImmutableList.<TrafficEstimate>of());
+    slots[getSlot(text, matchTypeOrdinal)] = row + 1;
+    matchTypes |= 1 << matchTypeOrdinal;
+
+    if (2 * size > slots.length) {
+      rehash();
+    }
+    return row;
+  }
+
+  /**
+   * Keeps the rows sorted if the given row was just appended and its keyword is not better than
+   * the previous ones.
+   */
+  private void keepSorted(int row) {
+    if (row == size - 1
+        && sortedCount == row
+        && (row == 0 || compareRows(sortedRows[row - 1], row) < 0)) {
+      sortedRows[sortedCount++] = row;
+    }
+  }
+
+  /**
+   * Returns the number of the given text in the dictionary of texts, adding it if necessary.
+   */
+  private int getTextId(String text) {
+    Integer textId = textIdsByText.get(text);
+    if (textId == null) {
+      textId = texts.size();
+      texts.add(text);
+      textIdsByText.put(text, textId);
+    }
+    return textId;
+  }
+
+  /**
+   * Clears the traffic estimate of the given row.
+   */
+  private void clearTrafficEstimate(int row) {
+    estimated.clear(row);
+    givenStatistics[row] = 0;
+    bidLandscapes.set(row, ImmutableList.<TrafficEstimate>of());
+  }
+
+  /**
+   * Stores the given score (if any) in the given row.
+   */
+  private void setScore(int row, boolean hasScore, double score) {
+    if (!hasScore) {
+      scores[row] = Double.NaN;
+      scored.clear(row);
+      return;
+    }
+
+    scores[row] = score;
+    scored.set(row);
+    addScore(score);
+
+    if (scoreCount == 1) {
+      minScoreRow = row;
+      maxScoreRow = row;
+    } else if (!minMaxScoreRowsStale) {
+      if (Double.compare(score, scores[minScoreRow]) < 0) {
+        minScoreRow = row;
+      }
+      if (Double.compare(score, scores[maxScoreRow]) > 0) {
+        maxScoreRow = row;
+      }
+    }
+  }
+
+  /**
+   * Adds the given score to the running score statistics.
+   */
+  private void addScore(double score) {
+    scoreCount++;
+    scoreSum += score;
+    double delta = score - scoreMean;
+    scoreMean += delta / scoreCount;
+    scoreSquaredDeviations += delta * (score - scoreMean);
+  }
+
+  /**
+   * Removes the score of the given row (if any) from the running score statistics.
+   */
+  private void removeScore(int row) {
+    if (!scored.get(row)) {
+      return;
+    }
+    double score = scores[row];
+    if (--scoreCount == 0) {
+      scoreSum = 0;
+      scoreMean = 0;
+      scoreSquaredDeviations = 0;
+      minMaxScoreRowsStale = false;
+      return;
+    }
+    scoreSum -= score;
+    double previousMean = scoreMean;
+    scoreMean -= (score - scoreMean) / scoreCount;
+    scoreSquaredDeviations -= (score - previousMean) * (score - scoreMean);
+  }
+
+  /**
+   * Searches the rows with the minimum and maximum scores again if one of them was replaced.
+   */
+  private void updateMinMaxScoreRows() {
+    if (!minMaxScoreRowsStale) {
+      return;
+    }
+    minScoreRow = scored.nextSetBit(0);
+    maxScoreRow = minScoreRow;
+    for (int row = scored.nextSetBit(minScoreRow + 1); row >= 0; row = scored.nextSetBit(row + 1)) {
+      if (Double.compare(scores[row], scores[minScoreRow]) < 0) {
+        minScoreRow = row;
+      }
+      if (Double.compare(scores[row], scores[maxScoreRow]) > 0) {
+        maxScoreRow = row;
+      }
+    }
+    minMaxScoreRowsStale = false;
+  }
+
+  /**
+   * Returns the rows sorted by score, sorting them first if necessary.
+   */
+  private int[] getSortedRows() {
+    if (sortedCount != size) {
+      for (int row = 0; row < size; row++) {
+        sortedRows[row] = row;
+      }
+      if (scoreCount > 0) {
+        sort(sortedRows, 0, size, new int[size]);
+      }
+      sortedCount = size;
+    }
+    return sortedRows;
+  }
+
+  /**
+   * Returns the row at the given position in iteration order (see {@link #getSortedRows()}).
+   */
+  private int getSortedRow(int index) {
+    Preconditions.checkElementIndex(index, size);
+    return getSortedRows()[index];
+  }
+
+  /**
+   * Sorts the given range of rows by score (merge sort, using the given buffer of at least the
+   * same size).
+   */
+  private void sort(int[] rows, int from, int to, int[] buffer) {
+    if (to - from <= INSERTION_SORT_SIZE) {
+      for (int i = from + 1; i < to; i++) {
+        int row = rows[i];
+        int j = i;
+        while (j > from && compareRows(rows[j - 1], row) > 0) {
+          rows[j] = rows[j - 1];
+          j--;
+        }
+        rows[j] = row;
+      }
+      return;
+    }
+
+    int middle = (from + to) >>> 1;
+    sort(rows, from, middle, buffer);
+    sort(rows, middle, to, buffer);
+    if (compareRows(rows[middle - 1], rows[middle]) < 0) {
+      return;
+    }
+
+    System.arraycopy(rows, from, buffer, from, to - from);
+    int left = from;
+    int right = middle;
+    for (int i = from; i < to; i++) {
+      if (right >= to || (left < middle && compareRows(buffer[left], buffer[right]) < 0)) {
+        rows[i] = buffer[left++];
+      } else {
+        rows[i] = buffer[right++];
+      }
+    }
+  }
+
+  /**
+   * Compares the given rows by score (best first, rows without score last) and then by row.
+   */
+  private int compareRows(int row1, int row2) {
+    boolean scored1 = scored.get(row1);
+    if (scored1 != scored.get(row2)) {
+      return scored1 ? -1 : 1;
+    }
+    if (scored1) {
+      int compareScore = Double.compare(scores[row2], scores[row1]);
+      if (compareScore != 0) {
+        return compareScore;
+      }
+    }
+    return Integer.compare(row1, row2);
+  }
+
+  /**
+   * Returns the slot of the given keyword in the table of rows, or the empty slot to insert it if
+   * it is not contained.
+   */
+  private int getSlot(String text, int matchTypeOrdinal) {
+    int mask = slots.length - 1;
+    int slot = spread(KeywordId.hashCode(text, matchTypeOrdinal)) & mask;
+    while (true) {
+      int row = slots[slot] - 1;
+      if (row < 0
+          || (matchTypeOrdinals[row] == matchTypeOrdinal
+              && texts.get(textIds[row]).equals(text))) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  /**
+   * Makes sure the columns can hold (at least) the given number of rows.
+   */
+  private void ensureCapacity(int capacity) {
+    if (capacity <= textIds.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, 2 * textIds.length);
+    textIds = Arrays.copyOf(textIds, newCapacity);
+    matchTypeOrdinals = Arrays.copyOf(matchTypeOrdinals, newCapacity);
+    ideaEstimates = Arrays.copyOf(ideaEstimates, newCapacity);
+    trafficValues = Arrays.copyOf(trafficValues, newCapacity * TrafficEstimate.PACKED_SIZE);
+    givenStatistics = Arrays.copyOf(givenStatistics, newCapacity);
+    scores = Arrays.copyOf(scores, newCapacity);
+    sortedRows = Arrays.copyOf(sortedRows, newCapacity);
+    if (getSlotCount(newCapacity) > slots.length) {
+      slots = new int[getSlotCount(newCapacity)];
+      reinsertRows();
+    }
+  }
+
+  /**
+   * Doubles the size of the table of rows.
+   */
+  private void rehash() {
+    slots = new int[2 * slots.length];
+    reinsertRows();
+  }
+
+  /**
+   * Inserts all rows into the (empty) table of rows.
+   */
+  private void reinsertRows() {
+    for (int row = 0; row < size; row++) {
+      slots[getSlot(texts.get(textIds[row]), matchTypeOrdinals[row])] = row + 1;
+    }
+  }
+
+  /**
+   * Returns the size of the table of rows for the given number of rows (a power of two, so that
+   * the table is at most half full).
+   */
+  private static int getSlotCount(int capacity) {
+    return Integer.highestOneBit(Math.max(1, 2 * capacity - 1)) << 1;
+  }
+
+  /**
+   * Spreads the bits of the given hash code, so that keywords with similar hash codes do not end
+   * up in neighboring slots.
+   */
+  private static int spread(int hashCode) {
+    int spread = hashCode * 0x9E3779B9;
+    return spread ^ (spread >>> 16);
   }
 }
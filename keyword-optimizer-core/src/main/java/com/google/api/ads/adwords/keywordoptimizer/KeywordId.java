@@ -0,0 +1,160 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import com.google.api.ads.adwords.axis.v201809.cm.Keyword;
+import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Lightweight identity of a keyword (its text and match type), used as key for keywords within the
+ * optimizer instead of the generated {@link Keyword} bean, whose {@code equals} / {@code hashCode}
+ * are comparably expensive. Texts are interned, so that the same keyword text is stored only once
+ * and equal keys usually share the same text instance, and the hash code is precomputed.
+ */
+final class KeywordId {
+  // Match types by ordinal (also used for storing estimates, so the order must not change).
+  private static final KeywordMatchType[] MATCH_TYPES = {
+    KeywordMatchType.EXACT, KeywordMatchType.PHRASE, KeywordMatchType.BROAD
+  };
+
+  private static final Interner<String> TEXTS = Interners.newWeakInterner();
+
+  private final String text;
+  private final int matchTypeOrdinal;
+  private final int hashCode;
+
+  private KeywordId(String text, int matchTypeOrdinal) {
+    this.text = text;
+    this.matchTypeOrdinal = matchTypeOrdinal;
+    this.hashCode = hashCode(text, matchTypeOrdinal);
+  }
+
+  /**
+   * Returns the identity of the given keyword.
+   */
+  static KeywordId of(Keyword keyword) {
+    return of(keyword.getText(), keyword.getMatchType());
+  }
+
+  /**
+   * Returns the identity of the keyword with the given text and match type.
+   */
+  static KeywordId of(String text, KeywordMatchType matchType) {
+    return new KeywordId(TEXTS.intern(text), getMatchTypeOrdinal(matchType));
+  }
+
+  /**
+   * Returns the identity of the keyword with the given text and match type ordinal (see
+   * {@link #getMatchTypeOrdinal()}).
+   */
+  static KeywordId of(String text, int matchTypeOrdinal) {
+    getMatchType(matchTypeOrdinal);
+    return new KeywordId(TEXTS.intern(text), matchTypeOrdinal);
+  }
+
+  /**
+   * Returns the identity of the keyword with the given text and match type ordinal, where the text
+   * was taken from another {@link KeywordId} and is therefore interned already. This skips the
+   * (synchronized) interner for keywords read back from where they were stored.
+   */
+  static KeywordId ofInterned(String internedText, int matchTypeOrdinal) {
+    return new KeywordId(internedText, matchTypeOrdinal);
+  }
+
+  /**
+   * Returns the match type with the given ordinal (see {@link #getMatchTypeOrdinal()}).
+   */
+  static KeywordMatchType getMatchType(int matchTypeOrdinal) {
+    if (matchTypeOrdinal < 0 || matchTypeOrdinal >= MATCH_TYPES.length) {
+      throw new IllegalArgumentException("Unknown match type ordinal: " + matchTypeOrdinal);
+    }
+    return MATCH_TYPES[matchTypeOrdinal];
+  }
+
+  /**
+   * Returns the keyword text.
+   */
+  String getText() {
+    return text;
+  }
+
+  /**
+   * Returns the keyword match type.
+   */
+  KeywordMatchType getMatchType() {
+    return MATCH_TYPES[matchTypeOrdinal];
+  }
+
+  /**
+   * Returns the ordinal of the keyword match type (0 for EXACT, 1 for PHRASE, 2 for BROAD).
+   */
+  int getMatchTypeOrdinal() {
+    return matchTypeOrdinal;
+  }
+
+  /**
+   * Creates a new {@link Keyword} for sending this keyword to the AdWords API.
+   */
+  Keyword toKeyword() {
+    return KeywordOptimizerUtil.createKeyword(text, getMatchType());
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof KeywordId)) {
+      return false;
+    }
+    KeywordId other = (KeywordId) obj;
+    return hashCode == other.hashCode
+        && matchTypeOrdinal == other.matchTypeOrdinal
+        && text.equals(other.text);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  @Override
+  public String toString() {
+    return text + " (" + getMatchType() + ")";
+  }
+
+  /**
+   * Returns the hash code of the keyword with the given text and match type ordinal, without
+   * creating its {@link KeywordId}.
+   */
+  static int hashCode(String text, int matchTypeOrdinal) {
+    return 31 * text.hashCode() + matchTypeOrdinal;
+  }
+
+  /**
+   * Returns the ordinal of the given match type (see {@link #getMatchTypeOrdinal()}).
+   */
+  static int getMatchTypeOrdinal(KeywordMatchType matchType) {
+    for (int i = 0; i < MATCH_TYPES.length; i++) {
+      if (MATCH_TYPES[i].equals(matchType)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Unknown match type: " + matchType);
+  }
+}
@@ -17,15 +17,23 @@ package com.google.api.ads.adwords.keywordoptimizer;
 import com.google.api.ads.adwords.axis.v201809.cm.Keyword;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaService;
 
+import java.util.Objects;
 import javax.annotation.Nullable;
 import org.apache.commons.lang.SystemUtils;
 
 /**
  * Represents quality information about a keyword, namely the {@link Keyword} itself, a
  * {@link TrafficEstimate} and a score.
+ *
+ * <p>Within the optimizer, keywords are identified by their {@link KeywordId}. The {@link Keyword}
+ * bean is only created once it is asked for (typically when calling the AdWords API or printing
+ * results), unless it was given in the first place.
  */
 public class KeywordInfo {
-  private final Keyword keyword;
+  // Created lazily from the keyword id if not given. Racing threads may create separate (equal)
+  // beans, but only one of them is kept.
+  @Nullable private volatile Keyword keyword;
+  private final KeywordId keywordId;
   private final IdeaEstimate ideaEstimate;
   private final TrafficEstimate trafficEstimate;
   private final Double score;
@@ -43,19 +51,68 @@ public class KeywordInfo {
       @Nullable IdeaEstimate ideaEstimate,
       @Nullable TrafficEstimate trafficEstimate,
       @Nullable Double score) {
+    this(keyword, KeywordId.of(keyword), ideaEstimate, trafficEstimate, score);
+  }
+
+  /**
+   * Creates a new {@link KeywordInfo} object for a keyword identified by the given
+   * {@link KeywordId}, without creating its {@link Keyword} bean.
+   *
+   * @param keywordId the identity of the keyword
+   * @param ideaEstimate statistics from the {@link TargetingIdeaService}
+   * @param trafficEstimate the estimated traffic statistics
+   * @param score the quality score
+   */
+  KeywordInfo(
+      KeywordId keywordId,
+      @Nullable IdeaEstimate ideaEstimate,
+      @Nullable TrafficEstimate trafficEstimate,
+      @Nullable Double score) {
+    this(null, keywordId, ideaEstimate, trafficEstimate, score);
+  }
+
+  private KeywordInfo(
+      @Nullable Keyword keyword,
+      KeywordId keywordId,
+      @Nullable IdeaEstimate ideaEstimate,
+      @Nullable TrafficEstimate trafficEstimate,
+      @Nullable Double score) {
     this.keyword = keyword;
+    this.keywordId = keywordId;
     this.ideaEstimate = ideaEstimate;
     this.trafficEstimate = trafficEstimate;
     this.score = score;
   }
 
+  /**
+   * Returns a copy of this {@link KeywordInfo} with the given score, keeping the keyword and its
+   * estimates.
+   *
+   * @param score the quality score
+   */
+  public KeywordInfo withScore(@Nullable Double score) {
+    return new KeywordInfo(keyword, keywordId, ideaEstimate, trafficEstimate, score);
+  }
+
   /**
    * Returns the keyword.
    */
   public Keyword getKeyword() {
+    Keyword keyword = this.keyword;
+    if (keyword == null) {
+      keyword = keywordId.toKeyword();
+      this.keyword = keyword;
+    }
     return keyword;
   }
 
+  /**
+   * Returns the identity of the keyword, used as its key within the optimizer.
+   */
+  KeywordId getKeywordId() {
+    return keywordId;
+  }
+
   /**
    * Returns the estimated traffic statistics.
    */
@@ -98,11 +155,35 @@ public class KeywordInfo {
     return score != null;
   }
 
+  /**
+   * {@link KeywordInfo}s are equal if they are about the same keyword (text and match type) and
+   * hold the same estimates and score.
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof KeywordInfo)) {
+      return false;
+    }
+    KeywordInfo other = (KeywordInfo) obj;
+    return keywordId.equals(other.keywordId)
+        && Objects.equals(ideaEstimate, other.ideaEstimate)
+        && Objects.equals(trafficEstimate, other.trafficEstimate)
+        && Objects.equals(score, other.score);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(keywordId, ideaEstimate, trafficEstimate, score);
+  }
+
   @Override
   public String toString() {
     StringBuilder out = new StringBuilder();
 
-    out.append(KeywordOptimizerUtil.toString(keyword));
+    out.append(KeywordOptimizerUtil.toString(getKeyword()));
     if (hasScore()) {
       out.append(": ").append(KeywordOptimizerUtil.format(score));
     }
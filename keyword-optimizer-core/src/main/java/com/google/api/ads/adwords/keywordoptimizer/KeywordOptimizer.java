@@ -18,12 +18,16 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
 import com.google.api.ads.adwords.axis.v201809.cm.Money;
-import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaServiceInterface;
+import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.CachedEstimator.CachedEstimatorBuilder;
 import com.google.api.ads.adwords.keywordoptimizer.CampaignConfiguration.CampaignConfigurationBuilder;
+import com.google.api.ads.adwords.keywordoptimizer.formula.FormulaRescorer;
+import com.google.api.ads.adwords.keywordoptimizer.formula.FormulaScoreCalculator;
 import com.google.api.ads.common.lib.conf.ConfigurationLoadException;
 import com.google.api.ads.common.lib.exception.OAuthException;
 import com.google.api.ads.common.lib.exception.ValidationException;
 import com.google.common.base.Joiner;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -31,11 +35,17 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -59,6 +69,8 @@ public class KeywordOptimizer {
   private static final String ADS_PROPERTIES_DEFAULT_PATH = "ads.properties";
   private static final int LINE_MAX_WIDTH = 80;
   private static final Joiner CSV_JOINER = Joiner.on(",");
+  private static final Pattern BID_VARIABLE_PATTERN = Pattern.compile("bid([1-9][0-9]*)\\.");
+  private static final String IDEA_VARIABLE_PREFIX = "idea.";
   private static final String[] CSV_HEADERS = {
     "Keyword",
     "Match Type",
@@ -165,32 +177,91 @@ public class KeywordOptimizer {
     // Check output parameters ahead of time.
     checkOutputParameters(cmdLine);
 
+    if (cmdLine.hasOption("rf")) {
+      rescore(cmdLine);
+      return;
+    }
+
     OptimizationContext context = createContext(cmdLine);
 
     CampaignConfiguration campaignConfiguration = getCampaignConfiguration(cmdLine);
     Set<KeywordMatchType> matchTypes = getMatchTypes(cmdLine);
-    SeedGenerator seedGenerator =
-        getSeedGenerator(cmdLine, context, matchTypes, campaignConfiguration);
-
-    AlternativesFinder alternativesFinder = createObjectBasedOnProperty(
-        AlternativesFinder.class, KeywordOptimizerProperty.AlternativesFinderClass, context);
-    TrafficEstimator estimator = createObjectBasedOnProperty(
-        TrafficEstimator.class, KeywordOptimizerProperty.EstimatorClass, context);
-    ScoreCalculator scoreCalculator = createObjectBasedOnProperty(
-        ScoreCalculator.class, KeywordOptimizerProperty.ScoreCalculatorClass, context);
-
-    Evaluator evaluator =
-        new EstimatorBasedEvaluator(new CachedEstimator(estimator), scoreCalculator);
-
-    RoundStrategy roundStrategy = createObjectBasedOnProperty(
-        RoundStrategy.class, KeywordOptimizerProperty.RoundStrategyClass, context);
+    // Components holding threads or files, closed once the optimization is done.
+    List<Closeable> resources = new ArrayList<Closeable>();
+    try {
+      SeedGenerator seedGenerator = register(
+          resources, getSeedGenerator(cmdLine, context, matchTypes, campaignConfiguration));
+      AlternativesFinder alternativesFinder = register(resources, createObjectBasedOnProperty(
+          AlternativesFinder.class, KeywordOptimizerProperty.AlternativesFinderClass, context));
+      alternativesFinder = createPreScoringAlternativesFinder(alternativesFinder, context);
+      TrafficEstimator estimator = register(resources, createObjectBasedOnProperty(
+          TrafficEstimator.class, KeywordOptimizerProperty.EstimatorClass, context));
+      PersistentCachedEstimator persistentCache =
+          register(resources, createPersistentCache(estimator, context));
+      if (persistentCache != null) {
+        estimator = persistentCache;
+      }
+      ScoreCalculator scoreCalculator = createObjectBasedOnProperty(
+          ScoreCalculator.class, KeywordOptimizerProperty.ScoreCalculatorClass, context);
+      checkRequiredVariables(scoreCalculator, campaignConfiguration);
+
+      CachedEstimator cachedEstimator = createCachedEstimator(estimator, context);
+      ForkJoinPool scoringPool = createScoringPool(context);
+      if (scoringPool != null) {
+        resources.add(scoringPool::shutdown);
+      }
+      Evaluator evaluator =
+          new EstimatorBasedEvaluator(cachedEstimator, scoreCalculator, scoringPool);
+
+      RoundStrategy roundStrategy = createObjectBasedOnProperty(
+          RoundStrategy.class, KeywordOptimizerProperty.RoundStrategyClass, context);
+
+      context.getMetrics().setEstimateCache(cachedEstimator);
+      Optimizer optimizer =
+          new Optimizer(
+              seedGenerator, alternativesFinder, evaluator, roundStrategy, context.getMetrics());
+
+      logHeadline("Optimization");
+      KeywordCollection bestKeywords = optimizer.optimize();
+      output(cmdLine, bestKeywords, cmdLine.getOptionValue("of"));
+      logger.info(String.format("Estimate cache: %d entries, %.1f%% hit rate, %d evictions",
+          cachedEstimator.getSize(), cachedEstimator.getHitRate() * 100,
+          cachedEstimator.getEvictionCount()));
+      logger.info("Metrics: " + optimizer.getMetrics().toJson());
+    } finally {
+      closeAll(resources);
+    }
+  }
 
-    Optimizer optimizer =
-        new Optimizer(seedGenerator, alternativesFinder, evaluator, roundStrategy);
+  /**
+   * Adds the given component to the resources closed after the optimization, if it is
+   * {@link Closeable}.
+   *
+   * @param resources the resources to be closed after the optimization
+   * @param component the component (may be {@code null})
+   * @return the given component
+   */
+  private static <Type> Type register(List<Closeable> resources, Type component) {
+    if (component instanceof Closeable) {
+      resources.add((Closeable) component);
+    }
+    return component;
+  }
 
-    logHeadline("Optimization");
-    KeywordCollection bestKeywords = optimizer.optimize();
-    output(cmdLine, bestKeywords);
+  /**
+   * Closes the given resources in reverse order, so wrapping components are closed before the
+   * ones they use. Problems are logged, but do not stop the remaining resources from closing.
+   *
+   * @param resources the resources to be closed
+   */
+  private static void closeAll(List<Closeable> resources) {
+    for (int i = resources.size() - 1; i >= 0; i--) {
+      try {
+        resources.get(i).close();
+      } catch (IOException e) {
+        logger.warn("Error closing " + resources.get(i), e);
+      }
+    }
   }
 
   /**
@@ -296,6 +367,17 @@ public class KeywordOptimizer {
             .required()
             .desc("Use the given maximum CPC (in USD, e.g., 5.0 for $5).")
             .build());
+    options.addOption(
+        Option.builder("bg")
+            .longOpt("bid-grid")
+            .hasArg()
+            .argName("doubles")
+            .hasArgs()
+            .numberOfArgs(Option.UNLIMITED_VALUES)
+            .desc(
+                "Additionally estimate traffic for the given maximum CPCs (in USD, separated by "
+                    + "spaces), available as bid1.*, bid2.*, ... in score formulas.")
+            .build());
     options.addOption(
         Option.builder("loc")
             .longOpt("locations")
@@ -350,6 +432,18 @@ public class KeywordOptimizer {
                 "Ad Group ID for bulk sheet output (only needed if option -o is "
                     + "set to BULK_SHEET).")
             .build());
+    options.addOption(
+        Option.builder("rf")
+            .longOpt("rescore-formulas")
+            .hasArgs()
+            .numberOfArgs(Option.UNLIMITED_VALUES)
+            .argName("formulas")
+            .desc(
+                "Instead of optimizing, rank the keywords stored in the estimate cache file under "
+                    + "each of the given score formulas (separated by spaces) without calling the "
+                    + "API.\nNote: If several formulas are given, the output file names are "
+                    + "suffixed with -1, -2, ...")
+            .build());
     return options;
   }
 
@@ -374,6 +468,33 @@ public class KeywordOptimizer {
     }
   }
 
+  /**
+   * Checks that the traffic estimates provide all statistics the given score calculator depends on,
+   * i.e. that the bid grid is large enough for all bid landscape statistics it uses.
+   *
+   * @param scoreCalculator the score calculator
+   * @param campaignConfiguration the campaign settings, holding the bid grid
+   * @throws KeywordOptimizerException in case a required statistic will not be available
+   */
+  private static void checkRequiredVariables(
+      ScoreCalculator scoreCalculator, CampaignConfiguration campaignConfiguration)
+      throws KeywordOptimizerException {
+    Set<String> variables = scoreCalculator.getRequiredVariables();
+    if (variables == null) {
+      return;
+    }
+
+    log("Scores depend on: " + Joiner.on(", ").join(variables));
+    int bidCount = campaignConfiguration.getBidGrid().size();
+    for (String variable : variables) {
+      Matcher matcher = BID_VARIABLE_PATTERN.matcher(variable);
+      if (matcher.lookingAt() && Integer.parseInt(matcher.group(1)) > bidCount) {
+        throw new KeywordOptimizerException("The score depends on " + variable
+            + ", but the bid grid only has " + bidCount + " bids");
+      }
+    }
+  }
+
   /**
    * Prints the help screen.
    *
@@ -431,7 +552,7 @@ public class KeywordOptimizer {
   }
 
   /**
-   * Read the campaign settings (max. Cpc, additional criteria) from the command line.
+   * Read the campaign settings (max. Cpc, bid grid, additional criteria) from the command line.
    * @param cmdLine the parsed command line parameters
    * @return {@link CampaignConfiguration} including the specified settings
    */
@@ -444,6 +565,17 @@ public class KeywordOptimizer {
     maxCpc.setMicroAmount((long) (cpc * 1000000d));
     builder.withMaxCpc(maxCpc);
 
+    // Read the bid grid parameter.
+    if (cmdLine.hasOption("bg")) {
+      for (String bid : cmdLine.getOptionValues("bg")) {
+        Money bidCpc = new Money();
+        bidCpc.setMicroAmount((long) (Double.parseDouble(bid) * 1000000d));
+
+        log("Using bid grid cpc: " + bid);
+        builder.withBidGridCpc(bidCpc);
+      }
+    }
+
     // Read the language parameter.
     if (cmdLine.hasOption("lang")) {
       for (String language : cmdLine.getOptionValues("lang")) {
@@ -510,7 +642,7 @@ public class KeywordOptimizer {
 
       TisSearchTermsSeedGenerator seedGenerator =
           new TisSearchTermsSeedGenerator(
-              context.getAdwordsApiUtil().getService(TargetingIdeaServiceInterface.class),
+              TisPageFetcher.createServices(context),
               matchTypes,
               campaignSettings);
       for (String keyword : keywords) {
@@ -524,7 +656,7 @@ public class KeywordOptimizer {
 
       TisSearchTermsSeedGenerator seedGenerator =
           new TisSearchTermsSeedGenerator(
-              context.getAdwordsApiUtil().getService(TargetingIdeaServiceInterface.class),
+              TisPageFetcher.createServices(context),
               matchTypes,
               campaignSettings);
       for (String term : terms) {
@@ -538,7 +670,7 @@ public class KeywordOptimizer {
 
       TisUrlSeedGenerator seedGenerator =
           new TisUrlSeedGenerator(
-              context.getAdwordsApiUtil().getService(TargetingIdeaServiceInterface.class),
+              TisPageFetcher.createServices(context),
               matchTypes,
               campaignSettings);
       for (String url : urls) {
@@ -552,7 +684,7 @@ public class KeywordOptimizer {
 
       TisUrlSeedGenerator seedGenerator =
           new TisUrlSeedGenerator(
-              context.getAdwordsApiUtil().getService(TargetingIdeaServiceInterface.class),
+              TisPageFetcher.createServices(context),
               matchTypes,
               campaignSettings);
       for (String url : urls) {
@@ -565,7 +697,7 @@ public class KeywordOptimizer {
       int category = Integer.parseInt(seedOption.getValue());
       log("Using seed category: " + category);
       return new TisCategorySeedGenerator(
-          context.getAdwordsApiUtil().getService(TargetingIdeaServiceInterface.class),
+          TisPageFetcher.createServices(context),
           category,
           matchTypes,
           campaignSettings);
@@ -604,14 +736,108 @@ public class KeywordOptimizer {
     return seedOption;
   }
 
+  /**
+   * Ranks the keywords stored in the estimate cache file under each of the formulas given on the
+   * command line and outputs the best ones, without calling the AdWords API.
+   *
+   * @param cmdLine the parsed command line parameters
+   * @throws KeywordOptimizerException in case of a problem reading the estimate cache file or
+   *     calculating the scores
+   */
+  private static void rescore(CommandLine cmdLine) throws KeywordOptimizerException {
+    CampaignConfiguration campaignConfiguration = getCampaignConfiguration(cmdLine);
+    if (!campaignConfiguration.getBidGrid().isEmpty()) {
+      throw new KeywordOptimizerException(
+          "Bid landscapes are not stored in the estimate cache file, option -bg cannot be used "
+              + "for rescoring");
+    }
+
+    Configuration config = loadConfiguration(cmdLine);
+
+    String fileName =
+        config.getString(KeywordOptimizerProperty.EstimatorPersistentCacheFile.getName());
+    if (fileName == null || fileName.isEmpty()) {
+      throw new KeywordOptimizerException("Rescoring requires an estimate cache file ('"
+          + KeywordOptimizerProperty.EstimatorPersistentCacheFile.getName() + "')");
+    }
+    File file = new File(fileName);
+    if (!file.isFile()) {
+      throw new KeywordOptimizerException("Estimate cache file " + fileName + " does not exist");
+    }
+
+    logHeadline("Rescoring");
+    log("Using estimate cache file: " + fileName);
+    KeywordCollection storedEstimates;
+    PersistentCachedEstimator persistentCache =
+        new PersistentCachedEstimator(
+            keywords -> {
+              throw new KeywordOptimizerException("No estimates are retrieved for rescoring");
+            },
+            file,
+            0,
+            TimeUnit.HOURS);
+    try {
+      storedEstimates = persistentCache.getStoredEstimates(campaignConfiguration);
+    } finally {
+      try {
+        persistentCache.close();
+      } catch (IOException e) {
+        logger.warn("Error closing the estimate cache file", e);
+      }
+    }
+
+    Set<KeywordMatchType> matchTypes = getMatchTypes(cmdLine);
+    KeywordCollection estimates = new KeywordCollection(campaignConfiguration);
+    for (KeywordInfo estimate : storedEstimates) {
+      if (matchTypes.contains(estimate.getKeywordId().getMatchType())) {
+        estimates.add(estimate);
+      }
+    }
+    log("Found " + estimates.size() + " stored estimates");
+
+    int count = config.getInt(KeywordOptimizerProperty.RoundStrategyMaxPopulation.getName(), 100);
+    Map<String, KeywordCollection> results =
+        new FormulaRescorer(Arrays.asList(cmdLine.getOptionValues("rf")))
+            .rescore(estimates, count);
+
+    int index = 1;
+    for (Map.Entry<String, KeywordCollection> result : results.entrySet()) {
+      logHeadline("Formula " + result.getKey());
+      String outputFile = cmdLine.getOptionValue("of");
+      if (outputFile != null && results.size() > 1) {
+        outputFile = getIndexedFileName(outputFile, index);
+      }
+      output(cmdLine, result.getValue(), outputFile);
+      index++;
+    }
+  }
+
+  /**
+   * Appends the given index to a file name (before its extension, if any), for example
+   * {@code results.csv} becomes {@code results-2.csv}.
+   *
+   * @param fileName the file name
+   * @param index the index to append
+   * @return the indexed file name
+   */
+  static String getIndexedFileName(String fileName, int index) {
+    int extension = fileName.lastIndexOf('.');
+    if (extension <= fileName.lastIndexOf(File.separatorChar) + 1) {
+      return fileName + "-" + index;
+    }
+    return fileName.substring(0, extension) + "-" + index + fileName.substring(extension);
+  }
+
   /**
    * Outputs the results based on the command line parameters.
    *
    * @param cmdLine the parsed command line parameters
    * @param bestKeywords the optimized set of keywords
+   * @param outputFile the file to write the results to (if the output mode requires a file)
    * @throws KeywordOptimizerException in case there is no output file specified
    */
-  private static void output(CommandLine cmdLine, KeywordCollection bestKeywords)
+  private static void output(
+      CommandLine cmdLine, KeywordCollection bestKeywords, String outputFile)
       throws KeywordOptimizerException {
     for (String mode : cmdLine.getOptionValues("o")) {
       OutputMode outputMode = OutputMode.valueOf(mode);
@@ -621,10 +847,10 @@ public class KeywordOptimizer {
           outputConsole(bestKeywords);
           break;
         case CSV:
-          outputCsv(cmdLine, bestKeywords);
+          outputCsv(outputFile, bestKeywords);
           break;
         case BULK_SHEET:
-          outputBulkSheet(cmdLine, bestKeywords);
+          outputBulkSheet(cmdLine, outputFile, bestKeywords);
           break;
         default:
           throw new KeywordOptimizerException("Parameter -o is required");
@@ -647,44 +873,48 @@ public class KeywordOptimizer {
   /**
    * Outputs the results as a csv file (sorted, best first).
    *
-   * @param cmdLine the parsed command line parameters
+   * @param outputFile the file to write to
    * @param bestKeywords the optimized set of keywords
    * @throws KeywordOptimizerException in case there is a problem writing to the output file
    */
-  private static void outputCsv(CommandLine cmdLine, KeywordCollection bestKeywords)
+  private static void outputCsv(String outputFile, KeywordCollection bestKeywords)
       throws KeywordOptimizerException {
-    if (!cmdLine.hasOption("of")) {
+    if (outputFile == null) {
       throw new KeywordOptimizerException("No output file (option -of specified)");
     }
 
     try {
-      PrintStream printer = new PrintStream(cmdLine.getOptionValue("of"));
+      PrintStream printer = new PrintStream(outputFile);
       printer.println(CSV_JOINER.join(CSV_HEADERS));
 
       for (KeywordInfo eval : bestKeywords.getListSortedByScore()) {
         TrafficEstimate estimate = eval.getTrafficEstimate();
+        // The statistics are created on every call, so only get them once.
+        StatsEstimate min = estimate.getMin();
+        StatsEstimate mean = estimate.getMean();
+        StatsEstimate max = estimate.getMax();
         Object[] rowData = {
           eval.getKeyword().getText(),
           eval.getKeyword().getMatchType(),
           eval.getScore(),
-          KeywordOptimizerUtil.formatCsv(estimate.getMin().getImpressionsPerDay()),
-          KeywordOptimizerUtil.formatCsv(estimate.getMean().getImpressionsPerDay()),
-          KeywordOptimizerUtil.formatCsv(estimate.getMax().getImpressionsPerDay()),
-          KeywordOptimizerUtil.formatCsv(estimate.getMin().getClicksPerDay()),
-          KeywordOptimizerUtil.formatCsv(estimate.getMean().getClicksPerDay()),
-          KeywordOptimizerUtil.formatCsv(estimate.getMax().getClicksPerDay()),
-          KeywordOptimizerUtil.formatCsv(estimate.getMin().getClickThroughRate()),
-          KeywordOptimizerUtil.formatCsv(estimate.getMean().getClickThroughRate()),
-          KeywordOptimizerUtil.formatCsv(estimate.getMax().getClickThroughRate()),
-          KeywordOptimizerUtil.formatCsv(estimate.getMin().getAveragePosition()),
-          KeywordOptimizerUtil.formatCsv(estimate.getMean().getAveragePosition()),
-          KeywordOptimizerUtil.formatCsv(estimate.getMax().getAveragePosition()),
-          KeywordOptimizerUtil.format(estimate.getMin().getAverageCpc()),
-          KeywordOptimizerUtil.format(estimate.getMean().getAverageCpc()),
-          KeywordOptimizerUtil.format(estimate.getMax().getAverageCpc()),
-          KeywordOptimizerUtil.format(estimate.getMin().getTotalCost()),
-          KeywordOptimizerUtil.format(estimate.getMean().getTotalCost()),
-          KeywordOptimizerUtil.format(estimate.getMax().getTotalCost())
+          KeywordOptimizerUtil.formatCsv(min.getImpressionsPerDay()),
+          KeywordOptimizerUtil.formatCsv(mean.getImpressionsPerDay()),
+          KeywordOptimizerUtil.formatCsv(max.getImpressionsPerDay()),
+          KeywordOptimizerUtil.formatCsv(min.getClicksPerDay()),
+          KeywordOptimizerUtil.formatCsv(mean.getClicksPerDay()),
+          KeywordOptimizerUtil.formatCsv(max.getClicksPerDay()),
+          KeywordOptimizerUtil.formatCsv(min.getClickThroughRate()),
+          KeywordOptimizerUtil.formatCsv(mean.getClickThroughRate()),
+          KeywordOptimizerUtil.formatCsv(max.getClickThroughRate()),
+          KeywordOptimizerUtil.formatCsv(min.getAveragePosition()),
+          KeywordOptimizerUtil.formatCsv(mean.getAveragePosition()),
+          KeywordOptimizerUtil.formatCsv(max.getAveragePosition()),
+          KeywordOptimizerUtil.format(min.getAverageCpc()),
+          KeywordOptimizerUtil.format(mean.getAverageCpc()),
+          KeywordOptimizerUtil.format(max.getAverageCpc()),
+          KeywordOptimizerUtil.format(min.getTotalCost()),
+          KeywordOptimizerUtil.format(mean.getTotalCost()),
+          KeywordOptimizerUtil.format(max.getTotalCost())
         };
 
         printer.println(CSV_JOINER.join(rowData));
@@ -700,12 +930,14 @@ public class KeywordOptimizer {
    * https://support.google.com/adwords/answer/2477116.
    *
    * @param cmdLine the parsed command line parameters
+   * @param outputFile the file to write to
    * @param bestKeywords the optimized set of keywords
    * @throws KeywordOptimizerException in case there is a problem writing to the output file
    */
-  private static void outputBulkSheet(CommandLine cmdLine, KeywordCollection bestKeywords)
+  private static void outputBulkSheet(
+      CommandLine cmdLine, String outputFile, KeywordCollection bestKeywords)
       throws KeywordOptimizerException {
-    if (!cmdLine.hasOption("of")) {
+    if (outputFile == null) {
       throw new KeywordOptimizerException("No output file (option -of specified)");
     }
     if (!cmdLine.hasOption("ag")) {
@@ -715,7 +947,7 @@ public class KeywordOptimizer {
     String adGroupId = cmdLine.getOptionValue("ag");
 
     try {
-      PrintStream printer = new PrintStream(cmdLine.getOptionValue("of"));
+      PrintStream printer = new PrintStream(outputFile);
       printer.println(CSV_JOINER.join(BULK_SHEET_HEADERS));
 
       for (KeywordInfo eval : bestKeywords.getListSortedByScore()) {
@@ -873,6 +1105,122 @@ public class KeywordOptimizer {
     }
   }
 
+  /**
+   * Wraps the given alternatives finder for discarding unpromising alternatives before their
+   * traffic is estimated, if a pre-score formula is specified in the properties file.
+   *
+   * @param alternativesFinder the alternatives finder to be wrapped
+   * @param context holding shared objects during the optimization process
+   * @return the alternatives finder to be used
+   * @throws KeywordOptimizerException in case the pre-score formula is invalid
+   */
+  private static AlternativesFinder createPreScoringAlternativesFinder(
+      AlternativesFinder alternativesFinder, OptimizationContext context)
+      throws KeywordOptimizerException {
+    Configuration config = context.getConfiguration();
+    String formula =
+        config.getString(KeywordOptimizerProperty.AlternativesFinderPreScoreFormula.getName());
+    if (formula == null || formula.isEmpty()) {
+      return alternativesFinder;
+    }
+
+    // Alternatives do not have traffic estimates yet, so only idea variables are available.
+    FormulaScoreCalculator preScoreCalculator = new FormulaScoreCalculator(formula);
+    for (String variable : preScoreCalculator.getRequiredVariables()) {
+      if (!variable.startsWith(IDEA_VARIABLE_PREFIX)) {
+        throw new KeywordOptimizerException("The pre-score formula depends on " + variable
+            + ", but only " + IDEA_VARIABLE_PREFIX + "* variables are available for alternatives");
+      }
+    }
+
+    double minimumPreScore = config.getDouble(
+        KeywordOptimizerProperty.AlternativesFinderPreScoreMinimum.getName(), 0);
+    log("Pre-scoring alternatives using formula " + formula + ", minimum " + minimumPreScore);
+    return new PreScoringAlternativesFinder(
+        alternativesFinder, preScoreCalculator, minimumPreScore);
+  }
+
+  /**
+   * Creates the pool for calculating scores in parallel, as specified in the properties file.
+   *
+   * @param context holding shared objects during the optimization process
+   * @return the scoring pool, or {@code null} if scores are not calculated in parallel
+   */
+  private static ForkJoinPool createScoringPool(OptimizationContext context) {
+    int parallelism = context.getConfiguration()
+        .getInt(KeywordOptimizerProperty.ScoreCalculatorParallelism.getName(), 1);
+    if (parallelism <= 1) {
+      return null;
+    }
+
+    log("Using " + parallelism + " threads for calculating scores");
+    return new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Creates a {@link CachedEstimator} around the given estimator, bounded and expiring as specified
+   * in the properties file.
+   *
+   * @param estimator the estimator used for keywords not found in the cache
+   * @param context holding shared objects during the optimization process
+   * @return the cached estimator
+   * @throws KeywordOptimizerException in case of contradicting cache properties
+   */
+  private static CachedEstimator createCachedEstimator(
+      TrafficEstimator estimator, OptimizationContext context) throws KeywordOptimizerException {
+    Configuration config = context.getConfiguration();
+    long maximumSize =
+        config.getLong(KeywordOptimizerProperty.EstimatorCacheMaximumSize.getName(), 0);
+    long maximumWeightMegabytes =
+        config.getLong(KeywordOptimizerProperty.EstimatorCacheMaximumWeightMegabytes.getName(), 0);
+    long expireAfterMinutes =
+        config.getLong(KeywordOptimizerProperty.EstimatorCacheExpireAfterMinutes.getName(), 0);
+
+    if (maximumSize > 0 && maximumWeightMegabytes > 0) {
+      throw new KeywordOptimizerException("Only one of '"
+          + KeywordOptimizerProperty.EstimatorCacheMaximumSize.getName() + "' and '"
+          + KeywordOptimizerProperty.EstimatorCacheMaximumWeightMegabytes.getName()
+          + "' can be specified");
+    }
+
+    CachedEstimatorBuilder builder = CachedEstimator.builder(estimator);
+    if (maximumSize > 0) {
+      builder.withMaximumSize(maximumSize);
+    }
+    if (maximumWeightMegabytes > 0) {
+      builder.withMaximumWeight(maximumWeightMegabytes * 1024 * 1024);
+    }
+    if (expireAfterMinutes > 0) {
+      builder.withExpireAfterWrite(expireAfterMinutes, TimeUnit.MINUTES);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Creates a {@link PersistentCachedEstimator} around the given estimator if a cache file is
+   * specified in the properties file.
+   *
+   * @param estimator the estimator used for keywords not found in the cache file
+   * @param context holding shared objects during the optimization process
+   * @return the persistent cache or <code>null</code> if no cache file is specified
+   * @throws KeywordOptimizerException in case of a problem opening the cache file
+   */
+  private static PersistentCachedEstimator createPersistentCache(
+      TrafficEstimator estimator, OptimizationContext context) throws KeywordOptimizerException {
+    Configuration config = context.getConfiguration();
+    String fileName =
+        config.getString(KeywordOptimizerProperty.EstimatorPersistentCacheFile.getName());
+    if (fileName == null || fileName.isEmpty()) {
+      return null;
+    }
+
+    long timeToLiveHours = config.getLong(
+        KeywordOptimizerProperty.EstimatorPersistentCacheTimeToLiveHours.getName(), 24);
+    log("Using estimate cache file: " + fileName);
+    return new PersistentCachedEstimator(
+        estimator, new File(fileName), timeToLiveHours, TimeUnit.HOURS);
+  }
+
   /**
    * Prints out a log message.
    *
@@ -21,14 +21,25 @@ package com.google.api.ads.adwords.keywordoptimizer;
 public enum KeywordOptimizerProperty {
 
   AlternativesFinderClass("optimizer.alternativesFinder"),
+  AlternativesFinderPreScoreFormula("optimizer.alternativesFinder.preScoreFormula"),
+  AlternativesFinderPreScoreMinimum("optimizer.alternativesFinder.preScoreMinimum"),
   EstimatorClass("optimizer.estimator"),
+  EstimatorBatchSize("optimizer.estimator.batchSize"),
+  EstimatorParallelism("optimizer.estimator.parallelism"),
+  EstimatorCacheMaximumSize("optimizer.estimator.cache.maximumSize"),
+  EstimatorCacheMaximumWeightMegabytes("optimizer.estimator.cache.maximumWeightMegabytes"),
+  EstimatorCacheExpireAfterMinutes("optimizer.estimator.cache.expireAfterMinutes"),
+  EstimatorPersistentCacheFile("optimizer.estimator.persistentCache.file"),
+  EstimatorPersistentCacheTimeToLiveHours("optimizer.estimator.persistentCache.timeToLiveHours"),
   ScoreCalculatorClass("optimizer.scoreCalculator"),
   ScoreCalculatorFormula("optimizer.scoreCalculator.formula"),
+  ScoreCalculatorParallelism("optimizer.scoreCalculator.parallelism"),
   RoundStrategyClass("optimizer.roundStrategy"),
   RoundStrategyMaxSteps("optimizer.roundStrategy.maxSteps"),
   RoundStrategyMinImprovementBetweenSteps("optimizer.roundStrategy.minImprovement"),
   RoundStrategyMaxPopulation("optimizer.roundStrategy.maxPopulation"),
-  RoundStrategyReplicateBest("optimizer.roundStrategy.replicateBest");
+  RoundStrategyReplicateBest("optimizer.roundStrategy.replicateBest"),
+  TisParallelism("optimizer.tis.parallelism");
 
   private final String propertyName;
 
@@ -22,6 +22,7 @@ import org.apache.commons.configuration.Configuration;
 public class OptimizationContext {
   private Configuration configuration;
   private AdWordsApiUtil adwordsApiUtil;
+  private final OptimizerMetrics metrics = new OptimizerMetrics();
 
   public OptimizationContext(Configuration configuration, AdWordsApiUtil adwordsApiUtil) {
     this.configuration = configuration;
@@ -35,4 +36,8 @@ public class OptimizationContext {
   public Configuration getConfiguration() {
     return configuration;
   }
+
+  public OptimizerMetrics getMetrics() {
+    return metrics;
+  }
 }
@@ -14,6 +14,7 @@
 
 package com.google.api.ads.adwords.keywordoptimizer;
 
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +40,7 @@ public class Optimizer {
   private final AlternativesFinder alternativesFinder;
   private final Evaluator evaluator;
   private final RoundStrategy roundStrategy;
+  private final OptimizerMetrics metrics;
 
   /**
    * Creates a new {@link Optimizer} based on the given parameters.
@@ -51,10 +53,34 @@ public class Optimizer {
    */
   public Optimizer(SeedGenerator seedGenerator, AlternativesFinder alternativesFinder,
       Evaluator evaluator, RoundStrategy roundStrategy) {
+    this(seedGenerator, alternativesFinder, evaluator, roundStrategy, new OptimizerMetrics());
+  }
+
+  /**
+   * Creates a new {@link Optimizer} based on the given parameters, recording its progress in the
+   * given metrics.
+   *
+   * @param seedGenerator used to create the initial keyword population
+   * @param alternativesFinder used to derive keyword alternatives from the best keywords
+   * @param evaluator used to assign a score to each keyword
+   * @param roundStrategy used to determine how to go from round to round and when to end the
+   *                      process
+   * @param metrics used to record timings and counters of the process
+   */
+  public Optimizer(SeedGenerator seedGenerator, AlternativesFinder alternativesFinder,
+      Evaluator evaluator, RoundStrategy roundStrategy, OptimizerMetrics metrics) {
     this.seedGenerator = seedGenerator;
-    this.alternativesFinder = alternativesFinder;
-    this.evaluator = evaluator;
+    this.alternativesFinder = metrics.instrumentAlternativesFinder(alternativesFinder);
+    this.evaluator = metrics.instrumentEvaluator(evaluator);
     this.roundStrategy = roundStrategy;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Returns the metrics recorded during the optimization process.
+   */
+  public OptimizerMetrics getMetrics() {
+    return metrics;
   }
 
   /**
@@ -65,18 +91,23 @@ public class Optimizer {
    * @throws KeywordOptimizerException in case of an error during the optimization process
    */
   public KeywordCollection optimize() throws KeywordOptimizerException {
+    int currentStep = 0;
+    OptimizerMetrics.RoundTimer round = metrics.startRound(currentStep);
+
+    long start = System.nanoTime();
     KeywordCollection seedKeywords = seedGenerator.generate();
+    metrics.record(OptimizerMetrics.Phase.SEED_GENERATION, start);
+    metrics.increment(OptimizerMetrics.Counter.SEED_KEYWORDS, seedKeywords.size());
 
     KeywordCollection currentPopulation = evaluator.evaluate(seedKeywords);
-    int currentStep = 0;
-
-    logStatus(currentPopulation, currentStep);
+    logStatus(currentPopulation, currentStep, round.finish(currentPopulation));
 
     while (!roundStrategy.isFinished(currentPopulation)) {
       currentStep++;
 
+      round = metrics.startRound(currentStep);
       currentPopulation = roundStrategy.nextRound(currentPopulation, alternativesFinder, evaluator);
-      logStatus(currentPopulation, currentStep);
+      logStatus(currentPopulation, currentStep, round.finish(currentPopulation));
     }
 
     return currentPopulation;
@@ -87,16 +118,27 @@ public class Optimizer {
    *
    * @param currentPopulation the current set of keywords
    * @param currentStep the current search step
+   * @param round the recorded metrics of the current step
    */
-  private static void logStatus(KeywordCollection currentPopulation, int currentStep) {
+  private static void logStatus(
+      KeywordCollection currentPopulation, int currentStep, OptimizerMetrics.Round round) {
     logger.info(
-        "--- Optimization step {} (Avg: {}) ---", currentStep, currentPopulation.getAverageScore());
+        "--- Optimization step {} (Avg: {}, Min: {}, Max: {}, {} ms) ---",
+        currentStep,
+        currentPopulation.getAverageScore(),
+        currentPopulation.getMinScore(),
+        currentPopulation.getMaxScore(),
+        round.getDuration(TimeUnit.MILLISECONDS));
 
-    for (KeywordInfo evaluation : currentPopulation.getListSortedByScore()) {
+    if (!logger.isDebugEnabled()) {
+      return;
+    }
+    for (int i = 0; i < currentPopulation.size(); i++) {
       logger.debug(
-          "{} -> {}",
-          KeywordOptimizerUtil.toString(evaluation.getKeyword()),
-          evaluation.getScore());
+          "{}[{}] -> {}",
+          currentPopulation.getText(i),
+          currentPopulation.getMatchType(i).getValue(),
+          currentPopulation.hasScore(i) ? currentPopulation.getScore(i) : null);
     }
   }
 }
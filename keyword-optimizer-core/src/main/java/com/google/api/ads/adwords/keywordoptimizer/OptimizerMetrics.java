@@ -0,0 +1,426 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Collects counters and timings during the optimization process, to find out where the time goes.
+ * All counters are lock-free, so they can be updated by any number of threads. An instance is held
+ * by the {@link OptimizationContext} and can be queried (or dumped as JSON) after
+ * {@link Optimizer#optimize()} has finished.
+ */
+public class OptimizerMetrics {
+  /**
+   * Phases of the optimization process whose number of calls and total time are recorded.
+   */
+  public enum Phase {
+    /** Creation of the seed keywords. */
+    SEED_GENERATION,
+    /** Deriving alternatives from the best keywords. */
+    ALTERNATIVES,
+    /** Estimating traffic and calculating scores. */
+    EVALUATION,
+    /** Requests to the targeting idea service. */
+    TIS_REQUEST,
+    /** Requests to the traffic estimator service. */
+    TES_REQUEST
+  }
+
+  /**
+   * Numbers of keywords processed during the optimization process.
+   */
+  public enum Counter {
+    /** Number of seed keywords created. */
+    SEED_KEYWORDS,
+    /** Number of keyword alternatives derived. */
+    ALTERNATIVES,
+    /** Number of keywords evaluated. */
+    KEYWORDS_EVALUATED
+  }
+
+  private final Map<Phase, LongAdder> phaseCalls = new EnumMap<>(Phase.class);
+  private final Map<Phase, LongAdder> phaseNanos = new EnumMap<>(Phase.class);
+  private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+  private final List<Round> rounds = new CopyOnWriteArrayList<>();
+  private volatile CachedEstimator estimateCache;
+
+  /**
+   * Creates a new, empty {@link OptimizerMetrics} object.
+   */
+  public OptimizerMetrics() {
+    for (Phase phase : Phase.values()) {
+      phaseCalls.put(phase, new LongAdder());
+      phaseNanos.put(phase, new LongAdder());
+    }
+    for (Counter counter : Counter.values()) {
+      counters.put(counter, new LongAdder());
+    }
+  }
+
+  /**
+   * Records a call of the given phase.
+   *
+   * @param phase the phase that was executed
+   * @param startNanos the start time of the call, as given by {@link System#nanoTime()}
+   */
+  public void record(Phase phase, long startNanos) {
+    phaseCalls.get(phase).increment();
+    phaseNanos.get(phase).add(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Increases the given counter.
+   *
+   * @param counter the counter to be increased
+   * @param amount the amount to be added
+   */
+  public void increment(Counter counter, long amount) {
+    counters.get(counter).add(amount);
+  }
+
+  /**
+   * Returns the number of calls of the given phase.
+   */
+  public long getCallCount(Phase phase) {
+    return phaseCalls.get(phase).sum();
+  }
+
+  /**
+   * Returns the total time spent in the given phase (summed up over all threads).
+   *
+   * @param phase the phase
+   * @param unit the unit of the returned time
+   */
+  public long getTime(Phase phase, TimeUnit unit) {
+    return unit.convert(phaseNanos.get(phase).sum(), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Returns the current value of the given counter.
+   */
+  public long getCount(Counter counter) {
+    return counters.get(counter).sum();
+  }
+
+  /**
+   * Sets the estimate cache used during the optimization process, so its hit rate is reported.
+   */
+  public void setEstimateCache(CachedEstimator estimateCache) {
+    this.estimateCache = estimateCache;
+  }
+
+  /**
+   * Returns the hit rate of the estimate cache, or {@link Double#NaN} if there is none.
+   */
+  public double getEstimateCacheHitRate() {
+    CachedEstimator cache = estimateCache;
+    return cache == null ? Double.NaN : cache.getHitRate();
+  }
+
+  /**
+   * Starts recording a round of the optimization process, which is completed by
+   * {@link RoundTimer#finish}.
+   *
+   * @param step the number of the round (0 for the initial population)
+   */
+  public RoundTimer startRound(int step) {
+    return new RoundTimer(step);
+  }
+
+  /**
+   * Returns the rounds recorded so far, in order.
+   */
+  public List<Round> getRounds() {
+    return ImmutableList.copyOf(rounds);
+  }
+
+  /**
+   * Returns a machine-readable summary of all metrics as a JSON object. Times are given in
+   * milliseconds.
+   */
+  public String toJson() {
+    StringBuilder json = new StringBuilder("{\"phases\":{");
+    String separator = "";
+    for (Phase phase : Phase.values()) {
+      json.append(separator).append('"').append(toJsonName(phase)).append("\":{\"calls\":")
+          .append(getCallCount(phase)).append(",\"millis\":")
+          .append(toMillis(phaseNanos.get(phase).sum())).append('}');
+      separator = ",";
+    }
+
+    json.append("},\"counters\":{");
+    separator = "";
+    for (Counter counter : Counter.values()) {
+      json.append(separator).append('"').append(toJsonName(counter)).append("\":")
+          .append(getCount(counter));
+      separator = ",";
+    }
+
+    json.append("},\"estimateCacheHitRate\":").append(toJsonNumber(getEstimateCacheHitRate()));
+
+    json.append(",\"rounds\":[");
+    separator = "";
+    for (Round round : rounds) {
+      json.append(separator).append("{\"step\":").append(round.getStep())
+          .append(",\"millis\":").append(toMillis(round.durationNanos))
+          .append(",\"alternativesMillis\":").append(toMillis(round.alternativesNanos))
+          .append(",\"evaluationMillis\":").append(toMillis(round.evaluationNanos))
+          .append(",\"populationSize\":").append(round.getPopulationSize())
+          .append(",\"averageScore\":").append(toJsonNumber(round.getAverageScore()))
+          .append('}');
+      separator = ",";
+    }
+    json.append("]}");
+
+    return json.toString();
+  }
+
+  @Override
+  public String toString() {
+    return toJson();
+  }
+
+  /**
+   * Returns an {@link AsyncAlternativesFinder} recording the calls of the given one as
+   * {@link Phase#ALTERNATIVES}. Partial results are still passed on as they arrive.
+   */
+  AsyncAlternativesFinder instrumentAlternativesFinder(AlternativesFinder alternativesFinder) {
+    final AsyncAlternativesFinder asyncFinder =
+        AsyncAlternativesFinder.adapt(alternativesFinder, AsyncAdapters.BLOCKING_EXECUTOR);
+    return new AsyncAlternativesFinder() {
+      @Override
+      public KeywordCollection derive(KeywordCollection keywords)
+          throws KeywordOptimizerException {
+        long start = System.nanoTime();
+        KeywordCollection alternatives = asyncFinder.derive(keywords);
+        recordAlternatives(start, alternatives);
+        return alternatives;
+      }
+
+      @Override
+      public CompletableFuture<KeywordCollection> deriveAsync(KeywordCollection keywords) {
+        long start = System.nanoTime();
+        return asyncFinder
+            .deriveAsync(keywords)
+            .thenApply(alternatives -> recordAlternatives(start, alternatives));
+      }
+
+      @Override
+      public CompletableFuture<KeywordCollection> deriveAsync(
+          KeywordCollection keywords, Consumer<KeywordCollection> partialResultConsumer) {
+        long start = System.nanoTime();
+        return asyncFinder
+            .deriveAsync(keywords, partialResultConsumer)
+            .thenApply(alternatives -> recordAlternatives(start, alternatives));
+      }
+    };
+  }
+
+  /**
+   * Returns an {@link AsyncEvaluator} recording the calls of the given one as
+   * {@link Phase#EVALUATION}.
+   */
+  AsyncEvaluator instrumentEvaluator(Evaluator evaluator) {
+    final AsyncEvaluator asyncEvaluator =
+        AsyncEvaluator.adapt(evaluator, AsyncAdapters.BLOCKING_EXECUTOR);
+    return new AsyncEvaluator() {
+      @Override
+      public KeywordCollection evaluate(KeywordCollection keywords)
+          throws KeywordOptimizerException {
+        long start = System.nanoTime();
+        KeywordCollection evaluations = asyncEvaluator.evaluate(keywords);
+        recordEvaluations(start, evaluations);
+        return evaluations;
+      }
+
+      @Override
+      public CompletableFuture<KeywordCollection> evaluateAsync(KeywordCollection keywords) {
+        long start = System.nanoTime();
+        return asyncEvaluator
+            .evaluateAsync(keywords)
+            .thenApply(evaluations -> recordEvaluations(start, evaluations));
+      }
+    };
+  }
+
+  /**
+   * Returns a proxy for the given AdWords API service object, recording each call as the given
+   * phase (including failed ones).
+   *
+   * @param serviceInterface the interface of the service object
+   * @param service the service object to be instrumented
+   * @param phase the phase to be recorded for each call
+   */
+  <T> T instrument(Class<T> serviceInterface, final T service, final Phase phase) {
+    InvocationHandler handler =
+        (proxy, method, args) -> {
+          long start = System.nanoTime();
+          try {
+            return method.invoke(service, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          } finally {
+            record(phase, start);
+          }
+        };
+    return serviceInterface.cast(
+        Proxy.newProxyInstance(
+            serviceInterface.getClassLoader(), new Class<?>[] {serviceInterface}, handler));
+  }
+
+  private KeywordCollection recordAlternatives(long startNanos, KeywordCollection alternatives) {
+    record(Phase.ALTERNATIVES, startNanos);
+    increment(Counter.ALTERNATIVES, alternatives.size());
+    return alternatives;
+  }
+
+  private KeywordCollection recordEvaluations(long startNanos, KeywordCollection evaluations) {
+    record(Phase.EVALUATION, startNanos);
+    increment(Counter.KEYWORDS_EVALUATED, evaluations.size());
+    return evaluations;
+  }
+
+  private static String toJsonName(Enum<?> value) {
+    return CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, value.name());
+  }
+
+  private static String toMillis(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+  }
+
+  private static String toJsonNumber(double value) {
+    return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+  }
+
+  /**
+   * Measures a single round of the optimization process, see {@link OptimizerMetrics#startRound}.
+   */
+  public class RoundTimer {
+    private final int step;
+    private final long startNanos;
+    private final long alternativesNanos;
+    private final long evaluationNanos;
+
+    private RoundTimer(int step) {
+      this.step = step;
+      startNanos = System.nanoTime();
+      alternativesNanos = phaseNanos.get(Phase.ALTERNATIVES).sum();
+      evaluationNanos = phaseNanos.get(Phase.EVALUATION).sum();
+    }
+
+    /**
+     * Records the round with the resulting population.
+     *
+     * @param population the keyword population at the end of the round
+     * @return the recorded round
+     */
+    public Round finish(KeywordCollection population) {
+      Round round =
+          new Round(
+              step,
+              System.nanoTime() - startNanos,
+              phaseNanos.get(Phase.ALTERNATIVES).sum() - alternativesNanos,
+              phaseNanos.get(Phase.EVALUATION).sum() - evaluationNanos,
+              population.size(),
+              population.getAverageScore());
+      rounds.add(round);
+      return round;
+    }
+  }
+
+  /**
+   * Timings and results of a single round of the optimization process. Times spent on alternatives
+   * and evaluation may overlap (and exceed the round's duration) if they run in parallel.
+   */
+  public static final class Round {
+    private final int step;
+    private final long durationNanos;
+    private final long alternativesNanos;
+    private final long evaluationNanos;
+    private final int populationSize;
+    private final double averageScore;
+
+    private Round(
+        int step,
+        long durationNanos,
+        long alternativesNanos,
+        long evaluationNanos,
+        int populationSize,
+        double averageScore) {
+      this.step = step;
+      this.durationNanos = durationNanos;
+      this.alternativesNanos = alternativesNanos;
+      this.evaluationNanos = evaluationNanos;
+      this.populationSize = populationSize;
+      this.averageScore = averageScore;
+    }
+
+    /**
+     * Returns the number of the round (0 for the initial population).
+     */
+    public int getStep() {
+      return step;
+    }
+
+    /**
+     * Returns the wall time of the round.
+     */
+    public long getDuration(TimeUnit unit) {
+      return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the time spent deriving alternatives during the round.
+     */
+    public long getAlternativesTime(TimeUnit unit) {
+      return unit.convert(alternativesNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the time spent evaluating keywords during the round.
+     */
+    public long getEvaluationTime(TimeUnit unit) {
+      return unit.convert(evaluationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the size of the population at the end of the round.
+     */
+    public int getPopulationSize() {
+      return populationSize;
+    }
+
+    /**
+     * Returns the average score of the population at the end of the round.
+     */
+    public double getAverageScore() {
+      return averageScore;
+    }
+  }
+}
@@ -0,0 +1,535 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.Metric;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.Statistics;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This {@link TrafficEstimator} stores {@link TrafficEstimate}s in a memory-mapped file, so that
+ * they survive across runs. Like the {@link CachedEstimator}, it's a decorator around another
+ * {@link TrafficEstimator}, which is only used for keywords that have not been estimated yet or
+ * whose stored estimates are older than the configured time to live.
+ *
+ * <p>Entries are keyed by keyword text, match type, maximum CPC and additional criteria of the
+ * {@link CampaignConfiguration}. Only the minimum and maximum statistics are stored (the mean is
+ * derived from them), using the following binary layout:
+ * <pre>
+ * header: int magic | int version | int end of data | int reserved
+ * record: int length | long configuration | byte match type | long timestamp
+ *         | stats min | stats max | short text length | text (UTF-8)
+ * stats:  byte flags | float clicks | float impressions | double ctr | double position
+ *         | long cpc (micros) | long cost (micros)
+ * configuration record: int length | long configuration | byte -1 | short string length
+ *         | canonical string (UTF-8)
+ * </pre>
+ * Records refer to campaign configurations by fingerprint, the canonical string of each
+ * configuration (see {@link CampaignConfiguration#getCanonicalString}) is stored once before its
+ * first record. Estimates are only read and written if the stored string matches, so configurations
+ * sharing a fingerprint never see each other's estimates.
+ *
+ * <p>Records are only ever appended, newer records for the same key take precedence. Bid landscapes
+ * are not stored, so keywords of campaign configurations with a bid grid are always passed on to
+ * the nested estimator. Keywords the nested estimator returns no traffic estimate for are not
+ * stored either. The file is locked while the estimator is open, so only a single estimator (in
+ * any process) writes to it.
+ */
+public class PersistentCachedEstimator implements TrafficEstimator, Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(PersistentCachedEstimator.class);
+
+  private static final int MAGIC = 0x4B4F4543;
+  private static final int VERSION = 2;
+  private static final int INITIAL_CAPACITY = 1 << 20;
+  private static final double MICROS_PER_UNIT = 1000000;
+
+  // Offsets in the header.
+  private static final int HEADER_MAGIC = 0;
+  private static final int HEADER_VERSION = 4;
+  private static final int HEADER_END = 8;
+  private static final int HEADER_SIZE = 16;
+
+  // Offsets within a record.
+  private static final int RECORD_CONFIGURATION = 4;
+  private static final int RECORD_MATCH_TYPE = 12;
+  private static final int RECORD_TIMESTAMP = 13;
+  private static final int RECORD_MIN = 21;
+  private static final int RECORD_MAX = 62;
+  private static final int RECORD_TEXT_LENGTH = 103;
+  private static final int RECORD_TEXT = 105;
+
+  // Match type marking configuration records, and offsets within them.
+  private static final byte CONFIGURATION_MARKER = -1;
+  private static final int CONFIGURATION_STRING_LENGTH = 13;
+  private static final int CONFIGURATION_STRING = 15;
+
+  // Offsets within stats.
+  private static final int STATS_CLICKS = 1;
+  private static final int STATS_IMPRESSIONS = 5;
+  private static final int STATS_CTR = 9;
+  private static final int STATS_POSITION = 17;
+  private static final int STATS_CPC = 25;
+  private static final int STATS_COST = 33;
+
+  // Flags marking which statistics are present.
+  private static final int FLAG_CLICKS = 1;
+  private static final int FLAG_IMPRESSIONS = 1 << 1;
+  private static final int FLAG_CTR = 1 << 2;
+  private static final int FLAG_POSITION = 1 << 3;
+  private static final int FLAG_CPC = 1 << 4;
+  private static final int FLAG_COST = 1 << 5;
+
+  private final TrafficEstimator estimator;
+  private final long timeToLiveMillis;
+  private final FileChannel channel;
+
+  // Offsets of the latest record by key.
+  private final Map<EstimateCacheKey, Integer> index;
+  // Canonical strings of the stored configurations by fingerprint.
+  private final Map<Long, String> configurations;
+  private MappedByteBuffer buffer;
+  private int end;
+
+  /**
+   * Creates a new {@link PersistentCachedEstimator} around an existing {@link TrafficEstimator}.
+   *
+   * @param estimator the nested {@link TrafficEstimator}, which will be used whenever no fresh
+   *                  entry is found in the cache
+   * @param file the file holding the stored estimates (created if it does not exist)
+   * @param timeToLive how long stored estimates are used before they are retrieved again
+   * @param timeUnit the unit of the time to live
+   * @throws KeywordOptimizerException in case of an error opening the file
+   */
+  public PersistentCachedEstimator(
+      TrafficEstimator estimator, File file, long timeToLive, TimeUnit timeUnit)
+      throws KeywordOptimizerException {
+    this.estimator = estimator;
+    this.timeToLiveMillis = timeUnit.toMillis(timeToLive);
+    index = new HashMap<>();
+    configurations = new HashMap<>();
+
+    try {
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } catch (IOException e) {
+      throw new KeywordOptimizerException("Problem while opening estimate cache file " + file, e);
+    }
+
+    // Records are appended without coordination, so only a single writer may use the file.
+    try {
+      if (lock() == null) {
+        throw new KeywordOptimizerException(
+            "Estimate cache file " + file + " is already in use by another process");
+      }
+      load(file);
+    } catch (KeywordOptimizerException | RuntimeException e) {
+      closeQuietly();
+      throw e;
+    } catch (IOException e) {
+      closeQuietly();
+      throw new KeywordOptimizerException("Problem while opening estimate cache file " + file, e);
+    }
+
+    logger.info("Opened estimate cache " + file + " with " + index.size() + " entries");
+  }
+
+  /**
+   * Takes an exclusive lock on the whole file, which is released when the channel is closed.
+   *
+   * @return the lock, or {@code null} if another process holds a lock on the file
+   * @throws KeywordOptimizerException in case another estimator in this JVM uses the file
+   */
+  private FileLock lock() throws IOException, KeywordOptimizerException {
+    try {
+      return channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      throw new KeywordOptimizerException(
+          "Estimate cache file is already in use by another estimator", e);
+    }
+  }
+
+  /**
+   * Maps the file and reads the index of stored records, or initializes the file if it is empty or
+   * has an unknown format.
+   */
+  private void load(File file) throws IOException, KeywordOptimizerException {
+    long size = channel.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new KeywordOptimizerException("Estimate cache file " + file + " is too large");
+    }
+    buffer = channel.map(MapMode.READ_WRITE, 0, Math.max(size, INITIAL_CAPACITY));
+
+    if (size >= HEADER_SIZE
+        && buffer.getInt(HEADER_MAGIC) == MAGIC
+        && buffer.getInt(HEADER_VERSION) == VERSION
+        && buffer.getInt(HEADER_END) >= HEADER_SIZE
+        && buffer.getInt(HEADER_END) <= size) {
+      end = buffer.getInt(HEADER_END);
+      readIndex();
+    } else {
+      if (size > 0) {
+        logger.warn("Estimate cache file " + file + " has an unknown format, starting empty");
+      }
+      buffer.putInt(HEADER_MAGIC, MAGIC);
+      buffer.putInt(HEADER_VERSION, VERSION);
+      end = HEADER_SIZE;
+      buffer.putInt(HEADER_END, end);
+    }
+  }
+
+  /**
+   * Closes the channel after a failed initialization, which also releases the lock.
+   */
+  private void closeQuietly() {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      logger.warn("Error closing the estimate cache file", e);
+    }
+  }
+
+  @Override
+  public KeywordCollection estimate(KeywordCollection keywords) throws KeywordOptimizerException {
+    CampaignConfiguration campaignConfiguration = keywords.getCampaignConfiguration();
+    if (!campaignConfiguration.getBidGrid().isEmpty() || !isStorable(campaignConfiguration)) {
+      return estimator.estimate(keywords);
+    }
+
+    KeywordCollection estimates = new KeywordCollection(campaignConfiguration);
+    KeywordCollection retrieveKeywords = new KeywordCollection(campaignConfiguration);
+    long configuration = campaignConfiguration.getFingerprint();
+    long now = System.currentTimeMillis();
+
+    // Check if there are any fresh keywords in the file.
+    synchronized (this) {
+      for (KeywordInfo givenInfo : keywords) {
+        Integer offset = index.get(new EstimateCacheKey(configuration, givenInfo.getKeywordId()));
+
+        if (offset != null && buffer.getLong(offset + RECORD_TIMESTAMP) + timeToLiveMillis >= now) {
+          TrafficEstimate estimate = readEstimate(offset);
+          estimates.add(
+              new KeywordInfo(
+                  givenInfo.getKeywordId(), givenInfo.getIdeaEstimate(), estimate, null));
+        } else {
+          retrieveKeywords.add(givenInfo);
+        }
+      }
+    }
+    int stored = estimates.size();
+
+    // Retrieve and store all other keywords.
+    if (retrieveKeywords.size() > 0) {
+      KeywordCollection retrieved = estimator.estimate(retrieveKeywords);
+
+      synchronized (this) {
+        boolean storable = isStorable(campaignConfiguration);
+        if (storable && !configurations.containsKey(configuration)) {
+          appendConfiguration(campaignConfiguration);
+        }
+        for (KeywordInfo estimate : retrieved) {
+          // Keywords without estimates are returned, but not stored.
+          if (storable && estimate.getTrafficEstimate() != null) {
+            append(configuration, estimate.getKeywordId(), now, estimate.getTrafficEstimate());
+          }
+          estimates.add(estimate);
+        }
+        buffer.putInt(HEADER_END, end);
+      }
+    }
+
+    logger.info("Estimated " + keywords.size() + " keywords (" + stored + " from file, "
+        + retrieveKeywords.size() + " retrieved)");
+
+    return estimates;
+  }
+
+  /**
+   * Returns all estimates stored for the given campaign settings, regardless of their age. This
+   * allows re-scoring the keywords of previous runs without calling the AdWords API.
+   *
+   * @param campaignConfiguration the campaign settings the estimates were made under
+   * @return the stored estimates (without scores)
+   */
+  public synchronized KeywordCollection getStoredEstimates(
+      CampaignConfiguration campaignConfiguration) {
+    KeywordCollection estimates = new KeywordCollection(campaignConfiguration);
+    long configuration = campaignConfiguration.getFingerprint();
+    if (!campaignConfiguration.getCanonicalString().equals(configurations.get(configuration))) {
+      return estimates;
+    }
+
+    for (Map.Entry<EstimateCacheKey, Integer> entry : index.entrySet()) {
+      EstimateCacheKey key = entry.getKey();
+      if (key.getConfiguration() == configuration) {
+        int offset = entry.getValue();
+        TrafficEstimate estimate = readEstimate(offset);
+        estimates.add(
+            new KeywordInfo(key.getKeyword(), IdeaEstimate.EMPTY_ESTIMATE, estimate, null));
+      }
+    }
+    return estimates;
+  }
+
+  /**
+   * Writes all changes to disk and closes the file.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    buffer.force();
+    channel.close();
+  }
+
+  /**
+   * Returns whether estimates of the given configuration can be read from and written to the file,
+   * which is not the case if another configuration with the same fingerprint was stored before.
+   */
+  private synchronized boolean isStorable(CampaignConfiguration campaignConfiguration) {
+    String storedString = configurations.get(campaignConfiguration.getFingerprint());
+    if (storedString == null || storedString.equals(campaignConfiguration.getCanonicalString())) {
+      return true;
+    }
+
+    logger.warn("Not storing estimates for campaign configuration "
+        + campaignConfiguration.getCanonicalString() + ", its fingerprint is already used by "
+        + storedString);
+    return false;
+  }
+
+  /**
+   * Scans all records in the file and builds the index of the latest record for each key.
+   */
+  private void readIndex() {
+    int offset = HEADER_SIZE;
+
+    while (offset < end) {
+      int length = buffer.getInt(offset);
+      if (length < CONFIGURATION_STRING
+          || offset + length > end
+          || (buffer.get(offset + RECORD_MATCH_TYPE) != CONFIGURATION_MARKER
+              && length < RECORD_TEXT)) {
+        logger.warn("Ignoring corrupt estimate cache records after offset " + offset);
+        end = offset;
+        buffer.putInt(HEADER_END, end);
+        break;
+      }
+
+      long configuration = buffer.getLong(offset + RECORD_CONFIGURATION);
+      byte matchType = buffer.get(offset + RECORD_MATCH_TYPE);
+      if (matchType == CONFIGURATION_MARKER) {
+        configurations.put(
+            configuration,
+            readString(offset + CONFIGURATION_STRING, offset + CONFIGURATION_STRING_LENGTH));
+      } else {
+        KeywordId keyword =
+            KeywordId.of(readString(offset + RECORD_TEXT, offset + RECORD_TEXT_LENGTH), matchType);
+        index.put(new EstimateCacheKey(configuration, keyword), offset);
+      }
+      offset += length;
+    }
+  }
+
+  /**
+   * Reads the UTF-8 string stored at the given offset, with its length stored at another offset.
+   */
+  private String readString(int offset, int lengthOffset) {
+    byte[] bytes = new byte[buffer.getShort(lengthOffset)];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * Writes the given string as UTF-8 at the given offset, with its length at another offset.
+   */
+  private void writeString(int offset, int lengthOffset, byte[] bytes) {
+    buffer.putShort(lengthOffset, (short) bytes.length);
+    for (int i = 0; i < bytes.length; i++) {
+      buffer.put(offset + i, bytes[i]);
+    }
+  }
+
+  /**
+   * Appends a record with the canonical string of the given configuration.
+   */
+  private void appendConfiguration(CampaignConfiguration campaignConfiguration)
+      throws KeywordOptimizerException {
+    byte[] canonicalString = campaignConfiguration.getCanonicalString().getBytes(UTF_8);
+    if (canonicalString.length > Short.MAX_VALUE) {
+      throw new KeywordOptimizerException("Campaign configuration is too large to be stored");
+    }
+    int length = CONFIGURATION_STRING + canonicalString.length;
+    ensureCapacity(end + length);
+
+    int offset = end;
+    buffer.putInt(offset, length);
+    buffer.putLong(offset + RECORD_CONFIGURATION, campaignConfiguration.getFingerprint());
+    buffer.put(offset + RECORD_MATCH_TYPE, CONFIGURATION_MARKER);
+    writeString(
+        offset + CONFIGURATION_STRING, offset + CONFIGURATION_STRING_LENGTH, canonicalString);
+
+    end += length;
+    configurations.put(
+        campaignConfiguration.getFingerprint(), campaignConfiguration.getCanonicalString());
+  }
+
+  /**
+   * Appends a new record for the given keyword and updates the index.
+   */
+  private void append(
+      long configuration, KeywordId keyword, long timestamp, TrafficEstimate estimate)
+      throws KeywordOptimizerException {
+    byte[] text = keyword.getText().getBytes(UTF_8);
+    int length = RECORD_TEXT + text.length;
+    ensureCapacity(end + length);
+
+    int offset = end;
+    buffer.putInt(offset, length);
+    buffer.putLong(offset + RECORD_CONFIGURATION, configuration);
+    buffer.put(offset + RECORD_MATCH_TYPE, (byte) keyword.getMatchTypeOrdinal());
+    buffer.putLong(offset + RECORD_TIMESTAMP, timestamp);
+    writeStats(offset + RECORD_MIN, estimate, Statistics.MIN);
+    writeStats(offset + RECORD_MAX, estimate, Statistics.MAX);
+    writeString(offset + RECORD_TEXT, offset + RECORD_TEXT_LENGTH, text);
+
+    end += length;
+    index.put(new EstimateCacheKey(configuration, keyword), offset);
+  }
+
+  /**
+   * Makes sure the mapped region of the file has (at least) the given size.
+   */
+  private void ensureCapacity(int required) throws KeywordOptimizerException {
+    if (required <= buffer.capacity()) {
+      return;
+    }
+
+    long capacity = Math.max(2L * buffer.capacity(), required);
+    if (capacity > Integer.MAX_VALUE) {
+      throw new KeywordOptimizerException("Estimate cache file is full");
+    }
+
+    try {
+      buffer = channel.map(MapMode.READ_WRITE, 0, capacity);
+    } catch (IOException e) {
+      throw new KeywordOptimizerException("Problem while growing estimate cache file", e);
+    }
+  }
+
+  /**
+   * Reads the {@link TrafficEstimate} of the record at the given offset.
+   */
+  private TrafficEstimate readEstimate(int offset) {
+    double[] values = TrafficEstimate.createPackedValues();
+    readStats(offset + RECORD_MIN, Statistics.MIN, values);
+    readStats(offset + RECORD_MAX, Statistics.MAX, values);
+    return new TrafficEstimate(values);
+  }
+
+  /**
+   * Reads the statistics stored at the given offset into the given packed values (see
+   * {@link TrafficEstimate#getIndex}).
+   */
+  private void readStats(int offset, Statistics statistics, double[] values) {
+    int flags = buffer.get(offset);
+
+    if ((flags & FLAG_CLICKS) != 0) {
+      values[TrafficEstimate.getIndex(statistics, Metric.CLICKS_PER_DAY)] =
+          buffer.getFloat(offset + STATS_CLICKS);
+    }
+    if ((flags & FLAG_IMPRESSIONS) != 0) {
+      values[TrafficEstimate.getIndex(statistics, Metric.IMPRESSIONS_PER_DAY)] =
+          buffer.getFloat(offset + STATS_IMPRESSIONS);
+    }
+    if ((flags & FLAG_CTR) != 0) {
+      values[TrafficEstimate.getIndex(statistics, Metric.CLICK_THROUGH_RATE)] =
+          buffer.getDouble(offset + STATS_CTR);
+    }
+    if ((flags & FLAG_POSITION) != 0) {
+      values[TrafficEstimate.getIndex(statistics, Metric.AVERAGE_POSITION)] =
+          buffer.getDouble(offset + STATS_POSITION);
+    }
+    if ((flags & FLAG_CPC) != 0) {
+      values[TrafficEstimate.getIndex(statistics, Metric.AVERAGE_CPC)] =
+          buffer.getLong(offset + STATS_CPC);
+    }
+    if ((flags & FLAG_COST) != 0) {
+      values[TrafficEstimate.getIndex(statistics, Metric.TOTAL_COST)] =
+          buffer.getLong(offset + STATS_COST);
+    }
+  }
+
+  /**
+   * Writes the given statistics of the given {@link TrafficEstimate} at the given offset.
+   */
+  private void writeStats(int offset, TrafficEstimate estimate, Statistics statistics) {
+    int flags = 0;
+
+    double clicksPerDay = estimate.getValue(statistics, Metric.CLICKS_PER_DAY);
+    if (!Double.isNaN(clicksPerDay)) {
+      flags |= FLAG_CLICKS;
+      buffer.putFloat(offset + STATS_CLICKS, (float) clicksPerDay);
+    }
+    double impressionsPerDay = estimate.getValue(statistics, Metric.IMPRESSIONS_PER_DAY);
+    if (!Double.isNaN(impressionsPerDay)) {
+      flags |= FLAG_IMPRESSIONS;
+      buffer.putFloat(offset + STATS_IMPRESSIONS, (float) impressionsPerDay);
+    }
+    double clickThroughRate = estimate.getValue(statistics, Metric.CLICK_THROUGH_RATE);
+    if (!Double.isNaN(clickThroughRate)) {
+      flags |= FLAG_CTR;
+      buffer.putDouble(offset + STATS_CTR, clickThroughRate);
+    }
+    double averagePosition = estimate.getValue(statistics, Metric.AVERAGE_POSITION);
+    if (!Double.isNaN(averagePosition)) {
+      flags |= FLAG_POSITION;
+      buffer.putDouble(offset + STATS_POSITION, averagePosition);
+    }
+    double averageCpc = estimate.getValue(statistics, Metric.AVERAGE_CPC);
+    if (!Double.isNaN(averageCpc)) {
+      flags |= FLAG_CPC;
+      buffer.putLong(offset + STATS_CPC, toMicros(averageCpc));
+    }
+    double totalCost = estimate.getValue(statistics, Metric.TOTAL_COST);
+    if (!Double.isNaN(totalCost)) {
+      flags |= FLAG_COST;
+      buffer.putLong(offset + STATS_COST, toMicros(totalCost));
+    }
+
+    buffer.put(offset, (byte) flags);
+  }
+
+  /**
+   * Converts the given amount of money (in units of the account currency) back to micros.
+   */
+  private static long toMicros(double amount) {
+    return Math.round(amount * MICROS_PER_UNIT);
+  }
+}
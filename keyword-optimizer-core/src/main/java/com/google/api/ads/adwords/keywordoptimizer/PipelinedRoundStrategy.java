@@ -0,0 +1,103 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DefaultRoundStrategy} that pipelines the steps of each round: every page of alternatives
+ * is evaluated as soon as it was retrieved, while the next page is still being retrieved, and the
+ * evaluated pages are merged into the next population in their order as their scores arrive. The
+ * resulting population is the same as for the {@link DefaultRoundStrategy}, but the latency of a
+ * round is reduced to roughly the slower of alternatives retrieval and evaluation.
+ *
+ * <p>This only makes a difference if the {@link AlternativesFinder} passes on partial results (see
+ * {@link AsyncAlternativesFinder#deriveAsync(KeywordCollection, java.util.function.Consumer)}).
+ */
+public class PipelinedRoundStrategy extends DefaultRoundStrategy {
+  private static final Logger logger = LoggerFactory.getLogger(RoundStrategy.class);
+
+  /**
+   * Creates a new {@link PipelinedRoundStrategy}.
+   *
+   * @param maxNrSteps maximum number of round / steps (<code>null</code> for no restriction)
+   * @param minImprovement minimum improvement of the average score to be reached until the process
+   *                       stops (<code>null</code> for no restriction)
+   * @param maxPopulationSize maximum size of the population at any time
+   * @param replicateBestCount number of keywords to be used for replication
+   */
+  public PipelinedRoundStrategy(@Nullable Integer maxNrSteps, @Nullable Double minImprovement,
+      int maxPopulationSize, int replicateBestCount) {
+    super(maxNrSteps, minImprovement, maxPopulationSize, replicateBestCount);
+  }
+
+  /**
+   * Creates a new {@link PipelinedRoundStrategy} and takes its parameters from a property file.
+   */
+  public PipelinedRoundStrategy(OptimizationContext context) {
+    super(context);
+  }
+
+  @Override
+  protected void addAlternatives(
+      final KeywordCollection nextPopulation,
+      KeywordCollection bestKeywords,
+      AlternativesFinder alternativesFinder,
+      Evaluator evaluator)
+      throws KeywordOptimizerException {
+    final AsyncEvaluator asyncEvaluator =
+        AsyncEvaluator.adapt(evaluator, AsyncAdapters.BLOCKING_EXECUTOR);
+    final AtomicInteger pageCount = new AtomicInteger();
+    final AtomicReference<CompletableFuture<Void>> lastMerge =
+        new AtomicReference<>(CompletableFuture.completedFuture(null));
+
+    // Evaluate every page of alternatives as soon as it arrives. Pages are evaluated concurrently,
+    // but each one is merged after the previous one, so the population does not depend on which
+    // evaluation finishes first. Every step waits for its evaluation even if an earlier step
+    // failed, in which case it fails as well instead of merging.
+    CompletableFuture<KeywordCollection> alternatives =
+        AsyncAlternativesFinder.adapt(alternativesFinder, AsyncAdapters.BLOCKING_EXECUTOR)
+            .deriveAsync(
+                bestKeywords,
+                page -> {
+                  synchronized (lastMerge) {
+                    pageCount.incrementAndGet();
+                    CompletableFuture<KeywordCollection> evaluation =
+                        asyncEvaluator.evaluateAsync(page);
+                    lastMerge.set(
+                        CompletableFuture.allOf(lastMerge.get(), evaluation)
+                            .thenRun(() -> merge(nextPopulation, evaluation.join())));
+                  }
+                });
+
+    // All pages have been passed on once retrieval is done (successfully or not), so no more merges
+    // are added. Wait for all of them before reporting any failure, so that no evaluation changes
+    // the population after returning.
+    CompletableFuture<Void> merges =
+        alternatives.handle((keywords, error) -> null).thenCompose(ignored -> lastMerge.get());
+    AsyncAdapters.await(CompletableFuture.allOf(alternatives, merges).exceptionally(error -> null));
+
+    KeywordCollection alternativeKeywords = AsyncAdapters.await(alternatives);
+    logger.info("- Found " + alternativeKeywords.size() + " keywords based on "
+        + bestKeywords.size() + " current best in " + pageCount.get() + " pages");
+
+    AsyncAdapters.await(merges);
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * An {@link AlternativesFinder} discarding unpromising alternatives of another one before their
+ * traffic is estimated. Each alternative is scored based on its {@link IdeaEstimate} (see
+ * {@link ScoreCalculator#calculate(KeywordInfo)}), typically by a formula using the
+ * {@code idea.*} variables, and alternatives scoring below a minimum (or NaN, for unknown values)
+ * are discarded. This reduces the number of traffic estimates needed per round.
+ *
+ * <p>Partial results of the other alternatives finder are filtered and passed on as they arrive
+ * (see {@link AsyncAlternativesFinder#deriveAsync(KeywordCollection, Consumer)}).
+ */
+public class PreScoringAlternativesFinder implements AsyncAlternativesFinder {
+  private final AsyncAlternativesFinder alternativesFinder;
+  private final ScoreCalculator preScoreCalculator;
+  private final double minimumPreScore;
+
+  /**
+   * Creates a new {@link PreScoringAlternativesFinder}.
+   *
+   * @param alternativesFinder the alternatives finder whose alternatives are filtered
+   * @param preScoreCalculator calculates the scores of alternatives without traffic estimates
+   * @param minimumPreScore the minimum score of alternatives that are kept
+   */
+  public PreScoringAlternativesFinder(
+      AlternativesFinder alternativesFinder,
+      ScoreCalculator preScoreCalculator,
+      double minimumPreScore) {
+    this.alternativesFinder =
+        AsyncAlternativesFinder.adapt(alternativesFinder, AsyncAdapters.BLOCKING_EXECUTOR);
+    this.preScoreCalculator = preScoreCalculator;
+    this.minimumPreScore = minimumPreScore;
+  }
+
+  @Override
+  public KeywordCollection derive(KeywordCollection keywords) throws KeywordOptimizerException {
+    return filter(alternativesFinder.derive(keywords));
+  }
+
+  @Override
+  public CompletableFuture<KeywordCollection> deriveAsync(KeywordCollection keywords) {
+    return alternativesFinder.deriveAsync(keywords).thenApply(this::filterOrFail);
+  }
+
+  @Override
+  public CompletableFuture<KeywordCollection> deriveAsync(
+      KeywordCollection keywords, Consumer<KeywordCollection> partialResultConsumer) {
+    // Partial results are not passed on concurrently, so they can be collected without locking.
+    final KeywordCollection promisingAlternatives =
+        new KeywordCollection(keywords.getCampaignConfiguration());
+    return alternativesFinder
+        .deriveAsync(
+            keywords,
+            alternatives -> {
+              KeywordCollection promisingPartialResult = filterOrFail(alternatives);
+              for (KeywordInfo alternative : promisingPartialResult) {
+                promisingAlternatives.add(alternative);
+              }
+              partialResultConsumer.accept(promisingPartialResult);
+            })
+        .thenApply(alternatives -> promisingAlternatives);
+  }
+
+  /**
+   * Returns the given alternatives scoring at least the minimum score (without their scores).
+   *
+   * @param alternatives the alternatives to be filtered
+   * @return the promising alternatives
+   * @throws KeywordOptimizerException in case of an error calculating the scores
+   */
+  private KeywordCollection filter(KeywordCollection alternatives)
+      throws KeywordOptimizerException {
+    KeywordCollection promisingAlternatives =
+        new KeywordCollection(alternatives.getCampaignConfiguration());
+    for (KeywordInfo alternative : alternatives) {
+      if (preScoreCalculator.calculate(alternative) >= minimumPreScore) {
+        promisingAlternatives.add(alternative);
+      }
+    }
+    return promisingAlternatives;
+  }
+
+  /**
+   * Like {@link #filter}, but wraps errors for completing a future exceptionally.
+   */
+  private KeywordCollection filterOrFail(KeywordCollection alternatives) {
+    try {
+      return filter(alternatives);
+    } catch (KeywordOptimizerException e) {
+      throw new CompletionException(e);
+    }
+  }
+}
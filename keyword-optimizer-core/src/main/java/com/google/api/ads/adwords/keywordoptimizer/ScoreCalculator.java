@@ -14,10 +14,16 @@
 
 package com.google.api.ads.adwords.keywordoptimizer;
 
+import com.google.common.collect.ImmutableSet;
+import javax.annotation.Nullable;
+
 /**
  * Calculates a score derived from a previously obtained {@link TrafficEstimate}. A {@link
  * ScoreCalculator} is typically used by an {@link Evaluator} to calculate a score based on the 
  * {@link TrafficEstimate}s returned by a {@link TrafficEstimator}.
+ *
+ * <p>Implementations must be thread-safe: the scores of a population may be calculated by several
+ * threads concurrently (see {@link KeywordOptimizerProperty#ScoreCalculatorParallelism}).
  */
 public interface ScoreCalculator {
   /**
@@ -28,4 +34,77 @@ public interface ScoreCalculator {
    * @throws KeywordOptimizerException in case of a problem calculating the score
    */
   double calculate(TrafficEstimate estimate) throws KeywordOptimizerException;
+
+  /**
+   * Calculates a score for a given keyword from its estimates. Both {@link #calculate(KeywordInfo)}
+   * and {@link #calculateAll(EstimateColumns)} call this by default, so implementations taking the
+   * {@link IdeaEstimate} into account (which is available before the traffic of a keyword has been
+   * estimated) should override this method rather than {@link #calculate(KeywordInfo)}. By
+   * default, the score is calculated from the {@link TrafficEstimate} only.
+   *
+   * @param ideaEstimate the {@link IdeaEstimate} of the keyword, or {@code null} if not known
+   * @param trafficEstimate the {@link TrafficEstimate} of the keyword, or {@code null} if not known
+   * @return a score derived from the given estimates (higher scores are considered better)
+   * @throws KeywordOptimizerException in case of a problem calculating the score (for example, if
+   *     an estimate needed is missing)
+   */
+  default double calculate(
+      @Nullable IdeaEstimate ideaEstimate, @Nullable TrafficEstimate trafficEstimate)
+      throws KeywordOptimizerException {
+    if (trafficEstimate == null) {
+      throw new KeywordOptimizerException("No traffic estimate given");
+    }
+    return calculate(trafficEstimate);
+  }
+
+  /**
+   * Calculates a score for a given keyword, by calling
+   * {@link #calculate(IdeaEstimate, TrafficEstimate)} with its estimates.
+   *
+   * @param keyword the keyword to be evaluated
+   * @return a score derived from the estimates of the given keyword (higher scores are considered
+   *     better)
+   * @throws KeywordOptimizerException in case of a problem calculating the score (for example, if
+   *     the keyword lacks an estimate needed)
+   */
+  default double calculate(KeywordInfo keyword) throws KeywordOptimizerException {
+    try {
+      return calculate(keyword.getIdeaEstimate(), keyword.getTrafficEstimate());
+    } catch (KeywordOptimizerException e) {
+      throw new KeywordOptimizerException(
+          "Cannot score keyword " + KeywordOptimizerUtil.toString(keyword.getKeyword()), e);
+    }
+  }
+
+  /**
+   * Returns the statistics the scores depend on, named like the variables of score formulas (such
+   * as {@code mean.clicksPerDay} or {@code bid2.max.totalCost}, see
+   * {@link com.google.api.ads.adwords.keywordoptimizer.formula.FormulaContext}). Statistics not
+   * listed here are never read, so they do not need to be calculated or converted.
+   *
+   * @return the names of the required statistics, or {@code null} if the scores may depend on all
+   *     statistics of an estimate
+   */
+  @Nullable
+  default ImmutableSet<String> getRequiredVariables() {
+    return null;
+  }
+
+  /**
+   * Calculates the scores for many {@link TrafficEstimate}s at once, given as columns of primitive
+   * values. Implementations can override this to score whole populations in tight loops; by
+   * default, {@link #calculate(IdeaEstimate, TrafficEstimate)} is called for each estimate, with
+   * the {@link IdeaEstimate} of the same keyword (if known).
+   *
+   * @param estimates the {@link TrafficEstimate}s to be evaluated
+   * @return the scores of the given estimates, in the same order
+   * @throws KeywordOptimizerException in case of a problem calculating the scores
+   */
+  default double[] calculateAll(EstimateColumns estimates) throws KeywordOptimizerException {
+    double[] scores = new double[estimates.size()];
+    for (int i = 0; i < scores.length; i++) {
+      scores[i] = calculate(estimates.getIdeaEstimate(i), estimates.getEstimate(i));
+    }
+    return scores;
+  }
 }
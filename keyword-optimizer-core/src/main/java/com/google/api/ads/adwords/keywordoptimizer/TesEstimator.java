@@ -16,6 +16,8 @@ package com.google.api.ads.adwords.keywordoptimizer;
 
 import com.google.api.ads.adwords.axis.v201809.cm.ApiException;
 import com.google.api.ads.adwords.axis.v201809.cm.Criterion;
+import com.google.api.ads.adwords.axis.v201809.cm.Money;
+import com.google.api.ads.adwords.axis.v201809.o.AdGroupEstimate;
 import com.google.api.ads.adwords.axis.v201809.o.AdGroupEstimateRequest;
 import com.google.api.ads.adwords.axis.v201809.o.CampaignEstimateRequest;
 import com.google.api.ads.adwords.axis.v201809.o.KeywordEstimate;
@@ -24,29 +26,127 @@ import com.google.api.ads.adwords.axis.v201809.o.TrafficEstimatorResult;
 import com.google.api.ads.adwords.axis.v201809.o.TrafficEstimatorSelector;
 import com.google.api.ads.adwords.axis.v201809.o.TrafficEstimatorService;
 import com.google.api.ads.adwords.axis.v201809.o.TrafficEstimatorServiceInterface;
+import com.google.api.ads.common.lib.exception.ValidationException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.commons.configuration.Configuration;
 
 /**
  * This estimator uses the {@link TrafficEstimatorService} of the AdWords API to create traffic
  * estimates. It is the only implementation of a {@link TrafficEstimator} provided by this utility,
  * but can be exchanged for your own implementation.
+ *
+ * <p>Large keyword collections are split into batches (see {@link
+ * KeywordOptimizerProperty#EstimatorBatchSize}), which are sent to the {@link
+ * TrafficEstimatorService} in parallel by a limited number of threads (see {@link
+ * KeywordOptimizerProperty#EstimatorParallelism}). Each thread uses its own service object; all
+ * requests still go through the rate limiter of the AdWords API utility. Since requests are always
+ * sent by these threads, estimates can also be retrieved asynchronously. Closing the estimator
+ * stops these threads once pending requests are done.
  */
-public class TesEstimator implements TrafficEstimator {
-  private TrafficEstimatorServiceInterface tes;
+public class TesEstimator implements AsyncTrafficEstimator, Closeable {
+  private static final int DEFAULT_BATCH_SIZE = 500;
+
+  // Service objects not currently in use.
+  private final BlockingQueue<TrafficEstimatorServiceInterface> services;
+  private final int batchSize;
+  private final ExecutorService executor;
 
   /**
    * Creates a new {@link TesEstimator}.
    *
    * @param context holding shared objects during the optimization process
+   * @throws KeywordOptimizerException in case the service objects cannot be created
+   */
+  public TesEstimator(OptimizationContext context) throws KeywordOptimizerException {
+    this(createServices(context), getBatchSize(context.getConfiguration()));
+  }
+
+  /**
+   * Creates a new {@link TesEstimator} using the given service objects. Batches are sent in
+   * parallel, with one thread per service object.
+   *
+   * @param services the service objects to be used
+   * @param batchSize the maximum number of keyword estimates per request (0 for no limit)
+   */
+  @VisibleForTesting
+  TesEstimator(List<TrafficEstimatorServiceInterface> services, int batchSize) {
+    if (services.isEmpty()) {
+      throw new IllegalArgumentException("Need at least one service object");
+    }
+
+    this.services = new ArrayBlockingQueue<TrafficEstimatorServiceInterface>(services.size());
+    this.services.addAll(services);
+    this.batchSize = batchSize > 0 ? batchSize : Integer.MAX_VALUE;
+
+    executor =
+        Executors.newFixedThreadPool(
+            services.size(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("tes-%d").build());
+  }
+
+  /**
+   * Creates as many service objects as specified by the parallelism property.
+   *
+   * @param context holding shared objects during the optimization process
+   * @return the service objects
+   * @throws KeywordOptimizerException in case the service objects cannot be created
    */
-  public TesEstimator(OptimizationContext context) {
-    tes = context.getAdwordsApiUtil().getService(TrafficEstimatorServiceInterface.class);
+  private static List<TrafficEstimatorServiceInterface> createServices(
+      OptimizationContext context) throws KeywordOptimizerException {
+    int parallelism = context.getConfiguration()
+        .getInt(KeywordOptimizerProperty.EstimatorParallelism.getName(), 1);
+    AdWordsApiUtil adwordsApiUtil = context.getAdwordsApiUtil();
+
+    List<TrafficEstimatorServiceInterface> services;
+    if (parallelism <= 1) {
+      services =
+          ImmutableList.of(adwordsApiUtil.getService(TrafficEstimatorServiceInterface.class));
+    } else {
+      try {
+        services = adwordsApiUtil.getServices(TrafficEstimatorServiceInterface.class, parallelism);
+      } catch (ValidationException e) {
+        throw new KeywordOptimizerException(
+            "Problem while creating traffic estimator services", e);
+      }
+    }
+
+    // Record all requests in the metrics.
+    ImmutableList.Builder<TrafficEstimatorServiceInterface> instrumentedServices =
+        ImmutableList.builder();
+    for (TrafficEstimatorServiceInterface service : services) {
+      instrumentedServices.add(
+          context.getMetrics().instrument(
+              TrafficEstimatorServiceInterface.class,
+              service,
+              OptimizerMetrics.Phase.TES_REQUEST));
+    }
+    return instrumentedServices.build();
   }
 
   /**
-   * Creates the TES request for a list of {@link KeywordCollection}.
+   * Reads the maximum number of keywords per request from the given configuration.
+   */
+  private static int getBatchSize(Configuration configuration) {
+    return configuration.getInt(
+        KeywordOptimizerProperty.EstimatorBatchSize.getName(), DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Creates the TES request for a list of {@link KeywordCollection}. The request contains one ad
+   * group for the maximum CPC of the campaign configuration, followed by one ad group for each bid
+   * of its bid grid.
    *
    * @param keywords the {@link KeywordCollection} to be evaluated
    * @return a {@link TrafficEstimatorSelector} to use for TES requests
@@ -56,25 +156,16 @@ public class TesEstimator implements TrafficEstimator {
       throw new IllegalArgumentException("Need at least one keyword");
     }
 
-    // First create requests for individual keywords.
-    List<KeywordEstimateRequest> keywordEstimateRequests = new ArrayList<KeywordEstimateRequest>();
-
-    for (KeywordInfo keywordInfo : keywords.getListSortedByKeyword()) {
-      KeywordEstimateRequest keywordEstimateRequest = new KeywordEstimateRequest();
-      keywordEstimateRequest.setKeyword(keywordInfo.getKeyword());
-      keywordEstimateRequests.add(keywordEstimateRequest);
-    }
-
-    // Now wrap all that in an ad group request.
+    // Create an ad group request for the maximum CPC and each bid of the grid.
+    List<KeywordInfo> sortedKeywords = keywords.getListSortedByKeyword();
+    CampaignConfiguration campaignConfiguration = keywords.getCampaignConfiguration();
     List<AdGroupEstimateRequest> adGroupEstimateRequests = new ArrayList<AdGroupEstimateRequest>();
-    AdGroupEstimateRequest adGroupEstimateRequest = new AdGroupEstimateRequest();
-
-    // Convert the list of keywords into array.
-    adGroupEstimateRequest.setKeywordEstimateRequests(keywordEstimateRequests
-        .toArray(new KeywordEstimateRequest[] {}));
-    adGroupEstimateRequest.setMaxCpc(keywords.getCampaignConfiguration().getMaxCpc());
-    adGroupEstimateRequests.add(adGroupEstimateRequest);
 
+    adGroupEstimateRequests.add(
+        createAdGroupRequest(sortedKeywords, campaignConfiguration.getMaxCpc()));
+    for (Money bid : campaignConfiguration.getBidGrid()) {
+      adGroupEstimateRequests.add(createAdGroupRequest(sortedKeywords, bid));
+    }
 
     // Wrap into campaign request (and add additional criteria).
     List<CampaignEstimateRequest> campaignEstimateRequests =
@@ -84,7 +175,7 @@ public class TesEstimator implements TrafficEstimator {
     // Convert the list of ad groups into an array.
     campaignEstimateRequest.setAdGroupEstimateRequests(adGroupEstimateRequests
         .toArray(new AdGroupEstimateRequest[] {}));
-    campaignEstimateRequest.setCriteria(keywords.getCampaignConfiguration().getAdditionalCriteria()
+    campaignEstimateRequest.setCriteria(campaignConfiguration.getAdditionalCriteria()
         .toArray(new Criterion[] {}));
 
     campaignEstimateRequests.add(campaignEstimateRequest);
@@ -95,6 +186,34 @@ public class TesEstimator implements TrafficEstimator {
     return selector;
   }
 
+  /**
+   * Creates an ad group request for the given keywords and maximum CPC.
+   *
+   * @param sortedKeywords the keywords to be evaluated (sorted by keyword)
+   * @param maxCpc the maximum CPC for the ad group
+   * @return an {@link AdGroupEstimateRequest} to be used in a TES request
+   */
+  private static AdGroupEstimateRequest createAdGroupRequest(
+      List<KeywordInfo> sortedKeywords, Money maxCpc) {
+    // First create requests for individual keywords.
+    List<KeywordEstimateRequest> keywordEstimateRequests = new ArrayList<KeywordEstimateRequest>();
+
+    for (KeywordInfo keywordInfo : sortedKeywords) {
+      KeywordEstimateRequest keywordEstimateRequest = new KeywordEstimateRequest();
+      keywordEstimateRequest.setKeyword(keywordInfo.getKeyword());
+      keywordEstimateRequests.add(keywordEstimateRequest);
+    }
+
+    // Now wrap all that in an ad group request.
+    AdGroupEstimateRequest adGroupEstimateRequest = new AdGroupEstimateRequest();
+
+    // Convert the list of keywords into array.
+    adGroupEstimateRequest.setKeywordEstimateRequests(keywordEstimateRequests
+        .toArray(new KeywordEstimateRequest[] {}));
+    adGroupEstimateRequest.setMaxCpc(maxCpc);
+    return adGroupEstimateRequest;
+  }
+
   /**
    * Create {@link KeywordCollection} from a given TES result.
    *
@@ -105,28 +224,39 @@ public class TesEstimator implements TrafficEstimator {
    */
   private static KeywordCollection createEstimates(TrafficEstimatorResult result,
       KeywordCollection keywords) {
+    int bidCount = keywords.getCampaignConfiguration().getBidGrid().size();
     if (result == null || result.getCampaignEstimates() == null
         || result.getCampaignEstimates().length != 1
         || result.getCampaignEstimates()[0].getAdGroupEstimates() == null
-        || result.getCampaignEstimates()[0].getAdGroupEstimates().length == 0
-        || result.getCampaignEstimates()[0].getAdGroupEstimates()[0].getKeywordEstimates()
-           == null) {
+        || result.getCampaignEstimates()[0].getAdGroupEstimates().length != bidCount + 1) {
       throw new IllegalArgumentException("The given result is invalid, it cannot be null and must "
-          + "have exactly one campaign estimate with exactly one ad group estimate");
+          + "have exactly one campaign estimate with one ad group estimate per bid");
+    }
+    AdGroupEstimate[] adGroupEstimates = result.getCampaignEstimates()[0].getAdGroupEstimates();
+    for (AdGroupEstimate adGroupEstimate : adGroupEstimates) {
+      if (adGroupEstimate.getKeywordEstimates() == null) {
+        throw new IllegalArgumentException("The given result is invalid, ad group estimates must "
+            + "contain keyword estimates");
+      }
     }
     List<KeywordInfo> sortedKeywords = keywords.getListSortedByKeyword();
 
     KeywordCollection estimates = new KeywordCollection(keywords.getCampaignConfiguration());
 
-    KeywordEstimate[] keywordEstimates =
-        result.getCampaignEstimates()[0].getAdGroupEstimates()[0].getKeywordEstimates();
+    KeywordEstimate[] keywordEstimates = adGroupEstimates[0].getKeywordEstimates();
     for (int i = 0; i < keywordEstimates.length; i++) {
+      // Collect the estimates of this keyword for all bids of the grid.
+      List<TrafficEstimate> bidLandscape = new ArrayList<TrafficEstimate>();
+      for (int bid = 1; bid <= bidCount; bid++) {
+        bidLandscape.add(new TrafficEstimate(adGroupEstimates[bid].getKeywordEstimates()[i]));
+      }
+
       KeywordInfo originalKeyword = sortedKeywords.get(i);
       KeywordInfo estimate =
           new KeywordInfo(
               originalKeyword.getKeyword(),
               originalKeyword.getIdeaEstimate(),
-              new TrafficEstimate(keywordEstimates[i]),
+              new TrafficEstimate(keywordEstimates[i], bidLandscape),
               null);
       estimates.add(estimate);
     }
@@ -135,11 +265,103 @@ public class TesEstimator implements TrafficEstimator {
 
   @Override
   public KeywordCollection estimate(KeywordCollection keywords) throws KeywordOptimizerException {
-    try {
-      // If there are no keywords in list, return empty estimate.
-      if (keywords.size() == 0) {
-        return new KeywordCollection(keywords.getCampaignConfiguration());
+    return AsyncAdapters.await(estimateAsync(keywords));
+  }
+
+  @Override
+  public CompletableFuture<KeywordCollection> estimateAsync(final KeywordCollection keywords) {
+    // If there are no keywords in list, return empty estimate.
+    if (keywords.size() == 0) {
+      return CompletableFuture.completedFuture(
+          new KeywordCollection(keywords.getCampaignConfiguration()));
+    }
+
+    List<KeywordCollection> batches = createBatches(keywords);
+    final List<CompletableFuture<KeywordCollection>> results =
+        new ArrayList<CompletableFuture<KeywordCollection>>();
+    for (final KeywordCollection batch : batches) {
+      results.add(AsyncAdapters.supply(() -> estimateBatch(batch), executor));
+    }
+    if (results.size() == 1) {
+      return results.get(0);
+    }
+
+    // Merge the results in the order of the batches.
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[] {}))
+        .thenApply(
+            ignored -> {
+              KeywordCollection estimates =
+                  new KeywordCollection(keywords.getCampaignConfiguration());
+              for (CompletableFuture<KeywordCollection> result : results) {
+                addAll(estimates, result.join());
+              }
+              return estimates;
+            });
+  }
+
+  /**
+   * Stops the request threads once all pending batches are sent. Estimates cannot be retrieved
+   * afterwards.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  /**
+   * Adds all estimates of a batch to the combined estimates.
+   */
+  private static void addAll(KeywordCollection estimates, KeywordCollection batchEstimates) {
+    for (KeywordInfo estimate : batchEstimates) {
+      estimates.add(estimate);
+    }
+  }
+
+  /**
+   * Splits the given keywords into batches, so that no request contains more than the configured
+   * number of keyword estimate requests.
+   *
+   * @param keywords the {@link KeywordCollection} to be evaluated
+   * @return a list of {@link KeywordCollection}s with the same campaign configuration
+   */
+  private List<KeywordCollection> createBatches(KeywordCollection keywords) {
+    // Each keyword is requested once for the maximum CPC and once for every bid of the grid.
+    int requestsPerKeyword = 1 + keywords.getCampaignConfiguration().getBidGrid().size();
+    int keywordsPerBatch = Math.max(1, batchSize / requestsPerKeyword);
+    if (keywords.size() <= keywordsPerBatch) {
+      return ImmutableList.of(keywords);
+    }
+
+    List<KeywordCollection> batches = new ArrayList<KeywordCollection>();
+    for (List<KeywordInfo> partition :
+        Lists.partition(keywords.getListSortedByKeyword(), keywordsPerBatch)) {
+      KeywordCollection batch = new KeywordCollection(keywords.getCampaignConfiguration());
+      for (KeywordInfo keyword : partition) {
+        batch.add(keyword);
       }
+      batches.add(batch);
+    }
+    return batches;
+  }
+
+  /**
+   * Estimates a single batch of keywords using one of the available service objects.
+   *
+   * @param keywords the {@link KeywordCollection} to be evaluated
+   * @return a {@link KeywordCollection} containing the estimates
+   * @throws KeywordOptimizerException in case of a problem querying the traffic estimator service
+   */
+  private KeywordCollection estimateBatch(KeywordCollection keywords)
+      throws KeywordOptimizerException {
+    TrafficEstimatorServiceInterface tes;
+    try {
+      tes = services.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new KeywordOptimizerException("Interrupted while waiting for traffic estimates", e);
+    }
+
+    try {
       TrafficEstimatorSelector selector = createSelector(keywords);
       TrafficEstimatorResult result = tes.get(selector);
       return createEstimates(result, keywords);
@@ -147,6 +369,8 @@ public class TesEstimator implements TrafficEstimator {
       throw new KeywordOptimizerException("Problem while querying traffic estimator service", e);
     } catch (RemoteException e) {
       throw new KeywordOptimizerException("Problem while connecting to the AdWords API", e);
+    } finally {
+      services.add(tes);
     }
   }
 }
@@ -0,0 +1,151 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import javax.annotation.Nullable;
+
+/**
+ * A TinyLFU admission filter for a bounded cache. It estimates how often each key was asked for in
+ * a count-min sketch of 4-bit counters, which are halved periodically so that old popularity fades.
+ * Once the cache is full, a new entry is only admitted if its key was asked for more often than
+ * the key of the entry evicted last, which keeps frequently used entries from being flushed out by
+ * keywords asked for only once.
+ *
+ * <p>This class is thread-safe.
+ */
+final class TinyLfuAdmission<K> {
+  // Seeds of the four hash functions of the sketch.
+  private static final long[] SEEDS = {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+  };
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final int MAXIMUM_COUNT = 15;
+
+  // Sixteen 4-bit counters per element.
+  private final long[] table;
+  private final int sampleSize;
+  private int additions;
+
+  // Key of the entry evicted last due to the size limit, or null if there is free space.
+  @Nullable private K victim;
+
+  /**
+   * Creates a new {@link TinyLfuAdmission} for a cache holding about the given number of entries.
+   *
+   * @param maximumEntries the (approximate) maximum number of entries in the cache
+   */
+  TinyLfuAdmission(long maximumEntries) {
+    int capacity = (int) Math.min(Math.max(maximumEntries, 1), 1 << 28);
+    table = new long[Math.max(1, Integer.highestOneBit(capacity - 1) << 1)];
+    sampleSize = (int) Math.min(10L * table.length, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Records that the given key was asked for.
+   */
+  synchronized void record(K key) {
+    int hash = spread(key.hashCode());
+    boolean added = false;
+    for (int i = 0; i < SEEDS.length; i++) {
+      added |= increment(indexOf(hash, i), counterOf(hash, i));
+    }
+    if (added && ++additions >= sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * Returns whether an entry for the given key should be added to the cache.
+   */
+  synchronized boolean admit(K key) {
+    return victim == null || victim.equals(key) || frequency(key) > frequency(victim);
+  }
+
+  /**
+   * Tracks the entries removed from the cache, to be registered as its removal listener.
+   */
+  synchronized void onRemoval(RemovalNotification<? extends K, ?> notification) {
+    if (notification.getCause() == RemovalCause.SIZE) {
+      victim = notification.getKey();
+    } else if (notification.getCause() != RemovalCause.REPLACED) {
+      // Expired or removed entries make room for new ones.
+      victim = null;
+    }
+  }
+
+  /**
+   * Returns the estimated number of times the given key was asked for (at most 15).
+   */
+  synchronized int frequency(K key) {
+    int hash = spread(key.hashCode());
+    int frequency = MAXIMUM_COUNT;
+    for (int i = 0; i < SEEDS.length; i++) {
+      int shift = counterOf(hash, i) << 2;
+      frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> shift) & 0xfL));
+    }
+    return frequency;
+  }
+
+  /**
+   * Increments the given counter unless it is at its maximum.
+   *
+   * @return whether the counter was incremented
+   */
+  private boolean increment(int index, int counter) {
+    int shift = counter << 2;
+    long mask = 0xfL << shift;
+    if ((table[index] & mask) == mask) {
+      return false;
+    }
+    table[index] += 1L << shift;
+    return true;
+  }
+
+  /**
+   * Halves all counters, so that the frequencies adapt to changing popularity.
+   */
+  private void reset() {
+    for (int i = 0; i < table.length; i++) {
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    additions /= 2;
+  }
+
+  /**
+   * Returns the table element holding the counter of the given hash function.
+   */
+  private int indexOf(int hash, int function) {
+    long value = (hash + SEEDS[function]) * SEEDS[function];
+    value += value >>> 32;
+    return (int) value & (table.length - 1);
+  }
+
+  /**
+   * Returns the counter (0 - 15) within the table element for the given hash function.
+   */
+  private static int counterOf(int hash, int function) {
+    return ((hash >>> (function << 3)) & 3) << 2 | function;
+  }
+
+  /**
+   * Applies a supplemental hash function to defend against poor quality hash codes.
+   */
+  private static int spread(int hashCode) {
+    int hash = hashCode * 0x9e3779b9;
+    return hash ^ (hash >>> 16);
+  }
+}
@@ -14,63 +14,141 @@
 
 package com.google.api.ads.adwords.keywordoptimizer;
 
-import com.google.api.ads.adwords.axis.v201809.cm.ApiException;
 import com.google.api.ads.adwords.axis.v201809.cm.Keyword;
 import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
-import com.google.api.ads.adwords.axis.v201809.cm.Paging;
-import com.google.api.ads.adwords.axis.v201809.o.Attribute;
-import com.google.api.ads.adwords.axis.v201809.o.AttributeType;
 import com.google.api.ads.adwords.axis.v201809.o.IdeaType;
 import com.google.api.ads.adwords.axis.v201809.o.RelatedToQuerySearchParameter;
 import com.google.api.ads.adwords.axis.v201809.o.RequestType;
 import com.google.api.ads.adwords.axis.v201809.o.SearchParameter;
-import com.google.api.ads.adwords.axis.v201809.o.StringAttribute;
-import com.google.api.ads.adwords.axis.v201809.o.TargetingIdea;
-import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaPage;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaSelector;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaService;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaServiceInterface;
-import com.google.api.ads.common.lib.utils.Maps;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableMap.Builder;
-import java.rmi.RemoteException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * Uses the {@link TargetingIdeaService} to create new keyword alternatives. This works pretty much
  * the same way as the {@link TisSearchTermsSeedGenerator}, meaning it creates keywords based on a
  * given set of already existing ones.
+ *
+ * <p>All result pages after the first one are retrieved in parallel (see {@link TisPageFetcher}),
+ * and alternatives can also be derived asynchronously while the calling thread does other work.
+ * Closing the alternatives finder stops its threads once pending requests are done.
  */
-public class TisAlternativesFinder implements AlternativesFinder {
-  // Page size for retrieving results. All pages are used anyways (not just the first one), so
-  // using a reasonable value here.
-  private static final int PAGE_SIZE = 100;
+public class TisAlternativesFinder implements AsyncAlternativesFinder, Closeable {
+  private final TisPageFetcher pageFetcher;
 
-  private TargetingIdeaServiceInterface tis;
+  // Executor coordinating the requests, so alternatives can be derived asynchronously.
+  private final ExecutorService executor;
 
   /**
    * Creates a new {@link TisAlternativesFinder}.
    *
    * @param context holding shared objects during the optimization process
+   * @throws KeywordOptimizerException in case of an error creating the service objects
    */
-  public TisAlternativesFinder(OptimizationContext context) {
-    tis = context.getAdwordsApiUtil().getService(TargetingIdeaServiceInterface.class);
+  public TisAlternativesFinder(OptimizationContext context) throws KeywordOptimizerException {
+    this(TisPageFetcher.createServices(context));
+  }
+
+  /**
+   * Creates a new {@link TisAlternativesFinder} using the given service object.
+   *
+   * @param tis the service object to be used
+   */
+  @VisibleForTesting
+  TisAlternativesFinder(TargetingIdeaServiceInterface tis) {
+    this(ImmutableList.of(tis));
+  }
+
+  /**
+   * Creates a new {@link TisAlternativesFinder} using the given service objects. Result pages are
+   * retrieved in parallel, with one request per service object at a time.
+   *
+   * @param services the service objects to be used
+   */
+  @VisibleForTesting
+  TisAlternativesFinder(List<TargetingIdeaServiceInterface> services) {
+    pageFetcher = new TisPageFetcher(services);
+    executor =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("tis-%d").build());
   }
 
   @Override
   public KeywordCollection derive(KeywordCollection keywords) throws KeywordOptimizerException {
-    Map<String, IdeaEstimate> keywordsAndEstimates = getKeywordsAndEstimates(keywords);
+    return AsyncAdapters.await(deriveAsync(keywords));
+  }
+
+  @Override
+  public CompletableFuture<KeywordCollection> deriveAsync(KeywordCollection keywords) {
+    return deriveAsync(keywords, alternatives -> {});
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Each page of results returned by the {@link TargetingIdeaService} is passed on as soon as it
+   * was received (in page order), so that it can already be processed while further pages are
+   * retrieved.
+   */
+  @Override
+  public CompletableFuture<KeywordCollection> deriveAsync(
+      final KeywordCollection keywords,
+      final Consumer<KeywordCollection> partialResultConsumer) {
+    return AsyncAdapters.supply(
+        () -> deriveAlternatives(keywords, partialResultConsumer), executor);
+  }
 
-    KeywordCollection alternatives = new KeywordCollection(keywords.getCampaignConfiguration());
-    for (String keywordText : keywordsAndEstimates.keySet()) {
-      for (KeywordMatchType matchType : keywords.getContainingMatchTypes()) {
-        Keyword newKeyword = KeywordOptimizerUtil.createKeyword(keywordText, matchType);
-        alternatives.add(
-            new KeywordInfo(newKeyword, keywordsAndEstimates.get(keywordText), null, null));
-      }
-    }
+  /**
+   * Stops the threads sending the requests once all pending requests are done. Alternatives cannot
+   * be derived afterwards.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    pageFetcher.close();
+  }
+
+  /**
+   * Derives alternatives for the given keywords page by page (see {@link #deriveAsync}), has to be
+   * called by the executor thread.
+   */
+  private KeywordCollection deriveAlternatives(
+      final KeywordCollection keywords, final Consumer<KeywordCollection> partialResultConsumer)
+      throws KeywordOptimizerException {
+    final KeywordCollection alternatives =
+        new KeywordCollection(keywords.getCampaignConfiguration());
+    final Set<KeywordMatchType> matchTypes = keywords.getContainingMatchTypes();
+
+    pageFetcher.fetch(
+        getSelector(keywords),
+        keywordsAndEstimates -> {
+          KeywordCollection pageAlternatives =
+              new KeywordCollection(keywords.getCampaignConfiguration());
+          for (Map.Entry<String, IdeaEstimate> keywordAndEstimate :
+              keywordsAndEstimates.entrySet()) {
+            for (KeywordMatchType matchType : matchTypes) {
+              Keyword newKeyword =
+                  KeywordOptimizerUtil.createKeyword(keywordAndEstimate.getKey(), matchType);
+              KeywordInfo alternative =
+                  new KeywordInfo(newKeyword, keywordAndEstimate.getValue(), null, null);
+              pageAlternatives.add(alternative);
+              alternatives.add(alternative);
+            }
+          }
+          partialResultConsumer.accept(pageAlternatives);
+        });
 
     return alternatives;
   }
@@ -106,47 +184,4 @@ public class TisAlternativesFinder implements AlternativesFinder {
 
     return selector;
   }
-
-  /**
-   * Finds a collection of plain text keywords based on the given set of keywords.
-   *
-   * @param keywords the keywords to as a basis for finding new ones
-   * @return a {@link Map} of plain text keywords and their {@link IdeaEstimate}s
-   * @throws KeywordOptimizerException in case of an error retrieving keywords from TIS
-   */
-  private ImmutableMap<String, IdeaEstimate> getKeywordsAndEstimates(KeywordCollection keywords)
-      throws KeywordOptimizerException {
-    final TargetingIdeaSelector selector = getSelector(keywords);
-    Builder<String, IdeaEstimate> keywordsAndEstimatesBuilder = ImmutableMap.builder();
-
-    int offset = 0;
-
-    try {
-      TargetingIdeaPage page;
-      do {
-        selector.setPaging(new Paging(offset, PAGE_SIZE));
-        page = tis.get(selector);
-
-        if (page.getEntries() != null) {
-          for (TargetingIdea targetingIdea : page.getEntries()) {
-            Map<AttributeType, Attribute> attributeData = Maps.toMap(targetingIdea.getData());
-
-            StringAttribute keywordAttribute =
-                (StringAttribute) attributeData.get(AttributeType.KEYWORD_TEXT);
-            IdeaEstimate estimate = KeywordOptimizerUtil.toSearchEstimate(attributeData);
-            keywordsAndEstimatesBuilder.put(keywordAttribute.getValue(), estimate);
-          }
-        }
-        offset += PAGE_SIZE;
-      } while (offset < page.getTotalNumEntries());
-
-    } catch (ApiException e) {
-      throw new KeywordOptimizerException("Problem while querying the targeting idea service: "
-          + e.getMessage(), e);
-    } catch (RemoteException e) {
-      throw new KeywordOptimizerException("Problem while connecting to the AdWords API", e);
-    }
-
-    return keywordsAndEstimatesBuilder.build();
-  }
 }
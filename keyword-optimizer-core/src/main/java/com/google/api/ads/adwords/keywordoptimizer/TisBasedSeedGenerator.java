@@ -14,37 +14,32 @@
 
 package com.google.api.ads.adwords.keywordoptimizer;
 
-import com.google.api.ads.adwords.axis.v201809.cm.ApiException;
 import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
-import com.google.api.ads.adwords.axis.v201809.cm.Paging;
-import com.google.api.ads.adwords.axis.v201809.o.Attribute;
-import com.google.api.ads.adwords.axis.v201809.o.AttributeType;
-import com.google.api.ads.adwords.axis.v201809.o.StringAttribute;
-import com.google.api.ads.adwords.axis.v201809.o.TargetingIdea;
-import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaPage;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaSelector;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaService;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaServiceInterface;
-import com.google.api.ads.common.lib.utils.Maps;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import java.rmi.RemoteException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.Closeable;
+import java.util.List;
 import java.util.Set;
 
 /**
  * Base class for {@link SeedGenerator}s using the {@link TargetingIdeaService} for creating seed
  * keywords. Delegates the creation of the {@link TargetingIdeaSelector} to derived classes and
  * implements the extraction of plain text keywords from the results of the
- * {@link TargetingIdeaService}.
+ * {@link TargetingIdeaService}. All result pages after the first one are retrieved in parallel (see
+ * {@link TisPageFetcher}), closing the seed generator stops the threads doing so.
  */
-public abstract class TisBasedSeedGenerator extends AbstractSeedGenerator {
+public abstract class TisBasedSeedGenerator extends AbstractSeedGenerator implements Closeable {
   // Page size for retrieving results. All pages are used anyways (not just the first one), so
   // using a reasonable value here.
-  public static final int PAGE_SIZE = 100;
+  public static final int PAGE_SIZE = TisPageFetcher.PAGE_SIZE;
   
   protected TargetingIdeaServiceInterface tis;
 
+  private final TisPageFetcher pageFetcher;
+
   /**
    * Creates a new {@link TisBasedSeedGenerator} based on the given service and customer id.
    *
@@ -56,8 +51,24 @@ public abstract class TisBasedSeedGenerator extends AbstractSeedGenerator {
       TargetingIdeaServiceInterface tis,
       Set<KeywordMatchType> matchTypes,
       CampaignConfiguration campaignConfiguration) {
+    this(ImmutableList.of(tis), matchTypes, campaignConfiguration);
+  }
+
+  /**
+   * Creates a new {@link TisBasedSeedGenerator} based on the given services and customer id. Result
+   * pages are retrieved in parallel, with one request per service object at a time.
+   *
+   * @param services the API interfaces to the TargetingIdeaService (at least one)
+   * @param matchTypes match types to be used for seed keyword creation
+   * @param campaignConfiguration additional campaign-level settings for keyword evaluation
+   */
+  public TisBasedSeedGenerator(
+      List<TargetingIdeaServiceInterface> services,
+      Set<KeywordMatchType> matchTypes,
+      CampaignConfiguration campaignConfiguration) {
     super(matchTypes, campaignConfiguration);
-    this.tis = tis;
+    this.tis = services.get(0);
+    pageFetcher = new TisPageFetcher(services);
   }
 
   /**
@@ -68,38 +79,11 @@ public abstract class TisBasedSeedGenerator extends AbstractSeedGenerator {
   @Override
   protected ImmutableMap<String, IdeaEstimate> getKeywordsAndEstimates()
       throws KeywordOptimizerException {
-    TargetingIdeaSelector selector = getSelector();
-    Map<String, IdeaEstimate> keywordsAndEstimates = new HashMap<String, IdeaEstimate>();
-    
-    try {
-      int offset = 0;
-
-      TargetingIdeaPage page;
-      do {
-        selector.setPaging(new Paging(offset, PAGE_SIZE));
-        page = tis.get(selector);
-
-        if (page.getEntries() != null) {
-          for (TargetingIdea targetingIdea : page.getEntries()) {
-            Map<AttributeType, Attribute> attributeData = Maps.toMap(targetingIdea.getData());
-            
-            StringAttribute keywordAttribute =
-                (StringAttribute) attributeData.get(AttributeType.KEYWORD_TEXT);
-            IdeaEstimate estimate = KeywordOptimizerUtil.toSearchEstimate(attributeData);
-            
-            keywordsAndEstimates.put(keywordAttribute.getValue(), estimate);
-          }
-        }
-        offset += PAGE_SIZE;
-      } while (offset < page.getTotalNumEntries());
-
-    } catch (ApiException e) {
-      throw new KeywordOptimizerException("Problem while querying the targeting idea service", e);
-    } catch (RemoteException e) {
-      throw new KeywordOptimizerException("Problem while connecting to the AdWords API", e);
-    }
+    return ImmutableMap.copyOf(pageFetcher.fetch(getSelector()));
+  }
 
-    return ImmutableMap.copyOf(keywordsAndEstimates);
+  @Override
+  public void close() {
+    pageFetcher.close();
   }
-  
 }
@@ -23,6 +23,7 @@ import com.google.api.ads.adwords.axis.v201809.o.SearchParameter;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaSelector;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaService;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaServiceInterface;
+import com.google.common.collect.ImmutableList;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -49,7 +50,25 @@ public class TisCategorySeedGenerator extends TisBasedSeedGenerator {
       int categoryId,
       Set<KeywordMatchType> matchTypes,
       CampaignConfiguration campaignConfiguration) {
-    super(tis, matchTypes, campaignConfiguration);
+    this(ImmutableList.of(tis), categoryId, matchTypes, campaignConfiguration);
+  }
+
+  /**
+   * Creates a new {@link TisCategorySeedGenerator} using the given category id (see
+   * https://developers.google.com/adwords/api/docs/appendix/productsservices).
+   * Result pages are retrieved in parallel, with one request per service object at a time.
+   *
+   * @param services the API interfaces to the TargetingIdeaService (at least one)
+   * @param categoryId category id to be used
+   * @param matchTypes match types to be used for seed keyword creation
+   * @param campaignConfiguration additional campaign-level settings for keyword evaluation
+   */
+  public TisCategorySeedGenerator(
+      List<TargetingIdeaServiceInterface> services,
+      int categoryId,
+      Set<KeywordMatchType> matchTypes,
+      CampaignConfiguration campaignConfiguration) {
+    super(services, matchTypes, campaignConfiguration);
     this.categoryId = categoryId;
   }
 
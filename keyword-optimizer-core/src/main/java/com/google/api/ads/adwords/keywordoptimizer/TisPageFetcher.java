@@ -0,0 +1,248 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import com.google.api.ads.adwords.axis.v201809.cm.ApiException;
+import com.google.api.ads.adwords.axis.v201809.cm.Paging;
+import com.google.api.ads.adwords.axis.v201809.o.Attribute;
+import com.google.api.ads.adwords.axis.v201809.o.AttributeType;
+import com.google.api.ads.adwords.axis.v201809.o.StringAttribute;
+import com.google.api.ads.adwords.axis.v201809.o.TargetingIdea;
+import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaPage;
+import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaSelector;
+import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaService;
+import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaServiceInterface;
+import com.google.api.ads.common.lib.exception.ValidationException;
+import com.google.api.ads.common.lib.utils.Maps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Retrieves all pages of results for a {@link TargetingIdeaSelector} from the
+ * {@link TargetingIdeaService}. The first page is retrieved by the calling thread; once it reports
+ * the total number of results, the remaining pages are retrieved concurrently (one request per
+ * service object at a time). Results are always merged in page order, so the outcome does not
+ * depend on which request finishes first. Closing the fetcher stops its threads once pending
+ * requests are done.
+ */
+final class TisPageFetcher implements Closeable {
+  // Page size for retrieving results. All pages are used anyways (not just the first one), so
+  // using a reasonable value here.
+  static final int PAGE_SIZE = 100;
+
+  // Service objects, each one is used by at most one thread at a time.
+  private final BlockingQueue<TargetingIdeaServiceInterface> services;
+  private final ExecutorService executor;
+
+  /**
+   * Creates a new {@link TisPageFetcher} using the given service objects. The number of service
+   * objects determines the number of pages retrieved concurrently.
+   *
+   * @param services the service objects to be used
+   */
+  TisPageFetcher(List<TargetingIdeaServiceInterface> services) {
+    if (services.isEmpty()) {
+      throw new IllegalArgumentException("Need at least one service object");
+    }
+
+    this.services = new ArrayBlockingQueue<TargetingIdeaServiceInterface>(services.size());
+    this.services.addAll(services);
+
+    executor =
+        Executors.newFixedThreadPool(
+            services.size(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("tis-page-%d").build());
+  }
+
+  /**
+   * Stops the threads retrieving the remaining pages once all pending requests are done.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+
+  /**
+   * Creates the service objects for the number of concurrent page requests specified in the
+   * configuration of the given context.
+   *
+   * @param context holding shared objects during the optimization process
+   * @return a list of service objects, to be used by a {@link TisPageFetcher}
+   * @throws KeywordOptimizerException in case of an error creating the service objects
+   */
+  static List<TargetingIdeaServiceInterface> createServices(OptimizationContext context)
+      throws KeywordOptimizerException {
+    int parallelism = context.getConfiguration()
+        .getInt(KeywordOptimizerProperty.TisParallelism.getName(), 1);
+    AdWordsApiUtil adwordsApiUtil = context.getAdwordsApiUtil();
+
+    List<TargetingIdeaServiceInterface> services;
+    if (parallelism <= 1) {
+      services = ImmutableList.of(adwordsApiUtil.getService(TargetingIdeaServiceInterface.class));
+    } else {
+      try {
+        services = adwordsApiUtil.getServices(TargetingIdeaServiceInterface.class, parallelism);
+      } catch (ValidationException e) {
+        throw new KeywordOptimizerException("Problem while creating targeting idea services", e);
+      }
+    }
+
+    // Record all requests in the metrics.
+    ImmutableList.Builder<TargetingIdeaServiceInterface> instrumentedServices =
+        ImmutableList.builder();
+    for (TargetingIdeaServiceInterface service : services) {
+      instrumentedServices.add(
+          context.getMetrics().instrument(
+              TargetingIdeaServiceInterface.class, service, OptimizerMetrics.Phase.TIS_REQUEST));
+    }
+    return instrumentedServices.build();
+  }
+
+  /**
+   * Retrieves all keyword ideas for the given selector. If a keyword text is returned several
+   * times, the {@link IdeaEstimate} of its first occurrence is used.
+   *
+   * @param selector the selector for the {@link TargetingIdeaService} (it is not modified)
+   * @return a {@link Map} of plain text keywords and their {@link IdeaEstimate}s, in the order
+   *     returned by the service
+   * @throws KeywordOptimizerException in case of an error retrieving keywords from TIS
+   */
+  Map<String, IdeaEstimate> fetch(TargetingIdeaSelector selector)
+      throws KeywordOptimizerException {
+    return fetch(selector, page -> {});
+  }
+
+  /**
+   * Retrieves all keyword ideas for the given selector (see {@link #fetch(TargetingIdeaSelector)}),
+   * passing on the new ideas of each page as soon as it has been merged. Pages are passed on in
+   * page order by the calling thread.
+   *
+   * @param selector the selector for the {@link TargetingIdeaService} (it is not modified)
+   * @param pageConsumer consumer of the ideas of each page not contained in earlier pages
+   * @return a {@link Map} of plain text keywords and their {@link IdeaEstimate}s, in the order
+   *     returned by the service
+   * @throws KeywordOptimizerException in case of an error retrieving keywords from TIS
+   */
+  Map<String, IdeaEstimate> fetch(
+      final TargetingIdeaSelector selector, Consumer<Map<String, IdeaEstimate>> pageConsumer)
+      throws KeywordOptimizerException {
+    Map<String, IdeaEstimate> keywordsAndEstimates = new LinkedHashMap<>();
+
+    TargetingIdeaPage firstPage = getPage(selector, 0);
+    merge(firstPage, keywordsAndEstimates, pageConsumer);
+
+    // Now the total number is known, request all remaining pages at once.
+    List<CompletableFuture<TargetingIdeaPage>> pages = new ArrayList<>();
+    for (int offset = PAGE_SIZE; offset < firstPage.getTotalNumEntries(); offset += PAGE_SIZE) {
+      final int pageOffset = offset;
+      pages.add(AsyncAdapters.supply(() -> getPage(selector, pageOffset), executor));
+    }
+
+    try {
+      for (CompletableFuture<TargetingIdeaPage> page : pages) {
+        merge(AsyncAdapters.await(page), keywordsAndEstimates, pageConsumer);
+      }
+    } finally {
+      // Don't send any more requests if a page could not be retrieved.
+      for (CompletableFuture<TargetingIdeaPage> page : pages) {
+        page.cancel(false);
+      }
+    }
+
+    return keywordsAndEstimates;
+  }
+
+  /**
+   * Retrieves a single page of results, using a copy of the given selector.
+   *
+   * @param selector the selector for the {@link TargetingIdeaService}
+   * @param offset the index of the first result of the page
+   * @return the page returned by the {@link TargetingIdeaService}
+   * @throws KeywordOptimizerException in case of an error retrieving keywords from TIS
+   */
+  private TargetingIdeaPage getPage(TargetingIdeaSelector selector, int offset)
+      throws KeywordOptimizerException {
+    TargetingIdeaSelector pageSelector =
+        new TargetingIdeaSelector(
+            selector.getSearchParameters(),
+            selector.getIdeaType(),
+            selector.getRequestType(),
+            selector.getRequestedAttributeTypes(),
+            new Paging(offset, PAGE_SIZE),
+            selector.getLocaleCode(),
+            selector.getCurrencyCode());
+
+    TargetingIdeaServiceInterface tis;
+    try {
+      tis = services.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new KeywordOptimizerException("Interrupted while waiting for keyword ideas", e);
+    }
+
+    try {
+      return tis.get(pageSelector);
+    } catch (ApiException e) {
+      throw new KeywordOptimizerException("Problem while querying the targeting idea service: "
+          + e.getMessage(), e);
+    } catch (RemoteException e) {
+      throw new KeywordOptimizerException("Problem while connecting to the AdWords API", e);
+    } finally {
+      services.add(tis);
+    }
+  }
+
+  /**
+   * Adds the ideas of a page that are not contained yet to the given map and passes them on.
+   */
+  private static void merge(
+      TargetingIdeaPage page,
+      Map<String, IdeaEstimate> keywordsAndEstimates,
+      Consumer<Map<String, IdeaEstimate>> pageConsumer) {
+    if (page.getEntries() == null) {
+      return;
+    }
+
+    Map<String, IdeaEstimate> newKeywordsAndEstimates = new LinkedHashMap<>();
+    for (TargetingIdea targetingIdea : page.getEntries()) {
+      Map<AttributeType, Attribute> attributeData = Maps.toMap(targetingIdea.getData());
+
+      StringAttribute keywordAttribute =
+          (StringAttribute) attributeData.get(AttributeType.KEYWORD_TEXT);
+      String keywordText = keywordAttribute.getValue();
+      if (!keywordsAndEstimates.containsKey(keywordText)) {
+        IdeaEstimate estimate = KeywordOptimizerUtil.toSearchEstimate(attributeData);
+        keywordsAndEstimates.put(keywordText, estimate);
+        newKeywordsAndEstimates.put(keywordText, estimate);
+      }
+    }
+
+    if (!newKeywordsAndEstimates.isEmpty()) {
+      pageConsumer.accept(newKeywordsAndEstimates);
+    }
+  }
+}
@@ -22,6 +22,7 @@ import com.google.api.ads.adwords.axis.v201809.o.RequestType;
 import com.google.api.ads.adwords.axis.v201809.o.SearchParameter;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaSelector;
 import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaServiceInterface;
+import com.google.common.collect.ImmutableList;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -45,7 +46,23 @@ public class TisUrlSeedGenerator extends TisBasedSeedGenerator {
       TargetingIdeaServiceInterface tis,
       Set<KeywordMatchType> matchTypes,
       CampaignConfiguration campaignConfiguration) {
-    super(tis, matchTypes, campaignConfiguration);
+    this(ImmutableList.of(tis), matchTypes, campaignConfiguration);
+  }
+
+  /**
+   * Creates a new {@link TisUrlSeedGenerator} based on the given service and customer id. Please
+   * note that URLs have to be added separately.
+   * Result pages are retrieved in parallel, with one request per service object at a time.
+   *
+   * @param services the API interfaces to the TargetingIdeaService (at least one)
+   * @param matchTypes match types to be used for seed keyword creation
+   * @param campaignConfiguration additional campaign-level settings for keyword evaluation
+   */
+  public TisUrlSeedGenerator(
+      List<TargetingIdeaServiceInterface> services,
+      Set<KeywordMatchType> matchTypes,
+      CampaignConfiguration campaignConfiguration) {
+    super(services, matchTypes, campaignConfiguration);
     urls = new HashSet<>();
   }
 
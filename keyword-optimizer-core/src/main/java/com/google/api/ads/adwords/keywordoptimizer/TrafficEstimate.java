@@ -15,19 +15,43 @@
 package com.google.api.ads.adwords.keywordoptimizer;
 
 import com.google.api.ads.adwords.axis.v201809.cm.Keyword;
+import com.google.api.ads.adwords.axis.v201809.cm.Money;
 import com.google.api.ads.adwords.axis.v201809.o.KeywordEstimate;
 import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
 import com.google.api.ads.adwords.axis.v201809.o.TrafficEstimatorService;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.Metric;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.Statistics;
+import com.google.common.collect.ImmutableList;
+import java.util.Arrays;
+import java.util.List;
+import javax.annotation.Nullable;
 import org.apache.commons.lang.SystemUtils;
 
 /**
  * Represents a combined traffic estimate for a single {@link Keyword}, consisting of minimum, mean
- * and maximum traffic statistics.
+ * and maximum traffic statistics. If the {@link CampaignConfiguration} specifies a bid grid, the
+ * estimate also holds the bid landscape, i.e. the estimates for all maximum CPCs of the grid.
+ *
+ * <p>If the mean statistics are not given, they are calculated from the minimum and maximum
+ * statistics (see {@link KeywordOptimizerUtil#calculateMean}).
+ *
+ * <p>To keep large populations small, the statistics are not kept as {@link StatsEstimate}s, but
+ * packed into a single primitive array (NaN marking values that are not set). Score calculators
+ * read single values with {@link #getValue}, whereas {@link #getMin()}, {@link #getMean()} and
+ * {@link #getMax()} create new {@link StatsEstimate}s on every call.
  */
 public class TrafficEstimate {
-  private final StatsEstimate min;
-  private final StatsEstimate mean;
-  private final StatsEstimate max;
+  private static final Metric[] METRICS = Metric.values();
+  private static final double MICROS_PER_UNIT = 1000000;
+
+  // Number of packed values of an estimate (see getIndex).
+  static final int PACKED_SIZE = Statistics.values().length * METRICS.length;
+
+  // Values by statistics and metric, money in micros (see getRawValue).
+  private final double[] values;
+  // Bit mask of the statistics given (by ordinal).
+  private final byte givenStatistics;
+  private final ImmutableList<TrafficEstimate> bidLandscape;
 
   /**
    * Creates a new combined estimate by specifying all attributes.
@@ -37,9 +61,105 @@ public class TrafficEstimate {
    * @param max the maximum estimated statistics
    */
   public TrafficEstimate(StatsEstimate min, StatsEstimate mean, StatsEstimate max) {
-    this.min = min;
-    this.mean = mean;
-    this.max = max;
+    this(min, mean, max, ImmutableList.<TrafficEstimate>of());
+  }
+
+  /**
+   * Creates a new combined estimate including a bid landscape.
+   *
+   * @param min the minimum estimated statistics
+   * @param mean the mean estimated statistics
+   * @param max the maximum estimated statistics
+   * @param bidLandscape the estimates for each maximum CPC of the bid grid (in the same order)
+   */
+  public TrafficEstimate(
+      StatsEstimate min,
+      StatsEstimate mean,
+      StatsEstimate max,
+      List<TrafficEstimate> bidLandscape) {
+    this(min, mean, max, bidLandscape, false);
+  }
+
+  /**
+   * Creates a new combined estimate by specifying minimum and maximum estimates (mean is
+   * automatically calculated) including a bid landscape.
+   *
+   * @param min the minimum estimated statistics
+   * @param max the maximum estimated statistics
+   * @param bidLandscape the estimates for each maximum CPC of the bid grid (in the same order)
+   */
+  public TrafficEstimate(
+      StatsEstimate min, StatsEstimate max, List<TrafficEstimate> bidLandscape) {
+    this(min, null, max, bidLandscape, true);
+  }
+
+  private TrafficEstimate(
+      @Nullable StatsEstimate min,
+      @Nullable StatsEstimate mean,
+      @Nullable StatsEstimate max,
+      List<TrafficEstimate> bidLandscape,
+      boolean calculateMean) {
+    values = createPackedValues();
+
+    int given = pack(Statistics.MIN, min) | pack(Statistics.MAX, max);
+    if (calculateMean) {
+      if (min != null && max != null) {
+        for (Metric metric : METRICS) {
+          values[getIndex(Statistics.MEAN, metric)] =
+              getRawMean(
+                  metric,
+                  values[getIndex(Statistics.MIN, metric)],
+                  values[getIndex(Statistics.MAX, metric)]);
+        }
+        given |= getMask(Statistics.MEAN);
+      }
+    } else {
+      given |= pack(Statistics.MEAN, mean);
+    }
+
+    this.givenStatistics = (byte) given;
+    this.bidLandscape = ImmutableList.copyOf(bidLandscape);
+  }
+
+  /**
+   * Creates a new combined estimate from packed minimum and maximum values (mean is automatically
+   * calculated), for example as read from a file. The given array is used as is, so it must not be
+   * modified afterwards.
+   *
+   * @param values the values as created by {@link #createPackedValues}, with the minimum and
+   *     maximum values set at their {@link #getIndex indexes} (money in micros)
+   */
+  TrafficEstimate(double[] values) {
+    for (Metric metric : METRICS) {
+      values[getIndex(Statistics.MEAN, metric)] =
+          getRawMean(
+              metric,
+              values[getIndex(Statistics.MIN, metric)],
+              values[getIndex(Statistics.MAX, metric)]);
+    }
+    this.values = values;
+    this.givenStatistics =
+        (byte) (getMask(Statistics.MIN) | getMask(Statistics.MEAN) | getMask(Statistics.MAX));
+    this.bidLandscape = ImmutableList.of();
+  }
+
+  /**
+   * Creates a new combined estimate from packed values stored elsewhere (see
+   * {@link #copyPackedValues}).
+   *
+   * @param packedValues the array holding the packed values
+   * @param offset the index of the first packed value of this estimate
+   * @param givenStatistics the bit mask of the statistics given (see {@link #getGivenStatistics})
+   * @param bidLandscape the estimates for each maximum CPC of the bid grid (in the same order)
+   */
+  TrafficEstimate(
+      double[] packedValues,
+      int offset,
+      byte givenStatistics,
+      List<TrafficEstimate> bidLandscape) {
+    this.values = Arrays.copyOfRange(packedValues, offset, offset + PACKED_SIZE);
+    this.givenStatistics = givenStatistics;
+    this.bidLandscape = ImmutableList.copyOf(bidLandscape);
   }
 
   /**
@@ -48,10 +168,18 @@ public class TrafficEstimate {
    * @param keywordEstimate the keyword estimate, as given by the {@link TrafficEstimatorService}
    */
   public TrafficEstimate(KeywordEstimate keywordEstimate) {
-    this.min = keywordEstimate.getMin();
-    this.mean =
-        KeywordOptimizerUtil.calculateMean(keywordEstimate.getMin(), keywordEstimate.getMax());
-    this.max = keywordEstimate.getMax();
+    this(keywordEstimate, ImmutableList.<TrafficEstimate>of());
+  }
+
+  /**
+   * Creates a new combined estimate from a {@link KeywordEstimate} (wrapping min and max values)
+   * including a bid landscape.
+   *
+   * @param keywordEstimate the keyword estimate, as given by the {@link TrafficEstimatorService}
+   * @param bidLandscape the estimates for each maximum CPC of the bid grid (in the same order)
+   */
+  public TrafficEstimate(KeywordEstimate keywordEstimate, List<TrafficEstimate> bidLandscape) {
+    this(keywordEstimate.getMin(), keywordEstimate.getMax(), bidLandscape);
   }
 
   /**
@@ -62,42 +190,271 @@ public class TrafficEstimate {
    * @param max the maximum estimated statistics
    */
   public TrafficEstimate(StatsEstimate min, StatsEstimate max) {
-    this.min = min;
-    this.mean = KeywordOptimizerUtil.calculateMean(min, max);
-    this.max = max;
+    this(min, max, ImmutableList.<TrafficEstimate>of());
   }
 
   /**
    * Returns the minimum estimated statistics.
    */
   public StatsEstimate getMin() {
-    return min;
+    return getStats(Statistics.MIN);
   }
 
   /**
    * Returns the mean estimated statistics.
    */
   public StatsEstimate getMean() {
-    return mean;
+    return getStats(Statistics.MEAN);
   }
 
   /**
    * Returns the maximum estimated statistics.
    */
   public StatsEstimate getMax() {
-    return max;
+    return getStats(Statistics.MAX);
+  }
+
+  /**
+   * Returns whether the given statistics are known.
+   */
+  public boolean hasStatistics(Statistics statistics) {
+    return (givenStatistics & getMask(statistics)) != 0;
+  }
+
+  /**
+   * Returns the value of the given metric of the given statistics, exactly as
+   * {@code metric.getValue(statistics.getStats(estimate))}, but without creating the statistics.
+   *
+   * @return the value (money in units of the account currency), or NaN if it is not known
+   */
+  public double getValue(Statistics statistics, Metric metric) {
+    return getValue(values, 0, statistics, metric);
+  }
+
+  /**
+   * Copies the packed values of this estimate (money in micros, NaN for values not set) into the
+   * given array.
+   *
+   * @param target the array to copy the values into
+   * @param offset the index of the first value in the given array
+   */
+  void copyPackedValues(double[] target, int offset) {
+    System.arraycopy(values, 0, target, offset, PACKED_SIZE);
+  }
+
+  /**
+   * Returns the bit mask of the statistics given (bits by ordinal of the {@link Statistics}).
+   */
+  byte getGivenStatistics() {
+    return givenStatistics;
+  }
+
+  /**
+   * Returns the estimates for each maximum CPC of the bid grid (see {@link
+   * CampaignConfiguration#getBidGrid}), or an empty list if there is no bid landscape.
+   */
+  public ImmutableList<TrafficEstimate> getBidLandscape() {
+    return bidLandscape;
+  }
+
+  /**
+   * Returns whether this estimate holds a bid landscape.
+   */
+  public boolean hasBidLandscape() {
+    return !bidLandscape.isEmpty();
+  }
+
+  /**
+   * Estimates are equal if they hold the same statistics and bid landscape.
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof TrafficEstimate)) {
+      return false;
+    }
+    TrafficEstimate other = (TrafficEstimate) obj;
+    return givenStatistics == other.givenStatistics
+        && Arrays.equals(values, other.values)
+        && bidLandscape.equals(other.bidLandscape);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(values) + bidLandscape.hashCode();
   }
 
   @Override
   public String toString() {
     StringBuilder out = new StringBuilder();
 
-    out.append("- Min:  ").append(KeywordOptimizerUtil.toString(min))
+    out.append("- Min:  ").append(KeywordOptimizerUtil.toString(getMin()))
         .append(SystemUtils.LINE_SEPARATOR);
-    out.append("- Mean: ").append(KeywordOptimizerUtil.toString(mean))
+    out.append("- Mean: ").append(KeywordOptimizerUtil.toString(getMean()))
         .append(SystemUtils.LINE_SEPARATOR);
-    out.append("- Max:  ").append(KeywordOptimizerUtil.toString(max));
+    out.append("- Max:  ").append(KeywordOptimizerUtil.toString(getMax()));
+    for (int i = 0; i < bidLandscape.size(); i++) {
+      out.append(SystemUtils.LINE_SEPARATOR).append("- Bid ").append(i + 1).append(": ")
+          .append(KeywordOptimizerUtil.toString(bidLandscape.get(i).getMean()));
+    }
 
     return out.toString();
   }
+
+  /**
+   * Stores the values of the given statistics and returns their bit mask (0 if not given).
+   */
+  private int pack(Statistics statistics, @Nullable StatsEstimate stats) {
+    if (stats == null) {
+      return 0;
+    }
+    for (Metric metric : METRICS) {
+      values[getIndex(statistics, metric)] = getRawValue(stats, metric);
+    }
+    return getMask(statistics);
+  }
+
+  /**
+   * Creates new {@link StatsEstimate}s holding the given statistics, or returns {@code null} if
+   * they are not known.
+   */
+  @Nullable
+  private StatsEstimate getStats(Statistics statistics) {
+    if (!hasStatistics(statistics)) {
+      return null;
+    }
+
+    StatsEstimate stats = new StatsEstimate();
+    double averageCpc = values[getIndex(statistics, Metric.AVERAGE_CPC)];
+    if (!Double.isNaN(averageCpc)) {
+      stats.setAverageCpc(KeywordOptimizerUtil.createMoney((long) averageCpc));
+    }
+    double averagePosition = values[getIndex(statistics, Metric.AVERAGE_POSITION)];
+    if (!Double.isNaN(averagePosition)) {
+      stats.setAveragePosition(averagePosition);
+    }
+    double clickThroughRate = values[getIndex(statistics, Metric.CLICK_THROUGH_RATE)];
+    if (!Double.isNaN(clickThroughRate)) {
+      stats.setClickThroughRate(clickThroughRate);
+    }
+    double clicksPerDay = values[getIndex(statistics, Metric.CLICKS_PER_DAY)];
+    if (!Double.isNaN(clicksPerDay)) {
+      stats.setClicksPerDay((float) clicksPerDay);
+    }
+    double impressionsPerDay = values[getIndex(statistics, Metric.IMPRESSIONS_PER_DAY)];
+    if (!Double.isNaN(impressionsPerDay)) {
+      stats.setImpressionsPerDay((float) impressionsPerDay);
+    }
+    double totalCost = values[getIndex(statistics, Metric.TOTAL_COST)];
+    if (!Double.isNaN(totalCost)) {
+      stats.setTotalCost(KeywordOptimizerUtil.createMoney((long) totalCost));
+    }
+    return stats;
+  }
+
+  /**
+   * Creates an array for packed values, with none of them set.
+   */
+  static double[] createPackedValues() {
+    double[] values = new double[PACKED_SIZE];
+    Arrays.fill(values, Double.NaN);
+    return values;
+  }
+
+  /**
+   * Returns the index of the given metric of the given statistics in the packed values.
+   */
+  static int getIndex(Statistics statistics, Metric metric) {
+    return statistics.ordinal() * METRICS.length + metric.ordinal();
+  }
+
+  /**
+   * Returns the value of the given metric of the given statistics from packed values (see
+   * {@link #copyPackedValues}), converting money to units of the account currency.
+   *
+   * @param values the array containing the packed values
+   * @param offset the index of the first packed value in the given array
+   */
+  static double getValue(double[] values, int offset, Statistics statistics, Metric metric) {
+    double value = values[offset + getIndex(statistics, metric)];
+    return isMoney(metric) ? value / MICROS_PER_UNIT : value;
+  }
+
+  /**
+   * Returns the bit of the given statistics in the mask of given statistics.
+   */
+  private static int getMask(Statistics statistics) {
+    return 1 << statistics.ordinal();
+  }
+
+  /**
+   * Returns whether the given metric is an amount of money (packed in micros).
+   */
+  private static boolean isMoney(Metric metric) {
+    return metric == Metric.AVERAGE_CPC || metric == Metric.TOTAL_COST;
+  }
+
+  /**
+   * Returns the value of the given metric as packed, i.e. money in micros (NaN if not set).
+   */
+  private static double getRawValue(StatsEstimate stats, Metric metric) {
+    switch (metric) {
+      case AVERAGE_CPC:
+        return getMicros(stats.getAverageCpc());
+      case AVERAGE_POSITION:
+        return toDoubleOrNaN(stats.getAveragePosition());
+      case CLICK_THROUGH_RATE:
+        return toDoubleOrNaN(stats.getClickThroughRate());
+      case CLICKS_PER_DAY:
+        return toDoubleOrNaN(stats.getClicksPerDay());
+      case IMPRESSIONS_PER_DAY:
+        return toDoubleOrNaN(stats.getImpressionsPerDay());
+      case TOTAL_COST:
+        return getMicros(stats.getTotalCost());
+      default:
+        throw new IllegalArgumentException("Unknown metric: " + metric);
+    }
+  }
+
+  /**
+   * Returns the packed mean of the given packed values, rounded exactly like
+   * {@link KeywordOptimizerUtil#calculateMean} (NaN if either is not set).
+   */
+  private static double getRawMean(Metric metric, double min, double max) {
+    double mean = (min + max) / 2;
+    if (Double.isNaN(mean)) {
+      return Double.NaN;
+    }
+    switch (metric) {
+      case AVERAGE_CPC:
+      case TOTAL_COST:
+        // Means of money are truncated to micros.
+        return (long) mean;
+      case CLICKS_PER_DAY:
+      case IMPRESSIONS_PER_DAY:
+        // These are float values.
+        return (float) mean;
+      default:
+        return mean;
+    }
+  }
+
+  /**
+   * Returns the amount of the given {@link Money} object in micros (NaN if not set).
+   */
+  private static double getMicros(@Nullable Money money) {
+    if (money == null || money.getMicroAmount() == null) {
+      return Double.NaN;
+    }
+    return money.getMicroAmount();
+  }
+
+  /**
+   * Converts a given {@link Number} object to a number (NaN if not set).
+   */
+  private static double toDoubleOrNaN(@Nullable Number value) {
+    return value == null ? Double.NaN : value.doubleValue();
+  }
 }
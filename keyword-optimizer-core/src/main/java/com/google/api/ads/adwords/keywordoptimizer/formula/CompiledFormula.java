@@ -0,0 +1,172 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer.formula;
+
+import com.google.common.collect.ImmutableList;
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A formula compiled by the {@link FormulaCompiler}. Each variable of the formula is assigned a
+ * slot, i.e. an index in the array of values the formula is evaluated on (see
+ * {@link #getVariables()}).
+ *
+ * <p>Compiled formulas are immutable and can be evaluated by several threads concurrently.
+ */
+public final class CompiledFormula {
+  private final String formula;
+  private final MethodHandle handle;
+  private final FormulaCompiler.ColumnOperation columnOperation;
+  private final ImmutableList<String> variables;
+
+  // Shared subexpressions, calculated in this order into the slots following the variables.
+  private final MethodHandle[] temporaryHandles;
+  private final FormulaCompiler.ColumnOperation[] temporaryOperations;
+
+  CompiledFormula(
+      String formula,
+      MethodHandle handle,
+      FormulaCompiler.ColumnOperation columnOperation,
+      Collection<String> variables,
+      List<MethodHandle> temporaryHandles,
+      List<FormulaCompiler.ColumnOperation> temporaryOperations) {
+    this.formula = formula;
+    this.handle = handle;
+    this.columnOperation = columnOperation;
+    this.variables = ImmutableList.copyOf(variables);
+    this.temporaryHandles = temporaryHandles.toArray(new MethodHandle[0]);
+    this.temporaryOperations =
+        temporaryOperations.toArray(new FormulaCompiler.ColumnOperation[0]);
+  }
+
+  /**
+   * Returns the names of the variables used in the formula, in the order of their slots.
+   */
+  public ImmutableList<String> getVariables() {
+    return variables;
+  }
+
+  /**
+   * Returns the slot of the given variable, or -1 if it is not used in the formula.
+   */
+  public int getSlot(String name) {
+    return variables.indexOf(name);
+  }
+
+  /**
+   * Returns the number of slots needed for evaluating the formula, i.e. the slots of its variables
+   * followed by temporary slots for the values of shared subexpressions.
+   */
+  public int getFrameSize() {
+    return variables.size() + temporaryHandles.length;
+  }
+
+  /**
+   * Calculates the value of the formula.
+   *
+   * @param values the values of the variables, indexed by their slots (see
+   *     {@link #getVariables()}); if the array holds {@link #getFrameSize()} values, the slots
+   *     following the variables are overwritten, otherwise the values are copied
+   * @return the value of the formula
+   */
+  public double evaluate(double[] values) {
+    if (values.length < variables.size()) {
+      throw new IllegalArgumentException(
+          "Expected " + variables.size() + " values, but got " + values.length);
+    }
+
+    try {
+      if (temporaryHandles.length > 0) {
+        if (values.length < getFrameSize()) {
+          values = Arrays.copyOf(values, getFrameSize());
+        }
+        for (int i = 0; i < temporaryHandles.length; i++) {
+          values[variables.size() + i] = (double) temporaryHandles[i].invokeExact(values);
+        }
+      }
+      return (double) handle.invokeExact(values);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      // The operations of the formula do not throw any checked exceptions.
+      throw new IllegalStateException("Error evaluating formula: " + formula, e);
+    }
+  }
+
+  /**
+   * Calculates the values of the formula for many sets of variable values at once.
+   *
+   * @param columns the values of each variable, indexed by their slots (see
+   *     {@link #getVariables()}), each holding at least {@code size} values
+   * @param size the number of values to be calculated
+   * @return a new array holding the values of the formula
+   */
+  public double[] evaluate(double[][] columns, int size) {
+    if (columns.length < variables.size()) {
+      throw new IllegalArgumentException(
+          "Expected " + variables.size() + " columns, but got " + columns.length);
+    }
+    for (int i = 0; i < variables.size(); i++) {
+      if (columns[i].length < size) {
+        throw new IllegalArgumentException(
+            "Expected " + size + " values for " + variables.get(i) + ", but got "
+                + columns[i].length);
+      }
+    }
+
+    double[][] frame = columns;
+    if (temporaryOperations.length > 0) {
+      frame = Arrays.copyOf(columns, variables.size() + temporaryOperations.length);
+      for (int i = 0; i < temporaryOperations.length; i++) {
+        frame[variables.size() + i] = temporaryOperations[i].evaluate(frame, size);
+      }
+    }
+
+    double[] result = columnOperation.evaluate(frame, size);
+    for (double[] column : columns) {
+      if (result == column) {
+        // Never hand out one of the given columns.
+        return Arrays.copyOf(result, size);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Calculates the value of the formula, taking the values of its variables from the given context.
+   *
+   * @param context the context holding the values of variables that can occur in the formula
+   * @return the value of the formula
+   * @throws FormulaException in case a variable of the formula is undefined
+   */
+  public double evaluate(FormulaContext context) throws FormulaException {
+    double[] values = new double[getFrameSize()];
+    for (int i = 0; i < variables.size(); i++) {
+      String name = variables.get(i);
+      if (!context.hasValue(name)) {
+        throw new FormulaException("No such value: " + name);
+      }
+      values[i] = context.getValue(name);
+    }
+    return evaluate(values);
+  }
+
+  @Override
+  public String toString() {
+    return formula;
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer.formula;
+
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.IdeaMetric;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.Metric;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.Statistics;
+import com.google.api.ads.adwords.keywordoptimizer.IdeaEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.TrafficEstimate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * A formula variable holding a statistic of a {@link TrafficEstimate}, such as
+ * {@code mean.clicksPerDay} or {@code bid2.max.totalCost}, or a metric of an {@link IdeaEstimate},
+ * such as {@code idea.searchVolume} or {@code idea.monthlySearches1} (see {@link FormulaContext}).
+ * Variable names are resolved once, so values can be read from an estimate without any lookups by
+ * name.
+ */
+final class EstimateVariable {
+  private static final Pattern NAME_PATTERN =
+      Pattern.compile("(?:bid([1-9][0-9]*)\\.)?(min|mean|max)\\.(\\w+)");
+  private static final Pattern IDEA_NAME_PATTERN =
+      Pattern.compile("idea\\.([a-zA-Z]+)([1-9][0-9]*)?");
+
+  private final String name;
+  private final int bid;
+  @Nullable private final Statistics statistics;
+  @Nullable private final Metric metric;
+  @Nullable private final IdeaMetric ideaMetric;
+  private final int month;
+
+  private EstimateVariable(String name, int bid, Statistics statistics, Metric metric) {
+    this.name = name;
+    this.bid = bid;
+    this.statistics = statistics;
+    this.metric = metric;
+    this.ideaMetric = null;
+    this.month = 0;
+  }
+
+  private EstimateVariable(String name, IdeaMetric ideaMetric, int month) {
+    this.name = name;
+    this.bid = 0;
+    this.statistics = null;
+    this.metric = null;
+    this.ideaMetric = ideaMetric;
+    this.month = month;
+  }
+
+  /**
+   * Resolves the given variable name.
+   *
+   * @param name the name of the variable, as used in formulas
+   * @return the variable, or {@code null} if the name does not denote a statistic of an estimate
+   */
+  @Nullable
+  static EstimateVariable forName(String name) {
+    Matcher ideaMatcher = IDEA_NAME_PATTERN.matcher(name);
+    if (ideaMatcher.matches()) {
+      IdeaMetric ideaMetric = IdeaMetric.forName(ideaMatcher.group(1));
+      if (ideaMetric == null || ideaMetric.isMonthly() != (ideaMatcher.group(2) != null)) {
+        return null;
+      }
+
+      int month = ideaMatcher.group(2) == null ? 0 : Integer.parseInt(ideaMatcher.group(2));
+      return new EstimateVariable(name, ideaMetric, month);
+    }
+
+    Matcher matcher = NAME_PATTERN.matcher(name);
+    if (!matcher.matches()) {
+      return null;
+    }
+
+    Metric metric = Metric.forName(matcher.group(3));
+    if (metric == null) {
+      return null;
+    }
+
+    int bid = matcher.group(1) == null ? 0 : Integer.parseInt(matcher.group(1));
+    Statistics statistics = Statistics.forName(matcher.group(2));
+    return new EstimateVariable(name, bid, statistics, metric);
+  }
+
+  /**
+   * Returns the name of the variable.
+   */
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Returns whether the given estimates hold a value for this variable (i.e. whether the needed
+   * estimate is given and, for bid landscape statistics, whether its bid landscape is large
+   * enough).
+   *
+   * @param ideaEstimate the idea estimate of the keyword, if known
+   * @param estimate the traffic estimate of the keyword, if known
+   */
+  boolean hasValue(@Nullable IdeaEstimate ideaEstimate, @Nullable TrafficEstimate estimate) {
+    if (ideaMetric != null) {
+      return ideaEstimate != null;
+    }
+    return estimate != null && bid <= estimate.getBidLandscape().size();
+  }
+
+  /**
+   * Returns whether the given estimates hold a value for this variable, see {@link #hasValue}.
+   */
+  boolean hasValue(EstimateColumns estimates) {
+    if (ideaMetric != null) {
+      return estimates.hasIdeaEstimates();
+    }
+    return bid <= estimates.getBidCount();
+  }
+
+  /**
+   * Returns the value of this variable for the given estimates, see {@link #hasValue}.
+   */
+  double getValue(@Nullable IdeaEstimate ideaEstimate, @Nullable TrafficEstimate estimate) {
+    if (ideaMetric != null) {
+      return ideaMetric.getValue(ideaEstimate, month);
+    }
+    TrafficEstimate bidEstimate = bid == 0 ? estimate : estimate.getBidLandscape().get(bid - 1);
+    return statistics.getValue(bidEstimate, metric);
+  }
+
+  /**
+   * Returns the values of this variable for the given estimates, see {@link #hasValue}.
+   */
+  double[] getValues(EstimateColumns estimates) {
+    if (ideaMetric != null) {
+      return estimates.getIdeaColumn(ideaMetric, month);
+    }
+    return estimates.getColumn(bid, statistics, metric);
+  }
+}
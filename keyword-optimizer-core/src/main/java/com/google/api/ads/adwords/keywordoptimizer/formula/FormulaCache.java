@@ -0,0 +1,85 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.api.ads.adwords.keywordoptimizer.formula;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A process-wide cache of compiled formulas. As {@link CompiledFormula}s are immutable, all
+ * {@link FormulaScoreCalculator}s using the same formula (for example, one per campaign) share one
+ * instance, which is parsed and compiled only once.
+ *
+ * <p>Formulas are keyed by their normalized text, i.e. their tokens separated by single spaces, so
+ * formulas differing only in whitespace or comments share a compiled formula as well.
+ */
+public final class FormulaCache {
+  // Bounds the memory used in case of many different formulas.
+  private static final long MAXIMUM_SIZE = 1000;
+
+  private static final Cache<String, CompiledFormula> COMPILED_FORMULAS =
+      CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE).build();
+
+  private FormulaCache() {}
+
+  /**
+   * Returns the compiled formula for the given formula, compiling it if it is not cached yet.
+   *
+   * @param formula the formula
+   * @return the compiled formula
+   * @throws FormulaException in case the formula is invalid
+   */
+  public static CompiledFormula getCompiledFormula(String formula) throws FormulaException {
+    String normalizedFormula;
+    try {
+      normalizedFormula = normalize(formula);
+    } catch (TokenMgrError e) {
+      throw new FormulaException("Invalid formula: " + formula, e);
+    }
+
+    try {
+      return COMPILED_FORMULAS.get(normalizedFormula, () -> FormulaCompiler.compile(formula));
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof FormulaException) {
+        throw (FormulaException) e.getCause();
+      }
+      throw new FormulaException("Error compiling formula: " + formula, e.getCause());
+    }
+  }
+
+  /**
+   * Returns the tokens of the given formula separated by single spaces, i.e. without any
+   * whitespace or comments that do not change its meaning.
+   *
+   * @throws TokenMgrError in case the formula contains invalid tokens
+   */
+  @VisibleForTesting
+  static String normalize(String formula) {
+    FormulaParser parser = new FormulaParser(formula);
+    StringBuilder normalizedFormula = new StringBuilder(formula.length());
+    for (Token token = parser.getNextToken();
+        token.kind != FormulaParserConstants.EOF;
+        token = parser.getNextToken()) {
+      if (normalizedFormula.length() > 0) {
+        normalizedFormula.append(' ');
+      }
+      normalizedFormula.append(token.image);
+    }
+    return normalizedFormula.toString();
+  }
+}
@@ -0,0 +1,376 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer.formula;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles the syntax tree of a formula into a chain of {@link MethodHandle}s, which calculates the
+ * formula's value from an array of variable values (see {@link CompiledFormula}). Once compiled,
+ * evaluating a formula does not walk the syntax tree anymore: there are no type checks, operator
+ * comparisons or variable lookups by name, and the JIT compiler can inline the whole chain.
+ *
+ * <p>The syntax tree is optimized first (see {@link FormulaOptimizer}). Subexpressions it shares
+ * are calculated only once per evaluation, into temporary slots following the ones of the
+ * variables.
+ *
+ * <p>Formulas are also compiled into loops over columns of variable values, for calculating many
+ * values at once. Both calculate exactly the same values as
+ * {@link SimpleNode#calculateScore(FormulaContext)}.
+ */
+public final class FormulaCompiler {
+  private static final MethodType VALUES_TO_DOUBLE =
+      MethodType.methodType(double.class, double[].class);
+  private static final MethodType BINARY_OPERATION =
+      MethodType.methodType(double.class, double.class, double.class);
+
+  private static final MethodHandle ADD = findOperation("add", BINARY_OPERATION);
+  private static final MethodHandle SUBTRACT = findOperation("subtract", BINARY_OPERATION);
+  private static final MethodHandle MULTIPLY = findOperation("multiply", BINARY_OPERATION);
+  private static final MethodHandle DIVIDE = findOperation("divide", BINARY_OPERATION);
+  private static final MethodHandle INFINITE_TO_NAN =
+      findOperation("infiniteToNaN", MethodType.methodType(double.class, double.class));
+  private static final MethodHandle GET_VALUE =
+      MethodHandles.arrayElementGetter(double[].class);
+
+  // Slots assigned to variables, in order of their first occurrence.
+  private final Map<String, Integer> slots = new LinkedHashMap<>();
+
+  // The number of references to each node of the syntax tree.
+  private final Map<Node, Integer> references = new IdentityHashMap<>();
+
+  // Shared subexpressions, calculated once into temporary slots following the variables.
+  private final List<MethodHandle> temporaryHandles = new ArrayList<>();
+  private final Map<Node, Integer> temporaryHandleSlots = new IdentityHashMap<>();
+  private final List<ColumnOperation> temporaryOperations = new ArrayList<>();
+  private final Map<Node, Integer> temporaryOperationSlots = new IdentityHashMap<>();
+
+  /**
+   * Calculates the values of a (sub-)formula for many sets of variable values at once.
+   */
+  interface ColumnOperation {
+    /**
+     * Calculates the values for the given columns of variable values.
+     *
+     * @param columns the values of each variable, indexed by slot
+     * @param size the number of values to be calculated
+     * @return the calculated values (the returned array may be one of the given columns)
+     */
+    double[] evaluate(double[][] columns, int size);
+  }
+
+  private FormulaCompiler() {}
+
+  /**
+   * Compiles the given formula.
+   *
+   * @param formula the formula to be compiled
+   * @return the compiled formula
+   * @throws FormulaException in case the formula is invalid
+   */
+  public static CompiledFormula compile(String formula) throws FormulaException {
+    return compile(FormulaScoreCalculator.parseExpression(formula));
+  }
+
+  /**
+   * Compiles the given syntax tree of a formula.
+   *
+   * @param expression the root node of the syntax tree
+   * @return the compiled formula
+   * @throws FormulaException in case the syntax tree contains unsupported nodes or operators
+   */
+  public static CompiledFormula compile(ASTExpression expression) throws FormulaException {
+    ASTExpression optimizedExpression = FormulaOptimizer.optimize(expression);
+    FormulaCompiler compiler = new FormulaCompiler();
+    compiler.countReferences(optimizedExpression);
+    MethodHandle handle = compiler.compileNode(optimizedExpression);
+    // Visits the nodes in the same order, so shared subexpressions get the same slots.
+    ColumnOperation columnOperation = compiler.compileColumns(optimizedExpression);
+    return new CompiledFormula(
+        expression.toString(),
+        handle,
+        columnOperation,
+        compiler.slots.keySet(),
+        compiler.temporaryHandles,
+        compiler.temporaryOperations);
+  }
+
+  /**
+   * Counts the references to each node of the given (optimized) syntax tree, and assigns slots to
+   * its variables in order of their first occurrence.
+   */
+  private void countReferences(Node node) {
+    Integer count = references.get(node);
+    references.put(node, count == null ? 1 : count + 1);
+    if (count == null) {
+      if (node instanceof ASTIdentifier) {
+        getSlot(((ASTIdentifier) node).getName());
+      }
+      for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+        countReferences(node.jjtGetChild(i));
+      }
+    }
+  }
+
+  /**
+   * Returns whether the given node is an operation referenced several times, whose value is hence
+   * calculated only once and stored in a temporary slot.
+   */
+  private boolean isShared(Node node) {
+    return (node instanceof ASTAdd || node instanceof ASTMult) && references.get(node) > 1;
+  }
+
+  /**
+   * Returns the next temporary slot, following the slots of all variables.
+   */
+  private int nextTemporarySlot(List<?> temporaries) {
+    return slots.size() + temporaries.size();
+  }
+
+  /**
+   * Creates a {@link MethodHandle} of type {@code (double[])double} calculating the value of the
+   * given node.
+   */
+  private MethodHandle compileNode(Node node) throws FormulaException {
+    Integer temporarySlot = temporaryHandleSlots.get(node);
+    if (temporarySlot == null && isShared(node)) {
+      // Shared subexpressions within this one get the lower slots, and are calculated first.
+      MethodHandle temporary = compileOperation(node);
+      temporarySlot = nextTemporarySlot(temporaryHandles);
+      temporaryHandles.add(temporary);
+      temporaryHandleSlots.put(node, temporarySlot);
+    }
+    if (temporarySlot != null) {
+      return MethodHandles.insertArguments(GET_VALUE, 1, temporarySlot);
+    }
+    return compileOperation(node);
+  }
+
+  /**
+   * Creates a {@link MethodHandle} of type {@code (double[])double} calculating the value of the
+   * given node, without reading it from a temporary slot.
+   */
+  private MethodHandle compileOperation(Node node) throws FormulaException {
+    if (node instanceof ASTExpression) {
+      // This should never happen as per grammar.
+      if (node.jjtGetNumChildren() != 1) {
+        throw new FormulaException("Invalid formula: " + node);
+      }
+      return compileNode(node.jjtGetChild(0));
+    } else if (node instanceof ASTAdd) {
+      String operator = ((ASTAdd) node).getOperator();
+      if ("+".equals(operator)) {
+        return fold(constant(0), ADD, node, 0);
+      } else if ("-".equals(operator)) {
+        return fold(compileNode(node.jjtGetChild(0)), SUBTRACT, node, 1);
+      }
+      throw new FormulaException("Unknown operator: " + operator);
+    } else if (node instanceof ASTMult) {
+      String operator = ((ASTMult) node).getOperator();
+      if ("*".equals(operator)) {
+        return fold(constant(1), MULTIPLY, node, 0);
+      } else if ("/".equals(operator)) {
+        return MethodHandles.filterReturnValue(
+            fold(compileNode(node.jjtGetChild(0)), DIVIDE, node, 1), INFINITE_TO_NAN);
+      }
+      throw new FormulaException("Unknown operator: " + operator);
+    } else if (node instanceof ASTIdentifier) {
+      return MethodHandles.insertArguments(
+          GET_VALUE, 1, getSlot(((ASTIdentifier) node).getName()));
+    } else if (node instanceof ASTDouble) {
+      return constant(((ASTDouble) node).getValue());
+    } else if (node instanceof ASTInteger) {
+      return constant(((ASTInteger) node).getValue());
+    }
+    throw new FormulaException("Unknown grammar node found: " + node.getClass());
+  }
+
+  /**
+   * Creates a {@link ColumnOperation} calculating the values of the given node for many sets of
+   * variable values at once. Each operation is a simple loop over primitive arrays, which the JIT
+   * compiler can unroll and vectorize.
+   */
+  private ColumnOperation compileColumns(Node node) throws FormulaException {
+    Integer temporarySlot = temporaryOperationSlots.get(node);
+    if (temporarySlot == null && isShared(node)) {
+      // Shared subexpressions within this one get the lower slots, and are calculated first.
+      ColumnOperation temporary = compileColumnOperation(node);
+      temporarySlot = nextTemporarySlot(temporaryOperations);
+      temporaryOperations.add(temporary);
+      temporaryOperationSlots.put(node, temporarySlot);
+    }
+    if (temporarySlot != null) {
+      final int slot = temporarySlot;
+      return (columns, size) -> columns[slot];
+    }
+    return compileColumnOperation(node);
+  }
+
+  /**
+   * Creates a {@link ColumnOperation} calculating the values of the given node, without reading
+   * them from a temporary slot.
+   */
+  private ColumnOperation compileColumnOperation(Node node) throws FormulaException {
+    if (node instanceof ASTExpression) {
+      return compileColumns(node.jjtGetChild(0));
+    } else if (node instanceof ASTAdd || node instanceof ASTMult) {
+      final String operator =
+          node instanceof ASTAdd ? ((ASTAdd) node).getOperator() : ((ASTMult) node).getOperator();
+      final ColumnOperation[] children = new ColumnOperation[node.jjtGetNumChildren()];
+      for (int i = 0; i < children.length; i++) {
+        children[i] = compileColumns(node.jjtGetChild(i));
+      }
+
+      switch (operator) {
+        case "+":
+          return (columns, size) -> {
+            double[] result = new double[size];
+            for (ColumnOperation child : children) {
+              double[] values = child.evaluate(columns, size);
+              for (int i = 0; i < size; i++) {
+                result[i] += values[i];
+              }
+            }
+            return result;
+          };
+        case "-":
+          return (columns, size) -> {
+            double[] result = Arrays.copyOf(children[0].evaluate(columns, size), size);
+            for (int c = 1; c < children.length; c++) {
+              double[] values = children[c].evaluate(columns, size);
+              for (int i = 0; i < size; i++) {
+                result[i] -= values[i];
+              }
+            }
+            return result;
+          };
+        case "*":
+          return (columns, size) -> {
+            double[] result = new double[size];
+            Arrays.fill(result, 1);
+            for (ColumnOperation child : children) {
+              double[] values = child.evaluate(columns, size);
+              for (int i = 0; i < size; i++) {
+                result[i] *= values[i];
+              }
+            }
+            return result;
+          };
+        case "/":
+          return (columns, size) -> {
+            double[] result = Arrays.copyOf(children[0].evaluate(columns, size), size);
+            for (int c = 1; c < children.length; c++) {
+              double[] values = children[c].evaluate(columns, size);
+              for (int i = 0; i < size; i++) {
+                result[i] /= values[i];
+              }
+            }
+            for (int i = 0; i < size; i++) {
+              result[i] = infiniteToNaN(result[i]);
+            }
+            return result;
+          };
+        default:
+          throw new FormulaException("Unknown operator: " + operator);
+      }
+    } else if (node instanceof ASTIdentifier) {
+      final int slot = getSlot(((ASTIdentifier) node).getName());
+      return (columns, size) -> columns[slot];
+    } else if (node instanceof ASTDouble || node instanceof ASTInteger) {
+      final double value =
+          node instanceof ASTDouble
+              ? ((ASTDouble) node).getValue()
+              : ((ASTInteger) node).getValue();
+      return (columns, size) -> {
+        double[] result = new double[size];
+        Arrays.fill(result, value);
+        return result;
+      };
+    }
+    throw new FormulaException("Unknown grammar node found: " + node.getClass());
+  }
+
+  /**
+   * Applies the given operation to the given initial value and all children of a node (starting at
+   * the given index), from left to right.
+   */
+  private MethodHandle fold(MethodHandle initial, MethodHandle operation, Node node, int start)
+      throws FormulaException {
+    MethodHandle result = initial;
+    for (int i = start; i < node.jjtGetNumChildren(); i++) {
+      MethodHandle operands =
+          MethodHandles.filterArguments(operation, 0, result, compileNode(node.jjtGetChild(i)));
+      // Both operands read from the same array of values.
+      result = MethodHandles.permuteArguments(operands, VALUES_TO_DOUBLE, 0, 0);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the slot of the given variable, assigning a new one on its first occurrence.
+   */
+  private int getSlot(String name) {
+    Integer slot = slots.get(name);
+    if (slot == null) {
+      slot = slots.size();
+      slots.put(name, slot);
+    }
+    return slot;
+  }
+
+  /**
+   * Creates a {@link MethodHandle} of type {@code (double[])double} returning a constant.
+   */
+  private static MethodHandle constant(double value) {
+    return MethodHandles.dropArguments(
+        MethodHandles.constant(double.class, value), 0, double[].class);
+  }
+
+  private static MethodHandle findOperation(String name, MethodType type) {
+    try {
+      return MethodHandles.lookup().findStatic(FormulaCompiler.class, name, type);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Cannot find operation " + name, e);
+    }
+  }
+
+  private static double add(double a, double b) {
+    return a + b;
+  }
+
+  private static double subtract(double a, double b) {
+    return a - b;
+  }
+
+  private static double multiply(double a, double b) {
+    return a * b;
+  }
+
+  private static double divide(double a, double b) {
+    return a / b;
+  }
+
+  private static double infiniteToNaN(double value) {
+    return Double.isInfinite(value) ? Double.NaN : value;
+  }
+}
@@ -14,29 +14,61 @@
 
 package com.google.api.ads.adwords.keywordoptimizer.formula;
 
-import com.google.api.ads.adwords.axis.v201809.cm.Money;
-import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.IdeaMetric;
+import com.google.api.ads.adwords.keywordoptimizer.IdeaEstimate;
 import com.google.api.ads.adwords.keywordoptimizer.TrafficEstimate;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
 
 /**
  * This class holds the context for evaluating a users-specified formula. It contains the values
  * of variables that have been filled in previous steps from traffic estimates.
+ *
+ * <p>Statistics are available as {@code min.*}, {@code mean.*} and {@code max.*}. If the estimate
+ * contains a bid landscape, the statistics for the n-th bid of the grid are available as
+ * {@code bidN.min.*}, {@code bidN.mean.*} and {@code bidN.max.*} (starting at {@code bid1}).
+ *
+ * <p>If an {@link IdeaEstimate} is provided, its metrics are available as
+ * {@code idea.searchVolume}, {@code idea.competition} and {@code idea.averageCpc}, and the searches
+ * of the n-th most recent month as {@code idea.monthlySearchesN} (starting at
+ * {@code idea.monthlySearches1}, NaN for months beyond the known ones). These allow scoring
+ * keywords before their traffic has been estimated.
+ *
+ * <p>This context looks up variables by name. For calculating scores of many estimates, the
+ * {@link FormulaScoreCalculator} resolves the variables of its formula once instead, and reads
+ * their values directly into the slots of the compiled formula.
  */
 public class FormulaContext {
 
   // This map holds the values of variables.
   private final Map<String, Double> values;
 
+  // The idea estimate the values have been initialized with, if any.
+  @Nullable private final IdeaEstimate ideaEstimate;
+
   /**
    * Creates a new context for formula evaluation. If a {@link TrafficEstimate} is provided, then
    * the context is initialized with variables holding statistics for the given estimate.
    */
   public FormulaContext(@Nullable TrafficEstimate estimate) {
+    this(null, estimate);
+  }
+
+  /**
+   * Creates a new context for formula evaluation. The context is initialized with variables
+   * holding the metrics of the given {@link IdeaEstimate} and the statistics of the given
+   * {@link TrafficEstimate}, if provided.
+   */
+  public FormulaContext(@Nullable IdeaEstimate ideaEstimate, @Nullable TrafficEstimate estimate) {
     values = new HashMap<String, Double>();
+    this.ideaEstimate = ideaEstimate;
 
+    if (ideaEstimate != null) {
+      addIdeaValues(ideaEstimate);
+    }
     if (estimate != null) {
       init(estimate);
     }
@@ -54,10 +86,16 @@ public class FormulaContext {
   }
 
   /**
-   * Checks whether a specified variable has been set.
+   * Checks whether a specified variable has been set. If an {@link IdeaEstimate} is provided, the
+   * searches of any month are considered set (as NaN for months beyond the known ones), like for
+   * the {@link FormulaScoreCalculator}.
    */
   public boolean hasValue(String name) {
-    return values.containsKey(name);
+    if (values.containsKey(name)) {
+      return true;
+    }
+    EstimateVariable variable = EstimateVariable.forName(name);
+    return variable != null && variable.hasValue(ideaEstimate, null);
   }
 
   /**
@@ -71,50 +109,42 @@ public class FormulaContext {
    * Initializes variables and their values based on a given {@link TrafficEstimate}. 
    */
   private void init(TrafficEstimate estimate) {
-    addValues("min", estimate.getMin());
-    addValues("mean", estimate.getMean());
-    addValues("max", estimate.getMax());
-  }
+    addValues("", estimate);
 
-  /**
-   * Initializes variables and their values based on a given {@link StatsEstimate}. 
-   */
-  private void addValues(String prefix, StatsEstimate stats) {
-    values.put(prefix + ".averageCpc", toDoubleOrNaN(stats.getAverageCpc()));
-    values.put(prefix + ".averagePosition", toDoubleOrNaN(stats.getAveragePosition()));
-    values.put(prefix + ".clickThroughRate", toDoubleOrNaN(stats.getClickThroughRate()));
-    values.put(prefix + ".clicksPerDay", toDoubleOrNaN(stats.getClicksPerDay()));
-    values.put(prefix + ".impressionsPerDay", toDoubleOrNaN(stats.getImpressionsPerDay()));
-    values.put(prefix + ".totalCost", toDoubleOrNaN(stats.getTotalCost()));
-  }
-
-  /**
-   * Converts a given {@link Money} object to a number (or NaN if null).
-   */
-  private static double toDoubleOrNaN(Money value) {
-    if (value == null || value.getMicroAmount() == null) {
-      return Double.NaN;
+    List<TrafficEstimate> bidLandscape = estimate.getBidLandscape();
+    for (int i = 0; i < bidLandscape.size(); i++) {
+      addValues("bid" + (i + 1) + ".", bidLandscape.get(i));
     }
-    return value.getMicroAmount().doubleValue() / 1000000;
   }
 
   /**
-   * Converts a given {@link Double} object to a number (or NaN if null).
+   * Initializes variables and their values based on the min, mean and max statistics of a given
+   * {@link TrafficEstimate}.
    */
-  private static double toDoubleOrNaN(Double value) {
-    if (value == null) {
-      return Double.NaN;
+  private void addValues(String prefix, TrafficEstimate estimate) {
+    for (EstimateColumns.Statistics statistics : EstimateColumns.Statistics.values()) {
+      for (EstimateColumns.Metric metric : EstimateColumns.Metric.values()) {
+        values.put(
+            prefix + statistics.getName() + "." + metric.getName(),
+            statistics.getValue(estimate, metric));
+      }
     }
-    return value;
   }
 
   /**
-   * Converts a given {@link Float} object to a number (or NaN if null).
+   * Initializes variables and their values based on a given {@link IdeaEstimate}.
    */
-  private static double toDoubleOrNaN(Float value) {
-    if (value == null) {
-      return Double.NaN;
+  private void addIdeaValues(IdeaEstimate ideaEstimate) {
+    for (IdeaMetric metric : IdeaMetric.values()) {
+      if (metric.isMonthly()) {
+        int months = ideaEstimate.getTargetedMonthlySearches().size();
+        for (int month = 1; month <= months; month++) {
+          values.put(
+              "idea." + metric.getName() + month, metric.getValue(ideaEstimate, month));
+        }
+      } else {
+        values.put("idea." + metric.getName(), metric.getValue(ideaEstimate, 0));
+      }
     }
-    return value.doubleValue();
   }
 }
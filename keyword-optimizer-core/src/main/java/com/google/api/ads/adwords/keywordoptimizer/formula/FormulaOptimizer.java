@@ -0,0 +1,329 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer.formula;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites the syntax tree of a formula into an equivalent one which is cheaper to evaluate. The
+ * optimized tree calculates exactly the same values as the original one, so only rewrites which
+ * do not change the floating point results are applied:
+ * <ul>
+ *  <li>Constant subexpressions (and leading constant operands) are folded into a single
+ *      constant.</li>
+ *  <li>Neutral operands (such as {@code +0} or {@code *1}) are removed.</li>
+ *  <li>Divisions by powers of two are turned into multiplications by their reciprocal.</li>
+ *  <li>Nested additions and multiplications are flattened into a single node, as far as this
+ *      keeps the order of evaluation.</li>
+ *  <li>Equal subexpressions are shared, i.e. represented by the same node instance.</li>
+ * </ul>
+ * The optimized tree hence is a directed acyclic graph rather than a tree, and its nodes have no
+ * parent links. Evaluating it with {@link SimpleNode#calculateScore(FormulaContext)} still works,
+ * but only the {@link FormulaCompiler} calculates shared subexpressions just once.
+ */
+public final class FormulaOptimizer {
+  private static final String PLUS = "+";
+  private static final String MINUS = "-";
+  private static final String MULTIPLY = "*";
+  private static final String DIVIDE = "/";
+
+  // Canonical nodes of all subexpressions, by their structure.
+  private final Map<String, SimpleNode> canonicalNodes = new HashMap<>();
+  private final Map<Node, String> keys = new IdentityHashMap<>();
+
+  private FormulaOptimizer() {}
+
+  /**
+   * Optimizes the given syntax tree of a formula. The given tree is not modified.
+   *
+   * @param expression the root node of the syntax tree
+   * @return the root node of the optimized syntax tree
+   * @throws FormulaException in case the syntax tree contains unsupported nodes or operators
+   */
+  public static ASTExpression optimize(ASTExpression expression) throws FormulaException {
+    // This should never happen as per grammar.
+    if (expression.jjtGetNumChildren() != 1) {
+      throw new FormulaException("Invalid formula: " + expression);
+    }
+
+    ASTExpression result = new ASTExpression(FormulaParserTreeConstants.JJTEXPRESSION);
+    result.jjtAddChild(new FormulaOptimizer().optimize(expression.jjtGetChild(0)), 0);
+    return result;
+  }
+
+  /**
+   * Returns the canonical optimized node for the given node.
+   */
+  private SimpleNode optimize(Node node) throws FormulaException {
+    if (node instanceof ASTExpression) {
+      // Brackets are represented by the structure of the tree.
+      return optimize(node.jjtGetChild(0));
+    } else if (node instanceof ASTAdd) {
+      return optimizeOperation(node, ((ASTAdd) node).getOperator());
+    } else if (node instanceof ASTMult) {
+      return optimizeOperation(node, ((ASTMult) node).getOperator());
+    } else if (node instanceof ASTIdentifier) {
+      String name = ((ASTIdentifier) node).getName();
+      ASTIdentifier identifier = new ASTIdentifier(FormulaParserTreeConstants.JJTIDENTIFIER);
+      identifier.setName(name);
+      return canonicalize(identifier, name);
+    } else if (node instanceof ASTDouble) {
+      return constant(((ASTDouble) node).getValue());
+    } else if (node instanceof ASTInteger) {
+      return constant(((ASTInteger) node).getValue());
+    }
+    throw new FormulaException("Unknown grammar node found: " + node.getClass());
+  }
+
+  /**
+   * Returns the canonical optimized node for an addition or multiplication node.
+   */
+  private SimpleNode optimizeOperation(Node node, String operator) throws FormulaException {
+    if (!PLUS.equals(operator)
+        && !MINUS.equals(operator)
+        && !MULTIPLY.equals(operator)
+        && !DIVIDE.equals(operator)) {
+      throw new FormulaException("Unknown operator: " + operator);
+    }
+
+    List<SimpleNode> operands = new ArrayList<>();
+    for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+      SimpleNode operand = optimize(node.jjtGetChild(i));
+      if (i == 0 && operator.equals(getOperator(operand))) {
+        // ((a+b)+c) is evaluated exactly like (a+b+c), but (a+(b+c)) is not.
+        for (int j = 0; j < operand.jjtGetNumChildren(); j++) {
+          operands.add((SimpleNode) operand.jjtGetChild(j));
+        }
+      } else {
+        operands.add(operand);
+      }
+    }
+
+    switch (operator) {
+      case PLUS:
+        return optimizeSum(operands);
+      case MINUS:
+        return optimizeDifference(operands);
+      case MULTIPLY:
+        return optimizeProduct(operands);
+      default:
+        return optimizeQuotient(operands);
+    }
+  }
+
+  /**
+   * Optimizes a sum, which is evaluated as 0 + a + b + ... from left to right.
+   */
+  private SimpleNode optimizeSum(List<SimpleNode> operands) {
+    double prefix = 0;
+    int first = 0;
+    while (first < operands.size() && isConstant(operands.get(first))) {
+      prefix += getValue(operands.get(first));
+      first++;
+    }
+
+    List<SimpleNode> result = new ArrayList<>();
+    // The sum never is -0, so adding (or removing) a zero operand does not change it.
+    if (prefix != 0) {
+      result.add(constant(prefix));
+    }
+    for (SimpleNode operand : operands.subList(first, operands.size())) {
+      if (!isConstant(operand) || getValue(operand) != 0) {
+        result.add(operand);
+      }
+    }
+
+    if (result.isEmpty()) {
+      return constant(prefix);
+    } else if (result.size() == 1 && isConstant(result.get(0))) {
+      return result.get(0);
+    }
+    // A single non-constant operand is kept as a sum, as 0 + x is not x for x = -0.
+    return operation(new ASTAdd(FormulaParserTreeConstants.JJTADD), PLUS, result);
+  }
+
+  /**
+   * Optimizes a difference, which is evaluated as a - b - c - ... from left to right.
+   */
+  private SimpleNode optimizeDifference(List<SimpleNode> operands) {
+    List<SimpleNode> result = new ArrayList<>();
+    int next = 1;
+    if (isConstant(operands.get(0))) {
+      double prefix = getValue(operands.get(0));
+      while (next < operands.size() && isConstant(operands.get(next))) {
+        prefix -= getValue(operands.get(next));
+        next++;
+      }
+      result.add(constant(prefix));
+    } else {
+      result.add(operands.get(0));
+    }
+    for (SimpleNode operand : operands.subList(next, operands.size())) {
+      // Only +0 is neutral: -0 - (-0) is +0.
+      if (!isConstant(operand) || Double.doubleToRawLongBits(getValue(operand)) != 0) {
+        result.add(operand);
+      }
+    }
+
+    if (result.size() == 1) {
+      return result.get(0);
+    }
+    return operation(new ASTAdd(FormulaParserTreeConstants.JJTADD), MINUS, result);
+  }
+
+  /**
+   * Optimizes a product, which is evaluated as 1 * a * b * ... from left to right.
+   */
+  private SimpleNode optimizeProduct(List<SimpleNode> operands) {
+    double prefix = 1;
+    int first = 0;
+    while (first < operands.size() && isConstant(operands.get(first))) {
+      prefix *= getValue(operands.get(first));
+      first++;
+    }
+
+    List<SimpleNode> result = new ArrayList<>();
+    if (prefix != 1) {
+      result.add(constant(prefix));
+    }
+    for (SimpleNode operand : operands.subList(first, operands.size())) {
+      if (!isConstant(operand) || getValue(operand) != 1) {
+        result.add(operand);
+      }
+    }
+
+    if (result.isEmpty()) {
+      return constant(prefix);
+    } else if (result.size() == 1) {
+      return result.get(0);
+    }
+    return operation(new ASTMult(FormulaParserTreeConstants.JJTMULT), MULTIPLY, result);
+  }
+
+  /**
+   * Optimizes a quotient, which is evaluated as a / b / c / ... from left to right, where an
+   * infinite result is replaced by NaN.
+   */
+  private SimpleNode optimizeQuotient(List<SimpleNode> operands) {
+    List<SimpleNode> result = new ArrayList<>();
+    int next = 1;
+    if (isConstant(operands.get(0))) {
+      double prefix = getValue(operands.get(0));
+      while (next < operands.size() && isConstant(operands.get(next))) {
+        prefix /= getValue(operands.get(next));
+        next++;
+      }
+      if (next == operands.size()) {
+        return constant(Double.isInfinite(prefix) ? Double.NaN : prefix);
+      }
+      result.add(constant(prefix));
+    } else {
+      result.add(operands.get(0));
+    }
+
+    boolean reciprocals = true;
+    for (SimpleNode operand : operands.subList(next, operands.size())) {
+      if (!isConstant(operand) || getValue(operand) != 1) {
+        result.add(operand);
+        reciprocals &= isConstant(operand) && hasExactReciprocal(getValue(operand));
+      }
+    }
+
+    if (reciprocals && result.size() > 1) {
+      // x / 4 is exactly x * 0.25, as both round the same exact value.
+      List<SimpleNode> factors = new ArrayList<>();
+      factors.add(result.get(0));
+      for (SimpleNode operand : result.subList(1, result.size())) {
+        factors.add(constant(1 / getValue(operand)));
+      }
+      result.subList(1, result.size()).clear();
+      result.set(0, operation(new ASTMult(FormulaParserTreeConstants.JJTMULT), MULTIPLY, factors));
+    }
+    // A quotient of a single operand only replaces an infinite value by NaN.
+    return operation(new ASTMult(FormulaParserTreeConstants.JJTMULT), DIVIDE, result);
+  }
+
+  /**
+   * Sets the operator and operands of the given node and returns its canonical node.
+   */
+  private SimpleNode operation(SimpleNode node, String operator, List<SimpleNode> operands) {
+    StringBuilder key = new StringBuilder(operator).append('(');
+    for (int i = 0; i < operands.size(); i++) {
+      node.jjtAddChild(operands.get(i), i);
+      key.append(i > 0 ? "," : "").append(keys.get(operands.get(i)));
+    }
+    if (node instanceof ASTAdd) {
+      ((ASTAdd) node).setOperator(operator);
+    } else {
+      ((ASTMult) node).setOperator(operator);
+    }
+    return canonicalize(node, key.append(')').toString());
+  }
+
+  /**
+   * Returns the canonical node for a constant value.
+   */
+  private SimpleNode constant(double value) {
+    ASTDouble constant = new ASTDouble(FormulaParserTreeConstants.JJTDOUBLE);
+    constant.setValue(value);
+    return canonicalize(constant, "#" + Double.doubleToLongBits(value));
+  }
+
+  /**
+   * Returns the canonical node for the given structural key, registering the given node if there
+   * is none yet.
+   */
+  private SimpleNode canonicalize(SimpleNode node, String key) {
+    SimpleNode canonicalNode = canonicalNodes.get(key);
+    if (canonicalNode == null) {
+      canonicalNode = node;
+      canonicalNodes.put(key, node);
+      keys.put(node, key);
+    }
+    return canonicalNode;
+  }
+
+  private static String getOperator(Node node) {
+    if (node instanceof ASTAdd) {
+      return ((ASTAdd) node).getOperator();
+    } else if (node instanceof ASTMult) {
+      return ((ASTMult) node).getOperator();
+    }
+    return null;
+  }
+
+  private static boolean isConstant(Node node) {
+    return node instanceof ASTDouble;
+  }
+
+  private static double getValue(Node node) {
+    return ((ASTDouble) node).getValue();
+  }
+
+  /**
+   * Returns whether dividing by the given value is exactly the same as multiplying by its
+   * reciprocal, i.e. whether it is a power of two with a normal reciprocal.
+   */
+  private static boolean hasExactReciprocal(double value) {
+    int exponent = Math.getExponent(value);
+    return (Double.doubleToRawLongBits(value) & 0x000fffffffffffffL) == 0
+        && exponent >= Double.MIN_EXPONENT
+        && exponent < Double.MAX_EXPONENT;
+  }
+}
@@ -0,0 +1,86 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer.formula;
+
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns;
+import com.google.api.ads.adwords.keywordoptimizer.IdeaEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.KeywordCollection;
+import com.google.api.ads.adwords.keywordoptimizer.KeywordInfo;
+import com.google.api.ads.adwords.keywordoptimizer.KeywordOptimizerException;
+import com.google.api.ads.adwords.keywordoptimizer.TrafficEstimate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ranks already estimated keywords (such as the ones stored by a previous run, see
+ * {@link com.google.api.ads.adwords.keywordoptimizer.PersistentCachedEstimator#getStoredEstimates})
+ * under several score formulas at once, without retrieving any estimates. This allows trying out
+ * formulas offline.
+ *
+ * <p>The statistics of the estimates are extracted into columns once and shared by all formulas
+ * (see {@link FormulaScoreCalculator#calculateAll}).
+ */
+public class FormulaRescorer {
+  private final Map<String, FormulaScoreCalculator> calculators = new LinkedHashMap<>();
+
+  /**
+   * Creates a new {@link FormulaRescorer} for the given formulas.
+   *
+   * @param formulas the score formulas
+   * @throws FormulaException in case one of the formulas is invalid
+   */
+  public FormulaRescorer(List<String> formulas) throws FormulaException {
+    for (String formula : formulas) {
+      calculators.put(formula, new FormulaScoreCalculator(formula));
+    }
+  }
+
+  /**
+   * Scores the given keywords under each formula and returns the best ones.
+   *
+   * @param estimates the keywords, with {@link TrafficEstimate}s set (others are skipped)
+   * @param count the number of best keywords to return for each formula
+   * @return the best keywords (with scores set) for each formula, in the order of the formulas
+   * @throws KeywordOptimizerException in case of an error calculating the scores
+   */
+  public Map<String, KeywordCollection> rescore(KeywordCollection estimates, int count)
+      throws KeywordOptimizerException {
+    List<KeywordInfo> keywords = new ArrayList<>(estimates.size());
+    List<TrafficEstimate> trafficEstimates = new ArrayList<>(estimates.size());
+    List<IdeaEstimate> ideaEstimates = new ArrayList<>(estimates.size());
+    for (KeywordInfo estimate : estimates) {
+      if (estimate.hasEstimate()) {
+        keywords.add(estimate);
+        trafficEstimates.add(estimate.getTrafficEstimate());
+        ideaEstimates.add(estimate.getIdeaEstimate());
+      }
+    }
+    EstimateColumns columns = new EstimateColumns(trafficEstimates, ideaEstimates);
+
+    Map<String, KeywordCollection> bestKeywords = new LinkedHashMap<>();
+    for (Map.Entry<String, FormulaScoreCalculator> entry : calculators.entrySet()) {
+      double[] scores = entry.getValue().calculateAll(columns);
+
+      KeywordCollection evaluations = new KeywordCollection(estimates.getCampaignConfiguration());
+      for (int i = 0; i < scores.length; i++) {
+        evaluations.add(keywords.get(i).withScore(scores[i]));
+      }
+      bestKeywords.put(entry.getKey(), evaluations.getBest(count));
+    }
+    return bestKeywords;
+  }
+}
@@ -14,11 +14,17 @@
 
 package com.google.api.ads.adwords.keywordoptimizer.formula;
 
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns;
+import com.google.api.ads.adwords.keywordoptimizer.IdeaEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.KeywordInfo;
 import com.google.api.ads.adwords.keywordoptimizer.KeywordOptimizerProperty;
 import com.google.api.ads.adwords.keywordoptimizer.OptimizationContext;
 import com.google.api.ads.adwords.keywordoptimizer.ScoreCalculator;
 import com.google.api.ads.adwords.keywordoptimizer.TrafficEstimate;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * A score calculator based on a given formula defined as a string. The formula allows basic
@@ -36,21 +42,43 @@ import com.google.common.annotations.VisibleForTesting;
  *  <li>mean.clicksPerDay (average clicks per day)</li>
  *  <li>mean.clicksPerDay*0.9 + mean.impressionsPerDay*0.1 (weighted sum of 90% clicks and 10% 
  *      impressions)</li>
+ *  <li>idea.searchVolume / idea.averageCpc (searches per unit of cost, see
+ *      {@link #calculate(KeywordInfo)})</li>
  *  <li>...</li>
  * </ul>
+ * The formula is optimized and compiled once (see {@link FormulaOptimizer} and
+ * {@link FormulaCompiler}) and its variables are resolved to slots when it is parsed, so
+ * calculating a score neither walks the syntax tree nor looks up variables by name, and does not
+ * allocate any memory. Compiled formulas are shared by all calculators using the same formula
+ * (see {@link FormulaCache}).
  */
 public class FormulaScoreCalculator implements ScoreCalculator {
 
-  private ASTExpression expression;
+  private final CompiledFormula formula;
+
+  // The variables of the formula, indexed by their slots.
+  private final EstimateVariable[] variables;
+
+  // Reusable values of the variables, one array per thread.
+  private final ThreadLocal<double[]> values;
 
   public FormulaScoreCalculator(String formula) throws FormulaException {
-    expression = parseExpression(formula);
+    this.formula = FormulaCache.getCompiledFormula(formula);
+
+    List<String> names = this.formula.getVariables();
+    variables = new EstimateVariable[names.size()];
+    for (int i = 0; i < variables.length; i++) {
+      variables[i] = EstimateVariable.forName(names.get(i));
+      if (variables[i] == null) {
+        throw new FormulaException("No such value: " + names.get(i));
+      }
+    }
+    values = ThreadLocal.withInitial(() -> new double[this.formula.getFrameSize()]);
   }
 
   public FormulaScoreCalculator(OptimizationContext context) throws FormulaException {
-    expression = parseExpression(
-            context.getConfiguration()
-                .getString(KeywordOptimizerProperty.ScoreCalculatorFormula.getName()));
+    this(context.getConfiguration()
+        .getString(KeywordOptimizerProperty.ScoreCalculatorFormula.getName()));
   }
 
   @Override
@@ -58,12 +86,59 @@ public class FormulaScoreCalculator implements ScoreCalculator {
     if (estimate == null) {
       throw new IllegalArgumentException("The given estimate cannot be null");
     }
-    if (expression == null) {
-      throw new IllegalStateException("The expression cannot be null");
+    return calculate(null, estimate);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The formula can use the {@code idea.*} variables as well. If it uses these only, no
+   * {@link TrafficEstimate} is needed.
+   */
+  @Override
+  public double calculate(
+      @Nullable IdeaEstimate ideaEstimate, @Nullable TrafficEstimate trafficEstimate)
+      throws FormulaException {
+    double[] values = this.values.get();
+    for (int i = 0; i < variables.length; i++) {
+      if (!variables[i].hasValue(ideaEstimate, trafficEstimate)) {
+        throw new FormulaException("No such value: " + variables[i].getName());
+      }
+      values[i] = variables[i].getValue(ideaEstimate, trafficEstimate);
     }
+    return formula.evaluate(values);
+  }
+
+  @Override
+  public double calculate(KeywordInfo keyword) throws FormulaException {
+    return calculate(keyword.getIdeaEstimate(), keyword.getTrafficEstimate());
+  }
 
-    FormulaContext context = new FormulaContext(estimate);
-    return expression.calculateScore(context);
+  /**
+   * {@inheritDoc}
+   *
+   * <p>These are the variables used in the formula.
+   */
+  @Override
+  public ImmutableSet<String> getRequiredVariables() {
+    return ImmutableSet.copyOf(formula.getVariables());
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The formula is evaluated as loops over the columns of the variables it uses.
+   */
+  @Override
+  public double[] calculateAll(EstimateColumns estimates) throws FormulaException {
+    double[][] columns = new double[variables.length][];
+    for (int i = 0; i < variables.length; i++) {
+      if (!variables[i].hasValue(estimates)) {
+        throw new FormulaException("No such value: " + variables[i].getName());
+      }
+      columns[i] = variables[i].getValues(estimates);
+    }
+    return formula.evaluate(columns, estimates.size());
   }
 
   /**
@@ -0,0 +1,74 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test cases for the {@link AsyncAdapters} class.
+ */
+@RunWith(JUnit4.class)
+public class AsyncAdaptersTest {
+
+  /**
+   * Check that a call throwing an {@link Error} still completes its future.
+   */
+  @Test
+  public void checkErrorCompletesFuture() throws Exception {
+    final Error error = new NoClassDefFoundError("Missing");
+    CompletableFuture<Object> result =
+        AsyncAdapters.supply(
+            () -> {
+              throw error;
+            },
+            AsyncAdapters.BLOCKING_EXECUTOR);
+
+    try {
+      result.get(10, TimeUnit.SECONDS);
+      fail("Expected the call to fail");
+    } catch (ExecutionException e) {
+      assertSame(error, e.getCause());
+    }
+  }
+
+  /**
+   * Check that other exceptions thrown by a call are wrapped.
+   */
+  @Test
+  public void checkRuntimeExceptionWrapped() {
+    final IllegalStateException exception = new IllegalStateException("Broken");
+    try {
+      AsyncAdapters.await(
+          AsyncAdapters.supply(
+              () -> {
+                throw exception;
+              },
+              AsyncAdapters.BLOCKING_EXECUTOR));
+      fail("Expected the call to fail");
+    } catch (KeywordOptimizerException e) {
+      assertSame(exception, e.getCause());
+      assertEquals("Unexpected error: Broken", e.getMessage());
+    }
+  }
+}
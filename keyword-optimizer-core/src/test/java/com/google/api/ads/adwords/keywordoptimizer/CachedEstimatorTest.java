@@ -0,0 +1,428 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
+import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test case for the {@link CachedEstimator} class.
+ */
+@RunWith(JUnit4.class)
+public class CachedEstimatorTest {
+  private CampaignConfiguration campaignSettings;
+  private CountingTrafficEstimator countingEstimator;
+
+  /**
+   * Setup the nested estimator.
+   */
+  @Before
+  public void setUp() {
+    campaignSettings =
+        CampaignConfiguration.builder()
+            .withMaxCpc(KeywordOptimizerUtil.createMoney(1000000L))
+            .build();
+    countingEstimator = new CountingTrafficEstimator();
+  }
+
+  /**
+   * Checks that cached keywords are returned as well and not retrieved again.
+   */
+  @Test
+  public void checkCachedKeywordsReturned() throws KeywordOptimizerException {
+    CachedEstimator estimator = new CachedEstimator(countingEstimator);
+
+    KeywordCollection estimates = estimator.estimate(createKeywords("plumbing"));
+    assertEquals(1, estimates.size());
+
+    estimates = estimator.estimate(createKeywords("plumbing", "plumbing specialist"));
+    assertEquals(2, estimates.size());
+    for (KeywordInfo estimate : estimates) {
+      assertTrue(estimate.hasEstimate());
+    }
+
+    assertEquals(2, countingEstimator.keywordCount.get());
+    assertEquals(1, estimator.getHitCount());
+    assertEquals(2, estimator.getMissCount());
+    assertEquals(0, estimator.getCoalescedCount());
+  }
+
+  /**
+   * Checks that concurrent calls for the same keyword only retrieve it once.
+   */
+  @Test
+  public void checkConcurrentLookupsCoalesced() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CachedEstimator estimator =
+        new CachedEstimator(
+            new CountingTrafficEstimator() {
+              @Override
+              public KeywordCollection estimate(KeywordCollection keywords) {
+                started.countDown();
+                try {
+                  release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+                return super.estimate(keywords);
+              }
+            });
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<KeywordCollection> first =
+          executor.submit(() -> estimator.estimate(createKeywords("plumbing")));
+      started.await(10, TimeUnit.SECONDS);
+      Future<KeywordCollection> second =
+          executor.submit(() -> estimator.estimate(createKeywords("plumbing")));
+
+      // Give the second call some time to find the pending lookup.
+      while (estimator.getCoalescedCount() == 0) {
+        Thread.sleep(10);
+      }
+      release.countDown();
+
+      assertEquals(1, first.get().size());
+      assertEquals(1, second.get().size());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(1, estimator.getMissCount());
+    assertEquals(1, estimator.getCoalescedCount());
+  }
+
+  /**
+   * Checks that a size-bounded cache evicts keywords, which are then retrieved again.
+   */
+  @Test
+  public void checkBoundedCacheEvicts() throws KeywordOptimizerException {
+    CachedEstimator estimator =
+        CachedEstimator.builder(countingEstimator).withMaximumSize(2).build();
+
+    estimator.estimate(createKeywords("plumbing", "plumber", "plumbing specialist"));
+    assertTrue(estimator.getSize() <= 2);
+    assertTrue(estimator.getEvictionCount() >= 1);
+
+    KeywordCollection estimates =
+        estimator.estimate(createKeywords("plumbing", "plumber", "plumbing specialist"));
+    assertEquals(3, estimates.size());
+    assertTrue(countingEstimator.keywordCount.get() > 3);
+  }
+
+  /**
+   * Checks that keywords being retrieved are not evicted from a bounded cache, so concurrent calls
+   * still wait for the pending lookup instead of retrieving the keyword again.
+   */
+  @Test
+  public void checkPendingLookupsNotEvicted() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CachedEstimator estimator =
+        CachedEstimator.builder(
+                new CountingTrafficEstimator() {
+                  @Override
+                  public KeywordCollection estimate(KeywordCollection keywords) {
+                    if (keywords.getContainingKeywordTexts().contains("plumbing")) {
+                      started.countDown();
+                      try {
+                        release.await(10, TimeUnit.SECONDS);
+                      } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                      }
+                    }
+                    return super.estimate(keywords);
+                  }
+                })
+            .withMaximumSize(1)
+            .build();
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<KeywordCollection> first =
+          executor.submit(() -> estimator.estimate(createKeywords("plumbing")));
+      started.await(10, TimeUnit.SECONDS);
+
+      // Fill the cache with other keywords while the first lookup is pending.
+      estimator.estimate(createKeywords("plumber", "plumbing specialist"));
+      assertTrue(estimator.getEvictionCount() >= 1);
+
+      Future<KeywordCollection> second =
+          executor.submit(() -> estimator.estimate(createKeywords("plumbing")));
+      while (estimator.getCoalescedCount() == 0) {
+        Thread.sleep(10);
+      }
+      release.countDown();
+
+      assertEquals(1, first.get().size());
+      assertEquals(1, second.get().size());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(3, estimator.getMissCount());
+    assertEquals(1, estimator.getCoalescedCount());
+  }
+
+  /**
+   * Checks that expired keywords are retrieved again.
+   */
+  @Test
+  public void checkExpiredKeywordsRetrieved() throws Exception {
+    CachedEstimator estimator =
+        CachedEstimator.builder(countingEstimator)
+            .withExpireAfterWrite(1, TimeUnit.NANOSECONDS)
+            .build();
+
+    estimator.estimate(createKeywords("plumbing"));
+    Thread.sleep(5);
+    estimator.estimate(createKeywords("plumbing"));
+
+    assertEquals(2, countingEstimator.keywordCount.get());
+    assertEquals(0.0, estimator.getHitRate(), 0);
+  }
+
+  /**
+   * Checks the hit rate reported by the cache.
+   */
+  @Test
+  public void checkHitRate() throws KeywordOptimizerException {
+    CachedEstimator estimator = CachedEstimator.builder(countingEstimator).build();
+    assertEquals(1.0, estimator.getHitRate(), 0);
+
+    estimator.estimate(createKeywords("plumbing"));
+    estimator.estimate(createKeywords("plumbing"));
+    assertEquals(0.5, estimator.getHitRate(), 0);
+  }
+
+  /**
+   * Checks that estimates are only shared between configurations with the same settings.
+   */
+  @Test
+  public void checkConfigurationsSeparated() throws KeywordOptimizerException {
+    CampaignConfiguration newYorkEnglish =
+        CampaignConfiguration.builder()
+            .withMaxCpc(KeywordOptimizerUtil.createMoney(1000000L))
+            .withLocation(1023191L)
+            .withLanguage(1000L)
+            .build();
+    CampaignConfiguration englishNewYork =
+        CampaignConfiguration.builder()
+            .withMaxCpc(KeywordOptimizerUtil.createMoney(1000000L))
+            .withLanguage(1000L)
+            .withLocation(1023191L)
+            .build();
+    assertEquals(newYorkEnglish.getFingerprint(), englishNewYork.getFingerprint());
+    assertNotEquals(campaignSettings.getFingerprint(), newYorkEnglish.getFingerprint());
+
+    CachedEstimator estimator = new CachedEstimator(countingEstimator);
+    estimator.estimate(createKeywords(campaignSettings, "plumbing"));
+    estimator.estimate(createKeywords(newYorkEnglish, "plumbing"));
+    estimator.estimate(createKeywords(englishNewYork, "plumbing"));
+
+    assertEquals(2, countingEstimator.keywordCount.get());
+    assertEquals(1, estimator.getSize(campaignSettings));
+    assertEquals(1, estimator.getSize(englishNewYork));
+
+    estimator.invalidate(newYorkEnglish);
+    assertEquals(0, estimator.getSize(englishNewYork));
+    assertEquals(1, estimator.getSize(campaignSettings));
+  }
+
+  /**
+   * Checks that estimates can be retrieved asynchronously, coalescing with pending lookups.
+   */
+  @Test
+  public void checkAsyncLookups() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    CachedEstimator estimator =
+        new CachedEstimator(
+            new CountingTrafficEstimator() {
+              @Override
+              public KeywordCollection estimate(KeywordCollection keywords) {
+                try {
+                  release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+                return super.estimate(keywords);
+              }
+            });
+
+    // Neither call blocks, the second one waits for the lookup of the first one.
+    CompletableFuture<KeywordCollection> first =
+        estimator.estimateAsync(createKeywords("plumbing"));
+    CompletableFuture<KeywordCollection> second =
+        estimator.estimateAsync(createKeywords("plumbing", "plumber"));
+    assertFalse(first.isDone());
+    assertEquals(1, estimator.getCoalescedCount());
+
+    release.countDown();
+    assertEquals(1, first.get(10, TimeUnit.SECONDS).size());
+    assertEquals(2, second.get(10, TimeUnit.SECONDS).size());
+
+    KeywordCollection cached = estimator.estimateAsync(createKeywords("plumber")).get();
+    assertEquals(1, cached.size());
+    assertEquals(1, estimator.getHitCount());
+  }
+
+  /**
+   * Checks that failed asynchronous lookups are reported and retried by the next call.
+   */
+  @Test
+  public void checkAsyncLookupFailure() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    CachedEstimator estimator =
+        new CachedEstimator(
+            new CountingTrafficEstimator() {
+              @Override
+              public KeywordCollection estimate(KeywordCollection keywords) {
+                if (calls.incrementAndGet() == 1) {
+                  throw new IllegalStateException("Service unavailable");
+                }
+                return super.estimate(keywords);
+              }
+            });
+
+    try {
+      estimator.estimateAsync(createKeywords("plumbing")).get(10, TimeUnit.SECONDS);
+      fail("Expected the lookup to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof KeywordOptimizerException);
+    }
+
+    assertEquals(1, estimator.estimate(createKeywords("plumbing")).size());
+    assertEquals(2, calls.get());
+  }
+
+  /**
+   * Checks that lookups failing with an {@link Error} are released and retried by the next call.
+   */
+  @Test
+  public void checkLookupErrorReleased() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    CachedEstimator estimator =
+        new CachedEstimator(
+            new CountingTrafficEstimator() {
+              @Override
+              public KeywordCollection estimate(KeywordCollection keywords) {
+                if (calls.incrementAndGet() == 1) {
+                  throw new AssertionError("Broken estimator");
+                }
+                return super.estimate(keywords);
+              }
+            });
+
+    try {
+      estimator.estimate(createKeywords("plumbing"));
+      fail("Expected the lookup to fail");
+    } catch (AssertionError e) {
+      assertEquals("Broken estimator", e.getMessage());
+    }
+
+    KeywordCollection estimates =
+        estimator.estimateAsync(createKeywords("plumbing")).get(10, TimeUnit.SECONDS);
+    assertEquals(1, estimates.size());
+    assertEquals(2, calls.get());
+    assertEquals(0, estimator.getCoalescedCount());
+  }
+
+  /**
+   * Checks that a full cache keeps frequently used keywords instead of ones asked for only once.
+   */
+  @Test
+  public void checkFrequentKeywordsKept() throws KeywordOptimizerException {
+    CachedEstimator estimator =
+        CachedEstimator.builder(countingEstimator).withMaximumSize(2).build();
+    for (int i = 0; i < 3; i++) {
+      estimator.estimate(createKeywords("plumbing"));
+      estimator.estimate(createKeywords("plumber"));
+    }
+
+    // The first new keyword replaces the least recently used one, the others are not admitted.
+    estimator.estimate(createKeywords("emergency plumber"));
+    estimator.estimate(createKeywords("plumbing services"));
+    estimator.estimate(createKeywords("plumbing specialist"));
+    assertEquals(5, countingEstimator.keywordCount.get());
+    assertEquals(2, estimator.getSize());
+
+    estimator.estimate(createKeywords("plumber", "emergency plumber"));
+    assertEquals(5, countingEstimator.keywordCount.get());
+    assertEquals(1, estimator.getEvictionCount());
+  }
+
+  /**
+   * Creates a collection of exact match keywords with the given texts.
+   */
+  private KeywordCollection createKeywords(String... texts) {
+    return createKeywords(campaignSettings, texts);
+  }
+
+  /**
+   * Creates a collection of exact match keywords with the given texts and campaign settings.
+   */
+  private static KeywordCollection createKeywords(
+      CampaignConfiguration campaignSettings, String... texts) {
+    KeywordCollection keywords = new KeywordCollection(campaignSettings);
+    for (String text : texts) {
+      keywords.add(
+          new KeywordInfo(
+              KeywordOptimizerUtil.createKeyword(text, KeywordMatchType.EXACT),
+              IdeaEstimate.EMPTY_ESTIMATE,
+              null,
+              null));
+    }
+    return keywords;
+  }
+
+  /**
+   * A mock traffic estimator, counting the number of keywords it was asked for.
+   */
+  private static class CountingTrafficEstimator implements TrafficEstimator {
+    private final AtomicInteger keywordCount = new AtomicInteger();
+
+    @Override
+    public KeywordCollection estimate(KeywordCollection keywords) {
+      KeywordCollection estimates = new KeywordCollection(keywords.getCampaignConfiguration());
+
+      for (KeywordInfo keyword : keywords) {
+        keywordCount.incrementAndGet();
+        TrafficEstimate te = new TrafficEstimate(new StatsEstimate(), new StatsEstimate());
+        estimates.add(new KeywordInfo(keyword.getKeyword(), keyword.getIdeaEstimate(), te, null));
+      }
+
+      return estimates;
+    }
+  }
+}
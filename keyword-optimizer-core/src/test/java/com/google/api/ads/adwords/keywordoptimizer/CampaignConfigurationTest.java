@@ -0,0 +1,81 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import com.google.api.ads.adwords.axis.v201809.cm.Location;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test cases for the {@link CampaignConfiguration} class.
+ */
+@RunWith(JUnit4.class)
+public class CampaignConfigurationTest {
+
+  /**
+   * Check that the canonical string describes all settings, independent of the criteria order.
+   */
+  @Test
+  public void checkCanonicalString() {
+    CampaignConfiguration newYorkEnglish =
+        CampaignConfiguration.builder()
+            .withMaxCpc(KeywordOptimizerUtil.createMoney(1000000L))
+            .withLocation(1023191L)
+            .withLanguage(1000L)
+            .withBidGridCpc(KeywordOptimizerUtil.createMoney(2000000L))
+            .withBidGridCpc(KeywordOptimizerUtil.createMoney(500000L))
+            .build();
+    CampaignConfiguration englishNewYork =
+        CampaignConfiguration.builder()
+            .withMaxCpc(KeywordOptimizerUtil.createMoney(1000000L))
+            .withLanguage(1000L)
+            .withLocation(1023191L)
+            .withBidGridCpc(KeywordOptimizerUtil.createMoney(2000000L))
+            .withBidGridCpc(KeywordOptimizerUtil.createMoney(500000L))
+            .build();
+
+    assertEquals(
+        "maxCpc=1000000;criteria=Language:1000,Location:1023191;bidGrid=2000000,500000",
+        newYorkEnglish.getCanonicalString());
+    assertEquals(newYorkEnglish.getCanonicalString(), englishNewYork.getCanonicalString());
+    assertEquals(newYorkEnglish.getFingerprint(), englishNewYork.getFingerprint());
+
+    CampaignConfiguration newYork =
+        CampaignConfiguration.builder()
+            .withMaxCpc(KeywordOptimizerUtil.createMoney(1000000L))
+            .withLocation(1023191L)
+            .build();
+    assertEquals("maxCpc=1000000;criteria=Location:1023191;bidGrid=", newYork.getCanonicalString());
+    assertNotEquals(newYorkEnglish.getFingerprint(), newYork.getFingerprint());
+  }
+
+  /**
+   * Check that criteria without an id are rejected, as they cannot be told apart.
+   */
+  @Test
+  public void checkCriterionWithoutIdRejected() {
+    try {
+      CampaignConfiguration.builder().withCriterion(new Location());
+      fail("Expected the criterion to be rejected");
+    } catch (IllegalArgumentException e) {
+      assertEquals("Additional criteria must have an id", e.getMessage());
+    }
+  }
+}
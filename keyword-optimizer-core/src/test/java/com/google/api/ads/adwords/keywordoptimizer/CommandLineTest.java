@@ -15,6 +15,7 @@
 package com.google.api.ads.adwords.keywordoptimizer;
 
 import static org.hamcrest.core.Is.isA;
+import static org.junit.Assert.assertEquals;
 
 import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.UnrecognizedOptionException;
@@ -103,4 +104,26 @@ public class CommandLineTest {
     KeywordOptimizer.run(
         "-kp keyword-optimizer.properties -ap ads.properties -cpc 1.0 -m EXACT -sk plumber -o ABC");
   }
+
+  /**
+   * Checks if rescoring with a bid grid throws an exception (bid landscapes are not stored).
+   */
+  @Test
+  public void checkRescoreWithBidGrid() throws KeywordOptimizerException {
+    thrown.expect(KeywordOptimizerException.class);
+    thrown.expectMessage("option -bg cannot be used for rescoring");
+    KeywordOptimizer.run(
+        "-kp keyword-optimizer.properties -ap ads.properties -cpc 1.0 "
+            + "-rf bid1.mean.clicksPerDay -m EXACT PHRASE BROAD -o CONSOLE -bg 0.5");
+  }
+
+  /**
+   * Checks the output file names used when rescoring under several formulas.
+   */
+  @Test
+  public void checkIndexedFileName() {
+    assertEquals("results-2.csv", KeywordOptimizer.getIndexedFileName("results.csv", 2));
+    assertEquals("results-1", KeywordOptimizer.getIndexedFileName("results", 1));
+    assertEquals(".results-1", KeywordOptimizer.getIndexedFileName(".results", 1));
+  }
 }
@@ -15,12 +15,18 @@
 package com.google.api.ads.adwords.keywordoptimizer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.google.api.ads.adwords.axis.v201809.cm.Keyword;
 import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
 import com.google.api.ads.adwords.axis.v201809.cm.Money;
 import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -156,6 +162,113 @@ public class EvaluatorTest {
     assertEquals(1500D, evaluations.getAverageScore(), 0);
   }
 
+  /**
+   * Checks that scores calculated in parallel are the same as the ones calculated sequentially,
+   * and that the keywords are added in the same order.
+   */
+  @Test
+  public void checkParallelScoring() throws Exception {
+    KeywordCollection manyKeywords = new KeywordCollection(keywords.getCampaignConfiguration());
+    for (int i = 0; i < 2000; i++) {
+      manyKeywords.add(
+          new KeywordInfo(
+              KeywordOptimizerUtil.createKeyword("plumbing " + i, KeywordMatchType.EXACT),
+              IdeaEstimate.EMPTY_ESTIMATE,
+              null,
+              null));
+    }
+    final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    ScoreCalculator clicksCalculator =
+        estimate -> {
+          threads.add(Thread.currentThread());
+          return estimate.getMean().getClicksPerDay();
+        };
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      Evaluator parallelEvaluator =
+          new EstimatorBasedEvaluator(new MockTrafficEstimator(), clicksCalculator, pool);
+      KeywordCollection sequential =
+          new EstimatorBasedEvaluator(new MockTrafficEstimator(), clicksCalculator)
+              .evaluate(manyKeywords);
+      KeywordCollection parallel = parallelEvaluator.evaluate(manyKeywords);
+      KeywordCollection parallelAsync =
+          ((AsyncEvaluator) parallelEvaluator).evaluateAsync(manyKeywords).get();
+
+      assertEquals(2000, parallel.size());
+      assertEquals(sequential.toString(), parallel.toString());
+      assertEquals(sequential.toString(), parallelAsync.toString());
+      assertTrue(threads.remove(Thread.currentThread()));
+      assertFalse(threads.isEmpty());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Checks that an error calculating a score in parallel is reported.
+   */
+  @Test
+  public void checkParallelScoringFailure() throws Exception {
+    KeywordCollection manyKeywords = new KeywordCollection(keywords.getCampaignConfiguration());
+    for (int i = 0; i < 1000; i++) {
+      manyKeywords.add(
+          new KeywordInfo(
+              KeywordOptimizerUtil.createKeyword("plumbing " + i, KeywordMatchType.EXACT),
+              IdeaEstimate.EMPTY_ESTIMATE,
+              null,
+              null));
+    }
+    ScoreCalculator failingCalculator =
+        estimate -> {
+          throw new KeywordOptimizerException("Cannot calculate score");
+        };
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      new EstimatorBasedEvaluator(new MockTrafficEstimator(), failingCalculator, pool)
+          .evaluate(manyKeywords);
+      fail("Expected the scoring to fail");
+    } catch (KeywordOptimizerException e) {
+      assertEquals("Cannot calculate score", e.getMessage());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Checks that scores calculated at once by default take the {@link IdeaEstimate}s into account,
+   * like the scores of single keywords.
+   */
+  @Test
+  public void checkCalculateAllUsesIdeaEstimates() throws KeywordOptimizerException {
+    ScoreCalculator calculator =
+        new ScoreCalculator() {
+          @Override
+          public double calculate(TrafficEstimate estimate) {
+            return estimate.getMean().getClicksPerDay();
+          }
+
+          @Override
+          public double calculate(IdeaEstimate ideaEstimate, TrafficEstimate trafficEstimate) {
+            return ideaEstimate.getSearchVolume() + calculate(trafficEstimate);
+          }
+        };
+    IdeaEstimate ideaEstimate =
+        new IdeaEstimate(0.5, 100L, KeywordOptimizerUtil.createMoney(1000000L), null);
+    TrafficEstimate trafficEstimate = new TrafficEstimate(minStats, maxStats);
+    KeywordInfo keyword = new KeywordInfo(plumbing, ideaEstimate, trafficEstimate, null);
+
+    double[] scores =
+        calculator.calculateAll(
+            new EstimateColumns(
+                Collections.singletonList(trafficEstimate),
+                Collections.singletonList(ideaEstimate)));
+
+    assertEquals(115D, calculator.calculate(keyword), 0);
+    assertEquals(115D, scores[0], 0);
+  }
+
   /**
    * A mock traffic estimator, always returning the previously setup stats.
    */
@@ -15,6 +15,8 @@
 package com.google.api.ads.adwords.keywordoptimizer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import com.google.api.ads.adwords.axis.v201809.cm.Keyword;
@@ -22,7 +24,10 @@ import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
 import com.google.api.ads.adwords.axis.v201809.cm.Money;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -139,4 +144,136 @@ public class KeywordCollectionScoreTest {
   public void checkAverage() {
     assertEquals(2.5D, keywords.getAverageScore(), 0.001);
   }
+
+  /**
+   * Check that the score statistics are maintained as keywords are added and replaced.
+   */
+  @Test
+  public void checkScoreStatistics() {
+    // Scores 4, 1, 3, 2.
+    assertEquals(4, keywords.getScoredCount());
+    assertEquals(1.25D, keywords.getScoreVariance(), 0.001);
+    assertEquals(1D, keywords.getMinScore(), 0);
+    assertEquals(4D, keywords.getMaxScore(), 0);
+
+    // Scores 4, 5, 3, 2.
+    keywords.add(new KeywordInfo(beta, null, null, 5d));
+    assertEquals(3.5D, keywords.getAverageScore(), 0.001);
+    assertEquals(1.25D, keywords.getScoreVariance(), 0.001);
+    assertEquals(2D, keywords.getMinScore(), 0);
+    assertEquals(5D, keywords.getMaxScore(), 0);
+
+    // Scores 4, 5, 3 and one unscored keyword.
+    keywords.add(new KeywordInfo(betaBroad, null, null, null));
+    assertEquals(3, keywords.getScoredCount());
+    assertEquals(3D, keywords.getAverageScore(), 0.001);
+    assertEquals(2D / 3, keywords.getScoreVariance(), 0.001);
+    assertEquals(3D, keywords.getMinScore(), 0);
+    assertEquals(5D, keywords.getMaxScore(), 0);
+  }
+
+  /**
+   * Check that the score statistics of a collection without scores are empty.
+   */
+  @Test
+  public void checkEmptyScoreStatistics() {
+    KeywordCollection unscored = new KeywordCollection(keywords.getCampaignConfiguration());
+    unscored.add(new KeywordInfo(alpha, null, null, null));
+
+    assertEquals(0, unscored.getScoredCount());
+    assertEquals(0D, unscored.getAverageScore(), 0);
+    assertEquals(0D, unscored.getScoreVariance(), 0);
+    assertNull(unscored.getMinScore());
+    assertNull(unscored.getMaxScore());
+  }
+
+  /**
+   * Check sorting, extracting the best keywords and the score statistics of a large population with
+   * duplicates, replaced and unscored keywords against a straightforward calculation.
+   */
+  @Test
+  public void checkLargePopulation() {
+    Random random = new Random(42);
+    KeywordCollection population = new KeywordCollection(keywords.getCampaignConfiguration());
+    List<KeywordInfo> expected = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      int index = random.nextInt(4000);
+      Keyword keyword = KeywordOptimizerUtil.createKeyword(
+          "keyword " + index, index % 2 == 0 ? KeywordMatchType.EXACT : KeywordMatchType.BROAD);
+      // Scores are rounded to get some equal scores.
+      Double score = random.nextInt(10) == 0 ? null : Math.floor(random.nextDouble() * 100);
+      KeywordInfo info = new KeywordInfo(keyword, null, null, score);
+
+      population.add(info);
+      expected.removeIf(existing -> existing.getKeyword().equals(keyword));
+      expected.add(info);
+    }
+
+    assertEquals(expected.size(), population.size());
+    List<KeywordInfo> scoredInfos = new ArrayList<>();
+    double sum = 0;
+    for (KeywordInfo info : expected) {
+      assertTrue(population.contains(info.getKeyword()));
+      if (info.hasScore()) {
+        scoredInfos.add(info);
+        sum += info.getScore();
+      }
+    }
+    assertFalse(population.contains(
+        KeywordOptimizerUtil.createKeyword("keyword 1", KeywordMatchType.EXACT)));
+
+    Ordering<KeywordInfo> byScore = Ordering.from(new ScoreComparator());
+    List<KeywordInfo> sorted = population.getListSortedByScore();
+    assertEquals(expected.size(), sorted.size());
+    for (int i = 1; i < scoredInfos.size(); i++) {
+      assertTrue(sorted.get(i - 1).getScore() >= sorted.get(i).getScore());
+    }
+    for (int i = scoredInfos.size(); i < sorted.size(); i++) {
+      assertFalse(sorted.get(i).hasScore());
+    }
+    assertEquals(sorted.subList(0, 100), ImmutableList.copyOf(population.getBest(100)));
+
+    assertEquals(scoredInfos.size(), population.getScoredCount());
+    assertEquals(sum / expected.size(), population.getAverageScore(), 1e-9);
+    assertEquals(byScore.max(scoredInfos).getScore(), population.getMaxScore());
+    assertEquals(byScore.min(scoredInfos).getScore(), population.getMinScore());
+  }
+
+  /**
+   * Check that the score index is updated if a keyword is replaced.
+   */
+  @Test
+  public void checkReplacedKeyword() {
+    KeywordInfo betterBetaInfo = new KeywordInfo(beta, null, null, 5d);
+    keywords.add(betterBetaInfo);
+
+    assertEquals(4, keywords.size());
+    assertEquals(
+        ImmutableList.of(betterBetaInfo, gammaInfo, alphaInfo, betaBroadInfo),
+        keywords.getListSortedByScore());
+    assertTrue(Iterables.elementsEqual(keywords.getBest(1), ImmutableList.of(betterBetaInfo)));
+  }
+
+  /**
+   * Check that keywords without a score are sorted last and that keywords with the same score are
+   * sorted in the order they were added.
+   */
+  @Test
+  public void checkUnscoredAndEqualScores() {
+    Keyword delta = new Keyword();
+    delta.setText("delta");
+    delta.setMatchType(KeywordMatchType.EXACT);
+    KeywordInfo deltaInfo = new KeywordInfo(delta, null, null, null);
+    Keyword epsilon = new Keyword();
+    epsilon.setText("epsilon");
+    epsilon.setMatchType(KeywordMatchType.EXACT);
+    KeywordInfo epsilonInfo = new KeywordInfo(epsilon, null, null, 4d);
+
+    keywords.add(deltaInfo);
+    keywords.add(epsilonInfo);
+
+    assertEquals(
+        ImmutableList.of(gammaInfo, epsilonInfo, alphaInfo, betaBroadInfo, betaInfo, deltaInfo),
+        keywords.getListSortedByScore());
+  }
 }
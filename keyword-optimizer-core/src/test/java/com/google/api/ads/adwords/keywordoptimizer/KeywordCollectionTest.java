@@ -15,14 +15,23 @@
 package com.google.api.ads.adwords.keywordoptimizer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.google.api.ads.adwords.axis.v201809.cm.Keyword;
 import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
 import com.google.api.ads.adwords.axis.v201809.cm.Language;
 import com.google.api.ads.adwords.axis.v201809.cm.Location;
 import com.google.api.ads.adwords.axis.v201809.cm.Money;
+import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.Metric;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.Statistics;
+import com.google.common.collect.ImmutableList;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -96,6 +105,25 @@ public class KeywordCollectionTest {
     assertEquals(3, keywords.size());
   }
 
+  /**
+   * Check that keywords are found by equal texts and read back sharing the stored text.
+   */
+  @Test
+  public void checkContainsEqualKeywords() {
+    Keyword copy =
+        KeywordOptimizerUtil.createKeyword(new String("plumbing"), KeywordMatchType.EXACT);
+    assertTrue(keywords.contains(copy));
+    assertFalse(
+        keywords.contains(KeywordOptimizerUtil.createKeyword("plumbing", KeywordMatchType.PHRASE)));
+
+    KeywordId added = new KeywordInfo(copy, null, null, null).getKeywordId();
+    for (KeywordInfo info : keywords) {
+      if (info.getKeywordId().equals(added)) {
+        assertSame(added.getText(), info.getKeywordId().getText());
+      }
+    }
+  }
+
   /**
    * Check all keyword texts are in there.
    */
@@ -141,6 +169,117 @@ public class KeywordCollectionTest {
     assertEquals(3, keywords.size());
   }
 
+  /**
+   * Check that keywords read from the columns equal the ones added, including their estimates.
+   */
+  @Test
+  public void checkColumnsRoundTrip() {
+    StatsEstimate min = new StatsEstimate();
+    min.setClicksPerDay(10F);
+    min.setTotalCost(KeywordOptimizerUtil.createMoney(1234567L));
+    StatsEstimate max = new StatsEstimate();
+    max.setClicksPerDay(20F);
+    TrafficEstimate trafficEstimate =
+        new TrafficEstimate(min, max, ImmutableList.of(new TrafficEstimate(min, max)));
+    KeywordInfo info =
+        new KeywordInfo(plumbingSpecialist, IdeaEstimate.EMPTY_ESTIMATE, trafficEstimate, 2d);
+    keywords.add(info);
+
+    KeywordInfo stored = keywords.getBest(1).iterator().next();
+    assertEquals(info, stored);
+    assertEquals(plumbingSpecialist, stored.getKeyword());
+    assertSame(IdeaEstimate.EMPTY_ESTIMATE, stored.getIdeaEstimate());
+    assertEquals(15D, stored.getTrafficEstimate().getMean().getClicksPerDay(), 0);
+    assertEquals(
+        1234567L, stored.getTrafficEstimate().getMin().getTotalCost().getMicroAmount().longValue());
+    assertEquals(1, stored.getTrafficEstimate().getBidLandscape().size());
+
+    // Replacing the keyword without estimate clears the estimate.
+    keywords.add(new KeywordInfo(plumbingSpecialist, null, null, 1d));
+    assertEquals(3, keywords.size());
+    assertFalse(keywords.getBest(1).iterator().next().hasEstimate());
+  }
+
+  /**
+   * Check that the column accessors read the same values as the {@link KeywordInfo}s, in iteration
+   * order, and that keywords are merged from another collection by position.
+   */
+  @Test
+  public void checkColumnAccessors() {
+    StatsEstimate min = new StatsEstimate();
+    min.setClicksPerDay(10F);
+    min.setTotalCost(KeywordOptimizerUtil.createMoney(1234567L));
+    StatsEstimate max = new StatsEstimate();
+    max.setClicksPerDay(20F);
+    keywords.add(new KeywordInfo(plumbingSpecialist, null, new TrafficEstimate(min, max), 2d));
+    keywords.add(new KeywordInfo(plumbing, null, null, 1d));
+
+    int index = 0;
+    for (KeywordInfo info : keywords) {
+      assertEquals(info.getKeyword().getText(), keywords.getText(index));
+      assertEquals(info.getKeyword().getMatchType(), keywords.getMatchType(index));
+      assertEquals(info.hasScore(), keywords.hasScore(index));
+      for (Statistics statistics : Statistics.values()) {
+        for (Metric metric : Metric.values()) {
+          double expected =
+              info.hasEstimate()
+                  ? info.getTrafficEstimate().getValue(statistics, metric)
+                  : Double.NaN;
+          assertEquals(expected, keywords.getValue(index, statistics, metric), 0);
+        }
+      }
+      index++;
+    }
+    assertEquals(2d, keywords.getScore(0), 0);
+    assertEquals(1.234567, keywords.getValue(0, Statistics.MIN, Metric.TOTAL_COST), 0);
+    assertTrue(Double.isNaN(keywords.getScore(2)));
+
+    KeywordCollection merged = new KeywordCollection(campaignSettings);
+    assertFalse(merged.contains(keywords, 0));
+    merged.add(keywords, 0);
+    assertTrue(merged.contains(keywords, 0));
+    assertEquals(keywords.getBest(1).iterator().next(), merged.iterator().next());
+  }
+
+  /**
+   * Check that all keywords are found while the table of rows grows.
+   */
+  @Test
+  public void checkManyKeywords() {
+    for (int i = 0; i < 100; i++) {
+      keywords.add(
+          new KeywordInfo(
+              KeywordOptimizerUtil.createKeyword("plumbing " + i, KeywordMatchType.PHRASE),
+              null,
+              null,
+              null));
+      for (int j = 0; j <= i; j++) {
+        assertTrue(
+            keywords.contains(
+                KeywordOptimizerUtil.createKeyword("plumbing " + j, KeywordMatchType.PHRASE)));
+      }
+    }
+    assertEquals(103, keywords.size());
+    assertEquals(102, keywords.getContainingKeywordTexts().size());
+  }
+
+  /**
+   * Check that iterators fail once the collection is modified, also by replacing a keyword.
+   */
+  @Test
+  public void checkModificationWhileIterating() {
+    Iterator<KeywordInfo> iterator = keywords.iterator();
+    iterator.next();
+    keywords.add(new KeywordInfo(plumbing, null, null, 1d));
+
+    try {
+      iterator.next();
+      fail("Expected a ConcurrentModificationException");
+    } catch (ConcurrentModificationException e) {
+      // Expected.
+    }
+  }
+
   @Test
   public void averageZeroNotDivideByZero() {
     KeywordCollection collection = new KeywordCollection(campaignSettings);
@@ -0,0 +1,105 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.api.ads.adwords.axis.v201809.cm.Keyword;
+import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test cases for the {@link KeywordId} class.
+ */
+@RunWith(JUnit4.class)
+public class KeywordIdTest {
+
+  /**
+   * Check that keywords are identified by their text and match type only.
+   */
+  @Test
+  public void checkEquality() {
+    Keyword keyword = KeywordOptimizerUtil.createKeyword("plumbing", KeywordMatchType.EXACT);
+    keyword.setId(123L);
+    KeywordId id = KeywordId.of(keyword);
+
+    assertEquals(KeywordId.of("plumbing", KeywordMatchType.EXACT), id);
+    assertEquals(KeywordId.of("plumbing", KeywordMatchType.EXACT).hashCode(), id.hashCode());
+    assertNotEquals(KeywordId.of("plumbing", KeywordMatchType.BROAD), id);
+    assertNotEquals(KeywordId.of("plumber", KeywordMatchType.EXACT), id);
+  }
+
+  /**
+   * Check that equal texts share the same instance.
+   */
+  @Test
+  public void checkInternedText() {
+    KeywordId exact = KeywordId.of(new String("plumbing"), KeywordMatchType.EXACT);
+    KeywordId phrase = KeywordId.of(new String("plumbing"), KeywordMatchType.PHRASE);
+
+    assertSame(exact.getText(), phrase.getText());
+  }
+
+  /**
+   * Check that match types are mapped to and from their ordinal.
+   */
+  @Test
+  public void checkMatchTypeOrdinal() {
+    for (KeywordMatchType matchType :
+        new KeywordMatchType[] {
+          KeywordMatchType.EXACT, KeywordMatchType.PHRASE, KeywordMatchType.BROAD
+        }) {
+      KeywordId id = KeywordId.of("plumbing", matchType);
+
+      assertEquals(matchType, id.getMatchType());
+      assertEquals(id, KeywordId.of("plumbing", id.getMatchTypeOrdinal()));
+      assertEquals(
+          KeywordOptimizerUtil.createKeyword("plumbing", matchType), id.toKeyword());
+    }
+  }
+
+  /**
+   * Check that keywords given by their id create their {@link Keyword} only once asked for, and
+   * that copies with scores keep both.
+   */
+  @Test
+  public void checkKeywordInfoFromId() {
+    KeywordId id = KeywordId.of("plumbing", KeywordMatchType.PHRASE);
+    KeywordInfo info = new KeywordInfo(id, IdeaEstimate.EMPTY_ESTIMATE, null, null);
+
+    assertSame(id, info.getKeywordId());
+    Keyword keyword = info.getKeyword();
+    assertEquals(KeywordOptimizerUtil.createKeyword("plumbing", KeywordMatchType.PHRASE), keyword);
+    assertSame(keyword, info.getKeyword());
+
+    KeywordInfo scored = info.withScore(1d);
+    assertSame(id, scored.getKeywordId());
+    assertSame(keyword, scored.getKeyword());
+    assertEquals(1d, scored.getScore(), 0);
+  }
+
+  /**
+   * Check that unknown match type ordinals are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void checkUnknownMatchTypeOrdinal() {
+    KeywordId.of("plumbing", 3);
+  }
+}
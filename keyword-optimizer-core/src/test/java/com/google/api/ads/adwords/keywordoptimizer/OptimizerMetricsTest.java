@@ -0,0 +1,145 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.ads.adwords.axis.v201809.cm.ApiException;
+import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
+import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaPage;
+import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaSelector;
+import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaServiceInterface;
+import com.google.common.collect.ImmutableSet;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test case for the {@link OptimizerMetrics} class.
+ */
+@RunWith(JUnit4.class)
+public class OptimizerMetricsTest {
+
+  /**
+   * Checks that the optimizer records all phases and rounds.
+   */
+  @Test
+  public void checkOptimizerRecorded() throws KeywordOptimizerException {
+    CampaignConfiguration campaignSettings = CampaignConfiguration.builder().build();
+    SimpleSeedGenerator seedGenerator =
+        new SimpleSeedGenerator(ImmutableSet.of(KeywordMatchType.EXACT), campaignSettings);
+    seedGenerator.addKeyword("plumbing");
+    seedGenerator.addKeyword("plumber");
+
+    Optimizer optimizer =
+        new Optimizer(
+            seedGenerator,
+            keywords -> {
+              KeywordCollection alternatives =
+                  new KeywordCollection(keywords.getCampaignConfiguration());
+              for (String text : keywords.getContainingKeywordTexts()) {
+                alternatives.add(createInfo(text + " services", null));
+              }
+              return alternatives;
+            },
+            keywords -> {
+              KeywordCollection evaluations =
+                  new KeywordCollection(keywords.getCampaignConfiguration());
+              for (KeywordInfo keyword : keywords) {
+                evaluations.add(
+                    createInfo(keyword.getKeyword().getText(), (double) evaluations.size()));
+              }
+              return evaluations;
+            },
+            new DefaultRoundStrategy(2, null, 100, 10));
+    optimizer.optimize();
+
+    OptimizerMetrics metrics = optimizer.getMetrics();
+    assertEquals(1, metrics.getCallCount(OptimizerMetrics.Phase.SEED_GENERATION));
+    assertEquals(2, metrics.getCount(OptimizerMetrics.Counter.SEED_KEYWORDS));
+    assertEquals(2, metrics.getCallCount(OptimizerMetrics.Phase.ALTERNATIVES));
+    assertEquals(3, metrics.getCallCount(OptimizerMetrics.Phase.EVALUATION));
+    assertEquals(6, metrics.getCount(OptimizerMetrics.Counter.ALTERNATIVES));
+    assertEquals(8, metrics.getCount(OptimizerMetrics.Counter.KEYWORDS_EVALUATED));
+
+    List<OptimizerMetrics.Round> rounds = metrics.getRounds();
+    assertEquals(3, rounds.size());
+    assertEquals(0, rounds.get(0).getStep());
+    assertEquals(2, rounds.get(0).getPopulationSize());
+    assertEquals(6, rounds.get(2).getPopulationSize());
+  }
+
+  /**
+   * Checks that calls of service objects are recorded, including failed ones.
+   */
+  @Test
+  public void checkServiceCallsRecorded() throws Exception {
+    OptimizerMetrics metrics = new OptimizerMetrics();
+    TargetingIdeaServiceInterface tis =
+        metrics.instrument(
+            TargetingIdeaServiceInterface.class,
+            new TargetingIdeaServiceInterface() {
+              private int calls;
+
+              @Override
+              public TargetingIdeaPage get(TargetingIdeaSelector selector) throws ApiException {
+                if (++calls > 1) {
+                  throw new ApiException();
+                }
+                return new TargetingIdeaPage();
+              }
+            },
+            OptimizerMetrics.Phase.TIS_REQUEST);
+
+    tis.get(new TargetingIdeaSelector());
+    try {
+      tis.get(new TargetingIdeaSelector());
+      fail("Expected the call to fail");
+    } catch (ApiException e) {
+      // Expected, the original exception is passed on.
+    }
+
+    assertEquals(2, metrics.getCallCount(OptimizerMetrics.Phase.TIS_REQUEST));
+    assertEquals(0, metrics.getCallCount(OptimizerMetrics.Phase.TES_REQUEST));
+  }
+
+  /**
+   * Checks the JSON summary.
+   */
+  @Test
+  public void checkJson() {
+    OptimizerMetrics metrics = new OptimizerMetrics();
+    metrics.increment(OptimizerMetrics.Counter.KEYWORDS_EVALUATED, 42);
+    metrics.startRound(0).finish(new KeywordCollection(CampaignConfiguration.builder().build()));
+
+    String json = metrics.toJson();
+    assertTrue(json, json.startsWith("{\"phases\":{\"seedGeneration\":{\"calls\":0,"));
+    assertTrue(json, json.contains("\"keywordsEvaluated\":42"));
+    assertTrue(json, json.contains("\"estimateCacheHitRate\":null"));
+    assertTrue(json, json.contains("\"rounds\":[{\"step\":0,"));
+    assertTrue(json, json.endsWith("\"populationSize\":0,\"averageScore\":0.0}]}"));
+  }
+
+  private static KeywordInfo createInfo(String text, Double score) {
+    return new KeywordInfo(
+        KeywordOptimizerUtil.createKeyword(text, KeywordMatchType.EXACT),
+        IdeaEstimate.EMPTY_ESTIMATE,
+        null,
+        score);
+  }
+}
@@ -0,0 +1,281 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.ads.adwords.axis.v201809.cm.Keyword;
+import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
+import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test case for the {@link PersistentCachedEstimator} class.
+ */
+@RunWith(JUnit4.class)
+public class PersistentCachedEstimatorTest {
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+  private CampaignConfiguration campaignSettings;
+  private KeywordCollection keywords;
+  private MockTrafficEstimator mockEstimator;
+
+  /**
+   * Setup some sample keywords.
+   */
+  @Before
+  public void setUp() throws IOException {
+    file = new File(folder.getRoot(), "estimates.bin");
+
+    campaignSettings =
+        CampaignConfiguration.builder()
+            .withMaxCpc(KeywordOptimizerUtil.createMoney(1000000L))
+            .withLocation(1023191L)
+            .withLanguage(1000L)
+            .build();
+
+    keywords = new KeywordCollection(campaignSettings);
+    keywords.add(createInfo("plumbing", KeywordMatchType.EXACT));
+    keywords.add(createInfo("plumbing", KeywordMatchType.BROAD));
+    keywords.add(createInfo("plumbing specialist", KeywordMatchType.PHRASE));
+
+    mockEstimator = new MockTrafficEstimator();
+  }
+
+  /**
+   * Checks that estimates are read back from the file after reopening it.
+   */
+  @Test
+  public void checkEstimatesSurviveReopening() throws Exception {
+    try (PersistentCachedEstimator estimator =
+        new PersistentCachedEstimator(mockEstimator, file, 1, TimeUnit.HOURS)) {
+      estimator.estimate(keywords);
+    }
+    assertEquals(3, mockEstimator.keywordCount);
+
+    KeywordCollection estimates;
+    try (PersistentCachedEstimator estimator =
+        new PersistentCachedEstimator(mockEstimator, file, 1, TimeUnit.HOURS)) {
+      estimates = estimator.estimate(keywords);
+    }
+    assertEquals(3, mockEstimator.keywordCount);
+    assertEquals(3, estimates.size());
+
+    for (KeywordInfo estimate : estimates) {
+      StatsEstimate min = estimate.getTrafficEstimate().getMin();
+      StatsEstimate max = estimate.getTrafficEstimate().getMax();
+      assertEquals(10F, min.getClicksPerDay(), 0);
+      assertEquals(0.01, min.getClickThroughRate(), 0);
+      assertEquals(500000L, min.getAverageCpc().getMicroAmount().longValue());
+      assertNull(min.getAveragePosition());
+      assertEquals(20F, max.getClicksPerDay(), 0);
+      assertEquals(15F, estimate.getTrafficEstimate().getMean().getClicksPerDay(), 0);
+    }
+  }
+
+  /**
+   * Checks that estimates for a different campaign configuration are not reused.
+   */
+  @Test
+  public void checkDifferentConfigurationRetrieved() throws Exception {
+    CampaignConfiguration otherSettings =
+        CampaignConfiguration.builder()
+            .withMaxCpc(KeywordOptimizerUtil.createMoney(2000000L))
+            .withLocation(1023191L)
+            .withLanguage(1000L)
+            .build();
+    KeywordCollection otherKeywords = new KeywordCollection(otherSettings);
+    otherKeywords.add(createInfo("plumbing", KeywordMatchType.EXACT));
+
+    try (PersistentCachedEstimator estimator =
+        new PersistentCachedEstimator(mockEstimator, file, 1, TimeUnit.HOURS)) {
+      estimator.estimate(keywords);
+      estimator.estimate(otherKeywords);
+    }
+    assertEquals(4, mockEstimator.keywordCount);
+  }
+
+  /**
+   * Checks that expired estimates are retrieved again.
+   */
+  @Test
+  public void checkExpiredEstimatesRetrieved() throws Exception {
+    try (PersistentCachedEstimator estimator =
+        new PersistentCachedEstimator(mockEstimator, file, -1, TimeUnit.MILLISECONDS)) {
+      estimator.estimate(keywords);
+      estimator.estimate(keywords);
+    }
+    assertEquals(6, mockEstimator.keywordCount);
+  }
+
+  /**
+   * Checks that stored estimates of the given campaign configuration are returned even if expired.
+   */
+  @Test
+  public void checkStoredEstimates() throws Exception {
+    CampaignConfiguration otherSettings =
+        CampaignConfiguration.builder()
+            .withMaxCpc(KeywordOptimizerUtil.createMoney(2000000L))
+            .withLocation(1023191L)
+            .withLanguage(1000L)
+            .build();
+    KeywordCollection otherKeywords = new KeywordCollection(otherSettings);
+    otherKeywords.add(createInfo("plumber", KeywordMatchType.EXACT));
+
+    try (PersistentCachedEstimator estimator =
+        new PersistentCachedEstimator(mockEstimator, file, 1, TimeUnit.HOURS)) {
+      estimator.estimate(keywords);
+      estimator.estimate(otherKeywords);
+    }
+
+    KeywordCollection estimates;
+    try (PersistentCachedEstimator estimator =
+        new PersistentCachedEstimator(mockEstimator, file, -1, TimeUnit.MILLISECONDS)) {
+      estimates = estimator.getStoredEstimates(campaignSettings);
+    }
+    assertEquals(4, mockEstimator.keywordCount);
+    assertEquals(3, estimates.size());
+    assertTrue(estimates.contains(keywords.iterator().next().getKeyword()));
+
+    for (KeywordInfo estimate : estimates) {
+      assertNull(estimate.getScore());
+      assertEquals(10F, estimate.getTrafficEstimate().getMin().getClicksPerDay(), 0);
+      assertEquals(15F, estimate.getTrafficEstimate().getMean().getClicksPerDay(), 0);
+    }
+  }
+
+  /**
+   * Checks that estimates are neither read nor written for a configuration whose fingerprint was
+   * stored for a different configuration.
+   */
+  @Test
+  public void checkFingerprintCollisionIgnored() throws Exception {
+    try (PersistentCachedEstimator estimator =
+        new PersistentCachedEstimator(mockEstimator, file, 1, TimeUnit.HOURS)) {
+      estimator.estimate(keywords);
+    }
+
+    // Make the stored configuration differ from the one with the same fingerprint.
+    byte[] content = Files.readAllBytes(file.toPath());
+    String stored = new String(content, StandardCharsets.ISO_8859_1);
+    int index = stored.indexOf(campaignSettings.getCanonicalString());
+    assertTrue(index > 0);
+    content[index + "maxCpc=".length()] = '9';
+    Files.write(file.toPath(), content);
+
+    KeywordCollection storedEstimates;
+    try (PersistentCachedEstimator estimator =
+        new PersistentCachedEstimator(mockEstimator, file, 1, TimeUnit.HOURS)) {
+      assertEquals(3, estimator.estimate(keywords).size());
+      assertEquals(3, estimator.estimate(keywords).size());
+      storedEstimates = estimator.getStoredEstimates(campaignSettings);
+    }
+    assertEquals(9, mockEstimator.keywordCount);
+    assertEquals(0, storedEstimates.size());
+  }
+
+  /**
+   * Checks that keywords without traffic estimates are returned, but not stored.
+   */
+  @Test
+  public void checkMissingEstimatesNotStored() throws Exception {
+    TrafficEstimator estimator =
+        keywords -> {
+          KeywordCollection estimates = mockEstimator.estimate(keywords);
+          estimates.add(createInfo("plumbing supplies", KeywordMatchType.EXACT));
+          return estimates;
+        };
+
+    try (PersistentCachedEstimator persistentEstimator =
+        new PersistentCachedEstimator(estimator, file, 1, TimeUnit.HOURS)) {
+      assertEquals(4, persistentEstimator.estimate(keywords).size());
+      assertEquals(3, persistentEstimator.getStoredEstimates(campaignSettings).size());
+    }
+  }
+
+  /**
+   * Checks that a file cannot be used by two estimators at the same time.
+   */
+  @Test
+  public void checkFileLocked() throws Exception {
+    try (PersistentCachedEstimator estimator =
+        new PersistentCachedEstimator(mockEstimator, file, 1, TimeUnit.HOURS)) {
+      try {
+        new PersistentCachedEstimator(mockEstimator, file, 1, TimeUnit.HOURS);
+        fail("Expected the file to be locked");
+      } catch (KeywordOptimizerException e) {
+        assertTrue(e.getMessage().contains("already in use"));
+      }
+      estimator.estimate(keywords);
+    }
+
+    // The lock is released on close.
+    try (PersistentCachedEstimator estimator =
+        new PersistentCachedEstimator(mockEstimator, file, 1, TimeUnit.HOURS)) {
+      assertEquals(3, estimator.getStoredEstimates(campaignSettings).size());
+    }
+  }
+
+  private KeywordInfo createInfo(String text, KeywordMatchType matchType) {
+    Keyword keyword = KeywordOptimizerUtil.createKeyword(text, matchType);
+    return new KeywordInfo(keyword, IdeaEstimate.EMPTY_ESTIMATE, null, null);
+  }
+
+  /**
+   * A mock traffic estimator, returning fixed stats and counting the estimated keywords.
+   */
+  private static class MockTrafficEstimator implements TrafficEstimator {
+    private int keywordCount;
+
+    @Override
+    public KeywordCollection estimate(KeywordCollection keywords) {
+      KeywordCollection estimates = new KeywordCollection(keywords.getCampaignConfiguration());
+
+      for (KeywordInfo keyword : keywords) {
+        keywordCount++;
+
+        StatsEstimate minStats = new StatsEstimate();
+        minStats.setClicksPerDay(10F);
+        minStats.setClickThroughRate(0.01);
+        minStats.setAverageCpc(KeywordOptimizerUtil.createMoney(500000L));
+
+        StatsEstimate maxStats = new StatsEstimate();
+        maxStats.setClicksPerDay(20F);
+        maxStats.setClickThroughRate(0.02);
+        maxStats.setAverageCpc(KeywordOptimizerUtil.createMoney(700000L));
+
+        TrafficEstimate te = new TrafficEstimate(minStats, maxStats);
+        estimates.add(new KeywordInfo(keyword.getKeyword(), keyword.getIdeaEstimate(), te, null));
+      }
+
+      return estimates;
+    }
+  }
+}
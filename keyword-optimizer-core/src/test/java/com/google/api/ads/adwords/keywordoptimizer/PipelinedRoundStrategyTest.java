@@ -0,0 +1,329 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test case for the {@link PipelinedRoundStrategy} class.
+ */
+@RunWith(JUnit4.class)
+public class PipelinedRoundStrategyTest {
+  private static final int MAXIMUM_POPULATION_SIZE = 1000;
+  private static final int MAXIMUM_ALTERNATIVES = 1;
+
+  private CampaignConfiguration campaignSettings;
+  private KeywordCollection seedKeywords;
+  private PagingAlternativesFinder alternativesFinder;
+  private LengthEvaluator evaluator;
+
+  /**
+   * Setup some sample keywords.
+   */
+  @Before
+  public void setUp() {
+    campaignSettings = CampaignConfiguration.builder().build();
+    seedKeywords = new KeywordCollection(campaignSettings);
+    seedKeywords.add(
+        new KeywordInfo(
+            KeywordOptimizerUtil.createKeyword("plumbing", KeywordMatchType.EXACT),
+            IdeaEstimate.EMPTY_ESTIMATE,
+            null,
+            1d));
+
+    alternativesFinder =
+        new PagingAlternativesFinder(
+            createKeywords("plumber", "plumbing"),
+            createKeywords("plumbing specialist", "plumbing services"),
+            createKeywords("emergency plumber"));
+    evaluator = new LengthEvaluator();
+  }
+
+  /**
+   * Checks that every page of alternatives is evaluated and merged separately.
+   */
+  @Test
+  public void checkPagesEvaluated() throws KeywordOptimizerException {
+    PipelinedRoundStrategy strategy =
+        new PipelinedRoundStrategy(2, null, MAXIMUM_POPULATION_SIZE, MAXIMUM_ALTERNATIVES);
+
+    KeywordCollection nextPopulation =
+        strategy.nextRound(seedKeywords, alternativesFinder, evaluator);
+
+    assertEquals(3, evaluator.evaluatedPages.size());
+    assertEquals(5, nextPopulation.size());
+    for (KeywordInfo keyword : nextPopulation) {
+      assertTrue(keyword.hasScore());
+    }
+  }
+
+  /**
+   * Checks that the next population is the same as the one of the {@link DefaultRoundStrategy}.
+   */
+  @Test
+  public void checkSamePopulationAsDefault() throws KeywordOptimizerException {
+    KeywordCollection pipelined =
+        new PipelinedRoundStrategy(2, null, 4, MAXIMUM_ALTERNATIVES)
+            .nextRound(seedKeywords, alternativesFinder, evaluator);
+    KeywordCollection sequential =
+        new DefaultRoundStrategy(2, null, 4, MAXIMUM_ALTERNATIVES)
+            .nextRound(seedKeywords, alternativesFinder, evaluator);
+
+    assertEquals(4, pipelined.size());
+    assertEquals(sequential.getKeywords(), pipelined.getKeywords());
+    assertEquals(sequential.getAverageScore(), pipelined.getAverageScore(), 0);
+  }
+
+  /**
+   * Checks that pages are merged in their order, even if later pages are evaluated first, so
+   * keywords with equal scores are kept like by the {@link DefaultRoundStrategy}.
+   */
+  @Test
+  public void checkPagesMergedInOrder() throws KeywordOptimizerException {
+    KeywordCollection pipelined =
+        new PipelinedRoundStrategy(2, null, 3, MAXIMUM_ALTERNATIVES)
+            .nextRound(seedKeywords, alternativesFinder, new ReversingEvaluator(3));
+    KeywordCollection sequential =
+        new DefaultRoundStrategy(2, null, 3, MAXIMUM_ALTERNATIVES)
+            .nextRound(seedKeywords, alternativesFinder, new ReversingEvaluator(3));
+
+    assertEquals(3, pipelined.size());
+    assertEquals(sequential.getKeywords(), pipelined.getKeywords());
+  }
+
+  /**
+   * Checks that a failed page evaluation is reported once the evaluations of all other pages are
+   * done, so none of them changes the population afterwards.
+   */
+  @Test
+  public void checkPageEvaluationFailure() {
+    DelayedEvaluator delayedEvaluator = new DelayedEvaluator("plumber");
+    try {
+      new PipelinedRoundStrategy(2, null, MAXIMUM_POPULATION_SIZE, MAXIMUM_ALTERNATIVES)
+          .nextRound(seedKeywords, alternativesFinder, delayedEvaluator);
+      fail("Expected the evaluation to fail");
+    } catch (KeywordOptimizerException e) {
+      assertEquals("Evaluation failed", e.getMessage());
+    }
+
+    assertEquals(3, delayedEvaluator.evaluations.size());
+    for (CompletableFuture<KeywordCollection> evaluation : delayedEvaluator.evaluations) {
+      assertTrue(evaluation.isDone());
+    }
+  }
+
+  /**
+   * Checks that a failed retrieval of alternatives is reported once the evaluations of the pages
+   * passed on before are done.
+   */
+  @Test
+  public void checkRetrievalFailure() {
+    PagingAlternativesFinder failingAlternativesFinder =
+        new PagingAlternativesFinder(
+            createKeywords("plumber", "plumbing"), createKeywords("plumbing specialist")) {
+          @Override
+          public CompletableFuture<KeywordCollection> deriveAsync(
+              KeywordCollection keywords, Consumer<KeywordCollection> partialResultConsumer) {
+            super.deriveAsync(keywords, partialResultConsumer);
+            CompletableFuture<KeywordCollection> result = new CompletableFuture<>();
+            result.completeExceptionally(new KeywordOptimizerException("Retrieval failed"));
+            return result;
+          }
+        };
+    DelayedEvaluator delayedEvaluator = new DelayedEvaluator(null);
+    try {
+      new PipelinedRoundStrategy(2, null, MAXIMUM_POPULATION_SIZE, MAXIMUM_ALTERNATIVES)
+          .nextRound(seedKeywords, failingAlternativesFinder, delayedEvaluator);
+      fail("Expected the retrieval to fail");
+    } catch (KeywordOptimizerException e) {
+      assertEquals("Retrieval failed", e.getMessage());
+    }
+
+    assertEquals(2, delayedEvaluator.evaluations.size());
+    for (CompletableFuture<KeywordCollection> evaluation : delayedEvaluator.evaluations) {
+      assertTrue(evaluation.isDone());
+    }
+  }
+
+  /**
+   * Creates a collection of exact match keywords with the given texts.
+   */
+  private KeywordCollection createKeywords(String... texts) {
+    KeywordCollection keywords = new KeywordCollection(campaignSettings);
+    for (String text : texts) {
+      keywords.add(
+          new KeywordInfo(
+              KeywordOptimizerUtil.createKeyword(text, KeywordMatchType.EXACT),
+              IdeaEstimate.EMPTY_ESTIMATE,
+              null,
+              null));
+    }
+    return keywords;
+  }
+
+  /**
+   * A mock alternatives finder, returning fixed pages of alternatives.
+   */
+  private static class PagingAlternativesFinder implements AsyncAlternativesFinder {
+    private final KeywordCollection[] pages;
+
+    private PagingAlternativesFinder(KeywordCollection... pages) {
+      this.pages = pages;
+    }
+
+    @Override
+    public KeywordCollection derive(KeywordCollection keywords) {
+      KeywordCollection alternatives = new KeywordCollection(keywords.getCampaignConfiguration());
+      for (KeywordCollection page : pages) {
+        for (KeywordInfo alternative : page) {
+          alternatives.add(alternative);
+        }
+      }
+      return alternatives;
+    }
+
+    @Override
+    public CompletableFuture<KeywordCollection> deriveAsync(KeywordCollection keywords) {
+      return CompletableFuture.completedFuture(derive(keywords));
+    }
+
+    @Override
+    public CompletableFuture<KeywordCollection> deriveAsync(
+        KeywordCollection keywords, Consumer<KeywordCollection> partialResultConsumer) {
+      for (KeywordCollection page : pages) {
+        partialResultConsumer.accept(page);
+      }
+      return deriveAsync(keywords);
+    }
+  }
+
+  /**
+   * A mock evaluator, scoring keywords by their text length and recording the evaluated pages.
+   */
+  private static class LengthEvaluator implements Evaluator {
+    private final List<KeywordCollection> evaluatedPages = new ArrayList<>();
+
+    @Override
+    public synchronized KeywordCollection evaluate(KeywordCollection keywords) {
+      evaluatedPages.add(keywords);
+
+      KeywordCollection evaluations = new KeywordCollection(keywords.getCampaignConfiguration());
+      for (KeywordInfo keyword : keywords) {
+        double score = keyword.getKeyword().getText().length();
+        evaluations.add(
+            new KeywordInfo(keyword.getKeyword(), keyword.getIdeaEstimate(), null, score));
+      }
+      return evaluations;
+    }
+  }
+
+  /**
+   * A mock evaluator, giving all keywords the same score and finishing the evaluations of a given
+   * number of pages in reverse order.
+   */
+  private static class ReversingEvaluator implements AsyncEvaluator {
+    private final int pageCount;
+    private final List<KeywordCollection> pages = new ArrayList<>();
+    private final List<CompletableFuture<KeywordCollection>> evaluations = new ArrayList<>();
+
+    private ReversingEvaluator(int pageCount) {
+      this.pageCount = pageCount;
+    }
+
+    @Override
+    public KeywordCollection evaluate(KeywordCollection keywords) {
+      KeywordCollection evaluations = new KeywordCollection(keywords.getCampaignConfiguration());
+      for (KeywordInfo keyword : keywords) {
+        evaluations.add(
+            new KeywordInfo(keyword.getKeyword(), keyword.getIdeaEstimate(), null, 1d));
+      }
+      return evaluations;
+    }
+
+    @Override
+    public synchronized CompletableFuture<KeywordCollection> evaluateAsync(
+        KeywordCollection keywords) {
+      CompletableFuture<KeywordCollection> evaluation = new CompletableFuture<>();
+      pages.add(keywords);
+      evaluations.add(evaluation);
+      if (pages.size() == pageCount) {
+        for (int i = pageCount - 1; i >= 0; i--) {
+          evaluations.get(i).complete(evaluate(pages.get(i)));
+        }
+      }
+      return evaluation;
+    }
+  }
+
+  /**
+   * A mock evaluator, finishing evaluations on another thread after a short delay, except for pages
+   * containing a given keyword, whose evaluation fails right away.
+   */
+  private static class DelayedEvaluator implements AsyncEvaluator {
+    private final String failingText;
+    private final List<CompletableFuture<KeywordCollection>> evaluations = new ArrayList<>();
+
+    private DelayedEvaluator(String failingText) {
+      this.failingText = failingText;
+    }
+
+    @Override
+    public KeywordCollection evaluate(KeywordCollection keywords) {
+      KeywordCollection evaluations = new KeywordCollection(keywords.getCampaignConfiguration());
+      for (KeywordInfo keyword : keywords) {
+        evaluations.add(
+            new KeywordInfo(keyword.getKeyword(), keyword.getIdeaEstimate(), null, 1d));
+      }
+      return evaluations;
+    }
+
+    @Override
+    public synchronized CompletableFuture<KeywordCollection> evaluateAsync(
+        KeywordCollection keywords) {
+      CompletableFuture<KeywordCollection> evaluation;
+      if (failingText != null
+          && keywords.contains(
+              KeywordOptimizerUtil.createKeyword(failingText, KeywordMatchType.EXACT))) {
+        evaluation = new CompletableFuture<>();
+        evaluation.completeExceptionally(new KeywordOptimizerException("Evaluation failed"));
+      } else {
+        evaluation =
+            CompletableFuture.supplyAsync(
+                () -> {
+                  try {
+                    Thread.sleep(100);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  }
+                  return evaluate(keywords);
+                });
+      }
+      evaluations.add(evaluation);
+      return evaluation;
+    }
+  }
+}
@@ -0,0 +1,168 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
+import com.google.api.ads.adwords.axis.v201809.o.MonthlySearchVolume;
+import com.google.api.ads.adwords.keywordoptimizer.formula.FormulaScoreCalculator;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test case for the {@link PreScoringAlternativesFinder} class.
+ */
+@RunWith(JUnit4.class)
+public class PreScoringAlternativesFinderTest {
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  private CampaignConfiguration campaignSettings;
+  private KeywordCollection seedKeywords;
+  private PagingAlternativesFinder alternativesFinder;
+
+  /**
+   * Setup some sample keywords.
+   */
+  @Before
+  public void setUp() {
+    campaignSettings = CampaignConfiguration.builder().build();
+    seedKeywords = new KeywordCollection(campaignSettings);
+    seedKeywords.add(createKeyword("plumbing", 500L));
+
+    KeywordCollection firstPage = new KeywordCollection(campaignSettings);
+    firstPage.add(createKeyword("plumber", 1000L));
+    firstPage.add(createKeyword("plumbing tools", 50L));
+    KeywordCollection secondPage = new KeywordCollection(campaignSettings);
+    secondPage.add(createKeyword("plumbing specialist", 200L));
+    secondPage.add(createKeyword("plumbing history", 10L));
+    alternativesFinder = new PagingAlternativesFinder(firstPage, secondPage);
+  }
+
+  /**
+   * Checks that alternatives scoring below the minimum are discarded.
+   */
+  @Test
+  public void checkUnpromisingAlternativesDiscarded() throws KeywordOptimizerException {
+    PreScoringAlternativesFinder finder =
+        new PreScoringAlternativesFinder(
+            alternativesFinder, new FormulaScoreCalculator("idea.searchVolume"), 100);
+
+    KeywordCollection alternatives = finder.derive(seedKeywords);
+    assertEquals(
+        ImmutableSet.of("plumber", "plumbing specialist"),
+        alternatives.getContainingKeywordTexts());
+  }
+
+  /**
+   * Checks that partial results are filtered and passed on separately.
+   */
+  @Test
+  public void checkPartialResultsFiltered() throws KeywordOptimizerException {
+    PreScoringAlternativesFinder finder =
+        new PreScoringAlternativesFinder(
+            alternativesFinder, new FormulaScoreCalculator("idea.monthlySearches1 * 2"), 150);
+
+    List<KeywordCollection> partialResults = new ArrayList<>();
+    KeywordCollection alternatives =
+        AsyncAdapters.await(finder.deriveAsync(seedKeywords, partialResults::add));
+
+    assertEquals(2, partialResults.size());
+    assertEquals(ImmutableSet.of("plumber"), partialResults.get(0).getContainingKeywordTexts());
+    assertEquals(
+        ImmutableSet.of("plumbing specialist"), partialResults.get(1).getContainingKeywordTexts());
+    assertEquals(
+        ImmutableSet.of("plumber", "plumbing specialist"),
+        alternatives.getContainingKeywordTexts());
+  }
+
+  /**
+   * Checks that an alternative that cannot be scored without a traffic estimate fails the request.
+   */
+  @Test
+  public void checkTrafficVariablesNotAvailable() throws KeywordOptimizerException {
+    PreScoringAlternativesFinder finder =
+        new PreScoringAlternativesFinder(
+            alternativesFinder, new FormulaScoreCalculator("mean.clicksPerDay"), 100);
+
+    thrown.expect(KeywordOptimizerException.class);
+    thrown.expectMessage("No such value: mean.clicksPerDay");
+    AsyncAdapters.await(finder.deriveAsync(seedKeywords, alternatives -> {}));
+  }
+
+  /**
+   * Creates an exact match keyword with the given search volume (also for the most recent month).
+   */
+  private static KeywordInfo createKeyword(String text, long searchVolume) {
+    IdeaEstimate ideaEstimate =
+        new IdeaEstimate(
+            0.5,
+            searchVolume,
+            KeywordOptimizerUtil.createMoney(1000000L),
+            new MonthlySearchVolume[] {new MonthlySearchVolume(2018, 9, searchVolume)});
+    return new KeywordInfo(
+        KeywordOptimizerUtil.createKeyword(text, KeywordMatchType.EXACT), ideaEstimate, null, null);
+  }
+
+  /**
+   * A mock alternatives finder, returning fixed pages of alternatives.
+   */
+  private static class PagingAlternativesFinder implements AsyncAlternativesFinder {
+    private final KeywordCollection[] pages;
+
+    private PagingAlternativesFinder(KeywordCollection... pages) {
+      this.pages = pages;
+    }
+
+    @Override
+    public KeywordCollection derive(KeywordCollection keywords) {
+      KeywordCollection alternatives = new KeywordCollection(keywords.getCampaignConfiguration());
+      for (KeywordCollection page : pages) {
+        for (KeywordInfo alternative : page) {
+          alternatives.add(alternative);
+        }
+      }
+      return alternatives;
+    }
+
+    @Override
+    public CompletableFuture<KeywordCollection> deriveAsync(KeywordCollection keywords) {
+      return CompletableFuture.completedFuture(derive(keywords));
+    }
+
+    @Override
+    public CompletableFuture<KeywordCollection> deriveAsync(
+        KeywordCollection keywords, Consumer<KeywordCollection> partialResultConsumer) {
+      return CompletableFuture.supplyAsync(
+          () -> {
+            for (KeywordCollection page : pages) {
+              partialResultConsumer.accept(page);
+            }
+            return derive(keywords);
+          });
+    }
+  }
+}
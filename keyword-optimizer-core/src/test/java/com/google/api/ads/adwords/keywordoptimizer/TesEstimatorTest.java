@@ -0,0 +1,274 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.ads.adwords.axis.v201809.cm.ApiException;
+import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
+import com.google.api.ads.adwords.axis.v201809.o.AdGroupEstimate;
+import com.google.api.ads.adwords.axis.v201809.o.AdGroupEstimateRequest;
+import com.google.api.ads.adwords.axis.v201809.o.CampaignEstimate;
+import com.google.api.ads.adwords.axis.v201809.o.KeywordEstimate;
+import com.google.api.ads.adwords.axis.v201809.o.KeywordEstimateRequest;
+import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
+import com.google.api.ads.adwords.axis.v201809.o.TrafficEstimatorResult;
+import com.google.api.ads.adwords.axis.v201809.o.TrafficEstimatorSelector;
+import com.google.api.ads.adwords.axis.v201809.o.TrafficEstimatorServiceInterface;
+import com.google.common.collect.ImmutableList;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test case for the {@link TesEstimator} class.
+ */
+@RunWith(JUnit4.class)
+public class TesEstimatorTest {
+  private KeywordCollection keywords;
+
+  /**
+   * Setup some sample keywords.
+   */
+  @Before
+  public void setUp() {
+    CampaignConfiguration campaignSettings =
+        CampaignConfiguration.builder()
+            .withMaxCpc(KeywordOptimizerUtil.createMoney(1000000L))
+            .build();
+
+    keywords = new KeywordCollection(campaignSettings);
+    for (String text : new String[] {"a", "bb", "ccc", "dddd", "eeeee"}) {
+      keywords.add(
+          new KeywordInfo(
+              KeywordOptimizerUtil.createKeyword(text, KeywordMatchType.EXACT),
+              IdeaEstimate.EMPTY_ESTIMATE,
+              null,
+              null));
+    }
+  }
+
+  /**
+   * Checks that keywords are split into batches and all estimates are merged.
+   */
+  @Test
+  public void checkBatches() throws KeywordOptimizerException {
+    FakeTrafficEstimatorService service = new FakeTrafficEstimatorService();
+    TesEstimator estimator =
+        new TesEstimator(ImmutableList.<TrafficEstimatorServiceInterface>of(service), 2);
+
+    KeywordCollection estimates = estimator.estimate(keywords);
+
+    assertEquals(3, service.requestCount.get());
+    assertEquals(2, service.maxRequestSize.get());
+    assertEquals(5, estimates.size());
+    for (KeywordInfo estimate : estimates) {
+      assertEquals(
+          estimate.getKeyword().getText().length(),
+          estimate.getTrafficEstimate().getMin().getClicksPerDay(),
+          0);
+    }
+  }
+
+  /**
+   * Checks that batches are sent in parallel if several services are given.
+   */
+  @Test
+  public void checkParallelBatches() throws KeywordOptimizerException {
+    // Both services have to be called at the same time in order to pass the barrier.
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    List<TrafficEstimatorServiceInterface> services =
+        ImmutableList.<TrafficEstimatorServiceInterface>of(
+            new FakeTrafficEstimatorService(barrier), new FakeTrafficEstimatorService(barrier));
+    TesEstimator estimator = new TesEstimator(services, 3);
+
+    KeywordCollection estimates = estimator.estimate(keywords);
+    assertEquals(5, estimates.size());
+  }
+
+  /**
+   * Checks that estimates for all bids of the bid grid are retrieved in a single request.
+   */
+  @Test
+  public void checkBidLandscape() throws KeywordOptimizerException {
+    CampaignConfiguration campaignSettings =
+        CampaignConfiguration.builder()
+            .withMaxCpc(KeywordOptimizerUtil.createMoney(1000000L))
+            .withBidGridCpc(KeywordOptimizerUtil.createMoney(2000000L))
+            .withBidGridCpc(KeywordOptimizerUtil.createMoney(3000000L))
+            .build();
+    KeywordCollection gridKeywords = new KeywordCollection(campaignSettings);
+    for (KeywordInfo keyword : keywords) {
+      gridKeywords.add(keyword);
+    }
+
+    FakeTrafficEstimatorService service = new FakeTrafficEstimatorService();
+    TesEstimator estimator =
+        new TesEstimator(ImmutableList.<TrafficEstimatorServiceInterface>of(service), 15);
+
+    KeywordCollection estimates = estimator.estimate(gridKeywords);
+
+    assertEquals(1, service.requestCount.get());
+    assertEquals(5, estimates.size());
+    for (KeywordInfo estimate : estimates) {
+      int length = estimate.getKeyword().getText().length();
+      List<TrafficEstimate> bidLandscape = estimate.getTrafficEstimate().getBidLandscape();
+      assertEquals(length, estimate.getTrafficEstimate().getMean().getClicksPerDay(), 0.01);
+      assertEquals(2, bidLandscape.size());
+      assertEquals(2 * length, bidLandscape.get(0).getMean().getClicksPerDay(), 0.01);
+      assertEquals(3 * length, bidLandscape.get(1).getMean().getClicksPerDay(), 0.01);
+    }
+
+    // The bid grid counts towards the batch size.
+    estimator = new TesEstimator(ImmutableList.<TrafficEstimatorServiceInterface>of(service), 6);
+    estimator.estimate(gridKeywords);
+    assertEquals(1 + 3, service.requestCount.get());
+  }
+
+  /**
+   * Checks that errors of the service are reported.
+   */
+  @Test
+  public void checkErrorReported() {
+    TrafficEstimatorServiceInterface service =
+        new TrafficEstimatorServiceInterface() {
+          @Override
+          public TrafficEstimatorResult get(TrafficEstimatorSelector selector)
+              throws ApiException {
+            throw new ApiException();
+          }
+        };
+    TesEstimator estimator = new TesEstimator(ImmutableList.of(service, service), 2);
+
+    try {
+      estimator.estimate(keywords);
+      fail("Expected a KeywordOptimizerException");
+    } catch (KeywordOptimizerException e) {
+      assertTrue(e.getCause() instanceof ApiException);
+    }
+  }
+
+  /**
+   * Checks that estimates can be retrieved asynchronously.
+   */
+  @Test
+  public void checkAsyncEstimate() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    FakeTrafficEstimatorService service =
+        new FakeTrafficEstimatorService() {
+          @Override
+          public TrafficEstimatorResult get(TrafficEstimatorSelector selector)
+              throws RemoteException {
+            try {
+              release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            return super.get(selector);
+          }
+        };
+    TesEstimator estimator =
+        new TesEstimator(ImmutableList.<TrafficEstimatorServiceInterface>of(service), 2);
+
+    CompletableFuture<KeywordCollection> estimates = estimator.estimateAsync(keywords);
+    assertFalse(estimates.isDone());
+
+    release.countDown();
+    assertEquals(5, estimates.get(10, TimeUnit.SECONDS).size());
+  }
+
+  /**
+   * Checks that no estimates are retrieved once the estimator is closed.
+   */
+  @Test
+  public void checkClosed() {
+    FakeTrafficEstimatorService service = new FakeTrafficEstimatorService();
+    TesEstimator estimator =
+        new TesEstimator(ImmutableList.<TrafficEstimatorServiceInterface>of(service), 2);
+    estimator.close();
+
+    try {
+      estimator.estimate(keywords);
+      fail("Expected a KeywordOptimizerException");
+    } catch (KeywordOptimizerException e) {
+      assertEquals(0, service.requestCount.get());
+    }
+  }
+
+  /**
+   * A fake traffic estimator service, returning as many clicks as the keyword text has characters,
+   * multiplied by the maximum CPC.
+   */
+  private static class FakeTrafficEstimatorService implements TrafficEstimatorServiceInterface {
+    private final CyclicBarrier barrier;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger maxRequestSize = new AtomicInteger();
+
+    private FakeTrafficEstimatorService() {
+      this(null);
+    }
+
+    private FakeTrafficEstimatorService(CyclicBarrier barrier) {
+      this.barrier = barrier;
+    }
+
+    @Override
+    public TrafficEstimatorResult get(TrafficEstimatorSelector selector) throws RemoteException {
+      if (barrier != null) {
+        try {
+          barrier.await(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+          throw new RemoteException("Requests were not sent in parallel", e);
+        }
+      }
+
+      AdGroupEstimateRequest[] adGroupRequests =
+          selector.getCampaignEstimateRequests()[0].getAdGroupEstimateRequests();
+      AdGroupEstimate[] adGroupEstimates = new AdGroupEstimate[adGroupRequests.length];
+      requestCount.incrementAndGet();
+
+      for (int adGroup = 0; adGroup < adGroupRequests.length; adGroup++) {
+        KeywordEstimateRequest[] requests = adGroupRequests[adGroup].getKeywordEstimateRequests();
+        double maxCpc = adGroupRequests[adGroup].getMaxCpc().getMicroAmount() / 1000000d;
+        maxRequestSize.accumulateAndGet(requests.length, Math::max);
+
+        KeywordEstimate[] keywordEstimates = new KeywordEstimate[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+          StatsEstimate stats = new StatsEstimate();
+          stats.setClicksPerDay((float) (requests[i].getKeyword().getText().length() * maxCpc));
+          keywordEstimates[i] = new KeywordEstimate(null, null, stats, stats);
+        }
+        adGroupEstimates[adGroup] = new AdGroupEstimate(null, null, keywordEstimates);
+      }
+
+      CampaignEstimate campaignEstimate = new CampaignEstimate();
+      campaignEstimate.setAdGroupEstimates(adGroupEstimates);
+      TrafficEstimatorResult result = new TrafficEstimatorResult();
+      result.setCampaignEstimates(new CampaignEstimate[] {campaignEstimate});
+      return result;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test cases for the {@link TinyLfuAdmission} class.
+ */
+@RunWith(JUnit4.class)
+public class TinyLfuAdmissionTest {
+
+  /**
+   * Check that frequencies are counted up to their maximum.
+   */
+  @Test
+  public void checkFrequency() {
+    TinyLfuAdmission<String> admission = new TinyLfuAdmission<>(1000);
+    assertEquals(0, admission.frequency("plumbing"));
+
+    for (int i = 0; i < 3; i++) {
+      admission.record("plumbing");
+    }
+    assertEquals(3, admission.frequency("plumbing"));
+    assertEquals(0, admission.frequency("plumber"));
+
+    for (int i = 0; i < 20; i++) {
+      admission.record("plumbing");
+    }
+    assertEquals(15, admission.frequency("plumbing"));
+  }
+
+  /**
+   * Check that frequencies are halved once enough keys have been recorded.
+   */
+  @Test
+  public void checkFrequencyAging() {
+    TinyLfuAdmission<String> admission = new TinyLfuAdmission<>(16);
+    for (int i = 0; i < 8; i++) {
+      admission.record("plumbing");
+    }
+
+    // The sample size is ten times the table size of 16.
+    for (int i = 0; i < 160; i++) {
+      admission.record("keyword " + i);
+    }
+    assertTrue(admission.frequency("plumbing") <= 4);
+  }
+
+  /**
+   * Check that new keys are only admitted if they are more frequent than the last victim.
+   */
+  @Test
+  public void checkAdmission() {
+    TinyLfuAdmission<String> admission = new TinyLfuAdmission<>(1000);
+    admission.record("plumbing");
+    admission.record("plumbing");
+    admission.record("plumber");
+    assertTrue(admission.admit("plumber"));
+
+    admission.onRemoval(RemovalNotification.create("plumbing", null, RemovalCause.SIZE));
+    assertFalse(admission.admit("plumber"));
+    assertTrue(admission.admit("plumbing"));
+
+    admission.record("plumber");
+    admission.record("plumber");
+    assertTrue(admission.admit("plumber"));
+
+    // Expired entries make room, so anything is admitted again.
+    admission.onRemoval(RemovalNotification.create("plumber", null, RemovalCause.SIZE));
+    assertFalse(admission.admit("plumbing"));
+    admission.onRemoval(RemovalNotification.create("emergency", null, RemovalCause.EXPIRED));
+    assertTrue(admission.admit("plumbing"));
+  }
+}
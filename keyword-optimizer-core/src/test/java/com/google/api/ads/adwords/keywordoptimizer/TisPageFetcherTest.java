@@ -0,0 +1,197 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.ads.adwords.axis.v201809.cm.ApiException;
+import com.google.api.ads.adwords.axis.v201809.o.AttributeType;
+import com.google.api.ads.adwords.axis.v201809.o.LongAttribute;
+import com.google.api.ads.adwords.axis.v201809.o.StringAttribute;
+import com.google.api.ads.adwords.axis.v201809.o.TargetingIdea;
+import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaPage;
+import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaSelector;
+import com.google.api.ads.adwords.axis.v201809.o.TargetingIdeaServiceInterface;
+import com.google.api.ads.adwords.axis.v201809.o.Type_AttributeMapEntry;
+import com.google.common.collect.ImmutableList;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test case for the {@link TisPageFetcher} class.
+ */
+@RunWith(JUnit4.class)
+public class TisPageFetcherTest {
+  // Results in 4 pages, the last one repeating an idea of the first page.
+  private static final int IDEA_COUNT = 350;
+
+  /**
+   * Checks that all pages are retrieved and merged in page order, keeping the first occurrence of
+   * repeated ideas.
+   */
+  @Test
+  public void checkPagesMerged() throws KeywordOptimizerException {
+    FakeTargetingIdeaService service = new FakeTargetingIdeaService(null);
+    TisPageFetcher pageFetcher = new TisPageFetcher(ImmutableList.of(service));
+
+    final List<Integer> pageSizes = new ArrayList<>();
+    TargetingIdeaSelector selector = new TargetingIdeaSelector();
+    Map<String, IdeaEstimate> keywordsAndEstimates =
+        pageFetcher.fetch(selector, page -> pageSizes.add(page.size()));
+
+    assertEquals(4, service.requestCount.get());
+    assertEquals(ImmutableList.of(100, 100, 100, 49), pageSizes);
+    assertEquals(IDEA_COUNT - 1, keywordsAndEstimates.size());
+    assertEquals(0L, keywordsAndEstimates.get("idea 0").getSearchVolume());
+
+    int i = 0;
+    for (String keywordText : keywordsAndEstimates.keySet()) {
+      assertEquals("idea " + i++, keywordText);
+    }
+    assertNull(selector.getPaging());
+  }
+
+  /**
+   * Checks that the pages after the first one are retrieved in parallel, still merging them in page
+   * order.
+   */
+  @Test
+  public void checkParallelPages() throws KeywordOptimizerException {
+    // All remaining pages have to be requested at the same time to pass the barrier.
+    CyclicBarrier barrier = new CyclicBarrier(3);
+    FakeTargetingIdeaService service = new FakeTargetingIdeaService(barrier);
+    TisPageFetcher pageFetcher = new TisPageFetcher(ImmutableList.of(service, service, service));
+
+    Map<String, IdeaEstimate> keywordsAndEstimates =
+        pageFetcher.fetch(new TargetingIdeaSelector());
+
+    assertEquals(4, service.requestCount.get());
+    int i = 0;
+    for (String keywordText : keywordsAndEstimates.keySet()) {
+      assertEquals("idea " + i++, keywordText);
+    }
+  }
+
+  /**
+   * Checks that an error while retrieving a page is reported.
+   */
+  @Test
+  public void checkErrorReported() {
+    TisPageFetcher pageFetcher =
+        new TisPageFetcher(
+            ImmutableList.<TargetingIdeaServiceInterface>of(
+                new FakeTargetingIdeaService(null) {
+                  @Override
+                  public TargetingIdeaPage get(TargetingIdeaSelector selector)
+                      throws RemoteException, ApiException {
+                    if (selector.getPaging().getStartIndex() > 0) {
+                      throw new ApiException();
+                    }
+                    return super.get(selector);
+                  }
+                }));
+
+    try {
+      pageFetcher.fetch(new TargetingIdeaSelector());
+      fail("Expected the retrieval to fail");
+    } catch (KeywordOptimizerException e) {
+      assertTrue(e.getCause() instanceof ApiException);
+    }
+  }
+
+  /**
+   * Checks that the remaining pages are not retrieved once the fetcher is closed.
+   */
+  @Test
+  public void checkClosed() {
+    FakeTargetingIdeaService service = new FakeTargetingIdeaService(null);
+    TisPageFetcher pageFetcher = new TisPageFetcher(ImmutableList.of(service));
+    pageFetcher.close();
+
+    try {
+      pageFetcher.fetch(new TargetingIdeaSelector());
+      fail("Expected the retrieval to fail");
+    } catch (KeywordOptimizerException e) {
+      assertEquals(1, service.requestCount.get());
+    }
+  }
+
+  /**
+   * A fake targeting idea service returning numbered ideas, with a search volume of the page index.
+   */
+  private static class FakeTargetingIdeaService implements TargetingIdeaServiceInterface {
+    private final CyclicBarrier barrier;
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    private FakeTargetingIdeaService(CyclicBarrier barrier) {
+      this.barrier = barrier;
+    }
+
+    @Override
+    public TargetingIdeaPage get(TargetingIdeaSelector selector)
+        throws RemoteException, ApiException {
+      requestCount.incrementAndGet();
+      int offset = selector.getPaging().getStartIndex();
+      int count = selector.getPaging().getNumberResults();
+
+      if (barrier != null && offset > 0) {
+        try {
+          barrier.await(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+          throw new IllegalStateException("Pages were not requested in parallel", e);
+        }
+      }
+
+      List<TargetingIdea> entries = new ArrayList<>();
+      for (int i = offset; i < Math.min(offset + count, IDEA_COUNT); i++) {
+        // The last idea repeats the first one.
+        int ideaIndex = i == IDEA_COUNT - 1 ? 0 : i;
+        entries.add(createTargetingIdea("idea " + ideaIndex, offset / count));
+      }
+
+      TargetingIdeaPage page = new TargetingIdeaPage();
+      page.setEntries(entries.toArray(new TargetingIdea[] {}));
+      page.setTotalNumEntries(IDEA_COUNT);
+      return page;
+    }
+
+    private static TargetingIdea createTargetingIdea(String keywordText, long searchVolume) {
+      StringAttribute keyword = new StringAttribute();
+      keyword.setValue(keywordText);
+
+      LongAttribute searchVolumeAttribute = new LongAttribute();
+      searchVolumeAttribute.setValue(searchVolume);
+
+      TargetingIdea idea = new TargetingIdea();
+      idea.setData(
+          new Type_AttributeMapEntry[] {
+            new Type_AttributeMapEntry(AttributeType.KEYWORD_TEXT, keyword),
+            new Type_AttributeMapEntry(AttributeType.SEARCH_VOLUME, searchVolumeAttribute)
+          });
+      return idea;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright 2016 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.api.ads.adwords.keywordoptimizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.Metric;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns.Statistics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test cases for the {@link TrafficEstimate} class.
+ */
+@RunWith(JUnit4.class)
+public class TrafficEstimateTest {
+
+  /**
+   * Check that the given statistics are returned unchanged.
+   */
+  @Test
+  public void checkStatistics() {
+    StatsEstimate min =
+        new StatsEstimate(
+            KeywordOptimizerUtil.createMoney(1234567L),
+            2.5,
+            0.05,
+            10.3F,
+            200.7F,
+            KeywordOptimizerUtil.createMoney(98765432L));
+    StatsEstimate max = new StatsEstimate();
+    max.setClicksPerDay(20.1F);
+
+    TrafficEstimate estimate = new TrafficEstimate(min, max);
+
+    assertEquals(min, estimate.getMin());
+    assertEquals(max, estimate.getMax());
+    assertEquals(KeywordOptimizerUtil.calculateMean(min, max), estimate.getMean());
+  }
+
+  /**
+   * Check that single values are returned like the values of the statistics.
+   */
+  @Test
+  public void checkValues() {
+    StatsEstimate min = new StatsEstimate();
+    min.setAverageCpc(KeywordOptimizerUtil.createMoney(1500001L));
+    min.setClicksPerDay(10.3F);
+    StatsEstimate max = new StatsEstimate();
+    max.setAverageCpc(KeywordOptimizerUtil.createMoney(2000000L));
+    max.setClicksPerDay(20.1F);
+
+    TrafficEstimate estimate = new TrafficEstimate(min, max);
+
+    assertEquals(1.500001, estimate.getValue(Statistics.MIN, Metric.AVERAGE_CPC), 0);
+    assertEquals(1.75, estimate.getValue(Statistics.MEAN, Metric.AVERAGE_CPC), 0);
+    assertEquals(20.1F, estimate.getValue(Statistics.MAX, Metric.CLICKS_PER_DAY), 0);
+    assertTrue(Double.isNaN(estimate.getValue(Statistics.MIN, Metric.TOTAL_COST)));
+    for (Statistics statistics : Statistics.values()) {
+      for (Metric metric : Metric.values()) {
+        assertEquals(
+            metric.getValue(statistics.getStats(estimate)),
+            estimate.getValue(statistics, metric),
+            0);
+      }
+    }
+  }
+
+  /**
+   * Check that missing statistics are reported as such.
+   */
+  @Test
+  public void checkMissingStatistics() {
+    StatsEstimate stats = new StatsEstimate();
+    stats.setClicksPerDay(10F);
+
+    TrafficEstimate estimate = new TrafficEstimate(stats, null, stats);
+
+    assertTrue(estimate.hasStatistics(Statistics.MIN));
+    assertFalse(estimate.hasStatistics(Statistics.MEAN));
+    assertNull(estimate.getMean());
+    assertTrue(Double.isNaN(estimate.getValue(Statistics.MEAN, Metric.CLICKS_PER_DAY)));
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.api.ads.adwords.keywordoptimizer.formula;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test case for the {@link FormulaCache} class.
+ */
+@RunWith(JUnit4.class)
+public class FormulaCacheTest {
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  /**
+   * Checks that formulas differing only in whitespace and comments share a compiled formula.
+   */
+  @Test
+  public void testSharedCompiledFormula() throws FormulaException {
+    CompiledFormula formula = FormulaCache.getCompiledFormula("mean.clicksPerDay*2");
+
+    assertSame(formula, FormulaCache.getCompiledFormula("mean.clicksPerDay*2"));
+    assertSame(formula, FormulaCache.getCompiledFormula(" mean.clicksPerDay \t* 2\n"));
+    assertSame(formula, FormulaCache.getCompiledFormula("mean.clicksPerDay /* clicks */ * 2"));
+    assertNotSame(formula, FormulaCache.getCompiledFormula("mean.clicksPerDay*3"));
+  }
+
+  /**
+   * Checks that normalizing a formula drops whitespace and comments only.
+   */
+  @Test
+  public void testNormalize() {
+    assertEquals("( 3 + x ) * 2", FormulaCache.normalize(" (3+x)*2 // doubled\n"));
+    assertNotEquals(FormulaCache.normalize("1 2"), FormulaCache.normalize("12"));
+  }
+
+  /**
+   * Checks that invalid formulas are reported as such.
+   */
+  @Test
+  public void testInvalidFormula() throws FormulaException {
+    thrown.expect(FormulaException.class);
+    thrown.expectMessage("Invalid formula: (3+8");
+    FormulaCache.getCompiledFormula("(3+8");
+  }
+
+  /**
+   * Checks that invalid tokens are reported as invalid formulas.
+   */
+  @Test
+  public void testInvalidToken() throws FormulaException {
+    thrown.expect(FormulaException.class);
+    thrown.expectMessage("Invalid formula: %");
+    FormulaCache.getCompiledFormula("%");
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer.formula;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.ads.adwords.keywordoptimizer.KeywordOptimizerException;
+import com.google.common.collect.ImmutableList;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test case for the {@link FormulaCompiler} class.
+ */
+@RunWith(JUnit4.class)
+public class FormulaCompilerTest {
+
+  private static FormulaContext context;
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  /**
+   * Sets up the context with example variables.
+   */
+  @BeforeClass
+  public static void setUp() {
+    context = new FormulaContext(null);
+    context.setValue("test", 3);
+    context.setValue("zero", 0);
+    context.setValue("mean.clicksPerDay", 12.5);
+    context.setValue("unknown", Double.NaN);
+  }
+
+  /**
+   * Checks that compiled formulas calculate the same values as the syntax tree.
+   */
+  @Test
+  public void testSameValuesAsSyntaxTree() throws KeywordOptimizerException {
+    checkSameValue("1");
+    checkSameValue("2.5");
+    checkSameValue("test");
+    checkSameValue("3+8");
+    checkSameValue("3-8-1");
+    checkSameValue("3+4*2");
+    checkSameValue("(3+4)*2");
+    checkSameValue("3+test*2");
+    checkSameValue("(3+test*2)/2");
+    checkSameValue("mean.clicksPerDay/test/2");
+    checkSameValue("test/zero");
+    checkSameValue("unknown*2+test");
+    checkSameValue("test-mean.clicksPerDay*(test+1)/(zero+4)");
+  }
+
+  /**
+   * Checks that each variable is assigned one slot, in order of its first occurrence.
+   */
+  @Test
+  public void testVariableSlots() throws KeywordOptimizerException {
+    CompiledFormula formula = FormulaCompiler.compile("test*mean.clicksPerDay+test/zero");
+
+    assertEquals(ImmutableList.of("test", "mean.clicksPerDay", "zero"), formula.getVariables());
+    assertEquals(1, formula.getSlot("mean.clicksPerDay"));
+    assertEquals(-1, formula.getSlot("unknown"));
+    assertEquals(2 * 10 + 2 / 4.0, formula.evaluate(new double[] {2, 10, 4}), 0);
+  }
+
+  /**
+   * Checks that formulas evaluated over columns calculate the same values for each row.
+   */
+  @Test
+  public void testColumns() throws KeywordOptimizerException {
+    CompiledFormula formula = FormulaCompiler.compile("(test-zero*2)/zero+1");
+    double[][] columns = {{1, 2, 3, Double.NaN}, {4, 0, 0.5, 1}};
+
+    double[] values = formula.evaluate(columns, 4);
+    assertEquals(4, values.length);
+    for (int i = 0; i < values.length; i++) {
+      double expectedValue = formula.evaluate(new double[] {columns[0][i], columns[1][i]});
+      assertEquals(expectedValue, values[i], 0);
+    }
+    assertTrue(Double.isNaN(values[1]));
+
+    // The result never is one of the given columns.
+    double[] column = {1, 2};
+    double[] result = FormulaCompiler.compile("test").evaluate(new double[][] {column}, 2);
+    assertNotSame(column, result);
+    assertArrayEquals(column, result, 0);
+  }
+
+  /**
+   * Checks that an undefined variable is reported.
+   */
+  @Test
+  public void testUndefinedVariable() throws KeywordOptimizerException {
+    thrown.expect(FormulaException.class);
+    thrown.expectMessage("No such value: missing");
+    FormulaCompiler.compile("test+missing").evaluate(context);
+  }
+
+  /**
+   * Checks that an unsupported operator is reported when compiling the formula.
+   */
+  @Test
+  public void testUnknownOperator() throws KeywordOptimizerException {
+    thrown.expect(FormulaException.class);
+    thrown.expectMessage("Unknown operator: %");
+    FormulaCompiler.compile("test%2");
+  }
+
+  /**
+   * Compiles and evaluates a formula and compares the result with the one of the syntax tree.
+   */
+  private void checkSameValue(String formula) throws KeywordOptimizerException {
+    ASTExpression expression = FormulaScoreCalculator.parseExpression(formula);
+    double expectedValue = expression.calculateScore(context);
+    CompiledFormula compiledFormula = FormulaCompiler.compile(expression);
+    double actualValue = compiledFormula.evaluate(context);
+    assertEquals(formula, expectedValue, actualValue, 0);
+
+    double[][] columns = new double[compiledFormula.getVariables().size()][];
+    for (int i = 0; i < columns.length; i++) {
+      double value = context.getValue(compiledFormula.getVariables().get(i));
+      columns[i] = new double[] {value, value};
+    }
+    assertArrayEquals(
+        formula, new double[] {expectedValue, expectedValue}, compiledFormula.evaluate(columns, 2),
+        0);
+  }
+}
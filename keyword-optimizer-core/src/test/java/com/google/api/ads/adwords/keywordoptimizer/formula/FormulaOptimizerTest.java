@@ -0,0 +1,180 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.api.ads.adwords.keywordoptimizer.formula;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.ads.adwords.keywordoptimizer.KeywordOptimizerException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test case for the {@link FormulaOptimizer} class.
+ */
+@RunWith(JUnit4.class)
+public class FormulaOptimizerTest {
+
+  // Values of the variables a, b and c, including special values.
+  private static final double[] VALUES = {
+    3, -2.5, 0, -0.0, 1e308, Double.MIN_VALUE, Double.POSITIVE_INFINITY, Double.NaN
+  };
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  /**
+   * Checks that constant subexpressions are folded.
+   */
+  @Test
+  public void testConstantFolding() throws KeywordOptimizerException {
+    assertConstant(14, "(3+4)*2");
+    assertConstant(0.5, "1/2");
+    assertConstant(-5, "3-8-0.0");
+    assertConstant(Double.NaN, "1/(2-2)");
+
+    Node node = optimize("2*3*a*1");
+    assertTrue(node instanceof ASTMult);
+    assertEquals(2, node.jjtGetNumChildren());
+    assertEquals(6, ((ASTDouble) node.jjtGetChild(0)).getValue(), 0);
+  }
+
+  /**
+   * Checks that divisions by powers of two are turned into multiplications.
+   */
+  @Test
+  public void testDivisionByConstant() throws KeywordOptimizerException {
+    // The quotient of a single operand only replaces an infinite value by NaN.
+    ASTMult quotient = (ASTMult) optimize("a/4");
+    assertEquals("/", quotient.getOperator());
+    assertEquals(1, quotient.jjtGetNumChildren());
+    ASTMult product = (ASTMult) quotient.jjtGetChild(0);
+    assertEquals("*", product.getOperator());
+    assertEquals(0.25, ((ASTDouble) product.jjtGetChild(1)).getValue(), 0);
+
+    // Dividing by 3 is not exactly the same as multiplying by 1/3.
+    quotient = (ASTMult) optimize("a/3");
+    assertEquals("/", quotient.getOperator());
+    assertEquals(2, quotient.jjtGetNumChildren());
+  }
+
+  /**
+   * Checks that nested operations are flattened as far as the order of evaluation is kept.
+   */
+  @Test
+  public void testFlattening() throws KeywordOptimizerException {
+    assertEquals(3, optimize("(a+b)+c").jjtGetNumChildren());
+    assertEquals(3, optimize("((a*b))*c").jjtGetNumChildren());
+    assertEquals(2, optimize("a+(b+c)").jjtGetNumChildren());
+    assertEquals(2, optimize("(a-b)+c").jjtGetNumChildren());
+  }
+
+  /**
+   * Checks that equal subexpressions are represented by the same node.
+   */
+  @Test
+  public void testSharedSubexpressions() throws KeywordOptimizerException {
+    Node node = optimize("(a*b+c)/(a*b-c)");
+    Node dividend = node.jjtGetChild(0);
+    Node divisor = node.jjtGetChild(1);
+    assertSame(dividend.jjtGetChild(0), divisor.jjtGetChild(0));
+    assertSame(dividend.jjtGetChild(1), divisor.jjtGetChild(1));
+
+    CompiledFormula formula = FormulaCompiler.compile("(a*b+c)/(a*b-c)");
+    assertEquals(4, formula.getFrameSize());
+    assertEquals((2 * 3 + 4) / (2 * 3 - 4.0), formula.evaluate(new double[] {2, 3, 4}), 0);
+    double[] values = formula.evaluate(new double[][] {{2, 1}, {3, 1}, {4, 1}}, 2);
+    assertEquals((2 * 3 + 4) / (2 * 3 - 4.0), values[0], 0);
+    assertTrue(Double.isNaN(values[1]));
+  }
+
+  /**
+   * Checks that the optimized formulas calculate exactly the same values as the original ones.
+   */
+  @Test
+  public void testSameValues() throws KeywordOptimizerException {
+    String[] formulas = {
+      "(3+4)*2+a",
+      "a+0.0+b-0.0",
+      "0.0-a",
+      "a*1/1",
+      "a/4/0.5",
+      "(a/b)/4",
+      "2*a/8",
+      "(a+b)+(c-a)-(a+b)",
+      "((a-b)-c)*(a-b)",
+      "a*b*(a*b)/(c/2)",
+      "1/a*(1/a)+b",
+    };
+    for (String formula : formulas) {
+      ASTExpression expression = FormulaScoreCalculator.parseExpression(formula);
+      ASTExpression optimizedExpression = FormulaOptimizer.optimize(expression);
+      CompiledFormula compiledFormula = FormulaCompiler.compile(expression);
+      for (double a : VALUES) {
+        for (double b : VALUES) {
+          for (double c : VALUES) {
+            FormulaContext context = new FormulaContext(null);
+            context.setValue("a", a);
+            context.setValue("b", b);
+            context.setValue("c", c);
+
+            double expectedValue = expression.calculateScore(context);
+            String message = formula + " for " + a + ", " + b + ", " + c;
+            assertBitwiseEquals(
+                message, expectedValue, optimizedExpression.calculateScore(context));
+            assertBitwiseEquals(message, expectedValue, compiledFormula.evaluate(context));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks that an unsupported operator is reported.
+   */
+  @Test
+  public void testUnknownOperator() throws KeywordOptimizerException {
+    thrown.expect(FormulaException.class);
+    thrown.expectMessage("Unknown operator: %");
+    optimize("a%2");
+  }
+
+  /**
+   * Optimizes the given formula and returns the root of its optimized expression.
+   */
+  private static Node optimize(String formula) throws KeywordOptimizerException {
+    return FormulaOptimizer.optimize(FormulaScoreCalculator.parseExpression(formula))
+        .jjtGetChild(0);
+  }
+
+  /**
+   * Checks that the given formula is optimized into the given constant.
+   */
+  private static void assertConstant(double expectedValue, String formula)
+      throws KeywordOptimizerException {
+    Node node = optimize(formula);
+    assertTrue(formula, node instanceof ASTDouble);
+    assertBitwiseEquals(formula, expectedValue, ((ASTDouble) node).getValue());
+  }
+
+  private static void assertBitwiseEquals(String message, double expected, double actual) {
+    assertEquals(
+        message, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+  }
+}
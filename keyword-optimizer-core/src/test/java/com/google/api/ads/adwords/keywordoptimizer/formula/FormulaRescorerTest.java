@@ -0,0 +1,108 @@
+// Copyright 2017 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.api.ads.adwords.keywordoptimizer.formula;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
+import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.CampaignConfiguration;
+import com.google.api.ads.adwords.keywordoptimizer.IdeaEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.KeywordCollection;
+import com.google.api.ads.adwords.keywordoptimizer.KeywordInfo;
+import com.google.api.ads.adwords.keywordoptimizer.KeywordOptimizerException;
+import com.google.api.ads.adwords.keywordoptimizer.KeywordOptimizerUtil;
+import com.google.api.ads.adwords.keywordoptimizer.TrafficEstimate;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test case for the {@link FormulaRescorer} class.
+ */
+@RunWith(JUnit4.class)
+public class FormulaRescorerTest {
+
+  /**
+   * Checks that the keywords are ranked under each formula independently.
+   */
+  @Test
+  public void testRescore() throws KeywordOptimizerException {
+    KeywordCollection estimates =
+        new KeywordCollection(
+            CampaignConfiguration.builder()
+                .withMaxCpc(KeywordOptimizerUtil.createMoney(1000000L))
+                .build());
+    estimates.add(createInfo("plumbing", 10F, 300L));
+    estimates.add(createInfo("plumber", 20F, 200L));
+    estimates.add(createInfo("plumbing specialist", 30F, 100L));
+    estimates.add(
+        new KeywordInfo(
+            KeywordOptimizerUtil.createKeyword("pipes", KeywordMatchType.EXACT),
+            IdeaEstimate.EMPTY_ESTIMATE,
+            null,
+            null));
+
+    FormulaRescorer rescorer =
+        new FormulaRescorer(ImmutableList.of("mean.clicksPerDay", "mean.impressionsPerDay"));
+    Map<String, KeywordCollection> results = rescorer.rescore(estimates, 2);
+
+    assertEquals(
+        ImmutableList.of("mean.clicksPerDay", "mean.impressionsPerDay"),
+        ImmutableList.copyOf(results.keySet()));
+
+    List<KeywordInfo> byClicks = results.get("mean.clicksPerDay").getListSortedByScore();
+    assertEquals(2, byClicks.size());
+    assertEquals("plumbing specialist", byClicks.get(0).getKeyword().getText());
+    assertEquals(30, byClicks.get(0).getScore(), 0);
+    assertEquals("plumber", byClicks.get(1).getKeyword().getText());
+
+    List<KeywordInfo> byImpressions =
+        results.get("mean.impressionsPerDay").getListSortedByScore();
+    assertEquals(2, byImpressions.size());
+    assertEquals("plumbing", byImpressions.get(0).getKeyword().getText());
+    assertEquals(300, byImpressions.get(0).getScore(), 0);
+    assertEquals("plumber", byImpressions.get(1).getKeyword().getText());
+
+    // The given estimates are not modified.
+    for (KeywordInfo estimate : estimates) {
+      assertTrue(estimate.getScore() == null);
+    }
+  }
+
+  /**
+   * Checks that an invalid formula is rejected when creating the rescorer.
+   */
+  @Test(expected = FormulaException.class)
+  public void testInvalidFormula() throws KeywordOptimizerException {
+    new FormulaRescorer(ImmutableList.of("mean.clicksPerDay", "3+"));
+  }
+
+  private static KeywordInfo createInfo(String text, float clicks, long impressions) {
+    StatsEstimate stats = new StatsEstimate();
+    stats.setClicksPerDay(clicks);
+    stats.setImpressionsPerDay((float) impressions);
+    return new KeywordInfo(
+        KeywordOptimizerUtil.createKeyword(text, KeywordMatchType.EXACT),
+        IdeaEstimate.EMPTY_ESTIMATE,
+        new TrafficEstimate(stats, stats),
+        null);
+  }
+}
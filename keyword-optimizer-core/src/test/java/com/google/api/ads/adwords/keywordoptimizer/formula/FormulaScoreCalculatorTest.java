@@ -15,9 +15,24 @@
 package com.google.api.ads.adwords.keywordoptimizer.formula;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import com.google.api.ads.adwords.axis.v201809.cm.KeywordMatchType;
+import com.google.api.ads.adwords.axis.v201809.o.MonthlySearchVolume;
+import com.google.api.ads.adwords.axis.v201809.o.StatsEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.EstimateColumns;
+import com.google.api.ads.adwords.keywordoptimizer.IdeaEstimate;
+import com.google.api.ads.adwords.keywordoptimizer.KeywordInfo;
 import com.google.api.ads.adwords.keywordoptimizer.KeywordOptimizerException;
+import com.google.api.ads.adwords.keywordoptimizer.KeywordOptimizerUtil;
 import com.google.api.ads.adwords.keywordoptimizer.SimpleSeedGenerator;
+import com.google.api.ads.adwords.keywordoptimizer.TrafficEstimate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
@@ -111,6 +126,224 @@ public class FormulaScoreCalculatorTest {
     checkParseFormula("");
   }
   
+  /**
+   * Checks that the statistics of a bid landscape are available as variables.
+   */
+  @Test
+  public void testBidLandscapeVariables() throws KeywordOptimizerException {
+    TrafficEstimate estimate =
+        new TrafficEstimate(
+            createStats(10),
+            createStats(15),
+            createStats(20),
+            ImmutableList.of(
+                new TrafficEstimate(createStats(4), createStats(6)),
+                new TrafficEstimate(createStats(30), createStats(40))));
+
+    FormulaScoreCalculator calculator =
+        new FormulaScoreCalculator("bid2.mean.clicksPerDay - bid1.min.clicksPerDay");
+    assertEquals(31, calculator.calculate(estimate), 0.01);
+
+    // There is no third bid in the landscape.
+    thrown.expect(FormulaException.class);
+    thrown.expectMessage("No such value: bid3.mean.clicksPerDay");
+    new FormulaScoreCalculator("bid3.mean.clicksPerDay").calculate(estimate);
+  }
+
+  /**
+   * Checks that the calculator reads the same values as the {@link FormulaContext} for all
+   * statistics of an estimate.
+   */
+  @Test
+  public void testSameValuesAsContext() throws KeywordOptimizerException {
+    StatsEstimate min = createStats(10);
+    min.setAverageCpc(KeywordOptimizerUtil.createMoney(1500000L));
+    min.setAveragePosition(2.5);
+    min.setClickThroughRate(0.05);
+    min.setImpressionsPerDay(200F);
+    StatsEstimate max = createStats(20);
+    max.setTotalCost(KeywordOptimizerUtil.createMoney(30000000L));
+    TrafficEstimate estimate =
+        new TrafficEstimate(
+            min,
+            KeywordOptimizerUtil.calculateMean(min, max),
+            max,
+            ImmutableList.of(new TrafficEstimate(createStats(4), createStats(6))));
+
+    FormulaContext estimateContext = new FormulaContext(estimate);
+    for (String prefix : new String[] {"", "bid1."}) {
+      for (String statistics : new String[] {"min", "mean", "max"}) {
+        for (String metric :
+            new String[] {
+              "averageCpc", "averagePosition", "clickThroughRate", "clicksPerDay",
+              "impressionsPerDay", "totalCost"
+            }) {
+          String name = prefix + statistics + "." + metric;
+          assertEquals(
+              name,
+              estimateContext.getValue(name),
+              new FormulaScoreCalculator(name).calculate(estimate),
+              0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks that scoring a whole population at once gives the same scores as scoring each estimate.
+   */
+  @Test
+  public void testCalculateAll() throws KeywordOptimizerException {
+    List<TrafficEstimate> estimates = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      StatsEstimate min = createStats(i);
+      min.setAverageCpc(KeywordOptimizerUtil.createMoney(1000000L * i));
+      StatsEstimate max = createStats(2 * i + 1);
+      estimates.add(
+          new TrafficEstimate(
+              min,
+              KeywordOptimizerUtil.calculateMean(min, max),
+              max,
+              ImmutableList.of(new TrafficEstimate(createStats(i), createStats(i + 2)))));
+    }
+
+    FormulaScoreCalculator calculator =
+        new FormulaScoreCalculator(
+            "(max.clicksPerDay - bid1.mean.clicksPerDay) / min.averageCpc + 2 * mean.clicksPerDay");
+    double[] scores = calculator.calculateAll(new EstimateColumns(estimates));
+    assertEquals(estimates.size(), scores.length);
+    for (int i = 0; i < scores.length; i++) {
+      assertEquals(calculator.calculate(estimates.get(i)), scores[i], 0);
+    }
+
+    // Not all estimates have a second bid.
+    thrown.expect(FormulaException.class);
+    thrown.expectMessage("No such value: bid2.mean.clicksPerDay");
+    new FormulaScoreCalculator("bid2.mean.clicksPerDay")
+        .calculateAll(new EstimateColumns(estimates));
+  }
+
+  /**
+   * Checks that mean values read from an estimate whose mean statistics have not been calculated
+   * are exactly the values of the calculated mean statistics.
+   */
+  @Test
+  public void testLazyMean() throws KeywordOptimizerException {
+    StatsEstimate min = createStats(10.3F);
+    min.setAverageCpc(KeywordOptimizerUtil.createMoney(1500001L));
+    min.setAveragePosition(2.5);
+    min.setClickThroughRate(0.05);
+    min.setImpressionsPerDay(200.7F);
+    StatsEstimate max = createStats(20.1F);
+    max.setAverageCpc(KeywordOptimizerUtil.createMoney(2000000L));
+    max.setAveragePosition(1.25);
+    max.setImpressionsPerDay(300.2F);
+
+    TrafficEstimate calculatedMean =
+        new TrafficEstimate(min, KeywordOptimizerUtil.calculateMean(min, max), max);
+    for (EstimateColumns.Metric metric : EstimateColumns.Metric.values()) {
+      String name = "mean." + metric.getName();
+      FormulaScoreCalculator calculator = new FormulaScoreCalculator(name);
+      assertEquals(ImmutableSet.of(name), calculator.getRequiredVariables());
+
+      TrafficEstimate lazyMean = new TrafficEstimate(min, max);
+      double expectedValue = calculator.calculate(calculatedMean);
+      assertEquals(name, expectedValue, calculator.calculate(lazyMean), 0);
+      assertEquals(
+          name,
+          expectedValue,
+          calculator.calculateAll(new EstimateColumns(ImmutableList.of(lazyMean)))[0],
+          0);
+      assertEquals(name, expectedValue, metric.getValue(lazyMean.getMean()), 0);
+    }
+  }
+
+  /**
+   * Checks that the metrics of an idea estimate are available as variables, also for keywords
+   * without a traffic estimate.
+   */
+  @Test
+  public void testIdeaVariables() throws KeywordOptimizerException {
+    IdeaEstimate ideaEstimate =
+        new IdeaEstimate(
+            0.25,
+            1000L,
+            KeywordOptimizerUtil.createMoney(2500000L),
+            new MonthlySearchVolume[] {
+              new MonthlySearchVolume(2018, 11, 900L),
+              new MonthlySearchVolume(2019, 1, 1200L),
+              new MonthlySearchVolume(2018, 12, 1100L)
+            });
+    KeywordInfo keyword =
+        new KeywordInfo(
+            KeywordOptimizerUtil.createKeyword("plumbing", KeywordMatchType.EXACT),
+            ideaEstimate,
+            null,
+            null);
+
+    FormulaContext ideaContext = new FormulaContext(ideaEstimate, null);
+    for (String name :
+        new String[] {
+          "idea.searchVolume", "idea.competition", "idea.averageCpc", "idea.monthlySearches1",
+          "idea.monthlySearches2", "idea.monthlySearches3"
+        }) {
+      assertEquals(
+          name,
+          ideaContext.getValue(name),
+          new FormulaScoreCalculator(name).calculate(keyword),
+          0);
+    }
+    assertEquals(2.5, ideaContext.getValue("idea.averageCpc"), 0);
+    assertEquals(1200, ideaContext.getValue("idea.monthlySearches1"), 0);
+    assertEquals(900, ideaContext.getValue("idea.monthlySearches3"), 0);
+
+    FormulaScoreCalculator calculator =
+        new FormulaScoreCalculator("idea.searchVolume * (1 - idea.competition)");
+    assertEquals(750, calculator.calculate(keyword), 0);
+
+    // Months without data are unknown, also when evaluating formulas in a context.
+    assertTrue(
+        Double.isNaN(new FormulaScoreCalculator("idea.monthlySearches4").calculate(keyword)));
+    assertTrue(ideaContext.hasValue("idea.monthlySearches4"));
+    assertTrue(
+        Double.isNaN(FormulaCompiler.compile("idea.monthlySearches4").evaluate(ideaContext)));
+    assertFalse(new FormulaContext(null, null).hasValue("idea.monthlySearches4"));
+
+    // Idea estimates are known when scoring columns of keywords.
+    TrafficEstimate estimate = new TrafficEstimate(createStats(10), createStats(20));
+    assertEquals(
+        1015,
+        new FormulaScoreCalculator("idea.searchVolume + mean.clicksPerDay")
+            .calculateAll(
+                new EstimateColumns(
+                    ImmutableList.of(estimate), Collections.singletonList(ideaEstimate)))[0],
+        0);
+
+    // There is no idea estimate for a traffic estimate only.
+    thrown.expect(FormulaException.class);
+    thrown.expectMessage("No such value: idea.searchVolume");
+    calculator.calculate(estimate);
+  }
+
+  /**
+   * Checks that a variable which is never set is reported when creating the calculator.
+   */
+  @Test
+  public void testUnknownVariable() throws KeywordOptimizerException {
+    thrown.expect(FormulaException.class);
+    thrown.expectMessage("No such value: mean.conversions");
+    new FormulaScoreCalculator("mean.clicksPerDay + mean.conversions");
+  }
+
+  /**
+   * Creates statistics with the given number of clicks per day.
+   */
+  private static StatsEstimate createStats(float clicksPerDay) {
+    StatsEstimate stats = new StatsEstimate();
+    stats.setClicksPerDay(clicksPerDay);
+    return stats;
+  }
+
   /**
    * Attempt to parse a given formula into an AST, convert it back to a string and compare it with
    * the original input. 